@@ -113,6 +113,39 @@
 
     Slice.defineSequence(chat, "AudioSeqHelper", "chat.AudioInfo", false);
 
+    Slice.defineSequence(chat, "AudioChunkHelper", "Ice.ByteHelper", true);
+
+    chat.MessagePage = class
+    {
+        constructor(messages = null, nextCursor = new Ice.Long(0, 0), hasMore = false)
+        {
+            this.messages = messages;
+            this.nextCursor = nextCursor;
+            this.hasMore = hasMore;
+        }
+
+        _write(ostr)
+        {
+            chat.MessageSeqHelper.write(ostr, this.messages);
+            ostr.writeLong(this.nextCursor);
+            ostr.writeBool(this.hasMore);
+        }
+
+        _read(istr)
+        {
+            this.messages = chat.MessageSeqHelper.read(istr);
+            this.nextCursor = istr.readLong();
+            this.hasMore = istr.readBool();
+        }
+
+        static get minWireSize()
+        {
+            return  10;
+        }
+    };
+
+    Slice.defineStruct(chat.MessagePage, true, true);
+
     chat.UserInfo = class
     {
         constructor(name = "", online = false)
@@ -176,6 +209,51 @@
 
     Slice.defineSequence(chat, "GroupSeqHelper", "chat.GroupInfo", false);
 
+    chat.InboxEntry = class
+    {
+        constructor(conversation = "", isGroup = false, lastSequence = new Ice.Long(0, 0), lastTimestamp = new Ice.Long(0, 0), lastFrom = "", preview = "", unread = 0)
+        {
+            this.conversation = conversation;
+            this.isGroup = isGroup;
+            this.lastSequence = lastSequence;
+            this.lastTimestamp = lastTimestamp;
+            this.lastFrom = lastFrom;
+            this.preview = preview;
+            this.unread = unread;
+        }
+
+        _write(ostr)
+        {
+            ostr.writeString(this.conversation);
+            ostr.writeBool(this.isGroup);
+            ostr.writeLong(this.lastSequence);
+            ostr.writeLong(this.lastTimestamp);
+            ostr.writeString(this.lastFrom);
+            ostr.writeString(this.preview);
+            ostr.writeInt(this.unread);
+        }
+
+        _read(istr)
+        {
+            this.conversation = istr.readString();
+            this.isGroup = istr.readBool();
+            this.lastSequence = istr.readLong();
+            this.lastTimestamp = istr.readLong();
+            this.lastFrom = istr.readString();
+            this.preview = istr.readString();
+            this.unread = istr.readInt();
+        }
+
+        static get minWireSize()
+        {
+            return  24;
+        }
+    };
+
+    Slice.defineStruct(chat.InboxEntry, true, true);
+
+    Slice.defineSequence(chat, "InboxSeqHelper", "chat.InboxEntry", false);
+
     chat.UserException = class extends Ice.UserException
     {
         constructor(message = "", _cause = "")
@@ -241,6 +319,10 @@
         [
             chat.UserException
         ], , ],
+        "getPrivateHistoryPage": [, , , , ["chat.MessagePage"], [[7], [7], [4], [3]], ,
+        [
+            chat.UserException
+        ], , ],
         "sendGroupMessage": [, , , , [1], [[7], [7], [7]], ,
         [
             chat.UserException
@@ -249,6 +331,18 @@
         [
             chat.UserException
         ], , ],
+        "getGroupHistoryPage": [, , , , ["chat.MessagePage"], [[7], [4], [3]], ,
+        [
+            chat.UserException
+        ], , ],
+        "getHistoryRange": [, , , , ["chat.MessageSeqHelper"], [[7], [7], [1], [4], [4]], ,
+        [
+            chat.UserException
+        ], , ],
+        "searchMessages": [, , , , ["chat.MessageSeqHelper"], [[7], [7], [3]], ,
+        [
+            chat.UserException
+        ], , ],
         "createGroup": [, , , , [1], [[7], [7], ["chat.StringSeqHelper"]], ,
         [
             chat.UserException
@@ -269,6 +363,14 @@
         [
             chat.UserException
         ], , ],
+        "getInbox": [, 2, 2, , ["chat.InboxSeqHelper"], [[7]], ,
+        [
+            chat.UserException
+        ], , ],
+        "ackUpTo": [, 2, 2, , [1], [[7], [7], [4]], ,
+        [
+            chat.UserException
+        ], , ],
         "sendAudio": [, , , , [1], [[7], [7], [7], [3], [3]], ,
         [
             chat.UserException
@@ -285,6 +387,10 @@
         [
             chat.UserException
         ], , ],
+        "getAudioChunk": [, 2, 2, , ["chat.AudioChunkHelper"], [[7], [4], [3]], ,
+        [
+            chat.UserException
+        ], , ],
         "getOnlineUsers": [, , , , ["chat.StringSeqHelper"], , ,
         [
             chat.UserException
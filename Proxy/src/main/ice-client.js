@@ -119,6 +119,50 @@ class IceClient {
     }
   }
 
+  async getPrivateHistoryPage(username, target, before = 0, limit = 0) {
+    try {
+      const page = await this.proxy.getPrivateHistoryPage(username, target, new Ice.Long(before), limit);
+ console.log(`Página de historial privado obtenida: ${target} (${page.messages.length} mensajes)`);
+      return page;
+    } catch (err) {
+ console.error(`Error al obtener página de historial: ${err.message}`);
+      throw err;
+    }
+  }
+
+  async getGroupHistoryPage(groupName, before = 0, limit = 0) {
+    try {
+      const page = await this.proxy.getGroupHistoryPage(groupName, new Ice.Long(before), limit);
+ console.log(`Página de historial de grupo obtenida: ${groupName} (${page.messages.length} mensajes)`);
+      return page;
+    } catch (err) {
+ console.error(`Error al obtener página de historial de grupo: ${err.message}`);
+      throw err;
+    }
+  }
+
+  async getHistoryRange(username, target, isGroup, fromTs, toTs) {
+    try {
+      const messages = await this.proxy.getHistoryRange(username, target, isGroup, new Ice.Long(fromTs), new Ice.Long(toTs));
+ console.log(`Historial por fechas obtenido: ${target} (${messages.length} mensajes)`);
+      return messages;
+    } catch (err) {
+ console.error(`Error al obtener historial por fechas: ${err.message}`);
+      throw err;
+    }
+  }
+
+  async searchMessages(username, query, limit = 0) {
+    try {
+      const messages = await this.proxy.searchMessages(username, query, limit);
+ console.log(`Búsqueda de ${username}: "${query}" (${messages.length} resultados)`);
+      return messages;
+    } catch (err) {
+ console.error(`Error al buscar mensajes: ${err.message}`);
+      throw err;
+    }
+  }
+
   async createGroup(groupName, creator, members = []) {
     try {
       const result = await this.proxy.createGroup(groupName, creator, members);
@@ -163,6 +207,35 @@ class IceClient {
     }
   }
 
+  async getInbox(username) {
+    try {
+      const entries = await this.proxy.getInbox(username);
+ console.log(`Bandeja obtenida: ${username} (${entries.length} conversaciones)`);
+      // Los long de Ice pasan a números para que salgan bien en JSON
+      return entries.map((entry) => ({
+        conversation: entry.conversation,
+        isGroup: entry.isGroup,
+        lastSequence: entry.lastSequence.toNumber(),
+        lastTimestamp: entry.lastTimestamp.toNumber(),
+        lastFrom: entry.lastFrom,
+        preview: entry.preview,
+        unread: entry.unread,
+      }));
+    } catch (err) {
+ console.error(`Error al obtener la bandeja: ${err.message}`);
+      throw err;
+    }
+  }
+
+  async ackUpTo(username, conversation, seq) {
+    try {
+      return await this.proxy.ackUpTo(username, conversation, new Ice.Long(seq));
+    } catch (err) {
+ console.error(`Error al enviar el acuse: ${err.message}`);
+      throw err;
+    }
+  }
+
   async getGroupMembers(groupName) {
     try {
       const members = await this.proxy.getGroupMembers(groupName);
@@ -218,6 +291,16 @@ class IceClient {
     }
   }
 
+  // Tramo de un audio (Uint8Array); vacío al pasar el final
+  async getAudioChunk(audioId, offset, length) {
+    try {
+      return await this.proxy.getAudioChunk(audioId, new Ice.Long(offset), length);
+    } catch (err) {
+ console.error(`Error al leer tramo de audio: ${err.message}`);
+      throw err;
+    }
+  }
+
   async getOnlineUsers() {
     try {
       const users = await this.proxy.getOnlineUsers();
@@ -10,12 +10,33 @@ import cors from "cors";
 import path from "path";
 import { fileURLToPath } from "url";
 import fs from "fs";
+import crypto from "crypto";
 import { WebSocketServer } from "ws";
 import IceClient from "./ice-client.js";
 
 const __filename = fileURLToPath(import.meta.url);
 const __dirname = path.dirname(__filename);
 
+const AUDIO_DIR = path.join(__dirname, "..", "..", "ServidorJava", "data", "audio");
+
+// Misma ruta que ShardLayout en el servidor: data/audio/3f/a2/audio_123.audio
+// (dos niveles con los primeros bytes del SHA-1 del nombre)
+function audioPath(audioId) {
+    const name = `${audioId}.audio`;
+    const hex = crypto.createHash("sha1").update(name, "utf8").digest("hex");
+    return path.join(AUDIO_DIR, hex.substring(0, 2), hex.substring(2, 4), name);
+}
+
+// Los audios viejos pueden seguir en la raíz hasta que el servidor los migre
+function findAudioFile(audioId) {
+    const sharded = audioPath(audioId);
+    if (fs.existsSync(sharded)) {
+        return sharded;
+    }
+    const flat = path.join(AUDIO_DIR, `${audioId}.audio`);
+    return fs.existsSync(flat) ? flat : null;
+}
+
 console.log("╔════════════════════════════════════════╗");
 console.log("║ PROXY ICE - SERVIDOR DE CHAT ║");
 console.log("╚════════════════════════════════════════╝");
@@ -79,6 +100,9 @@ const WS_PORT = 8080;
 
 let iceClient = null;
 const connectedUsers = new Map(); // username -> WebSocket
+// Acuses de lectura que esperan la próxima ventana: "usuario\0conversación" -> el más alto
+const pendingAcks = new Map();
+const ACK_WINDOW_MS = 250;
 const userSessions = new Map(); // username -> session data
 
 /**
@@ -300,11 +324,9 @@ app.post("/api/sendAudio", async (req, res) => {
         // Generar ID único para el audio
         const audioId = "audio_" + Date.now() + "_" + Math.random().toString(36).substring(7);
         
-        // Guardar archivo de audio
-        const audioDir = path.join(__dirname, "..", "..", "ServidorJava", "data", "audio");
-        if (!fs.existsSync(audioDir)) {
-            fs.mkdirSync(audioDir, { recursive: true });
-        }
+        // Guardar archivo de audio en su subdirectorio
+        const audioFile = audioPath(audioId);
+        fs.mkdirSync(path.dirname(audioFile), { recursive: true });
 
         // Decodificar Base64 si es necesario
         let audioBuffer;
@@ -315,7 +337,6 @@ app.post("/api/sendAudio", async (req, res) => {
             audioBuffer = audio_data;
         }
 
-        const audioFile = path.join(audioDir, `${audioId}.audio`);
         fs.writeFileSync(audioFile, audioBuffer);
         
  console.log(`💾 Audio guardado: ${audioFile} (${audioBuffer.length} bytes)`);
@@ -380,7 +401,7 @@ app.post("/api/sendAudio", async (req, res) => {
 
 app.get("/api/history/:target", async (req, res) => {
     const { target } = req.params;
-    const { username, isGroup } = req.query;
+    const { username, isGroup, before, limit, from, to } = req.query;
 
     if (!username || !target) {
         return res.status(400).json({ ok: false, error: "Faltan parámetros" });
@@ -388,21 +409,62 @@ app.get("/api/history/:target", async (req, res) => {
 
     try {
         const isGroupBool = isGroup === "true";
-        let messages = [];
-        
-        if (isGroupBool) {
-            messages = await iceClient.getGroupHistory(target);
-        } else {
-            messages = await iceClient.getPrivateHistory(username, target);
+
+        // "from"/"to" (milisegundos) piden un rango de fechas usando el índice de tiempo
+        if (from !== undefined || to !== undefined) {
+            const fromTs = parseInt(from, 10) || 0;
+            const toTs = to !== undefined ? parseInt(to, 10) : Date.now();
+            const messages = await iceClient.getHistoryRange(username, target, isGroupBool, fromTs, toTs);
+            return res.json({ ok: true, messages: messages });
         }
 
-        res.json({ ok: true, messages: messages });
+        // Sin "before" ni "limit" se mantiene la respuesta anterior con el historial completo
+        if (before === undefined && limit === undefined) {
+            let messages = [];
+
+            if (isGroupBool) {
+                messages = await iceClient.getGroupHistory(target);
+            } else {
+                messages = await iceClient.getPrivateHistory(username, target);
+            }
+
+            return res.json({ ok: true, messages: messages });
+        }
+
+        const beforeSeq = parseInt(before, 10) || 0;
+        const pageSize = parseInt(limit, 10) || 0;
+        const page = isGroupBool
+            ? await iceClient.getGroupHistoryPage(target, beforeSeq, pageSize)
+            : await iceClient.getPrivateHistoryPage(username, target, beforeSeq, pageSize);
+
+        res.json({
+            ok: true,
+            messages: page.messages,
+            nextCursor: page.nextCursor.toNumber(),
+            hasMore: page.hasMore
+        });
     } catch (err) {
  console.error("Error getting history:", err.message);
         res.status(500).json({ ok: false, error: err.message });
     }
 });
 
+app.get("/api/search", async (req, res) => {
+    const { username, q, limit } = req.query;
+
+    if (!username || !q) {
+        return res.status(400).json({ ok: false, error: "Faltan parámetros" });
+    }
+
+    try {
+        const messages = await iceClient.searchMessages(username, q, parseInt(limit, 10) || 0);
+        res.json({ ok: true, messages: messages });
+    } catch (err) {
+ console.error("Error searching messages:", err.message);
+        res.status(500).json({ ok: false, error: err.message });
+    }
+});
+
 app.get("/api/groups/:username", async (req, res) => {
     const { username } = req.params;
 
@@ -419,6 +481,105 @@ app.get("/api/groups/:username", async (req, res) => {
     }
 });
 
+// Lista de chats: último mensaje y no leídos de cada conversación en una sola llamada
+app.get("/api/inbox/:username", async (req, res) => {
+    const { username } = req.params;
+
+    if (!username) {
+        return res.status(400).json({ ok: false, error: "Falta username" });
+    }
+
+    try {
+        const inbox = await iceClient.getInbox(username);
+        res.json({ ok: true, inbox: inbox });
+    } catch (err) {
+ console.error("Error getting inbox:", err.message);
+        res.status(500).json({ ok: false, error: err.message });
+    }
+});
+
+// Acuse de lectura: "leí hasta seq" en la conversación (otro usuario o grupo)
+app.post("/api/ack", (req, res) => {
+    const { username, conversation, isGroup, seq } = req.body;
+
+    if (!username || !conversation || !(seq > 0)) {
+        return res.status(400).json({ ok: false, error: "Faltan parámetros" });
+    }
+
+    queueAck(username, conversation, isGroup === true || isGroup === "true", seq);
+    res.json({ ok: true });
+});
+
+/**
+ * Junta los acuses de una ventana: por usuario y conversación queda sólo la secuencia más
+ * alta, así que un cliente que acusa cada mensaje que muestra genera una llamada Ice por
+ * ventana y no una por mensaje.
+ */
+function queueAck(username, conversation, isGroup, seq) {
+    const key = `${username}\0${conversation}`;
+    const pending = pendingAcks.get(key);
+    if (pending) {
+        pending.seq = Math.max(pending.seq, Number(seq));
+    } else {
+        pendingAcks.set(key, { username, conversation, isGroup, seq: Number(seq) });
+    }
+    if (pendingAcks.size === 1 && !pending) {
+        setTimeout(flushAcks, ACK_WINDOW_MS);
+    }
+}
+
+/**
+ * Manda los acuses juntados al servidor y avisa por WebSocket a los remitentes: un solo
+ * mensaje "receipts" por usuario con todo lo que cambió en la ventana.
+ */
+async function flushAcks() {
+    const acks = [...pendingAcks.values()];
+    pendingAcks.clear();
+    if (!iceClient) {
+        return;
+    }
+
+    const byRecipient = new Map();
+    const notify = (recipient, receipt) => {
+        if (recipient !== receipt.reader && connectedUsers.has(recipient)) {
+            if (!byRecipient.has(recipient)) {
+                byRecipient.set(recipient, []);
+            }
+            byRecipient.get(recipient).push(receipt);
+        }
+    };
+
+    for (const ack of acks) {
+        try {
+            if (!(await iceClient.ackUpTo(ack.username, ack.conversation, ack.seq))) {
+                continue;
+            }
+            const receipt = {
+                conversation: ack.isGroup ? ack.conversation : ack.username,
+                isGroup: ack.isGroup,
+                reader: ack.username,
+                read: ack.seq,
+            };
+            if (ack.isGroup) {
+                for (const member of await iceClient.getGroupMembers(ack.conversation)) {
+                    notify(member, receipt);
+                }
+            } else {
+                notify(ack.conversation, receipt);
+            }
+        } catch (err) {
+ console.error("Error sending ack:", err.message);
+        }
+    }
+
+    for (const [recipient, receipts] of byRecipient) {
+        const ws = connectedUsers.get(recipient);
+        if (ws && ws.readyState === 1) {
+            ws.send(JSON.stringify({ type: "receipts", receipts: receipts }));
+        }
+    }
+}
+
 app.get("/api/onlineUsers", async (req, res) => {
     try {
         // Ignorar el parámetro username si viene en query o en la URL
@@ -453,9 +614,9 @@ app.get("/api/audio/:audioId", (req, res) => {
     const { audioId } = req.params;
 
     try {
-        const audioFile = path.join(__dirname, "..", "..", "ServidorJava", "data", "audio", `${audioId}.audio`);
+        const audioFile = findAudioFile(audioId);
         
-        if (!fs.existsSync(audioFile)) {
+        if (!audioFile) {
             return res.status(404).json({ ok: false, error: "Audio no encontrado" });
         }
 
@@ -471,6 +632,43 @@ app.get("/api/audio/:audioId", (req, res) => {
     }
 });
 
+// Audio en bytes, por tramos de getAudioChunk: admite Range para reproducir mientras descarga y saltar
+const AUDIO_CHUNK_BYTES = 256 * 1024;
+
+app.get("/api/audio/:audioId/stream", async (req, res) => {
+    const { audioId } = req.params;
+    const range = /^bytes=(\d+)-(\d*)$/.exec(req.headers.range || "");
+    let offset = range ? parseInt(range[1], 10) : 0;
+    let end = range && range[2] ? parseInt(range[2], 10) : Infinity;
+
+    try {
+        let chunk = await iceClient.getAudioChunk(audioId, offset, Math.min(AUDIO_CHUNK_BYTES, end - offset + 1));
+        res.status(range ? 206 : 200);
+        res.set("Content-Type", "application/octet-stream");
+        res.set("Accept-Ranges", "bytes");
+        if (range) {
+            // Un rango abierto se responde con un solo tramo; el navegador pide el siguiente.
+            // El tamaño total no se conoce sin leer hasta el final
+            end = Math.min(end, offset + chunk.length - 1);
+            res.set("Content-Range", `bytes ${offset}-${end}/*`);
+        }
+        while (chunk.length > 0 && offset <= end) {
+            res.write(Buffer.from(chunk.buffer, chunk.byteOffset, chunk.length));
+            offset += chunk.length;
+            if (offset > end) break;
+            chunk = await iceClient.getAudioChunk(audioId, offset, Math.min(AUDIO_CHUNK_BYTES, end - offset + 1));
+        }
+        res.end();
+    } catch (err) {
+ console.error("Error streaming audio:", err.message);
+        if (!res.headersSent) {
+            res.status(404).json({ ok: false, error: err.message });
+        } else {
+            res.end();
+        }
+    }
+});
+
 // Servir archivos estáticos
 const webClientPath = path.resolve(__dirname, "..", "..", "..", "Web-Client");
 console.log(" Sirviendo archivos desde:", webClientPath);
@@ -515,6 +713,8 @@ wss.on("connection", (ws, req) => {
                     ok: true,
                     username: username,
                 }));
+            } else if (data.type === "ack" && username && data.conversation && data.seq > 0) {
+                queueAck(username, data.conversation, data.isGroup === true, data.seq);
             }
         } catch (err) {
  console.error("Error procesando WebSocket:", err.message);
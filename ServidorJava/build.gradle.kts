@@ -1,6 +1,7 @@
 plugins {
     id("java")
     id("application")
+    id("me.champeau.jmh") version "0.7.2"
 }
 
 group = "chat"
@@ -14,6 +15,9 @@ dependencies {
     // Ice dependencies
     implementation("com.zeroc:ice:3.7.10")
     implementation("com.zeroc:icestorm:3.7.10")
+
+    // Backend clave-valor opcional del historial (-Dchat.history.store=mvstore)
+    implementation("com.h2database:h2-mvstore:2.2.224")
     
     // Testing dependencies
     testImplementation(platform("org.junit:junit-bom:5.10.0"))
@@ -29,6 +33,14 @@ tasks.withType<JavaCompile> {
     options.encoding = "UTF-8"
 }
 
+// Microbenchmarks en src/jmh/java: ./gradlew jmh (filtrar con -Pjmh.includes=NombreDelBenchmark)
+jmh {
+    val includesFilter = project.findProperty("jmh.includes")?.toString()
+    if (includesFilter != null) {
+        includes.set(listOf(includesFilter))
+    }
+}
+
 application {
     mainClass.set("ui.MainServer")
 }
@@ -0,0 +1,113 @@
+package network;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Comandos TCP por milisegundo con {@code connections} conexiones mandando a la vez. Cada
+ * comando espera {@code ioMicros} (lo que tarda la E/S de guardar o leer historial) y hace un
+ * poco de CPU.
+ *
+ * {@code global} repite lo de antes: un hilo por conexión y cada comando bajo el monitor del
+ * servidor, así que todos los comandos de todos los usuarios van de a uno. {@code serial} es lo
+ * de ahora: {@link SerialExecutor} con la conexión como clave sobre un pool de
+ * {@code WORKERS} hilos; los comandos de una conexión siguen en orden (el benchmark lo verifica)
+ * y los de conexiones distintas se solapan.
+ *
+ *   ./gradlew jmh -Pjmh.includes=CommandContentionBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandContentionBenchmark {
+    private static final int WORKERS = 8;
+    private static final int COMMANDS_PER_CONNECTION = 20;
+
+    @Param({"global", "serial"})
+    public String mode;
+
+    @Param({"4", "32"})
+    public int connections;
+
+    @Param({"50"})
+    public int ioMicros;
+
+    private ExecutorService pool;
+    private SerialExecutor<Integer> serial;
+    private final Object monitor = new Object();
+    private long[] nextExpected;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        pool = Executors.newFixedThreadPool(mode.equals("serial") ? WORKERS : connections);
+        serial = new SerialExecutor<>(pool, Integer.MAX_VALUE);
+        nextExpected = new long[connections];
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() {
+        pool.shutdownNow();
+    }
+
+    // Lo que hace un comando: esperar la E/S y algo de CPU; además comprueba el orden por conexión
+    private long command(int connection, long sequence) {
+        if (nextExpected[connection] != sequence) {
+            throw new IllegalStateException("Conexión " + connection + ": llegó " + sequence + " y se esperaba "
+                    + nextExpected[connection]);
+        }
+        nextExpected[connection] = sequence + 1;
+        LockSupport.parkNanos(ioMicros * 1000L);
+        long hash = sequence;
+        for (int i = 0; i < 200; i++) {
+            hash = hash * 31 + i;
+        }
+        return hash;
+    }
+
+    /**
+     * Una ronda: cada conexión manda {@code COMMANDS_PER_CONNECTION} comandos. El resultado está
+     * por ronda; comandos por ms = resultado × conexiones × COMMANDS_PER_CONNECTION.
+     */
+    @Benchmark
+    public void round() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(connections * COMMANDS_PER_CONNECTION);
+        if (mode.equals("global")) {
+            // Un lector por conexión que entrega sus comandos en orden al callback synchronized
+            for (int c = 0; c < connections; c++) {
+                int connection = c;
+                long first = nextExpected[connection];
+                pool.execute(() -> {
+                    for (int i = 0; i < COMMANDS_PER_CONNECTION; i++) {
+                        synchronized (monitor) {
+                            command(connection, first + i);
+                        }
+                        done.countDown();
+                    }
+                });
+            }
+        } else {
+            // El lector (hilo del reactor) sólo encola; el orden por conexión lo da el SerialExecutor.
+            // Los números se toman antes de encolar: los workers ya van avanzando nextExpected
+            long[] first = nextExpected.clone();
+            for (int i = 0; i < COMMANDS_PER_CONNECTION; i++) {
+                for (int c = 0; c < connections; c++) {
+                    int connection = c;
+                    long sequence = first[connection] + i;
+                    serial.execute(connection, () -> {
+                        command(connection, sequence);
+                        done.countDown();
+                    });
+                }
+            }
+        }
+        done.await();
+    }
+}
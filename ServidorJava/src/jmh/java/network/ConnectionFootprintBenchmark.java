@@ -0,0 +1,202 @@
+package network;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.management.ManagementFactory;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cuánto cuesta tener abiertas {@code connections} conexiones TCP inactivas, cada una con su
+ * {@link TCPConnection} y su hilo lector bloqueado en el socket, con hilos de plataforma o
+ * virtuales, o todas atendidas por {@link NioReactor} ({@code nio}: sin hilo por conexión). El
+ * tiempo es el de abrirlas todas; los contadores, lo que quedan ocupando:
+ *
+ *   heapBytesPerConnection  heap vivo después de un GC (búferes y, con hilos virtuales, sus pilas)
+ *   rssBytesPerConnection   memoria residente del proceso (incluye las pilas nativas de los hilos
+ *                           de plataforma); sólo en Linux, -1 en otros sistemas
+ *   platformThreads         hilos del sistema operativo vivos con las conexiones abiertas
+ *
+ * Los hilos virtuales necesitan Java 21; con una JVM anterior el caso {@code virtual} falla.
+ * Con miles de conexiones puede hacer falta subir el límite de archivos abiertos (ulimit -n).
+ *
+ *   ./gradlew jmh -Pjmh.includes=ConnectionFootprintBenchmark
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+// Los contadores EVENTS se suman entre iteraciones: una sola medición para leerlos tal cual
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ConnectionFootprintBenchmark {
+
+    @Param({"platform", "virtual", "nio"})
+    public String threads;
+
+    @Param({"1000", "5000"})
+    public int connections;
+
+    /**
+     * Las conexiones de una medición y lo que ocupan. Las mediciones de memoria (con sus GC) se
+     * hacen antes y después de cada invocación, fuera del tiempo medido.
+     */
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    @State(Scope.Thread)
+    public static class Footprint {
+        public long heapBytesPerConnection;
+        public long rssBytesPerConnection;
+        public long platformThreads;
+
+        private final List<Socket> clients = new ArrayList<>();
+        private final List<TCPConnection> accepted = new ArrayList<>();
+        private long heapBefore;
+        private long rssBefore;
+
+        @Setup(Level.Invocation)
+        public void baseline() throws IOException, InterruptedException {
+            heapBefore = usedHeap();
+            rssBefore = residentBytes();
+        }
+
+        @TearDown(Level.Invocation)
+        public void measureAndClose() throws IOException, InterruptedException {
+            int connections = clients.size();
+            heapBytesPerConnection = (usedHeap() - heapBefore) / connections;
+            rssBytesPerConnection = rssBefore < 0 ? -1 : (residentBytes() - rssBefore) / connections;
+            platformThreads = ManagementFactory.getThreadMXBean().getThreadCount();
+            for (TCPConnection connection : accepted) {
+                connection.disconnect();
+            }
+            for (Socket client : clients) {
+                client.close();
+            }
+            accepted.clear();
+            clients.clear();
+            // Que los lectores terminen antes de la próxima medición
+            Thread.sleep(200);
+        }
+    }
+
+    private static final class IdleListener implements TCPConnectionListener {
+        volatile CountDownLatch ready;
+
+        @Override
+        public void onConnectionReady(TCPConnection connection) {
+            ready.countDown();
+        }
+
+        @Override
+        public void onReceiveObject(TCPConnection connection, Object message) {
+        }
+
+        @Override
+        public void onDisconnect(TCPConnection connection) {
+        }
+
+        @Override
+        public void onException(TCPConnection connection, Exception e) {
+        }
+    }
+
+    private final IdleListener listener = new IdleListener();
+    private ServerSocket server;
+    private ThreadFactory readers;
+    private NioReactor reactor;
+    private int port;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        if (threads.equals("virtual") && !Threads.virtualAvailable()) {
+            throw new IllegalStateException("Esta JVM no tiene hilos virtuales (Java 21+)");
+        }
+        if (threads.equals("nio")) {
+            try (ServerSocket free = new ServerSocket(0)) {
+                port = free.getLocalPort();
+            }
+            reactor = new NioReactor(listener);
+            Thread acceptor = new Thread(() -> {
+                try {
+                    reactor.serve(port);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }, "bench-acceptor");
+            acceptor.setDaemon(true);
+            acceptor.start();
+            return;
+        }
+        readers = Threads.forMode(threads.equals("virtual"), "bench-reader-");
+        server = new ServerSocket(0, connections, InetAddress.getLoopbackAddress());
+        port = server.getLocalPort();
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        if (reactor != null) {
+            reactor.close();
+        } else {
+            server.close();
+        }
+    }
+
+    @Benchmark
+    public void hold(Footprint footprint) throws Exception {
+        listener.ready = new CountDownLatch(connections);
+        for (int i = 0; i < connections; i++) {
+            footprint.clients.add(connect());
+            if (reactor == null) {
+                footprint.accepted.add(new TCPConnection(server.accept(), listener, readers));
+            }
+        }
+        // Todas registradas: los lectores bloqueados en readLine o las conexiones en el selector
+        listener.ready.await();
+    }
+
+    private Socket connect() throws IOException, InterruptedException {
+        // El reactor abre el puerto en su propio hilo: reintentar mientras no esté escuchando
+        for (int attempt = 0; ; attempt++) {
+            try {
+                return new Socket(InetAddress.getLoopbackAddress(), port);
+            } catch (ConnectException e) {
+                if (attempt == 50) {
+                    throw e;
+                }
+                Thread.sleep(20);
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    // VmRSS de /proc/self/status, en bytes; -1 fuera de Linux
+    private static long residentBytes() throws IOException {
+        Path status = Path.of("/proc/self/status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("\\D", "")) * 1024;
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,138 @@
+package persistence;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Compara los dos backends de {@link MessageStore} con las operaciones que hace
+ * {@link ChatHistory}: agregar un mensaje, un lote con fsync (lo que hace {@link HistoryWriter}),
+ * la última página, una página más vieja, un rango de tiempo y un recorrido completo.
+ *
+ * Cada conversación se llena con {@code records} mensajes en el setup; las escrituras de las
+ * mediciones se suman a esas, igual en los dos backends.
+ *
+ *   ./gradlew jmh -Pjmh.includes=MessageStoreBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MessageStoreBenchmark {
+    private static final int CONVERSATIONS = 100;
+    private static final int PAGE = 50;
+    private static final long START = 1_700_000_000_000L;
+
+    @Param({"file", "mvstore"})
+    public String backend;
+
+    @Param({"10000"})
+    public int records;
+
+    private File root;
+    private MessageStore store;
+    private final List<MessageLog> logs = new ArrayList<>();
+    private long timestamp;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("store-bench").toFile();
+        FileMessageStore files = new FileMessageStore(new ShardLayout(new File(root, "history")), null,
+                1024 * 1024, 64, MessageStoreBenchmark::timestampOf);
+        store = backend.equals("mvstore")
+                ? new MVStoreMessageStore(new File(root, "kv/history.mv.db"), null, 64, MessageStoreBenchmark::timestampOf)
+                : files;
+
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            MessageLog log = store.open("group_g" + c);
+            logs.add(log);
+            List<byte[]> batch = new ArrayList<>();
+            for (int r = 0; r < records; r++) {
+                batch.add(payload(START + (long) r * CONVERSATIONS + c, "mensaje " + r));
+                if (batch.size() == 500) {
+                    log.appendBatch(batch);
+                    batch.clear();
+                }
+            }
+            log.sync();
+        }
+        timestamp = START + (long) records * CONVERSATIONS;
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        for (MessageLog log : logs) {
+            log.close();
+        }
+        store.close();
+        try (Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public long append() throws IOException {
+        return randomLog().append(payload(timestamp++, "mensaje nuevo"));
+    }
+
+    @Benchmark
+    public long appendBatchSync() throws IOException {
+        // Un lote de HistoryWriter: varias conversaciones y un solo punto de durabilidad
+        long last = 0;
+        for (int i = 0; i < 8; i++) {
+            last = randomLog().appendBatch(List.of(payload(timestamp++, "lote"), payload(timestamp++, "lote")));
+        }
+        for (int i = 0; i < 8; i++) {
+            logs.get(i).sync();
+        }
+        return last;
+    }
+
+    @Benchmark
+    public int latestPage() throws IOException {
+        return randomLog().readBefore(0, PAGE).size();
+    }
+
+    @Benchmark
+    public int olderPage() throws IOException {
+        long before = ThreadLocalRandom.current().nextLong(PAGE, records);
+        return randomLog().readBefore(before, PAGE).size();
+    }
+
+    @Benchmark
+    public int timeRange() throws IOException {
+        long from = START + ThreadLocalRandom.current().nextLong(records - PAGE) * CONVERSATIONS;
+        return randomLog().readRange(from, from + (long) PAGE * CONVERSATIONS, Integer.MAX_VALUE).size();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int scanAll() throws IOException {
+        return randomLog().readAll().size();
+    }
+
+    private MessageLog randomLog() {
+        return logs.get(ThreadLocalRandom.current().nextInt(logs.size()));
+    }
+
+    private static long timestampOf(byte[] payload) {
+        return ByteBuffer.wrap(payload).getLong();
+    }
+
+    private static byte[] payload(long timestamp, String text) {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Long.BYTES + content.length).putLong(timestamp).put(content).array();
+    }
+}
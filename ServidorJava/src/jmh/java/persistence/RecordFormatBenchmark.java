@@ -0,0 +1,108 @@
+package persistence;
+
+import model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compara el formato de texto anterior con el binario de {@link MessageCodec}: costo de
+ * parsear y de serializar un lote de mensajes representativos. El tamaño por mensaje se
+ * imprime al preparar el estado (y {@link HistoryConverter} lo reporta sobre datos reales).
+ *
+ *   ./gradlew jmh -Pjmh.includes=RecordFormatBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecordFormatBenchmark {
+    private static final int MESSAGES = 1024;
+    private static final String[] USERS = {"alice", "bob", "dayan", "juan_zuluaga", "sofia", "pedrito"};
+
+    private File dictionaryFile;
+    private MessageCodec codec;
+    private Message[] messages;
+    private String[] textRecords;
+    private byte[][] binaryRecords;
+
+    @Setup
+    public void setup() throws IOException {
+        dictionaryFile = File.createTempFile("names", ".dict");
+        codec = new MessageCodec(new NameDictionary(dictionaryFile));
+
+        messages = new Message[MESSAGES];
+        textRecords = new String[MESSAGES];
+        binaryRecords = new byte[MESSAGES][];
+        long textBytes = 0;
+        long binaryBytes = 0;
+
+        long timestamp = 1_763_781_623_578L;
+        for (int i = 0; i < MESSAGES; i++) {
+            String from = USERS[i % USERS.length];
+            String to = USERS[(i + 1) % USERS.length];
+            String content = "Mensaje de prueba número " + i + ": ¿nos vemos a las 5|6?";
+            messages[i] = new Message(UUID.randomUUID().toString(), from, to, content, false, timestamp + i * 1500L);
+
+            textRecords[i] = TextRecordFormat.formatMessage(messages[i]);
+            binaryRecords[i] = codec.encode(messages[i]);
+            textBytes += textRecords[i].getBytes(StandardCharsets.UTF_8).length + 1;
+            binaryBytes += binaryRecords[i].length;
+        }
+
+        System.out.printf("%nBytes por mensaje: texto=%.1f binario=%.1f%n",
+                (double) textBytes / MESSAGES, (double) binaryBytes / MESSAGES);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dictionaryFile.toPath());
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long parseText() {
+        long sum = 0;
+        for (String record : textRecords) {
+            sum += TextRecordFormat.parseMessage(record).getTimestamp().getTime();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long parseBinary() {
+        long sum = 0;
+        for (byte[] record : binaryRecords) {
+            sum += codec.decode(record, 0).getTimestamp().getTime();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long formatText() {
+        long sum = 0;
+        for (Message message : messages) {
+            sum += TextRecordFormat.formatMessage(message).length();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public long formatBinary() throws IOException {
+        long sum = 0;
+        for (Message message : messages) {
+            sum += codec.encode(message).length;
+        }
+        return sum;
+    }
+}
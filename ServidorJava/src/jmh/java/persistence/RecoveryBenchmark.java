@@ -0,0 +1,130 @@
+package persistence;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Tiempo de arranque del historial: {@link HistoryRecovery} sobre un árbol data/history
+ * generado (conversaciones fragmentadas como en producción, varios segmentos cada una).
+ * {@code recover} valida sólo la cola de cada log; {@code fullScan} es la alternativa de
+ * releer y validar todos los registros. Con {@code torn} a una de cada diez conversaciones se
+ * le agrega basura al final antes de cada medición, como tras una caída a mitad de escritura.
+ *
+ * Los archivos quedan en la caché del sistema operativo después de la primera iteración, así
+ * que esto mide CPU y llamadas al sistema, no el disco en frío.
+ *
+ *   ./gradlew jmh -Pjmh.includes=RecoveryBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class RecoveryBenchmark {
+    private static final int RECORDS_PER_CONVERSATION = 2_000;
+    private static final long SEGMENT_BYTES = 64 * 1024;
+    private static final int INDEX_INTERVAL = 64;
+
+    @Param({"2000"})
+    public int conversations;
+
+    @Param({"1", "4"})
+    public int threads;
+
+    @Param({"false", "true"})
+    public boolean torn;
+
+    private File root;
+    private ShardLayout layout;
+    private List<String> keys;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        root = Files.createTempDirectory("recovery-bench").toFile();
+        layout = new ShardLayout(root);
+        keys = new ArrayList<>();
+
+        long timestamp = 1_700_000_000_000L;
+        for (int c = 0; c < conversations; c++) {
+            String key = "group_g" + c;
+            keys.add(key);
+            try (ConversationLog log = open(key)) {
+                List<byte[]> batch = new ArrayList<>();
+                for (int r = 0; r < RECORDS_PER_CONVERSATION; r++) {
+                    batch.add(payload(timestamp++, "mensaje " + r + " de la conversación " + c));
+                    if (batch.size() == 100) {
+                        log.appendBatch(batch);
+                        batch.clear();
+                    }
+                }
+            }
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void tear() throws IOException {
+        if (!torn) {
+            return;
+        }
+        for (int c = 0; c < keys.size(); c += 10) {
+            File[] segments = layout.shardedFile(keys.get(c)).listFiles((dir, name) -> name.endsWith(ConversationLog.SEGMENT_SUFFIX));
+            File active = segments[0];
+            for (File segment : segments) {
+                active = segment.getName().compareTo(active.getName()) > 0 ? segment : active;
+            }
+            try (FileOutputStream out = new FileOutputStream(active, true)) {
+                out.write(new byte[] {0x30, 0x01, 0x02, 0x03, 0x04});
+            }
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        try (Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    @Benchmark
+    public int recover() throws Exception {
+        Map<String, ConversationLog> logs = new HistoryRecovery(threads).run(keys, this::open);
+        for (ConversationLog log : logs.values()) {
+            log.close();
+        }
+        return logs.size();
+    }
+
+    @Benchmark
+    public long fullScan() throws Exception {
+        long records = 0;
+        for (String key : keys) {
+            try (ConversationLog log = open(key)) {
+                records += log.readAll().size();
+            }
+        }
+        return records;
+    }
+
+    private ConversationLog open(String key) throws IOException {
+        return new ConversationLog(layout.prepareSharded(key), SEGMENT_BYTES, INDEX_INTERVAL,
+                payload -> ByteBuffer.wrap(payload).getLong());
+    }
+
+    private static byte[] payload(long timestamp, String text) {
+        byte[] content = text.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.allocate(Long.BYTES + content.length).putLong(timestamp).put(content).array();
+    }
+}
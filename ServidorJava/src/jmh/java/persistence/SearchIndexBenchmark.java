@@ -0,0 +1,143 @@
+package persistence;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput de indexado y latencia de búsqueda de {@link SearchIndex} sobre un corpus
+ * generado: conversaciones con vocabulario de distribución Zipf (pocas palabras muy comunes y
+ * muchas raras, como en un chat real). {@code scanBaseline} es la alternativa sin índice:
+ * recorrer todos los mensajes de las conversaciones del usuario buscando las palabras.
+ *
+ *   ./gradlew jmh -Pjmh.includes=SearchIndexBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SearchIndexBenchmark {
+    private static final int CONVERSATIONS = 200;
+    private static final int MESSAGES_PER_CONVERSATION = 1000;
+    private static final int VOCABULARY = 20_000;
+    private static final int WORDS_PER_MESSAGE = 8;
+    private static final int USER_CONVERSATIONS = 20;
+    private static final int INDEX_BATCH = 10_000;
+    private static final int LIMIT = 20;
+
+    private String[] words;
+    private String[][] contents;
+    private SearchIndex index;
+    private List<String> userConversations;
+    private String commonWord;
+    private String rareWord;
+    private String twoWords;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        words = new String[VOCABULARY];
+        for (int i = 0; i < VOCABULARY; i++) {
+            words[i] = "palabra" + Integer.toString(i, 36);
+        }
+
+        // Zipf con exponente 1: la probabilidad del rango r es proporcional a 1/r
+        double[] cumulative = new double[VOCABULARY];
+        double total = 0;
+        for (int i = 0; i < VOCABULARY; i++) {
+            total += 1.0 / (i + 1);
+            cumulative[i] = total;
+        }
+
+        contents = new String[CONVERSATIONS][MESSAGES_PER_CONVERSATION];
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            for (int m = 0; m < MESSAGES_PER_CONVERSATION; m++) {
+                StringBuilder content = new StringBuilder();
+                for (int w = 0; w < WORDS_PER_MESSAGE; w++) {
+                    int rank = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+                    content.append(words[rank < 0 ? -rank - 1 : rank]).append(w == 3 ? ", " : " ");
+                }
+                contents[c][m] = content.toString().trim();
+            }
+        }
+
+        index = new SearchIndex();
+        for (int c = 0; c < CONVERSATIONS; c++) {
+            indexConversation(index, c);
+        }
+
+        userConversations = new ArrayList<>();
+        for (int c = 0; c < USER_CONVERSATIONS; c++) {
+            userConversations.add(conversationName(c * (CONVERSATIONS / USER_CONVERSATIONS)));
+        }
+        commonWord = words[0];
+        rareWord = words[5_000];
+        twoWords = words[3] + " " + words[40];
+
+        System.out.printf("%nÍndice: %s%n", index);
+    }
+
+    private void indexConversation(SearchIndex target, int conversation) {
+        String name = conversationName(conversation);
+        // Como ChatHistory: se arma aparte y se publica entero
+        SearchIndex.ConversationIndex built = new SearchIndex.ConversationIndex();
+        long timestamp = 1_763_781_623_578L + conversation;
+        for (int m = 0; m < MESSAGES_PER_CONVERSATION; m++) {
+            built.add(m + 1, timestamp + m * 1000L, contents[conversation][m]);
+        }
+        target.install(name, built);
+    }
+
+    private static String conversationName(int conversation) {
+        return "group_" + conversation;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(INDEX_BATCH)
+    public SearchIndex indexMessages() {
+        SearchIndex fresh = new SearchIndex();
+        for (int c = 0; c < INDEX_BATCH / MESSAGES_PER_CONVERSATION; c++) {
+            indexConversation(fresh, c);
+        }
+        return fresh;
+    }
+
+    @Benchmark
+    public int searchCommonWord() {
+        return index.search(userConversations, commonWord, LIMIT).size();
+    }
+
+    @Benchmark
+    public int searchRareWord() {
+        return index.search(userConversations, rareWord, LIMIT).size();
+    }
+
+    @Benchmark
+    public int searchTwoWords() {
+        return index.search(userConversations, twoWords, LIMIT).size();
+    }
+
+    @Benchmark
+    public int scanBaseline() {
+        String[] tokens = twoWords.toLowerCase(Locale.ROOT).split(" ");
+        int found = 0;
+        // Sin índice hay que revisar todo para quedarse con los más recientes
+        for (int c = 0; c < USER_CONVERSATIONS; c++) {
+            String[] messages = contents[c * (CONVERSATIONS / USER_CONVERSATIONS)];
+            for (int m = messages.length - 1; m >= 0; m--) {
+                List<String> messageTokens = SearchIndex.tokenize(messages[m]);
+                if (messageTokens.contains(tokens[0]) && messageTokens.contains(tokens[1])) {
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+}
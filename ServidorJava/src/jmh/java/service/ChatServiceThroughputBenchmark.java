@@ -0,0 +1,144 @@
+package service;
+
+import chat.MessagePage;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * Cuántas llamadas por milisegundo atiende {@link ChatServiceImpl} con 1, 2, 4 y 8 hilos (los
+ * hilos de despacho de Ice), cada hilo en su propio chat privado: nueve de cada diez llamadas
+ * leen (la última página del historial, usuarios conectados o el estado del servidor) y una
+ * envía un mensaje.
+ *
+ * {@code global} repite lo de antes: cada llamada bajo un único monitor, como cuando todos los
+ * métodos del servicio eran synchronized. Con {@code striped} las lecturas no toman candado y
+ * los envíos sólo el de su conversación, así que el rendimiento debería crecer con los hilos
+ * hasta la cantidad de núcleos (los envíos siguen pasando por el único hilo de escritura del
+ * historial).
+ *
+ * Los datos van a build/jmh-chat ({@code chat.data.dir}) y se borran al terminar.
+ *
+ *   ./gradlew jmh -Pjmh.includes=ChatServiceThroughputBenchmark
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Dchat.data.dir=build/jmh-chat")
+@State(Scope.Benchmark)
+public class ChatServiceThroughputBenchmark {
+    private static final int CHATS = 16;
+    private static final int PREFILL = 200;
+    private static final int PAGE = 50;
+
+    @Param({"striped", "global"})
+    public String mode;
+
+    private ChatManager chatManager;
+    private ChatServiceImpl service;
+    private final Object monitor = new Object();
+    private final AtomicInteger nextChat = new AtomicInteger();
+
+    @State(Scope.Thread)
+    public static class Caller {
+        String from;
+        String to;
+        int calls;
+
+        @Setup(Level.Trial)
+        public void pick(ChatServiceThroughputBenchmark benchmark) {
+            int chat = benchmark.nextChat.getAndIncrement() % CHATS;
+            from = "user" + (2 * chat);
+            to = "user" + (2 * chat + 1);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws Exception {
+        deleteData();
+        chatManager = new ChatManager();
+        service = new ChatServiceImpl(chatManager);
+        for (int i = 0; i < 2 * CHATS; i++) {
+            service.login("user" + i, null);
+        }
+        for (int chat = 0; chat < CHATS; chat++) {
+            for (int i = 0; i < PREFILL; i++) {
+                service.sendMessage("user" + (2 * chat), "user" + (2 * chat + 1), "mensaje de prueba " + i, null);
+            }
+            // Con la conversación en caché las lecturas no van al disco
+            service.getPrivateHistoryAsync("user" + (2 * chat), "user" + (2 * chat + 1), null).toCompletableFuture().join();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void cleanup() throws IOException {
+        chatManager.shutdown();
+        deleteData();
+    }
+
+    private static void deleteData() throws IOException {
+        File root = new File(System.getProperty("chat.data.dir", "build/jmh-chat"));
+        if (!root.exists()) {
+            return;
+        }
+        try (Stream<java.nio.file.Path> paths = Files.walk(root.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+        }
+    }
+
+    private void call(Caller caller, Blackhole blackhole) throws Exception {
+        if (mode.equals("global")) {
+            synchronized (monitor) {
+                dispatch(caller, blackhole);
+            }
+        } else {
+            dispatch(caller, blackhole);
+        }
+    }
+
+    private void dispatch(Caller caller, Blackhole blackhole) throws Exception {
+        switch (caller.calls++ % 10) {
+            case 0 -> blackhole.consume(service.sendMessage(caller.from, caller.to, "hola", null));
+            case 1 -> blackhole.consume(service.getOnlineUsers(null));
+            case 2 -> blackhole.consume(service.getServerStatus(null));
+            default -> {
+                // Las páginas se leen en el pool de E/S del servicio; el hilo espera la respuesta como el cliente
+                MessagePage page = service.getPrivateHistoryPageAsync(caller.to, caller.from, 0, PAGE, null)
+                        .toCompletableFuture().join();
+                blackhole.consume(page);
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void threads1(Caller caller, Blackhole blackhole) throws Exception {
+        call(caller, blackhole);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void threads2(Caller caller, Blackhole blackhole) throws Exception {
+        call(caller, blackhole);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void threads4(Caller caller, Blackhole blackhole) throws Exception {
+        call(caller, blackhole);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public void threads8(Caller caller, Blackhole blackhole) throws Exception {
+        call(caller, blackhole);
+    }
+}
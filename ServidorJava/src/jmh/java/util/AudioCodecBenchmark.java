@@ -0,0 +1,80 @@
+package util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Costo de comprimir y descomprimir una nota de voz con {@link AudioCodec}: 10 s de una señal
+ * parecida a la voz (tres armónicos con envolvente silábica y ruido) a 16 kHz mono, el formato
+ * de {@link AudioRecorder}.
+ *
+ * El setup imprime cuánto ocupa cada formato frente al PCM y la relación señal/ruido de la
+ * vuelta completa, para leer el costo junto a lo que se ahorra.
+ *
+ *   ./gradlew jmh -Pjmh.includes=AudioCodecBenchmark
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class AudioCodecBenchmark {
+    private static final int SAMPLE_RATE = 16000;
+    private static final int SECONDS = 10;
+
+    @Param({"ULAW", "IMA_ADPCM"})
+    public AudioCodec.Format format;
+
+    private byte[] wav;
+    private byte[] encoded;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        int samples = SAMPLE_RATE * SECONDS;
+        byte[] pcm = new byte[samples * 2];
+        ByteBuffer buffer = ByteBuffer.wrap(pcm).order(ByteOrder.LITTLE_ENDIAN);
+        Random random = new Random(42);
+        for (int i = 0; i < samples; i++) {
+            double t = (double) i / SAMPLE_RATE;
+            double envelope = 0.5 + 0.5 * Math.sin(2 * Math.PI * 3 * t);
+            double voice = 6000 * Math.sin(2 * Math.PI * 220 * t) + 3000 * Math.sin(2 * Math.PI * 660 * t)
+                    + 800 * Math.sin(2 * Math.PI * 1800 * t);
+            buffer.putShort((short) (envelope * voice + random.nextGaussian() * 200));
+        }
+        wav = AudioCodec.wrapPcm16(pcm, SAMPLE_RATE, 1);
+        encoded = AudioCodec.encode(wav, format);
+        System.out.printf("%n%s: %d -> %d bytes (%.1f%%), SNR %.1f dB%n", format, wav.length, encoded.length,
+                100.0 * encoded.length / wav.length, snr(wav, AudioCodec.decode(encoded)));
+    }
+
+    // Los dos WAV los escribe AudioCodec, con la cabecera mínima de 44 bytes
+    private static double snr(byte[] original, byte[] decoded) {
+        int length = Math.min(original.length, decoded.length) - 44;
+        ByteBuffer a = ByteBuffer.wrap(original, 44, length).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer b = ByteBuffer.wrap(decoded, 44, length).order(ByteOrder.LITTLE_ENDIAN);
+        double signal = 0;
+        double noise = 0;
+        while (a.hasRemaining()) {
+            int x = a.getShort();
+            int y = b.getShort();
+            signal += (double) x * x;
+            noise += (double) (x - y) * (x - y);
+        }
+        return 10 * Math.log10(signal / Math.max(noise, 1));
+    }
+
+    @Benchmark
+    public byte[] encode() {
+        return AudioCodec.encode(wav, format);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return AudioCodec.decode(encoded);
+    }
+}
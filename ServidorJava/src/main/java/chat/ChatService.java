@@ -26,16 +26,28 @@ public interface ChatService extends com.zeroc.Ice.Object
     boolean sendMessage(String from, String to, String content, com.zeroc.Ice.Current current)
         throws UserException;
 
-    MessageInfo[] getPrivateHistory(String username, String target, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<MessageInfo[]> getPrivateHistoryAsync(String username, String target, com.zeroc.Ice.Current current)
+        throws UserException;
+
+    java.util.concurrent.CompletionStage<MessagePage> getPrivateHistoryPageAsync(String username, String target, long beforeSeq, int limit, com.zeroc.Ice.Current current)
         throws UserException;
 
     boolean sendGroupMessage(String from, String groupName, String content, com.zeroc.Ice.Current current)
         throws UserException;
 
-    MessageInfo[] getGroupHistory(String groupName, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<MessageInfo[]> getGroupHistoryAsync(String groupName, com.zeroc.Ice.Current current)
+        throws UserException;
+
+    java.util.concurrent.CompletionStage<MessagePage> getGroupHistoryPageAsync(String groupName, long beforeSeq, int limit, com.zeroc.Ice.Current current)
+        throws UserException;
+
+    java.util.concurrent.CompletionStage<MessageInfo[]> getHistoryRangeAsync(String username, String target, boolean isGroup, long fromTs, long toTs, com.zeroc.Ice.Current current)
+        throws UserException;
+
+    java.util.concurrent.CompletionStage<MessageInfo[]> searchMessagesAsync(String username, String query, int limit, com.zeroc.Ice.Current current)
         throws UserException;
 
-    boolean createGroup(String groupName, String creator, String[] members, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<java.lang.Boolean> createGroupAsync(String groupName, String creator, String[] members, com.zeroc.Ice.Current current)
         throws UserException;
 
     boolean joinGroup(String username, String groupName, com.zeroc.Ice.Current current)
@@ -47,19 +59,28 @@ public interface ChatService extends com.zeroc.Ice.Object
     GroupInfo[] getUserGroups(String username, com.zeroc.Ice.Current current)
         throws UserException;
 
+    InboxEntry[] getInbox(String username, com.zeroc.Ice.Current current)
+        throws UserException;
+
+    boolean ackUpTo(String username, String conversation, long seq, com.zeroc.Ice.Current current)
+        throws UserException;
+
     String[] getGroupMembers(String groupName, com.zeroc.Ice.Current current)
         throws UserException;
 
-    boolean sendAudio(String from, String to, String audioId, int size, int duration, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<java.lang.Boolean> sendAudioAsync(String from, String to, String audioId, int size, int duration, com.zeroc.Ice.Current current)
         throws UserException;
 
-    boolean sendGroupAudio(String from, String groupName, String audioId, int size, int duration, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<java.lang.Boolean> sendGroupAudioAsync(String from, String groupName, String audioId, int size, int duration, com.zeroc.Ice.Current current)
         throws UserException;
 
-    AudioInfo[] getPrivateAudioHistory(String username, String target, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<AudioInfo[]> getPrivateAudioHistoryAsync(String username, String target, com.zeroc.Ice.Current current)
         throws UserException;
 
-    AudioInfo[] getGroupAudioHistory(String groupName, com.zeroc.Ice.Current current)
+    java.util.concurrent.CompletionStage<AudioInfo[]> getGroupAudioHistoryAsync(String groupName, com.zeroc.Ice.Current current)
+        throws UserException;
+
+    java.util.concurrent.CompletionStage<java.nio.ByteBuffer> getAudioChunkAsync(String audioId, long offset, int length, com.zeroc.Ice.Current current)
         throws UserException;
 
     String[] getOnlineUsers(com.zeroc.Ice.Current current)
@@ -189,11 +210,38 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_username = istr.readString();
         iceP_target = istr.readString();
         inS.endReadParams();
-        MessageInfo[] ret = obj.getPrivateHistory(iceP_username, iceP_target, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        MessageSeqHelper.write(ostr, ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.getPrivateHistoryAsync(iceP_username, iceP_target, current), (ostr, ret) ->
+            {
+                MessageSeqHelper.write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getPrivateHistoryPage(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_username;
+        String iceP_target;
+        long iceP_beforeSeq;
+        int iceP_limit;
+        iceP_username = istr.readString();
+        iceP_target = istr.readString();
+        iceP_beforeSeq = istr.readLong();
+        iceP_limit = istr.readInt();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.getPrivateHistoryPageAsync(iceP_username, iceP_target, iceP_beforeSeq, iceP_limit, current), (ostr, ret) ->
+            {
+                MessagePage.ice_write(ostr, ret);
+            });
     }
 
     /**
@@ -239,11 +287,92 @@ public interface ChatService extends com.zeroc.Ice.Object
         String iceP_groupName;
         iceP_groupName = istr.readString();
         inS.endReadParams();
-        MessageInfo[] ret = obj.getGroupHistory(iceP_groupName, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        MessageSeqHelper.write(ostr, ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.getGroupHistoryAsync(iceP_groupName, current), (ostr, ret) ->
+            {
+                MessageSeqHelper.write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getGroupHistoryPage(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_groupName;
+        long iceP_beforeSeq;
+        int iceP_limit;
+        iceP_groupName = istr.readString();
+        iceP_beforeSeq = istr.readLong();
+        iceP_limit = istr.readInt();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.getGroupHistoryPageAsync(iceP_groupName, iceP_beforeSeq, iceP_limit, current), (ostr, ret) ->
+            {
+                MessagePage.ice_write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getHistoryRange(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_username;
+        String iceP_target;
+        boolean iceP_isGroup;
+        long iceP_fromTs;
+        long iceP_toTs;
+        iceP_username = istr.readString();
+        iceP_target = istr.readString();
+        iceP_isGroup = istr.readBool();
+        iceP_fromTs = istr.readLong();
+        iceP_toTs = istr.readLong();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.getHistoryRangeAsync(iceP_username, iceP_target, iceP_isGroup, iceP_fromTs, iceP_toTs, current), (ostr, ret) ->
+            {
+                MessageSeqHelper.write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_searchMessages(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(null, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_username;
+        String iceP_query;
+        int iceP_limit;
+        iceP_username = istr.readString();
+        iceP_query = istr.readString();
+        iceP_limit = istr.readInt();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.searchMessagesAsync(iceP_username, iceP_query, iceP_limit, current), (ostr, ret) ->
+            {
+                MessageSeqHelper.write(ostr, ret);
+            });
     }
 
     /**
@@ -266,11 +395,10 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_creator = istr.readString();
         iceP_members = istr.readStringSeq();
         inS.endReadParams();
-        boolean ret = obj.createGroup(iceP_groupName, iceP_creator, iceP_members, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        ostr.writeBool(ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.createGroupAsync(iceP_groupName, iceP_creator, iceP_members, current), (ostr, ret) ->
+            {
+                ostr.writeBool(ret);
+            });
     }
 
     /**
@@ -346,6 +474,56 @@ public interface ChatService extends com.zeroc.Ice.Object
         return inS.setResult(ostr);
     }
 
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getInbox(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(com.zeroc.Ice.OperationMode.Idempotent, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_username;
+        iceP_username = istr.readString();
+        inS.endReadParams();
+        InboxEntry[] ret = obj.getInbox(iceP_username, current);
+        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
+        InboxSeqHelper.write(ostr, ret);
+        inS.endWriteParams(ostr);
+        return inS.setResult(ostr);
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_ackUpTo(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(com.zeroc.Ice.OperationMode.Idempotent, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_username;
+        String iceP_conversation;
+        long iceP_seq;
+        iceP_username = istr.readString();
+        iceP_conversation = istr.readString();
+        iceP_seq = istr.readLong();
+        inS.endReadParams();
+        boolean ret = obj.ackUpTo(iceP_username, iceP_conversation, iceP_seq, current);
+        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
+        ostr.writeBool(ret);
+        inS.endWriteParams(ostr);
+        return inS.setResult(ostr);
+    }
+
     /**
      * @hidden
      * @param obj -
@@ -393,11 +571,10 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_size = istr.readInt();
         iceP_duration = istr.readInt();
         inS.endReadParams();
-        boolean ret = obj.sendAudio(iceP_from, iceP_to, iceP_audioId, iceP_size, iceP_duration, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        ostr.writeBool(ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.sendAudioAsync(iceP_from, iceP_to, iceP_audioId, iceP_size, iceP_duration, current), (ostr, ret) ->
+            {
+                ostr.writeBool(ret);
+            });
     }
 
     /**
@@ -424,11 +601,10 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_size = istr.readInt();
         iceP_duration = istr.readInt();
         inS.endReadParams();
-        boolean ret = obj.sendGroupAudio(iceP_from, iceP_groupName, iceP_audioId, iceP_size, iceP_duration, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        ostr.writeBool(ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.sendGroupAudioAsync(iceP_from, iceP_groupName, iceP_audioId, iceP_size, iceP_duration, current), (ostr, ret) ->
+            {
+                ostr.writeBool(ret);
+            });
     }
 
     /**
@@ -449,11 +625,10 @@ public interface ChatService extends com.zeroc.Ice.Object
         iceP_username = istr.readString();
         iceP_target = istr.readString();
         inS.endReadParams();
-        AudioInfo[] ret = obj.getPrivateAudioHistory(iceP_username, iceP_target, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        AudioSeqHelper.write(ostr, ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.getPrivateAudioHistoryAsync(iceP_username, iceP_target, current), (ostr, ret) ->
+            {
+                AudioSeqHelper.write(ostr, ret);
+            });
     }
 
     /**
@@ -472,11 +647,36 @@ public interface ChatService extends com.zeroc.Ice.Object
         String iceP_groupName;
         iceP_groupName = istr.readString();
         inS.endReadParams();
-        AudioInfo[] ret = obj.getGroupAudioHistory(iceP_groupName, current);
-        com.zeroc.Ice.OutputStream ostr = inS.startWriteParams();
-        AudioSeqHelper.write(ostr, ret);
-        inS.endWriteParams(ostr);
-        return inS.setResult(ostr);
+        return inS.setResultFuture(obj.getGroupAudioHistoryAsync(iceP_groupName, current), (ostr, ret) ->
+            {
+                AudioSeqHelper.write(ostr, ret);
+            });
+    }
+
+    /**
+     * @hidden
+     * @param obj -
+     * @param inS -
+     * @param current -
+     * @return -
+     * @throws com.zeroc.Ice.UserException -
+    **/
+    static java.util.concurrent.CompletionStage<com.zeroc.Ice.OutputStream> _iceD_getAudioChunk(ChatService obj, final com.zeroc.IceInternal.Incoming inS, com.zeroc.Ice.Current current)
+        throws com.zeroc.Ice.UserException
+    {
+        com.zeroc.Ice.Object._iceCheckMode(com.zeroc.Ice.OperationMode.Idempotent, current.mode);
+        com.zeroc.Ice.InputStream istr = inS.startReadParams();
+        String iceP_audioId;
+        long iceP_offset;
+        int iceP_length;
+        iceP_audioId = istr.readString();
+        iceP_offset = istr.readLong();
+        iceP_length = istr.readInt();
+        inS.endReadParams();
+        return inS.setResultFuture(obj.getAudioChunkAsync(iceP_audioId, iceP_offset, iceP_length, current), (ostr, ret) ->
+            {
+                ostr.writeByteBuffer(ret);
+            });
     }
 
     /**
@@ -565,14 +765,20 @@ public interface ChatService extends com.zeroc.Ice.Object
     /** @hidden */
     final static String[] _iceOps =
     {
+        "ackUpTo",
         "createGroup",
         "getAllUsers",
+        "getAudioChunk",
         "getGroupAudioHistory",
         "getGroupHistory",
+        "getGroupHistoryPage",
         "getGroupMembers",
+        "getHistoryRange",
+        "getInbox",
         "getOnlineUsers",
         "getPrivateAudioHistory",
         "getPrivateHistory",
+        "getPrivateHistoryPage",
         "getServerStatus",
         "getUserGroups",
         "ice_id",
@@ -584,6 +790,7 @@ public interface ChatService extends com.zeroc.Ice.Object
         "leaveGroup",
         "login",
         "logout",
+        "searchMessages",
         "sendAudio",
         "sendGroupAudio",
         "sendGroupMessage",
@@ -605,93 +812,121 @@ public interface ChatService extends com.zeroc.Ice.Object
         {
             case 0:
             {
-                return _iceD_createGroup(this, in, current);
+                return _iceD_ackUpTo(this, in, current);
             }
             case 1:
             {
-                return _iceD_getAllUsers(this, in, current);
+                return _iceD_createGroup(this, in, current);
             }
             case 2:
             {
-                return _iceD_getGroupAudioHistory(this, in, current);
+                return _iceD_getAllUsers(this, in, current);
             }
             case 3:
             {
-                return _iceD_getGroupHistory(this, in, current);
+                return _iceD_getAudioChunk(this, in, current);
             }
             case 4:
             {
-                return _iceD_getGroupMembers(this, in, current);
+                return _iceD_getGroupAudioHistory(this, in, current);
             }
             case 5:
             {
-                return _iceD_getOnlineUsers(this, in, current);
+                return _iceD_getGroupHistory(this, in, current);
             }
             case 6:
             {
-                return _iceD_getPrivateAudioHistory(this, in, current);
+                return _iceD_getGroupHistoryPage(this, in, current);
             }
             case 7:
             {
-                return _iceD_getPrivateHistory(this, in, current);
+                return _iceD_getGroupMembers(this, in, current);
             }
             case 8:
             {
-                return _iceD_getServerStatus(this, in, current);
+                return _iceD_getHistoryRange(this, in, current);
             }
             case 9:
             {
-                return _iceD_getUserGroups(this, in, current);
+                return _iceD_getInbox(this, in, current);
             }
             case 10:
             {
-                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
+                return _iceD_getOnlineUsers(this, in, current);
             }
             case 11:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
+                return _iceD_getPrivateAudioHistory(this, in, current);
             }
             case 12:
             {
-                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
+                return _iceD_getPrivateHistory(this, in, current);
             }
             case 13:
             {
-                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
+                return _iceD_getPrivateHistoryPage(this, in, current);
             }
             case 14:
             {
-                return _iceD_isUserOnline(this, in, current);
+                return _iceD_getServerStatus(this, in, current);
             }
             case 15:
             {
-                return _iceD_joinGroup(this, in, current);
+                return _iceD_getUserGroups(this, in, current);
             }
             case 16:
             {
-                return _iceD_leaveGroup(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_id(this, in, current);
             }
             case 17:
             {
-                return _iceD_login(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ids(this, in, current);
             }
             case 18:
             {
-                return _iceD_logout(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_isA(this, in, current);
             }
             case 19:
             {
-                return _iceD_sendAudio(this, in, current);
+                return com.zeroc.Ice.Object._iceD_ice_ping(this, in, current);
             }
             case 20:
             {
-                return _iceD_sendGroupAudio(this, in, current);
+                return _iceD_isUserOnline(this, in, current);
             }
             case 21:
             {
-                return _iceD_sendGroupMessage(this, in, current);
+                return _iceD_joinGroup(this, in, current);
             }
             case 22:
+            {
+                return _iceD_leaveGroup(this, in, current);
+            }
+            case 23:
+            {
+                return _iceD_login(this, in, current);
+            }
+            case 24:
+            {
+                return _iceD_logout(this, in, current);
+            }
+            case 25:
+            {
+                return _iceD_searchMessages(this, in, current);
+            }
+            case 26:
+            {
+                return _iceD_sendAudio(this, in, current);
+            }
+            case 27:
+            {
+                return _iceD_sendGroupAudio(this, in, current);
+            }
+            case 28:
+            {
+                return _iceD_sendGroupMessage(this, in, current);
+            }
+            case 29:
             {
                 return _iceD_sendMessage(this, in, current);
             }
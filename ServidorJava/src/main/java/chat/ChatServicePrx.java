@@ -259,6 +259,71 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         UserException.class
     };
 
+    default MessagePage getPrivateHistoryPage(String username, String target, long beforeSeq, int limit)
+        throws UserException
+    {
+        return getPrivateHistoryPage(username, target, beforeSeq, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default MessagePage getPrivateHistoryPage(String username, String target, long beforeSeq, int limit, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_getPrivateHistoryPageAsync(username, target, beforeSeq, limit, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<MessagePage> getPrivateHistoryPageAsync(String username, String target, long beforeSeq, int limit)
+    {
+        return _iceI_getPrivateHistoryPageAsync(username, target, beforeSeq, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<MessagePage> getPrivateHistoryPageAsync(String username, String target, long beforeSeq, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_getPrivateHistoryPageAsync(username, target, beforeSeq, limit, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_username -
+     * @param iceP_target -
+     * @param iceP_beforeSeq -
+     * @param iceP_limit -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<MessagePage> _iceI_getPrivateHistoryPageAsync(String iceP_username, String iceP_target, long iceP_beforeSeq, int iceP_limit, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<MessagePage> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getPrivateHistoryPage", null, sync, _iceE_getPrivateHistoryPage);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_username);
+                     ostr.writeString(iceP_target);
+                     ostr.writeLong(iceP_beforeSeq);
+                     ostr.writeInt(iceP_limit);
+                 }, istr -> {
+                     MessagePage ret;
+                     ret = MessagePage.ice_read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_getPrivateHistoryPage =
+    {
+        UserException.class
+    };
+
     default boolean sendGroupMessage(String from, String groupName, String content)
         throws UserException
     {
@@ -381,6 +446,199 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         UserException.class
     };
 
+    default MessagePage getGroupHistoryPage(String groupName, long beforeSeq, int limit)
+        throws UserException
+    {
+        return getGroupHistoryPage(groupName, beforeSeq, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default MessagePage getGroupHistoryPage(String groupName, long beforeSeq, int limit, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_getGroupHistoryPageAsync(groupName, beforeSeq, limit, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<MessagePage> getGroupHistoryPageAsync(String groupName, long beforeSeq, int limit)
+    {
+        return _iceI_getGroupHistoryPageAsync(groupName, beforeSeq, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<MessagePage> getGroupHistoryPageAsync(String groupName, long beforeSeq, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_getGroupHistoryPageAsync(groupName, beforeSeq, limit, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_groupName -
+     * @param iceP_beforeSeq -
+     * @param iceP_limit -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<MessagePage> _iceI_getGroupHistoryPageAsync(String iceP_groupName, long iceP_beforeSeq, int iceP_limit, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<MessagePage> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getGroupHistoryPage", null, sync, _iceE_getGroupHistoryPage);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_groupName);
+                     ostr.writeLong(iceP_beforeSeq);
+                     ostr.writeInt(iceP_limit);
+                 }, istr -> {
+                     MessagePage ret;
+                     ret = MessagePage.ice_read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_getGroupHistoryPage =
+    {
+        UserException.class
+    };
+
+    default MessageInfo[] getHistoryRange(String username, String target, boolean isGroup, long fromTs, long toTs)
+        throws UserException
+    {
+        return getHistoryRange(username, target, isGroup, fromTs, toTs, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default MessageInfo[] getHistoryRange(String username, String target, boolean isGroup, long fromTs, long toTs, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_getHistoryRangeAsync(username, target, isGroup, fromTs, toTs, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<MessageInfo[]> getHistoryRangeAsync(String username, String target, boolean isGroup, long fromTs, long toTs)
+    {
+        return _iceI_getHistoryRangeAsync(username, target, isGroup, fromTs, toTs, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<MessageInfo[]> getHistoryRangeAsync(String username, String target, boolean isGroup, long fromTs, long toTs, java.util.Map<String, String> context)
+    {
+        return _iceI_getHistoryRangeAsync(username, target, isGroup, fromTs, toTs, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_username -
+     * @param iceP_target -
+     * @param iceP_isGroup -
+     * @param iceP_fromTs -
+     * @param iceP_toTs -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<MessageInfo[]> _iceI_getHistoryRangeAsync(String iceP_username, String iceP_target, boolean iceP_isGroup, long iceP_fromTs, long iceP_toTs, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<MessageInfo[]> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getHistoryRange", null, sync, _iceE_getHistoryRange);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_username);
+                     ostr.writeString(iceP_target);
+                     ostr.writeBool(iceP_isGroup);
+                     ostr.writeLong(iceP_fromTs);
+                     ostr.writeLong(iceP_toTs);
+                 }, istr -> {
+                     MessageInfo[] ret;
+                     ret = MessageSeqHelper.read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_getHistoryRange =
+    {
+        UserException.class
+    };
+
+    default MessageInfo[] searchMessages(String username, String query, int limit)
+        throws UserException
+    {
+        return searchMessages(username, query, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default MessageInfo[] searchMessages(String username, String query, int limit, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_searchMessagesAsync(username, query, limit, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<MessageInfo[]> searchMessagesAsync(String username, String query, int limit)
+    {
+        return _iceI_searchMessagesAsync(username, query, limit, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<MessageInfo[]> searchMessagesAsync(String username, String query, int limit, java.util.Map<String, String> context)
+    {
+        return _iceI_searchMessagesAsync(username, query, limit, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_username -
+     * @param iceP_query -
+     * @param iceP_limit -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<MessageInfo[]> _iceI_searchMessagesAsync(String iceP_username, String iceP_query, int iceP_limit, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<MessageInfo[]> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "searchMessages", null, sync, _iceE_searchMessages);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_username);
+                     ostr.writeString(iceP_query);
+                     ostr.writeInt(iceP_limit);
+                 }, istr -> {
+                     MessageInfo[] ret;
+                     ret = MessageSeqHelper.read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_searchMessages =
+    {
+        UserException.class
+    };
+
     default boolean createGroup(String groupName, String creator, String[] members)
         throws UserException
     {
@@ -625,6 +883,128 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         UserException.class
     };
 
+    default InboxEntry[] getInbox(String username)
+        throws UserException
+    {
+        return getInbox(username, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default InboxEntry[] getInbox(String username, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_getInboxAsync(username, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<InboxEntry[]> getInboxAsync(String username)
+    {
+        return _iceI_getInboxAsync(username, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<InboxEntry[]> getInboxAsync(String username, java.util.Map<String, String> context)
+    {
+        return _iceI_getInboxAsync(username, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_username -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<InboxEntry[]> _iceI_getInboxAsync(String iceP_username, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<InboxEntry[]> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getInbox", com.zeroc.Ice.OperationMode.Idempotent, sync, _iceE_getInbox);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_username);
+                 }, istr -> {
+                     InboxEntry[] ret;
+                     ret = InboxSeqHelper.read(istr);
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_getInbox =
+    {
+        UserException.class
+    };
+
+    default boolean ackUpTo(String username, String conversation, long seq)
+        throws UserException
+    {
+        return ackUpTo(username, conversation, seq, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default boolean ackUpTo(String username, String conversation, long seq, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_ackUpToAsync(username, conversation, seq, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<java.lang.Boolean> ackUpToAsync(String username, String conversation, long seq)
+    {
+        return _iceI_ackUpToAsync(username, conversation, seq, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<java.lang.Boolean> ackUpToAsync(String username, String conversation, long seq, java.util.Map<String, String> context)
+    {
+        return _iceI_ackUpToAsync(username, conversation, seq, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_username -
+     * @param iceP_conversation -
+     * @param iceP_seq -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<java.lang.Boolean> _iceI_ackUpToAsync(String iceP_username, String iceP_conversation, long iceP_seq, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<java.lang.Boolean> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "ackUpTo", com.zeroc.Ice.OperationMode.Idempotent, sync, _iceE_ackUpTo);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_username);
+                     ostr.writeString(iceP_conversation);
+                     ostr.writeLong(iceP_seq);
+                 }, istr -> {
+                     boolean ret;
+                     ret = istr.readBool();
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_ackUpTo =
+    {
+        UserException.class
+    };
+
     default String[] getGroupMembers(String groupName)
         throws UserException
     {
@@ -938,6 +1318,69 @@ public interface ChatServicePrx extends com.zeroc.Ice.ObjectPrx
         UserException.class
     };
 
+    default java.nio.ByteBuffer getAudioChunk(String audioId, long offset, int length)
+        throws UserException
+    {
+        return getAudioChunk(audioId, offset, length, com.zeroc.Ice.ObjectPrx.noExplicitContext);
+    }
+
+    default java.nio.ByteBuffer getAudioChunk(String audioId, long offset, int length, java.util.Map<String, String> context)
+        throws UserException
+    {
+        try
+        {
+            return _iceI_getAudioChunkAsync(audioId, offset, length, context, true).waitForResponseOrUserEx();
+        }
+        catch(UserException ex)
+        {
+            throw ex;
+        }
+        catch(com.zeroc.Ice.UserException ex)
+        {
+            throw new com.zeroc.Ice.UnknownUserException(ex.ice_id(), ex);
+        }
+    }
+
+    default java.util.concurrent.CompletableFuture<java.nio.ByteBuffer> getAudioChunkAsync(String audioId, long offset, int length)
+    {
+        return _iceI_getAudioChunkAsync(audioId, offset, length, com.zeroc.Ice.ObjectPrx.noExplicitContext, false);
+    }
+
+    default java.util.concurrent.CompletableFuture<java.nio.ByteBuffer> getAudioChunkAsync(String audioId, long offset, int length, java.util.Map<String, String> context)
+    {
+        return _iceI_getAudioChunkAsync(audioId, offset, length, context, false);
+    }
+
+    /**
+     * @hidden
+     * @param iceP_audioId -
+     * @param iceP_offset -
+     * @param iceP_length -
+     * @param context -
+     * @param sync -
+     * @return -
+     **/
+    default com.zeroc.IceInternal.OutgoingAsync<java.nio.ByteBuffer> _iceI_getAudioChunkAsync(String iceP_audioId, long iceP_offset, int iceP_length, java.util.Map<String, String> context, boolean sync)
+    {
+        com.zeroc.IceInternal.OutgoingAsync<java.nio.ByteBuffer> f = new com.zeroc.IceInternal.OutgoingAsync<>(this, "getAudioChunk", com.zeroc.Ice.OperationMode.Idempotent, sync, _iceE_getAudioChunk);
+        f.invoke(true, context, null, ostr -> {
+                     ostr.writeString(iceP_audioId);
+                     ostr.writeLong(iceP_offset);
+                     ostr.writeInt(iceP_length);
+                 }, istr -> {
+                     java.nio.ByteBuffer ret;
+                     ret = istr.readByteBuffer();
+                     return ret;
+                 });
+        return f;
+    }
+
+    /** @hidden */
+    static final Class<?>[] _iceE_getAudioChunk =
+    {
+        UserException.class
+    };
+
     default String[] getOnlineUsers()
         throws UserException
     {
@@ -0,0 +1,215 @@
+//
+// Copyright (c) ZeroC, Inc. All rights reserved.
+//
+//
+// Ice version 3.7.10
+//
+// <auto-generated>
+//
+// Generated from file `chat.ice'
+//
+// Warning: do not edit this file.
+//
+// </auto-generated>
+//
+
+package chat;
+
+public class InboxEntry implements java.lang.Cloneable,
+                                   java.io.Serializable
+{
+    public String conversation;
+
+    public boolean isGroup;
+
+    public long lastSequence;
+
+    public long lastTimestamp;
+
+    public String lastFrom;
+
+    public String preview;
+
+    public int unread;
+
+    public InboxEntry()
+    {
+        this.conversation = "";
+        this.lastFrom = "";
+        this.preview = "";
+    }
+
+    public InboxEntry(String conversation, boolean isGroup, long lastSequence, long lastTimestamp, String lastFrom, String preview, int unread)
+    {
+        this.conversation = conversation;
+        this.isGroup = isGroup;
+        this.lastSequence = lastSequence;
+        this.lastTimestamp = lastTimestamp;
+        this.lastFrom = lastFrom;
+        this.preview = preview;
+        this.unread = unread;
+    }
+
+    public boolean equals(java.lang.Object rhs)
+    {
+        if(this == rhs)
+        {
+            return true;
+        }
+        InboxEntry r = null;
+        if(rhs instanceof InboxEntry)
+        {
+            r = (InboxEntry)rhs;
+        }
+
+        if(r != null)
+        {
+            if(this.conversation != r.conversation)
+            {
+                if(this.conversation == null || r.conversation == null || !this.conversation.equals(r.conversation))
+                {
+                    return false;
+                }
+            }
+            if(this.isGroup != r.isGroup)
+            {
+                return false;
+            }
+            if(this.lastSequence != r.lastSequence)
+            {
+                return false;
+            }
+            if(this.lastTimestamp != r.lastTimestamp)
+            {
+                return false;
+            }
+            if(this.lastFrom != r.lastFrom)
+            {
+                if(this.lastFrom == null || r.lastFrom == null || !this.lastFrom.equals(r.lastFrom))
+                {
+                    return false;
+                }
+            }
+            if(this.preview != r.preview)
+            {
+                if(this.preview == null || r.preview == null || !this.preview.equals(r.preview))
+                {
+                    return false;
+                }
+            }
+            if(this.unread != r.unread)
+            {
+                return false;
+            }
+
+            return true;
+        }
+
+        return false;
+    }
+
+    public int hashCode()
+    {
+        int h_ = 5381;
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, "::chat::InboxEntry");
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, conversation);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, isGroup);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, lastSequence);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, lastTimestamp);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, lastFrom);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, preview);
+        h_ = com.zeroc.IceInternal.HashUtil.hashAdd(h_, unread);
+        return h_;
+    }
+
+    public InboxEntry clone()
+    {
+        InboxEntry c = null;
+        try
+        {
+            c = (InboxEntry)super.clone();
+        }
+        catch(CloneNotSupportedException ex)
+        {
+            assert false; // impossible
+        }
+        return c;
+    }
+
+    public void ice_writeMembers(com.zeroc.Ice.OutputStream ostr)
+    {
+        ostr.writeString(this.conversation);
+        ostr.writeBool(this.isGroup);
+        ostr.writeLong(this.lastSequence);
+        ostr.writeLong(this.lastTimestamp);
+        ostr.writeString(this.lastFrom);
+        ostr.writeString(this.preview);
+        ostr.writeInt(this.unread);
+    }
+
+    public void ice_readMembers(com.zeroc.Ice.InputStream istr)
+    {
+        this.conversation = istr.readString();
+        this.isGroup = istr.readBool();
+        this.lastSequence = istr.readLong();
+        this.lastTimestamp = istr.readLong();
+        this.lastFrom = istr.readString();
+        this.preview = istr.readString();
+        this.unread = istr.readInt();
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, InboxEntry v)
+    {
+        if(v == null)
+        {
+            _nullMarshalValue.ice_writeMembers(ostr);
+        }
+        else
+        {
+            v.ice_writeMembers(ostr);
+        }
+    }
+
+    static public InboxEntry ice_read(com.zeroc.Ice.InputStream istr)
+    {
+        InboxEntry v = new InboxEntry();
+        v.ice_readMembers(istr);
+        return v;
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, int tag, java.util.Optional<InboxEntry> v)
+    {
+        if(v != null && v.isPresent())
+        {
+            ice_write(ostr, tag, v.get());
+        }
+    }
+
+    static public void ice_write(com.zeroc.Ice.OutputStream ostr, int tag, InboxEntry v)
+    {
+        if(ostr.writeOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            int pos = ostr.startSize();
+            ice_write(ostr, v);
+            ostr.endSize(pos);
+        }
+    }
+
+    static public java.util.Optional<InboxEntry> ice_read(com.zeroc.Ice.InputStream istr, int tag)
+    {
+        if(istr.readOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            istr.skip(4);
+            return java.util.Optional.of(InboxEntry.ice_read(istr));
+        }
+        else
+        {
+            return java.util.Optional.empty();
+        }
+    }
+
+    private static final InboxEntry _nullMarshalValue = new InboxEntry();
+
+    /** @hidden */
+    public static final long serialVersionUID = 1305713481L;
+}
@@ -0,0 +1,83 @@
+//
+// Copyright (c) ZeroC, Inc. All rights reserved.
+//
+//
+// Ice version 3.7.10
+//
+// <auto-generated>
+//
+// Generated from file `chat.ice'
+//
+// Warning: do not edit this file.
+//
+// </auto-generated>
+//
+
+package chat;
+
+/**
+ * Helper class for marshaling/unmarshaling InboxSeq.
+ **/
+public final class InboxSeqHelper
+{
+    public static void write(com.zeroc.Ice.OutputStream ostr, InboxEntry[] v)
+    {
+        if(v == null)
+        {
+            ostr.writeSize(0);
+        }
+        else
+        {
+            ostr.writeSize(v.length);
+            for(int i0 = 0; i0 < v.length; i0++)
+            {
+                InboxEntry.ice_write(ostr, v[i0]);
+            }
+        }
+    }
+
+    public static InboxEntry[] read(com.zeroc.Ice.InputStream istr)
+    {
+        final InboxEntry[] v;
+        final int len0 = istr.readAndCheckSeqSize(24);
+        v = new InboxEntry[len0];
+        for(int i0 = 0; i0 < len0; i0++)
+        {
+            v[i0] = InboxEntry.ice_read(istr);
+        }
+        return v;
+    }
+
+    public static void write(com.zeroc.Ice.OutputStream ostr, int tag, java.util.Optional<InboxEntry[]> v)
+    {
+        if(v != null && v.isPresent())
+        {
+            write(ostr, tag, v.get());
+        }
+    }
+
+    public static void write(com.zeroc.Ice.OutputStream ostr, int tag, InboxEntry[] v)
+    {
+        if(ostr.writeOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            int pos = ostr.startSize();
+            InboxSeqHelper.write(ostr, v);
+            ostr.endSize(pos);
+        }
+    }
+
+    public static java.util.Optional<InboxEntry[]> read(com.zeroc.Ice.InputStream istr, int tag)
+    {
+        if(istr.readOptional(tag, com.zeroc.Ice.OptionalFormat.FSize))
+        {
+            istr.skip(4);
+            InboxEntry[] v;
+            v = InboxSeqHelper.read(istr);
+            return java.util.Optional.of(v);
+        }
+        else
+        {
+            return java.util.Optional.empty();
+        }
+    }
+}
@@ -11,6 +11,7 @@ public class Message implements java.io.Serializable {
     private final String content;
     private final boolean isGroup;
     private final Date timestamp;
+    private long sequence;
 
     public Message(String from, String to, String content, boolean isGroup) {
         this.id = UUID.randomUUID().toString();
@@ -39,6 +40,10 @@ public class Message implements java.io.Serializable {
 
     public String getSender() { return from; }
 
+    // Posición del mensaje dentro de su conversación; la asigna la persistencia al guardarlo
+    public long getSequence() { return sequence; }
+    public void setSequence(long sequence) { this.sequence = sequence; }
+
     @Override
     public String toString() {
         return "[" + timestamp + "] " + from + " -> " + to + ": " + content;
@@ -0,0 +1,47 @@
+package network;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Búferes directos de tamaño fijo que se reutilizan: una lectura toma uno, lo decodifica y lo
+ * devuelve, así que la memoria de lectura depende de los hilos del reactor y no de la cantidad
+ * de conexiones. Guarda a lo sumo {@code maxPooled}; los que sobran quedan para el GC.
+ */
+class BufferPool {
+    private final int bufferBytes;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final AtomicInteger allocated = new AtomicInteger();
+
+    BufferPool(int bufferBytes, int maxPooled) {
+        this.bufferBytes = Math.max(1024, bufferBytes);
+        this.maxPooled = Math.max(1, maxPooled);
+    }
+
+    ByteBuffer acquire() {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            allocated.incrementAndGet();
+            return ByteBuffer.allocateDirect(bufferBytes);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer) {
+        buffer.clear();
+        if (pooled.incrementAndGet() <= maxPooled) {
+            free.offer(buffer);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("búferes=%d libres=%d de %d bytes", allocated.get(), pooled.get(), bufferBytes);
+    }
+}
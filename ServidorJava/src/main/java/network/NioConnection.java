@@ -0,0 +1,229 @@
+package network;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Conexión de texto atendida por {@link NioReactor}: el mismo protocolo de líneas y los mismos
+ * callbacks de {@link TCPConnectionListener} que {@link TCPConnection}, pero sin hilo propio.
+ *
+ * Lectura: el hilo del reactor le pasa lo recién leído y la conexión arma las líneas de a poco;
+ * entre lecturas sólo guarda la línea incompleta (nada si no hay ninguna a medias). Los
+ * callbacks corren en el hilo del reactor.
+ *
+ * Escritura: enviar no bloquea. Se escribe lo que el socket acepta y el resto queda en cola
+ * hasta que el reactor avisa que se puede seguir; si la cola pasa de {@code maxPendingBytes}
+ * (un cliente que no lee) la conexión se cierra.
+ */
+public class NioConnection extends TCPConnection {
+    // Una línea a medio llegar más grande que esto no se conserva al terminarla
+    private static final int KEEP_PARTIAL_BYTES = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final TCPConnectionListener listener;
+    private final int maxFrameBytes;
+    private final long maxPendingBytes;
+    private final AtomicBoolean open = new AtomicBoolean(true);
+    // Salida pendiente; su candado también ordena las escrituras de distintos hilos
+    private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+    private long pendingBytes;
+    private volatile SelectionKey key;
+    // Línea incompleta; sólo la toca el hilo del reactor
+    private byte[] partial;
+    private int partialLength;
+
+    NioConnection(SocketChannel channel, TCPConnectionListener listener, int maxFrameBytes, long maxPendingBytes) {
+        super(channel.socket());
+        this.channel = channel;
+        this.listener = listener;
+        this.maxFrameBytes = maxFrameBytes;
+        this.maxPendingBytes = maxPendingBytes;
+    }
+
+    SocketChannel channel() {
+        return channel;
+    }
+
+    /**
+     * Desde el hilo del reactor: se registra en su selector y avisa que la conexión está lista.
+     */
+    void register(Selector selector) throws IOException {
+        key = channel.register(selector, SelectionKey.OP_READ, this);
+        listener.onConnectionReady(this);
+        synchronized (outbound) {
+            flushLocked();
+        }
+    }
+
+    /**
+     * Separa {@code buffer} en líneas terminadas en '\n' (sin el '\r' final, como readLine) y las
+     * entrega al listener; lo que queda sin terminar espera la próxima lectura.
+     */
+    void decode(ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining() && open.get()) {
+            int start = buffer.position();
+            int end = start;
+            int limit = buffer.limit();
+            while (end < limit && buffer.get(end) != '\n') {
+                end++;
+            }
+            append(buffer, end - start);
+            if (end == limit) {
+                return;
+            }
+            buffer.get();
+            int length = partialLength;
+            if (length > 0 && partial[length - 1] == '\r') {
+                length--;
+            }
+            String line = length == 0 ? "" : new String(partial, 0, length, StandardCharsets.UTF_8);
+            partialLength = 0;
+            if (partial != null && partial.length > KEEP_PARTIAL_BYTES) {
+                partial = null;
+            }
+            listener.onReceiveObject(this, line);
+        }
+    }
+
+    private void append(ByteBuffer buffer, int count) throws IOException {
+        if (count == 0) {
+            return;
+        }
+        int needed = partialLength + count;
+        if (needed > maxFrameBytes) {
+            throw new IOException("Línea de más de " + maxFrameBytes + " bytes desde " + getRemoteAddress());
+        }
+        if (partial == null || partial.length < needed) {
+            long capacity = partial == null ? 256 : partial.length;
+            while (capacity < needed) {
+                capacity *= 2;
+            }
+            byte[] grown = new byte[(int) Math.min(capacity, maxFrameBytes)];
+            if (partialLength > 0) {
+                System.arraycopy(partial, 0, grown, 0, partialLength);
+            }
+            partial = grown;
+        }
+        buffer.get(partial, partialLength, count);
+        partialLength = needed;
+    }
+
+    /**
+     * Desde el hilo del reactor: el socket acepta más datos.
+     */
+    void writable() throws IOException {
+        synchronized (outbound) {
+            flushLocked();
+        }
+    }
+
+    @Override
+    public void sendObject(Serializable object) {
+        enqueue(List.of(object));
+    }
+
+    @Override
+    public boolean sendObjects(List<? extends Serializable> objects) {
+        return enqueue(objects);
+    }
+
+    private boolean enqueue(List<? extends Serializable> objects) {
+        if (!open.get()) {
+            return false;
+        }
+        IOException failure = null;
+        synchronized (outbound) {
+            for (Serializable object : objects) {
+                String text = object instanceof String s ? s : object.toString();
+                byte[] bytes = (text + "\n").getBytes(StandardCharsets.UTF_8);
+                outbound.add(ByteBuffer.wrap(bytes));
+                pendingBytes += bytes.length;
+            }
+            if (pendingBytes > maxPendingBytes) {
+                failure = new IOException("Cliente lento: " + pendingBytes + " bytes sin leer en " + getRemoteAddress());
+            } else {
+                try {
+                    flushLocked();
+                } catch (IOException e) {
+                    failure = e;
+                }
+            }
+        }
+        if (failure != null) {
+            failed(failure);
+            return false;
+        }
+        return open.get();
+    }
+
+    // Escribe sin bloquear lo que entre; con datos pendientes pide al reactor avisar cuando se pueda seguir
+    private void flushLocked() throws IOException {
+        while (!outbound.isEmpty()) {
+            ByteBuffer head = outbound.peek();
+            pendingBytes -= channel.write(head);
+            if (head.hasRemaining()) {
+                break;
+            }
+            outbound.poll();
+        }
+        SelectionKey current = key;
+        if (current == null) {
+            // Todavía sin registrar: register() vuelve a intentar
+            return;
+        }
+        int ops = outbound.isEmpty() ? SelectionKey.OP_READ : SelectionKey.OP_READ | SelectionKey.OP_WRITE;
+        try {
+            if (current.interestOps() != ops) {
+                current.interestOps(ops);
+                current.selector().wakeup();
+            }
+        } catch (CancelledKeyException e) {
+            throw new ClosedChannelException();
+        }
+    }
+
+    /**
+     * Error de lectura o escritura: se informa (si la conexión seguía abierta) y se cierra.
+     */
+    void failed(Exception e) {
+        if (open.get()) {
+            listener.onException(this, e);
+        }
+        disconnect();
+    }
+
+    @Override
+    public void disconnect() {
+        if (!open.compareAndSet(true, false)) {
+            return;
+        }
+        SelectionKey current = key;
+        if (current != null) {
+            current.cancel();
+        }
+        try {
+            channel.close();
+        } catch (IOException ignored) {
+        }
+        synchronized (outbound) {
+            outbound.clear();
+            pendingBytes = 0;
+        }
+        listener.onDisconnect(this);
+    }
+
+    @Override
+    public boolean isConnected() {
+        return open.get() && channel.isOpen();
+    }
+}
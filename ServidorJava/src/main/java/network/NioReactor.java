@@ -0,0 +1,194 @@
+package network;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Frente TCP con java.nio: unos pocos hilos, cada uno con su {@link Selector}, atienden todas
+ * las conexiones en lugar de un hilo bloqueado por socket. Quien llama a {@link #serve} acepta
+ * conexiones y las reparte en ronda entre los hilos; cada conexión queda para siempre en el
+ * mismo hilo, así que sus líneas llegan al listener en orden y de a una.
+ *
+ * Las lecturas usan búferes directos de un {@link BufferPool} compartido (uno por lectura en
+ * curso, no uno por conexión) y {@link NioConnection} arma las líneas. El listener es el mismo
+ * {@link TCPConnectionListener} del modo con hilos.
+ */
+public class NioReactor implements Closeable {
+    private static final int EVENT_LOOPS = Integer.getInteger("chat.tcp.eventLoops",
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors())));
+    // Conexiones en espera de accept; con el valor por omisión (50) una ráfaga de reconexiones pierde SYN
+    private static final int BACKLOG = Integer.getInteger("chat.tcp.backlog", 1024);
+    private static final int BUFFER_BYTES = Integer.getInteger("chat.tcp.bufferBytes", 16 * 1024);
+    // Tope de una línea (un comando); los audios en base64 son las más largas
+    private static final int MAX_FRAME_BYTES = Integer.getInteger("chat.tcp.maxFrameBytes", 16 * 1024 * 1024);
+    // Salida sin leer que se tolera antes de cerrar a un cliente lento
+    private static final long MAX_PENDING_BYTES = Long.getLong("chat.tcp.maxPendingBytes", 32L * 1024 * 1024);
+
+    private final TCPConnectionListener listener;
+    private final BufferPool buffers;
+    private final EventLoop[] loops;
+    private final AtomicInteger nextLoop = new AtomicInteger();
+    private final AtomicLong accepted = new AtomicLong();
+    private volatile ServerSocketChannel server;
+    private volatile boolean running = true;
+
+    public NioReactor(TCPConnectionListener listener) throws IOException {
+        this(listener, EVENT_LOOPS);
+    }
+
+    public NioReactor(TCPConnectionListener listener, int eventLoops) throws IOException {
+        this.listener = listener;
+        this.loops = new EventLoop[Math.max(1, eventLoops)];
+        this.buffers = new BufferPool(BUFFER_BYTES, 4 * loops.length);
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(i + 1);
+        }
+    }
+
+    public int getEventLoops() {
+        return loops.length;
+    }
+
+    /**
+     * Abre el puerto y acepta conexiones en el hilo que llama hasta {@link #close}.
+     */
+    public void serve(int port) throws IOException {
+        server = ServerSocketChannel.open();
+        server.bind(new InetSocketAddress(port), BACKLOG);
+        for (EventLoop loop : loops) {
+            loop.thread.start();
+        }
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = server.accept();
+            } catch (ClosedChannelException e) {
+                break;
+            } catch (IOException e) {
+                System.err.println("⚠️ Error al aceptar conexión: " + e.getMessage());
+                continue;
+            }
+            try {
+                channel.configureBlocking(false);
+            } catch (IOException e) {
+                System.err.println("⚠️ Error al aceptar conexión: " + e.getMessage());
+                channel.close();
+                continue;
+            }
+            accepted.incrementAndGet();
+            NioConnection connection = new NioConnection(channel, listener, MAX_FRAME_BYTES, MAX_PENDING_BYTES);
+            loops[Math.floorMod(nextLoop.getAndIncrement(), loops.length)].add(connection);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        running = false;
+        if (server != null) {
+            server.close();
+        }
+        for (EventLoop loop : loops) {
+            loop.selector.wakeup();
+        }
+    }
+
+    @Override
+    public String toString() {
+        int open = 0;
+        for (EventLoop loop : loops) {
+            open += loop.selector.keys().size();
+        }
+        return String.format("hilos=%d aceptadas=%d abiertas=%d %s", loops.length, accepted.get(), open, buffers);
+    }
+
+    private final class EventLoop implements Runnable {
+        final Selector selector;
+        final Thread thread;
+        // Conexiones aceptadas que este hilo todavía no registró en su selector
+        final ConcurrentLinkedQueue<NioConnection> incoming = new ConcurrentLinkedQueue<>();
+
+        EventLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "tcp-loop-" + index);
+            this.thread.setDaemon(true);
+        }
+
+        void add(NioConnection connection) {
+            incoming.add(connection);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("❌ Error en el selector TCP: " + e.getMessage());
+                    return;
+                }
+                NioConnection connection;
+                while ((connection = incoming.poll()) != null) {
+                    try {
+                        connection.register(selector);
+                    } catch (IOException e) {
+                        connection.failed(e);
+                    }
+                }
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    handle(key, (NioConnection) key.attachment());
+                }
+            }
+            try {
+                selector.close();
+            } catch (IOException ignored) {
+            }
+        }
+
+        private void handle(SelectionKey key, NioConnection connection) {
+            try {
+                if (key.isValid() && key.isWritable()) {
+                    connection.writable();
+                }
+                if (key.isValid() && key.isReadable()) {
+                    read(connection);
+                }
+            } catch (IOException e) {
+                connection.failed(e);
+            } catch (RuntimeException e) {
+                // Un error del listener no debe tumbar el hilo: como en el modo con hilos, se cierra esa conexión
+                System.err.println("❌ Error atendiendo " + connection.getRemoteAddress() + ": " + e);
+                connection.disconnect();
+            }
+        }
+
+        private void read(NioConnection connection) throws IOException {
+            ByteBuffer buffer = buffers.acquire();
+            try {
+                int read = connection.channel().read(buffer);
+                if (read < 0) {
+                    connection.disconnect();
+                    return;
+                }
+                buffer.flip();
+                connection.decode(buffer);
+            } finally {
+                buffers.release(buffer);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package network;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Ejecutor en serie por clave sobre un pool compartido: las tareas de una misma clave (una
+ * conexión) corren de a una y en el orden en que llegaron; las de claves distintas, en paralelo
+ * en los hilos del pool. Ninguna clave tiene hilo propio: mientras tiene tareas ocupa a lo sumo
+ * un hilo del pool y, cuando se vacía, desaparece del mapa.
+ *
+ * Una clave con más de {@code maxQueued} tareas esperando no acepta más ({@link #execute}
+ * devuelve false): quien la alimenta es más rápido que lo que se procesa y conviene cortarlo
+ * antes que dejar crecer la cola sin límite. Para repartir el pool, una clave ocupada suelta el
+ * hilo cada {@code BATCH} tareas y vuelve al final de la cola del pool.
+ */
+public class SerialExecutor<K> {
+    private static final int BATCH = 32;
+
+    private final class Serial implements Runnable {
+        final K key;
+        final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        boolean scheduled;
+        // Ya salió del mapa: quien lo encuentre tiene que pedir otro
+        boolean retired;
+
+        Serial(K key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH; i++) {
+                Runnable task;
+                synchronized (this) {
+                    task = tasks.poll();
+                    if (task == null) {
+                        scheduled = false;
+                        retired = true;
+                        serials.remove(key, this);
+                        return;
+                    }
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    System.err.println("❌ Error en tarea de " + key + ": " + e);
+                }
+                completed.incrementAndGet();
+            }
+            synchronized (this) {
+                if (tasks.isEmpty()) {
+                    scheduled = false;
+                    retired = true;
+                    serials.remove(key, this);
+                    return;
+                }
+            }
+            workers.execute(this);
+        }
+    }
+
+    private final Executor workers;
+    private final int maxQueued;
+    private final Map<K, Serial> serials = new ConcurrentHashMap<>();
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public SerialExecutor(Executor workers, int maxQueued) {
+        this.workers = workers;
+        this.maxQueued = Math.max(1, maxQueued);
+    }
+
+    /**
+     * Encola {@code task} detrás de las demás de {@code key}. Devuelve false, sin encolarla, si la
+     * clave ya tiene {@code maxQueued} tareas esperando.
+     */
+    public boolean execute(K key, Runnable task) {
+        while (true) {
+            Serial serial = serials.computeIfAbsent(key, Serial::new);
+            synchronized (serial) {
+                if (serial.retired) {
+                    continue;
+                }
+                if (serial.tasks.size() >= maxQueued) {
+                    rejected.incrementAndGet();
+                    return false;
+                }
+                serial.tasks.add(task);
+                if (serial.scheduled) {
+                    return true;
+                }
+                serial.scheduled = true;
+            }
+            workers.execute(serial);
+            return true;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("clavesActivas=%d completadas=%d rechazadas=%d", serials.size(), completed.get(),
+                rejected.get());
+    }
+}
@@ -2,6 +2,8 @@ package network;
 
 import java.io.*;
 import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * TCPConnection compatible con:
@@ -9,8 +11,15 @@ import java.net.Socket;
  * - clientes que usan texto (BufferedReader / PrintWriter) (modo texto)
  *
  * Detecta el modo en el arranque y luego procesa mensajes acorde a ese modo.
+ *
+ * Cada conexión tiene un hilo lector bloqueado en el socket; de qué tipo es lo decide la
+ * {@link ThreadFactory} que se pasa al crearla (ver {@link Threads}).
  */
 public class TCPConnection {
+    // readLine arma líneas más largas que el búfer: un búfer chico no limita los mensajes y cada conexión inactiva pesa menos
+    private static final int READ_BUFFER_CHARS = Integer.getInteger("chat.tcp.readBufferChars", 8192);
+    private static final ThreadFactory DEFAULT_READERS = Threads.platform("tcp-reader-");
+
     private final Socket socket;
 
     // Streams para modo objeto
@@ -29,16 +38,33 @@ public class TCPConnection {
     private boolean textMode = false;
 
     public TCPConnection(Socket socket, TCPConnectionListener listener) throws IOException {
+        this(socket, listener, DEFAULT_READERS);
+    }
+
+    /**
+     * {@code readers} crea el hilo que lee la conexión: de plataforma o virtual.
+     */
+    public TCPConnection(Socket socket, TCPConnectionListener listener, ThreadFactory readers) throws IOException {
         this.socket = socket;
         this.listener = listener;
         this.connected = true;
 
         // ⚠️ Forzamos modo texto SIEMPRE para compatibilidad con Node
         this.textMode = true;
-        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+        this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()), READ_BUFFER_CHARS);
         this.writer = new PrintWriter(new BufferedWriter(new OutputStreamWriter(socket.getOutputStream())), true);
 
-        startListening();
+        startListening(readers);
+    }
+
+    /**
+     * Para conexiones que no leen con un hilo propio ({@link NioConnection}): sin streams ni
+     * hilo lector; la subclase reemplaza el envío, la desconexión y el estado.
+     */
+    protected TCPConnection(Socket socket) {
+        this.socket = socket;
+        this.connected = true;
+        this.textMode = true;
     }
 
 
@@ -47,8 +73,8 @@ public class TCPConnection {
         this(new Socket(ip, port), listener);
     }
 
-    private void startListening() {
-        listenerThread = new Thread(() -> {
+    private void startListening(ThreadFactory readers) {
+        listenerThread = readers.newThread(() -> {
             try {
                 // Notificar que la conexión está lista
                 if (listener != null) {
@@ -62,10 +88,9 @@ public class TCPConnection {
                         if (listener != null) listener.onReceiveObject(this, obj);
                     }
                 } else {
-                    // modo texto: leer líneas con soporte para líneas largas
-                    BufferedReader largeLineReader = new BufferedReader(new InputStreamReader(socket.getInputStream()), 1024 * 1024); // 1MB buffer
+                    // modo texto: leer líneas (de cualquier largo)
                     String line;
-                    while (connected && (line = largeLineReader.readLine()) != null) {
+                    while (connected && (line = reader.readLine()) != null) {
                         if (listener != null) listener.onReceiveObject(this, line);
                     }
                 }
@@ -77,7 +102,6 @@ public class TCPConnection {
                 disconnect(); // asegura limpieza y onDisconnect
             }
         });
-        listenerThread.setDaemon(true);
         listenerThread.start();
     }
 
@@ -108,14 +132,46 @@ public class TCPConnection {
         }
     }
 
+    /**
+     * Envía varios objetos seguidos con un solo flush al final. Devuelve false si la conexión ya
+     * estaba cerrada o se cortó mientras se escribía.
+     */
+    public synchronized boolean sendObjects(List<? extends Serializable> objects) {
+        if (!connected) return false;
+
+        try {
+            if (!textMode) {
+                for (Serializable object : objects) {
+                    objectOutputStream.writeObject(object);
+                }
+                objectOutputStream.flush();
+            } else {
+                // print en vez de println: con autoflush, println vaciaría el buffer en cada línea
+                for (Serializable object : objects) {
+                    writer.print(object instanceof String s ? s : object.toString());
+                    writer.print(System.lineSeparator());
+                }
+                writer.flush();
+                if (writer.checkError()) {
+                    throw new IOException("Error escribiendo a " + getRemoteAddress());
+                }
+            }
+        } catch (IOException e) {
+            if (listener != null) listener.onException(this, e);
+            return false;
+        }
+        return connected;
+    }
+
     public synchronized void disconnect() {
         connected = false;
         try {
+            // Primero el socket: corta el readLine del hilo lector, que tiene tomado el candado del reader
+            try { if (socket != null && !socket.isClosed()) socket.close(); } catch (IOException ignored) {}
             try { if (objectOutputStream != null) objectOutputStream.close(); } catch (IOException ignored) {}
             try { if (objectInputStream != null) objectInputStream.close(); } catch (IOException ignored) {}
             try { if (reader != null) reader.close(); } catch (IOException ignored) {}
             try { if (writer != null) writer.close(); } catch (Exception ignored) {}
-            try { if (socket != null && !socket.isClosed()) socket.close(); } catch (IOException ignored) {}
             if (listener != null) listener.onDisconnect(this);
         } catch (Exception e) {
             if (listener != null) listener.onException(this, e instanceof Exception ? (Exception) e : new Exception(e));
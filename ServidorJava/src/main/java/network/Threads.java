@@ -0,0 +1,72 @@
+package network;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Fábricas de hilos para el modo de ejecución del servidor: hilos de plataforma (uno del sistema
+ * operativo por hilo, con su pila nativa) o hilos virtuales (Java 21+), que mientras esperan E/S
+ * no ocupan un hilo del sistema y guardan su pila en el heap. Con miles de conexiones casi
+ * siempre inactivas, cada lector bloqueado en {@code readLine} cuesta unos pocos KB en vez de
+ * una pila de plataforma.
+ *
+ * Los hilos virtuales se crean por reflexión ({@code Thread.ofVirtual()}), así que el servidor
+ * sigue compilando y corriendo en Java 17: si no están disponibles se usan hilos de plataforma y
+ * {@link #virtualAvailable()} devuelve false.
+ */
+public final class Threads {
+    private static final Method OF_VIRTUAL = findOfVirtual();
+
+    private Threads() {
+    }
+
+    private static Method findOfVirtual() {
+        try {
+            Method ofVirtual = Thread.class.getMethod("ofVirtual");
+            // En Java 19/20 el método existe pero falla sin --enable-preview
+            ofVirtual.invoke(null);
+            return ofVirtual;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    public static boolean virtualAvailable() {
+        return OF_VIRTUAL != null;
+    }
+
+    /**
+     * Hilos daemon de plataforma llamados {@code prefix + n}.
+     */
+    public static ThreadFactory platform(String prefix) {
+        AtomicInteger created = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + created.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Hilos virtuales llamados {@code prefix + n} (siempre son daemon); hilos de plataforma si la
+     * JVM no los tiene.
+     */
+    public static ThreadFactory virtual(String prefix) {
+        if (OF_VIRTUAL == null) {
+            return platform(prefix);
+        }
+        try {
+            Object builder = OF_VIRTUAL.invoke(null);
+            Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, prefix, 1L);
+            return (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            return platform(prefix);
+        }
+    }
+
+    public static ThreadFactory forMode(boolean virtual, String prefix) {
+        return virtual ? virtual(prefix) : platform(prefix);
+    }
+}
@@ -0,0 +1,355 @@
+package persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Almacén de notas de voz direccionado por contenido.
+ *
+ * Los bytes de cada audio se guardan una sola vez en data/audio/blobs/, con el SHA-256 del
+ * contenido como nombre (repartido con {@link ShardLayout}). Cada audioId apunta a un blob y cada
+ * blob lleva la cuenta de cuántos audioId lo usan: reenviar la misma nota a muchos chats no ocupa
+ * más espacio, y el blob se borra cuando se libera su última referencia.
+ *
+ * La ruta de siempre (data/audio/ab/cd/{audioId}.audio) se conserva como enlace duro al blob,
+ * porque el proxy Node.js escribe y lee los audios directamente ahí. Donde el sistema de archivos
+ * no admite enlaces duros queda la copia, sin deduplicar.
+ *
+ * El mapa audioId -> hash se guarda en un diario (data/audio/blobs/refs, un {@link ConversationLog})
+ * que se reaplica al abrir; cuando las entradas muertas superan a las vivas se reescribe.
+ *
+ * El hash, la escritura del blob, los enlaces y el fsync del diario van fuera del monitor; con él
+ * tomado sólo se agrega al diario y se actualizan las cuentas. {@link #resolve} no lo toma, así
+ * que las descargas no esperan a las subidas.
+ */
+class AudioBlobStore implements Closeable {
+    private static final String BLOB_SUFFIX = ".blob";
+    private static final String REFS_DIR = "refs";
+    private static final long REFS_SEGMENT_BYTES = 256 * 1024;
+    private static final int REFS_INDEX_INTERVAL = 256;
+    private static final byte OP_ADD = 1;
+    private static final byte OP_REMOVE = 2;
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final ShardLayout audioLayout;
+    private final ShardLayout blobLayout;
+    private final File refsDirectory;
+    private ConversationLog refs;
+
+    private final Map<String, String> hashById = new ConcurrentHashMap<>();
+    // Las cuentas, el diario y deadEntries van con el monitor
+    private final Map<String, Integer> refCounts = new HashMap<>();
+    private long deadEntries;
+    private final AtomicLong dedupedBytes = new AtomicLong();
+    private final AtomicInteger linkFailures = new AtomicInteger();
+
+    AudioBlobStore(ShardLayout audioLayout, File blobDirectory) throws IOException {
+        this.audioLayout = audioLayout;
+        this.blobLayout = new ShardLayout(blobDirectory);
+        this.refsDirectory = new File(blobDirectory, REFS_DIR);
+        if (!blobDirectory.isDirectory() && !blobDirectory.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio " + blobDirectory);
+        }
+        refs = openRefs(refsDirectory);
+        for (LogRecord record : refs.readAll()) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+            in.readLong();
+            byte op = in.readByte();
+            String audioId = in.readUTF();
+            String hash = in.readUTF();
+            if (op == OP_ADD) {
+                addRef(audioId, hash);
+            } else if (op == OP_REMOVE) {
+                removeRef(audioId);
+                deadEntries += 2;
+            } else {
+                throw new IOException("Operación desconocida en el diario de audios: " + op);
+            }
+        }
+    }
+
+    private static ConversationLog openRefs(File directory) throws IOException {
+        return new ConversationLog(directory, REFS_SEGMENT_BYTES, REFS_INDEX_INTERVAL,
+                payload -> ByteBuffer.wrap(payload).getLong());
+    }
+
+    /**
+     * Guarda los bytes de un audio que llegó en memoria (conexión TCP).
+     */
+    void store(String audioId, byte[] data) throws IOException {
+        if (hashById.containsKey(audioId)) {
+            return;
+        }
+        String hash = toHex(digest().digest(data));
+        File blob = blobLayout.shardedFile(hash + BLOB_SUFFIX);
+        if (!blob.exists()) {
+            // Temporal propio del audio: dos subidas del mismo contenido no comparten archivo
+            File tmp = new File(blobLayout.prepareSharded(hash + BLOB_SUFFIX).getPath() + "." + audioId + ".tmp");
+            try (FileOutputStream out = new FileOutputStream(tmp)) {
+                out.write(data);
+                out.getChannel().force(false);
+            }
+            Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            dedupedBytes.addAndGet(data.length);
+        }
+        File target = audioLayout.resolve(audioId + ".audio");
+        if (!target.exists()) {
+            target = audioLayout.prepareSharded(audioId + ".audio");
+            link(blob, target, data);
+        } else {
+            replaceWithLink(target, blob);
+        }
+        commitAdd(audioId, hash, target);
+    }
+
+    /**
+     * Incorpora un audio que ya está en su ruta por id (lo escribió el proxy): si el contenido
+     * ya existe como blob, el archivo se reemplaza por un enlace y sus bytes se liberan.
+     */
+    boolean ingest(String audioId) throws IOException {
+        if (hashById.containsKey(audioId)) {
+            return false;
+        }
+        File file = audioLayout.resolve(audioId + ".audio");
+        if (!file.isFile()) {
+            return false;
+        }
+        MessageDigest digest = digest();
+        try (InputStream in = new DigestInputStream(new BufferedInputStream(new FileInputStream(file)), digest)) {
+            in.transferTo(OutputStream.nullOutputStream());
+        }
+        String hash = toHex(digest.digest());
+        File blob = blobLayout.shardedFile(hash + BLOB_SUFFIX);
+        if (blob.exists()) {
+            long length = file.length();
+            if (replaceWithLink(file, blob)) {
+                dedupedBytes.addAndGet(length);
+            }
+        } else {
+            // El archivo pasa a ser el blob: un enlace más, sin copiar bytes
+            try {
+                Files.createLink(blobLayout.prepareSharded(hash + BLOB_SUFFIX).toPath(), file.toPath());
+            } catch (FileAlreadyExistsException e) {
+                // Otro audio con el mismo contenido lo creó en el medio
+                replaceWithLink(file, blob);
+            } catch (UnsupportedOperationException | IOException e) {
+                Files.copy(file.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                linkFailed(e);
+            }
+        }
+        return commitAdd(audioId, hash, file);
+    }
+
+    /**
+     * Archivo con los bytes del audio, o null si el id no pasó por este almacén.
+     */
+    File resolve(String audioId) {
+        String hash = hashById.get(audioId);
+        if (hash == null) {
+            return null;
+        }
+        File blob = blobLayout.shardedFile(hash + BLOB_SUFFIX);
+        return blob.exists() ? blob : null;
+    }
+
+    boolean contains(String audioId) {
+        return hashById.containsKey(audioId);
+    }
+
+    /**
+     * Suelta la referencia del audio: borra su ruta por id y, si era la última, el blob.
+     */
+    void release(String audioId) throws IOException {
+        ConversationLog journal;
+        synchronized (this) {
+            File file = audioLayout.resolve(audioId + ".audio");
+            String hash = hashById.get(audioId);
+            journal = refs;
+            if (hash != null) {
+                journal.append(encode(OP_REMOVE, audioId, hash));
+                removeRef(audioId);
+                deadEntries += 2;
+                // Con el monitor: un store del mismo contenido no puede sumarse entre la cuenta y el borrado
+                if (refCounts.getOrDefault(hash, 0) == 0) {
+                    Files.deleteIfExists(blobLayout.shardedFile(hash + BLOB_SUFFIX).toPath());
+                }
+            }
+            Files.deleteIfExists(file.toPath());
+            if (deadEntries > 2L * hashById.size() + REFS_INDEX_INTERVAL) {
+                // Poco frecuente; el diario nuevo ya queda en disco
+                rewriteRefs();
+                return;
+            }
+        }
+        journal.sync();
+    }
+
+    /**
+     * Agrega la referencia al diario y a los mapas, y después fuerza el diario a disco fuera del
+     * monitor. {@code file} es la ruta por id del audio: si un release del mismo contenido borró
+     * el blob mientras se enlazaba, se vuelve a crear desde ahí. False si el id ya estaba.
+     */
+    private boolean commitAdd(String audioId, String hash, File file) throws IOException {
+        ConversationLog journal;
+        synchronized (this) {
+            if (hashById.containsKey(audioId)) {
+                return false;
+            }
+            File blob = blobLayout.shardedFile(hash + BLOB_SUFFIX);
+            if (!blob.exists()) {
+                try {
+                    Files.createLink(blobLayout.prepareSharded(hash + BLOB_SUFFIX).toPath(), file.toPath());
+                } catch (UnsupportedOperationException | IOException e) {
+                    Files.copy(file.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    linkFailed(e);
+                }
+            }
+            journal = refs;
+            journal.append(encode(OP_ADD, audioId, hash));
+            addRef(audioId, hash);
+        }
+        // Si una reescritura cerró este diario, sync no hace nada: el nuevo ya tiene la entrada en disco
+        journal.sync();
+        return true;
+    }
+
+    private static byte[] encode(byte op, String audioId, String hash) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeByte(op);
+            out.writeUTF(audioId);
+            out.writeUTF(hash);
+        }
+        return bytes.toByteArray();
+    }
+
+    private void addRef(String audioId, String hash) {
+        String previous = hashById.put(audioId, hash);
+        if (previous != null) {
+            refCounts.merge(previous, -1, Integer::sum);
+        }
+        refCounts.merge(hash, 1, Integer::sum);
+    }
+
+    private void removeRef(String audioId) {
+        String hash = hashById.remove(audioId);
+        if (hash != null && refCounts.merge(hash, -1, Integer::sum) <= 0) {
+            refCounts.remove(hash);
+        }
+    }
+
+    // Diario nuevo con sólo las referencias vivas, en un directorio aparte que después toma su lugar
+    private void rewriteRefs() throws IOException {
+        File fresh = new File(refsDirectory.getPath() + ".new");
+        File old = new File(refsDirectory.getPath() + ".old");
+        deleteDirectory(fresh);
+        try (ConversationLog log = openRefs(fresh)) {
+            for (Map.Entry<String, String> entry : hashById.entrySet()) {
+                log.append(encode(OP_ADD, entry.getKey(), entry.getValue()));
+            }
+            log.sync();
+        }
+        refs.close();
+        Files.move(refsDirectory.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(fresh.toPath(), refsDirectory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteDirectory(old);
+        refs = openRefs(refsDirectory);
+        deadEntries = 0;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    // El archivo por id queda como enlace al blob (reemplazo atómico); false si no se pudo enlazar
+    private boolean replaceWithLink(File file, File blob) throws IOException {
+        File tmp = new File(file.getPath() + ".link");
+        try {
+            Files.deleteIfExists(tmp.toPath());
+            Files.createLink(tmp.toPath(), blob.toPath());
+        } catch (UnsupportedOperationException | IOException e) {
+            linkFailed(e);
+            return false;
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private void link(File blob, File target, byte[] data) throws IOException {
+        try {
+            Files.createLink(target.toPath(), blob.toPath());
+        } catch (FileAlreadyExistsException e) {
+            replaceWithLink(target, blob);
+        } catch (UnsupportedOperationException | IOException e) {
+            linkFailed(e);
+            try (FileOutputStream out = new FileOutputStream(target)) {
+                out.write(data);
+            }
+        }
+    }
+
+    private void linkFailed(Exception e) {
+        if (linkFailures.getAndIncrement() == 0) {
+            System.err.println("⚠️ No se pudo crear un enlace duro en data/audio (" + e.getMessage()
+                    + "); los audios repetidos quedan copiados");
+        }
+    }
+
+    /**
+     * Audios por id que todavía no pasaron por el almacén (anteriores a él).
+     */
+    List<String> listUnmapped() {
+        List<String> ids = audioLayout.list(ShardMigrator::isAudioEntry);
+        ids.replaceAll(name -> name.substring(0, name.length() - ".audio".length()));
+        ids.removeIf(hashById::containsKey);
+        return ids;
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 no disponible", e);
+        }
+    }
+
+    private static String toHex(byte[] hash) {
+        char[] chars = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("audios=%d blobs=%d bytesDeduplicados=%d enlacesFallidos=%d",
+                hashById.size(), refCounts.size(), dedupedBytes.get(), linkFailures.get());
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        refs.close();
+    }
+}
@@ -0,0 +1,19 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Almacén de los metadatos de las notas de voz de cada conversación (id, autor, tamaño,
+ * duración). Los datos de audio en sí siguen en data/audio; acá sólo va el registro que los
+ * ubica en la conversación. Lo implementan los mismos backends que {@link MessageStore}.
+ */
+public interface AudioMetaStore extends Closeable {
+
+    /**
+     * Log de metadatos de audio de la conversación; lo crea si no existe.
+     */
+    MessageLog openAudio(String conversation) throws IOException;
+
+    boolean hasAudio(String conversation);
+}
@@ -2,16 +2,181 @@ package persistence;
 
 import model.Message;
 import model.AudioMessage;
+import util.AudioCodec;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ChatHistory {
-    private static final String HISTORY_DIR = "data/history/";
-    private static final String AUDIO_DIR = "data/audio/";
+    // Raíz de todo lo que guarda el servidor (historial, audios, grupos, colas, bandeja)
+    static final String DATA_DIR = System.getProperty("chat.data.dir", "data") + "/";
+    static final String HISTORY_DIR = DATA_DIR + "history/";
+    static final String DICTIONARY_FILE = "names.dict";
+    static final String AUDIO_DIR = DATA_DIR + "audio/";
+    private static final String AUDIO_BLOB_DIR = AUDIO_DIR + "blobs";
+    private static final String AUDIO_LOG_SUFFIX = FileMessageStore.AUDIO_SUFFIX;
+    private static final String GROUP_PREFIX = "group_";
+    private static final String PAIR_PREFIX = "pair_";
+    static final long SEGMENT_MAX_BYTES = Long.getLong("chat.history.segmentBytes", 4L * 1024 * 1024);
+    private static final int CACHE_TAIL_SIZE = Integer.getInteger("chat.history.cacheTail", 500);
+    private static final long CACHE_MAX_MESSAGES = Long.getLong("chat.history.cacheMessages", 50_000L);
+    private static final long CACHE_MAX_BYTES = Long.getLong("chat.history.cacheBytes", 32L * 1024 * 1024);
+    static final int INDEX_INTERVAL = Integer.getInteger("chat.history.indexInterval", 64);
+    private static final int FULL_READ_PAGE_SIZE = 1000;
+    private static final String DURABILITY = System.getProperty("chat.history.durability", "batch-fsync");
+    private static final long FSYNC_INTERVAL_MS = Long.getLong("chat.history.fsyncIntervalMs", 100L);
+    private static final int WRITE_QUEUE_CAPACITY = Integer.getInteger("chat.history.writeQueue", 8192);
+    private static final int WRITE_MAX_BATCH = Integer.getInteger("chat.history.maxBatch", 512);
+    private static final long COMPACT_INTERVAL_MS = Long.getLong("chat.history.compactIntervalMs", 10 * 60 * 1000L);
+    private static final long COMPACT_BYTES_PER_SEC = Long.getLong("chat.history.compactBytesPerSec", 8L * 1024 * 1024);
+    // Días que se conservan los mensajes (0 = siempre); por grupo con chat.history.retentionDays.{grupo}
+    private static final long RETENTION_DAYS = Long.getLong("chat.history.retentionDays", 0L);
+    private static final long DAY_MILLIS = 24L * 60 * 60 * 1000;
+    // Migración en línea al esquema fragmentado (entradas movidas por segundo; 0 = sin límite)
+    private static final boolean SHARD_MIGRATION = Boolean.parseBoolean(System.getProperty("chat.storage.shardMigration", "true"));
+    // Hilos de la pasada de recuperación al arrancar (0 = abrir cada log en su primer acceso)
+    private static final int RECOVERY_THREADS = Integer.getInteger("chat.history.recoveryThreads",
+            Runtime.getRuntime().availableProcessors());
+    private static final long SHARD_MIGRATION_PER_SEC = Long.getLong("chat.storage.shardMigrationPerSec", 500L);
+    // Backend del historial: "file" (un log por conversación) o "mvstore" (un archivo clave-valor de H2)
+    private static final String STORE = System.getProperty("chat.history.store", "file");
+    private static final String MVSTORE_FILE = System.getProperty("chat.history.mvstoreFile", DATA_DIR + "kv/history.mv.db");
+    // Tamaño máximo de un tramo de audio por llamada (por debajo del Ice.MessageSizeMax de 1 MB)
+    public static final int MAX_AUDIO_CHUNK = Integer.getInteger("chat.audio.maxChunkBytes", 256 * 1024);
+    // Bandeja: cursores de lectura, largo del resumen del último mensaje y tope de no leídos
+    private static final String INBOX_DIR = DATA_DIR + "inbox";
+    private static final int INBOX_PREVIEW_CHARS = Integer.getInteger("chat.inbox.previewChars", 80);
+    private static final int INBOX_MAX_UNREAD = Integer.getInteger("chat.inbox.maxUnread", 999);
+
+    // Un log abierto por conversación; se reutiliza entre envíos
+    private final Map<String, MessageLog> logs = new ConcurrentHashMap<>();
+    private final ConversationCache cache = new ConversationCache(CACHE_TAIL_SIZE, CACHE_MAX_MESSAGES, CACHE_MAX_BYTES);
+    private final NameDictionary dictionary;
+    private final MessageCodec codec;
+    private final FileMessageStore fileStore;
+    private final MessageStore messageStore;
+    private final AudioMetaStore audioMetaStore;
+    private final HistoryWriter writer;
+    private final SearchIndex searchIndex = new SearchIndex();
+    private final HistoryCompactor compactor;
+    private final HistoryRecovery recovery = new HistoryRecovery(RECOVERY_THREADS);
+    private final ShardLayout historyLayout = new ShardLayout(new File(HISTORY_DIR));
+    private final ShardLayout audioLayout = new ShardLayout(new File(AUDIO_DIR));
+    private final AudioBlobStore audioBlobs;
+    private final InboxIndex inboxIndex;
+    private final AtomicLong audioBytesIn = new AtomicLong();
+    private final AtomicLong audioBytesStored = new AtomicLong();
+    // Compactación y migración comparten un hilo: nunca tocan el mismo log a la vez
+    private final ScheduledExecutorService maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "history-maintenance");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    // Compresión al guardar de los WAV PCM que sube el proxy. Los navegadores reproducen µ-law en
+    // WAV pero no IMA ADPCM
+    private static final AudioCodec.Format UPLOAD_CODEC = AudioCodec.Format.parse(System.getProperty("chat.audio.uploadCodec", "ulaw"));
+    // Un buffer directo por hilo para los tramos de audio: se reutiliza y no ocupa el heap
+    private static final ThreadLocal<ByteBuffer> AUDIO_CHUNK_BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(MAX_AUDIO_CHUNK));
+    // Conversaciones privadas de cada usuario; se arma en la primera búsqueda
+    private Map<String, Set<String>> privateConversations;
 
     public ChatHistory() {
         createDirectories();
+        try {
+            dictionary = new NameDictionary(new File(HISTORY_DIR + DICTIONARY_FILE));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo abrir el diccionario de nombres: " + e.getMessage(), e);
+        }
+        codec = new MessageCodec(dictionary);
+        HistoryConverter converter = new HistoryConverter(new File(HISTORY_DIR), dictionary, SEGMENT_MAX_BYTES, INDEX_INTERVAL);
+        try {
+            new PrivateHistoryMigration(new File(HISTORY_DIR), codec, converter, SEGMENT_MAX_BYTES, INDEX_INTERVAL)
+                    .migrateIfNeeded();
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo migrar el historial privado: " + e.getMessage(), e);
+        }
+        fileStore = new FileMessageStore(historyLayout, converter, SEGMENT_MAX_BYTES, INDEX_INTERVAL, MessageCodec::timestampOf);
+        switch (STORE) {
+            case "file" -> {
+                messageStore = fileStore;
+                audioMetaStore = fileStore;
+            }
+            case "mvstore" -> {
+                // Lo que sigue en archivos se importa al abrir cada conversación
+                MVStoreMessageStore kv = new MVStoreMessageStore(new File(MVSTORE_FILE), fileStore, INDEX_INTERVAL,
+                        MessageCodec::timestampOf);
+                messageStore = kv;
+                audioMetaStore = kv;
+            }
+            default -> throw new IllegalStateException("Almacén de historial desconocido: " + STORE);
+        }
+        System.out.println("🗄️ Almacén del historial: " + messageStore);
+        try {
+            audioBlobs = new AudioBlobStore(audioLayout, new File(AUDIO_BLOB_DIR));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo abrir el almacén de audios: " + e.getMessage(), e);
+        }
+        try {
+            inboxIndex = new InboxIndex(new File(INBOX_DIR), new InboxLoader(), INBOX_PREVIEW_CHARS, INBOX_MAX_UNREAD);
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo abrir la bandeja: " + e.getMessage(), e);
+        }
+
+        if (RECOVERY_THREADS > 0 && messageStore == fileStore) {
+            try {
+                logs.putAll(fileStore.recover(recovery));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        writer = new HistoryWriter(HistoryWriter.Durability.parse(DURABILITY), FSYNC_INTERVAL_MS,
+                WRITE_QUEUE_CAPACITY, WRITE_MAX_BATCH, dictionary);
+        compactor = new HistoryCompactor(maintenance, new CompactionTarget(), COMPACT_INTERVAL_MS, COMPACT_BYTES_PER_SEC);
+
+        ShardMigrator migrator = new ShardMigrator(historyLayout, audioLayout, this::moveToShard, SHARD_MIGRATION_PER_SEC);
+        if (SHARD_MIGRATION && migrator.isNeeded()) {
+            maintenance.execute(() -> {
+                try {
+                    migrator.migrate();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        // Después de la migración (mismo hilo): los audios anteriores pasan a blobs deduplicados
+        maintenance.execute(this::ingestExistingAudio);
+    }
+
+    private void ingestExistingAudio() {
+        List<String> pending = audioBlobs.listUnmapped();
+        if (pending.isEmpty()) {
+            return;
+        }
+        int ingested = 0;
+        for (String audioId : pending) {
+            try {
+                if (audioBlobs.ingest(audioId)) {
+                    ingested++;
+                }
+            } catch (IOException e) {
+                System.err.println("Error deduplicando audio " + audioId + ": " + e.getMessage());
+            }
+        }
+        System.out.println("🎵 Audios existentes pasados a blobs: " + ingested + " (" + audioBlobs + ")");
     }
 
     private void createDirectories() {
@@ -19,187 +184,604 @@ public class ChatHistory {
         new File(AUDIO_DIR).mkdirs();
     }
 
-    public void saveMessage(Message message) {
-        if (message == null) return;
+    /**
+     * Encola el mensaje en el hilo de escritura. El futuro se completa cuando el mensaje está
+     * guardado según el modo de durabilidad configurado (ver {@link HistoryWriter}).
+     */
+    public CompletableFuture<Long> saveMessage(Message message) {
+        if (message == null) return CompletableFuture.completedFuture(0L);
 
-        String filename = getHistoryFilename(message.getTo(), message.isGroupMessage());
-        List<Message> messages = loadMessages(message.getTo(), message.isGroupMessage());
-        messages.add(message);
-
-        saveMessagesToFile(messages, filename);
+        String conversationName = getConversationName(message.getFrom(), message.getTo(), message.isGroupMessage());
+        try {
+            MessageLog log = getLog(conversationName, "");
+            return writer.submit(log, () -> codec.encode(message), sequence -> {
+                message.setSequence(sequence);
+                cache.append(conversationName, message);
+                searchIndex.add(conversationName, sequence, message.getTimestamp().getTime(), message.getContent());
+                try {
+                    inboxIndex.messageSaved(conversationName, sequence, message);
+                } catch (IOException e) {
+                    System.err.println("Error actualizando la bandeja: " + e.getMessage());
+                }
+            });
+        } catch (IOException e) {
+            System.err.println("Error guardando mensaje: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
     }
 
-    public void saveAudioMessage(AudioMessage audioMessage) {
-        if (audioMessage == null) return;
+    public CompletableFuture<Long> saveAudioMessage(AudioMessage audioMessage) {
+        if (audioMessage == null) return CompletableFuture.completedFuture(0L);
+
+        // Guardar datos de audio en archivo separado
+        saveAudioData(audioMessage);
 
         // Guardar metadatos del audio
-        String filename = getHistoryFilename(audioMessage.getTo(), audioMessage.isGroupMessage()) + "_audio";
-        List<AudioMessage> audioMessages = loadAudioMessages(audioMessage.getTo(), audioMessage.isGroupMessage());
-        audioMessages.add(audioMessage);
+        String conversationName = getConversationName(audioMessage.getFrom(), audioMessage.getTo(),
+                audioMessage.isGroupMessage());
+        try {
+            MessageLog log = getLog(conversationName, AUDIO_LOG_SUFFIX);
+            return writer.submit(log, () -> codec.encodeAudio(audioMessage),
+                    sequence -> inboxIndex.audioSaved(conversationName, audioMessage));
+        } catch (IOException e) {
+            System.err.println("Error guardando audio messages: " + e.getMessage());
+            return CompletableFuture.failedFuture(e);
+        }
+    }
 
-        saveAudioMessagesToFile(audioMessages, filename);
+    /**
+     * Indica si el modo de durabilidad obliga a esperar el fsync antes de confirmar un envío.
+     */
+    public boolean waitsForSync() {
+        return writer.waitsForSync();
+    }
 
-        // Guardar datos de audio en archivo separado
-        saveAudioData(audioMessage);
+    public String getWriterStats() {
+        return writer.toString();
+    }
+
+    /**
+     * Ejecuta ya una pasada de compactación y retención (normalmente corre sola cada
+     * chat.history.compactIntervalMs).
+     */
+    public void compactNow() {
+        compactor.compactNow();
     }
 
-    private void saveMessagesToFile(List<Message> messages, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            for (Message message : messages) {
-                writer.println(serializeMessage(message));
+    public String getRecoveryStats() {
+        return recovery.toString();
+    }
+
+    public String getStoreStats() {
+        return messageStore.toString();
+    }
+
+    public String getCompactorStats() {
+        return compactor.toString();
+    }
+
+    private class CompactionTarget implements HistoryCompactor.Target {
+        @Override
+        public List<String> conversations() {
+            // MVStore compacta su propio archivo; la compactación por segmentos es del backend de archivos
+            return messageStore == fileStore ? fileStore.logKeys() : Collections.emptyList();
+        }
+
+        @Override
+        public ConversationLog getLog(String key) throws IOException {
+            if (key.endsWith(AUDIO_LOG_SUFFIX)) {
+                return (ConversationLog) ChatHistory.this.getLog(key.substring(0, key.length() - AUDIO_LOG_SUFFIX.length()),
+                        AUDIO_LOG_SUFFIX);
             }
-        } catch (IOException e) {
-            System.err.println("Error guardando mensajes: " + e.getMessage());
+            return (ConversationLog) ChatHistory.this.getLog(key, "");
+        }
+
+        @Override
+        public long retainFrom(String key, long now) {
+            long days = RETENTION_DAYS;
+            if (key.startsWith(GROUP_PREFIX)) {
+                String group = key.substring(GROUP_PREFIX.length());
+                if (group.endsWith(AUDIO_LOG_SUFFIX)) {
+                    group = group.substring(0, group.length() - AUDIO_LOG_SUFFIX.length());
+                }
+                days = Long.getLong("chat.history.retentionDays." + group, RETENTION_DAYS);
+            }
+            return days > 0 ? now - days * DAY_MILLIS : Long.MIN_VALUE;
+        }
+
+        @Override
+        public void dropped(String key, LogRecord record) {
+            if (!key.endsWith(AUDIO_LOG_SUFFIX)) {
+                return;
+            }
+            // Con los metadatos vencidos se suelta la referencia al audio (el blob, si era la última)
+            AudioMessage audioMessage = decodeAudioMessage(record);
+            if (audioMessage != null) {
+                try {
+                    audioBlobs.release(audioMessage.getId());
+                } catch (IOException e) {
+                    System.err.println("Error liberando audio " + audioMessage.getId() + ": " + e.getMessage());
+                }
+            }
+        }
+
+        @Override
+        public void compacted(String key) {
+            cache.remove(key);
+            searchIndex.remove(key);
         }
     }
 
-    private void saveAudioMessagesToFile(List<AudioMessage> audioMessages, String filename) {
-        try (PrintWriter writer = new PrintWriter(new FileWriter(filename))) {
-            for (AudioMessage audioMessage : audioMessages) {
-                writer.println(serializeAudioMessage(audioMessage));
+    /**
+     * Escribe lo pendiente, hace el último fsync y cierra los logs abiertos.
+     */
+    public void close() {
+        // Una compactación o migración en curso se corta sin dejar nada a medias
+        maintenance.shutdownNow();
+        try {
+            maintenance.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        writer.close();
+        for (MessageLog log : logs.values()) {
+            try {
+                log.close();
+            } catch (IOException e) {
+                System.err.println("Error cerrando historial: " + e.getMessage());
             }
+        }
+        try {
+            messageStore.close();
+            audioBlobs.close();
+            inboxIndex.close();
         } catch (IOException e) {
-            System.err.println("Error guardando audio messages: " + e.getMessage());
+            System.err.println("Error cerrando el almacén del historial: " + e.getMessage());
+        }
+        try {
+            dictionary.close();
+        } catch (IOException e) {
+            System.err.println("Error cerrando diccionario de nombres: " + e.getMessage());
         }
     }
 
-    private String serializeMessage(Message message) {
-        return String.format("id:%s|from:%s|to:%s|content:%s|timestamp:%d|isGroup:%b",
-                message.getId(),
-                message.getFrom(),
-                message.getTo(),
-                escapeContent(message.getContent()),
-                message.getTimestamp().getTime(),
-                message.isGroupMessage()
-        );
-    }
-
-    private String serializeAudioMessage(AudioMessage audioMessage) {
-        return String.format("id:%s|from:%s|to:%s|timestamp:%d|isGroup:%b|duration:%d|size:%d",
-                audioMessage.getId(),
-                audioMessage.getFrom(),
-                audioMessage.getTo(),
-                audioMessage.getTimestamp().getTime(),
-                audioMessage.isGroupMessage(),
-                audioMessage.getDuration(),
-                audioMessage.getAudioSize()
-        );
-    }
-
-    private Message deserializeMessage(String line) {
-        try {
-            Map<String, String> data = parseLine(line);
-            Message message = new Message(
-                    data.get("from"),
-                    data.get("to"),
-                    unescapeContent(data.get("content")),
-                    Boolean.parseBoolean(data.get("isGroup"))
-            );
-            return message;
+    // Una lectura ve todo lo que ya se aceptó para la conversación aunque siga en la cola
+    private void awaitPendingWrites(String key) {
+        MessageLog log = logs.get(key);
+        if (log != null) {
+            writer.awaitWritten(log);
+        }
+    }
+
+    private Message decodeMessage(LogRecord record) {
+        try {
+            return codec.decode(record.getPayload(), record.getSequence());
         } catch (Exception e) {
-            System.err.println("Error deserializando mensaje: " + e.getMessage());
+            System.err.println("Error decodificando mensaje: " + e.getMessage());
             return null;
         }
     }
 
-    private AudioMessage deserializeAudioMessage(String line) {
+    private AudioMessage decodeAudioMessage(LogRecord record) {
         try {
-            Map<String, String> data = parseLine(line);
-            // Para audio, solo guardamos metadatos, los datos binarios se guardan aparte
-            AudioMessage audioMessage = new AudioMessage(
-                    data.get("id"),
-                    data.get("from"),
-                    data.get("to"),
-                    Boolean.parseBoolean(data.get("isGroup")),
-                    Long.parseLong(data.get("timestamp")),
-                    Integer.parseInt(data.get("audioSize")),
-                    Integer.parseInt(data.get("duration"))
-            );
-
-            return audioMessage;
+            return codec.decodeAudio(record.getPayload());
         } catch (Exception e) {
-            System.err.println("Error deserializando audio message: " + e.getMessage());
+            System.err.println("Error decodificando audio message: " + e.getMessage());
             return null;
         }
     }
 
-    private Map<String, String> parseLine(String line) {
-        Map<String, String> result = new HashMap<>();
-        String[] pairs = line.split("\\|");
-        for (String pair : pairs) {
-            String[] keyValue = pair.split(":", 2);
-            if (keyValue.length == 2) {
-                result.put(keyValue[0].trim(), keyValue[1].trim());
+    /**
+     * Por Ice el proxy Node.js ya escribió el archivo: si es un WAV PCM se reescribe comprimido y
+     * después se deduplica. Un mensaje que trae sus bytes en memoria se guarda tal cual.
+     */
+    private void saveAudioData(AudioMessage audioMessage) {
+        try {
+            if (audioMessage.getAudioData() != null) {
+                audioBlobs.store(audioMessage.getId(), audioMessage.getAudioData());
+            } else {
+                if (!audioBlobs.contains(audioMessage.getId())) {
+                    compressUploaded(audioMessage.getId());
+                }
+                audioBlobs.ingest(audioMessage.getId());
             }
+        } catch (IOException e) {
+            System.err.println("Error guardando datos de audio: " + e.getMessage());
         }
-        return result;
     }
 
-    private String escapeContent(String content) {
-        return content.replace("|", "\\|").replace(":", "\\:").replace("\n", "\\n");
+    private void compressUploaded(String audioId) throws IOException {
+        File file = audioLayout.resolve(audioId + ".audio");
+        if (UPLOAD_CODEC == AudioCodec.Format.PCM16 || !file.isFile()) {
+            return;
+        }
+        // Lo que sube el navegador suele venir ya comprimido (webm/ogg): basta con mirar la cabecera
+        try (FileInputStream in = new FileInputStream(file)) {
+            if (!AudioCodec.isWav(in.readNBytes(12))) {
+                return;
+            }
+        }
+        byte[] data = Files.readAllBytes(file.toPath());
+        byte[] encoded = AudioCodec.encode(data, UPLOAD_CODEC);
+        if (encoded == data) {
+            return;
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        Files.write(tmp.toPath(), encoded);
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        countCompression(data.length, encoded.length);
     }
 
-    private String unescapeContent(String content) {
-        return content.replace("\\|", "|").replace("\\:", ":").replace("\\n", "\n");
+    private void countCompression(long in, long stored) {
+        audioBytesIn.addAndGet(in);
+        audioBytesStored.addAndGet(stored);
     }
 
-    private void saveAudioData(AudioMessage audioMessage) {
-        // El audio ya está guardado por el proxy Node.js
-        // Solo guardamos si tenemos los datos binarios en memoria
-        if (audioMessage.getAudioData() != null) {
-            String audioFilename = AUDIO_DIR + audioMessage.getId() + ".audio";
-            try (FileOutputStream fos = new FileOutputStream(audioFilename)) {
-                fos.write(audioMessage.getAudioData());
-            } catch (IOException e) {
-                System.err.println("Error guardando datos de audio: " + e.getMessage());
+    /**
+     * Historial completo de una conversación. Se arma con el mismo motor paginado que
+     * {@link #loadMessagesPage}, recorriendo el log desde el final.
+     */
+    public List<Message> loadMessages(String username, String target, boolean isGroup) {
+        String conversationName = getConversationName(username, target, isGroup);
+        awaitPendingWrites(conversationName);
+        List<Message> cached = cache.getAll(conversationName);
+        if (cached != null) {
+            return cached;
+        }
+
+        LinkedList<List<Message>> pages = new LinkedList<>();
+        try {
+            if (!conversationExists(conversationName, "")) {
+                return new ArrayList<>();
             }
+            MessageLog log = getLog(conversationName, "");
+            // La lectura larga va sin el candado del log, que el hilo de escritura necesita para
+            // todas las conversaciones: se lee hasta la última secuencia de este momento
+            long upTo = log.getLastSequence();
+            HistoryPage page;
+            long cursor = upTo + 1;
+            do {
+                page = readPage(log, cursor, FULL_READ_PAGE_SIZE);
+                pages.addFirst(page.getMessages());
+                cursor = page.getNextCursor();
+            } while (page.hasMore());
+
+            List<Message> messages = new ArrayList<>();
+            pages.forEach(messages::addAll);
+            // Con el candado, corto: lo agregado en el medio y la caché, para que ningún append quede afuera
+            synchronized (log) {
+                for (LogRecord record : recordsAfter(log, upTo)) {
+                    Message message = decodeMessage(record);
+                    if (message != null) {
+                        messages.add(message);
+                    }
+                }
+                cache.put(conversationName, messages);
+            }
+            return messages;
+        } catch (IOException e) {
+            System.err.println("Error cargando mensajes: " + e.getMessage());
         }
+
+        return new ArrayList<>();
     }
 
-    public List<Message> loadMessages(String target, boolean isGroup) {
-        String filename = getHistoryFilename(target, isGroup);
-        List<Message> messages = new ArrayList<>();
+    /**
+     * Devuelve hasta {@code limit} mensajes anteriores a {@code beforeSequence} (0 = los más
+     * recientes) en orden cronológico, junto con el cursor para pedir la página anterior.
+     */
+    public HistoryPage loadMessagesPage(String username, String target, boolean isGroup, long beforeSequence, int limit) {
+        String conversationName = getConversationName(username, target, isGroup);
+        awaitPendingWrites(conversationName);
+        HistoryPage cached = cache.getPage(conversationName, beforeSequence, limit);
+        if (cached != null) {
+            return cached;
+        }
 
-        File file = new File(filename);
-        if (!file.exists()) {
-            return messages;
+        try {
+            if (conversationExists(conversationName, "")) {
+                return readPage(getLog(conversationName, ""), beforeSequence, limit);
+            }
+        } catch (IOException e) {
+            System.err.println("Error cargando página de mensajes: " + e.getMessage());
+        }
+        return new HistoryPage(new ArrayList<>(), 0, false);
+    }
+
+    /**
+     * Los registros posteriores a {@code afterSequence}, en orden. Se llama con el candado del
+     * log tomado después de una lectura larga hecha sin él: lee sólo la cola que faltó.
+     */
+    private static List<LogRecord> recordsAfter(MessageLog log, long afterSequence) throws IOException {
+        long missing = log.getLastSequence() - afterSequence;
+        if (missing <= 0) {
+            return Collections.emptyList();
+        }
+        List<LogRecord> records = new ArrayList<>();
+        for (LogRecord record : log.readBefore(0, (int) Math.min(missing, Integer.MAX_VALUE))) {
+            if (record.getSequence() > afterSequence) {
+                records.add(record);
+            }
         }
+        Collections.reverse(records);
+        return records;
+    }
+
+    private HistoryPage readPage(MessageLog log, long beforeSequence, int limit) throws IOException {
+        // Se pide un registro extra sólo para saber si quedan mensajes más viejos
+        List<LogRecord> records = log.readBefore(beforeSequence, limit + 1);
+        boolean hasMore = records.size() > limit;
+        List<LogRecord> pageRecords = hasMore ? records.subList(0, limit) : records;
+
+        LinkedList<Message> messages = new LinkedList<>();
+        for (LogRecord record : pageRecords) {
+            Message message = decodeMessage(record);
+            if (message != null) {
+                messages.addFirst(message);
+            }
+        }
+
+        // El cursor sale del registro para avanzar aunque alguno no se pueda decodificar
+        long nextCursor = pageRecords.isEmpty() ? 0 : pageRecords.get(pageRecords.size() - 1).getSequence();
+        return new HistoryPage(new ArrayList<>(messages), nextCursor, hasMore);
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                Message message = deserializeMessage(line);
+    /**
+     * Mensajes con timestamp entre {@code fromTimestamp} y {@code toTimestamp} (inclusive), en
+     * orden cronológico y como máximo {@code limit}. El índice de tiempo del log lleva la lectura
+     * directamente a la zona del rango.
+     */
+    public List<Message> loadMessagesRange(String username, String target, boolean isGroup,
+                                           long fromTimestamp, long toTimestamp, int limit) {
+        List<Message> messages = new ArrayList<>();
+        String conversationName = getConversationName(username, target, isGroup);
+        awaitPendingWrites(conversationName);
+
+        try {
+            if (!conversationExists(conversationName, "")) {
+                return messages;
+            }
+            for (LogRecord record : getLog(conversationName, "").readRange(fromTimestamp, toTimestamp, limit)) {
+                Message message = decodeMessage(record);
                 if (message != null) {
                     messages.add(message);
                 }
             }
         } catch (IOException e) {
-            System.err.println("Error cargando mensajes: " + e.getMessage());
+            System.err.println("Error cargando rango de mensajes: " + e.getMessage());
         }
+        return messages;
+    }
 
+    /**
+     * Busca {@code query} en las conversaciones privadas de {@code username} y en los grupos
+     * dados. Devuelve como máximo {@code limit} mensajes, del más reciente al más viejo.
+     */
+    public List<Message> searchMessages(String username, Collection<String> groups, String query, int limit) {
+        List<String> conversations = listPrivateConversations(username);
+        for (String group : groups) {
+            String conversationName = getConversationName(username, group, true);
+            if (conversationExists(conversationName, "")) {
+                conversations.add(conversationName);
+            }
+        }
+
+        List<Message> messages = new ArrayList<>();
+        try {
+            for (String conversationName : conversations) {
+                ensureIndexed(conversationName);
+            }
+            for (SearchIndex.Hit hit : searchIndex.search(conversations, query, limit)) {
+                // Directo al registro: segmento por secuencia y offset por el índice de tiempo
+                LogRecord record = getLog(hit.getConversation(), "").readAt(hit.getSequence(), hit.getTimestamp());
+                Message message = record == null ? null : decodeMessage(record);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Error buscando mensajes: " + e.getMessage());
+        }
         return messages;
     }
 
-    public List<AudioMessage> loadAudioMessages(String target, boolean isGroup) {
-        String filename = getHistoryFilename(target, isGroup) + "_audio";
-        List<AudioMessage> audioMessages = new ArrayList<>();
+    // La primera búsqueda en una conversación la indexa completa; después la mantiene saveMessage
+    private void ensureIndexed(String conversationName) throws IOException {
+        if (searchIndex.contains(conversationName)) {
+            return;
+        }
+        awaitPendingWrites(conversationName);
+        MessageLog log = getLog(conversationName, "");
+
+        // Se lee por páginas y se indexa aparte, sin el candado del log que necesita el hilo de escritura
+        long upTo = log.getLastSequence();
+        LinkedList<List<LogRecord>> pages = new LinkedList<>();
+        long cursor = upTo + 1;
+        List<LogRecord> page;
+        do {
+            page = log.readBefore(cursor, FULL_READ_PAGE_SIZE);
+            if (!page.isEmpty()) {
+                pages.addFirst(page);
+                cursor = page.get(page.size() - 1).getSequence();
+            }
+        } while (page.size() == FULL_READ_PAGE_SIZE);
 
-        File file = new File(filename);
-        if (!file.exists()) {
-            return audioMessages;
+        SearchIndex.ConversationIndex index = new SearchIndex.ConversationIndex();
+        for (List<LogRecord> records : pages) {
+            for (int i = records.size() - 1; i >= 0; i--) {
+                indexRecord(index, records.get(i));
+            }
+        }
+        // Con el candado, corto: lo agregado en el medio y la publicación; desde ahí lo mantiene saveMessage
+        synchronized (log) {
+            if (searchIndex.contains(conversationName)) {
+                return;
+            }
+            for (LogRecord record : recordsAfter(log, upTo)) {
+                indexRecord(index, record);
+            }
+            searchIndex.install(conversationName, index);
         }
+    }
 
-        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
-            String line;
-            while ((line = reader.readLine()) != null) {
-                AudioMessage audioMessage = deserializeAudioMessage(line);
-                if (audioMessage != null) {
-                    // Cargar datos de audio
-                    byte[] audioData = loadAudioData(audioMessage.getId());
-                    if (audioData != null) {
-                        // Necesitaríamos un método setter en AudioMessage para establecer los datos
-                        // audioMessage.setAudioData(audioData);
+    private void indexRecord(SearchIndex.ConversationIndex index, LogRecord record) {
+        Message message = decodeMessage(record);
+        if (message != null) {
+            index.add(record.getSequence(), message.getTimestamp().getTime(), message.getContent());
+        }
+    }
+
+    public String getSearchIndexStats() {
+        return searchIndex.toString();
+    }
+
+    /**
+     * Nombre y participantes de cada grupo que tiene historial, en orden de primera aparición
+     * (el primero se toma como creador). Lo usa el registro de grupos la primera vez que arranca,
+     * para no perder los grupos que sólo existían en memoria.
+     */
+    public Map<String, List<String>> recoverGroupMembers() {
+        Map<String, List<String>> membersByGroup = new LinkedHashMap<>();
+        for (String conversation : messageStore.conversations()) {
+            if (!conversation.startsWith(GROUP_PREFIX)) {
+                continue;
+            }
+            try {
+                Map<String, Set<String>> found = new LinkedHashMap<>();
+                for (LogRecord record : getLog(conversation, "").readAll()) {
+                    Message message = decodeMessage(record);
+                    if (message != null && message.isGroupMessage()) {
+                        found.computeIfAbsent(message.getTo(), group -> new LinkedHashSet<>()).add(message.getFrom());
                     }
+                }
+                found.forEach((group, members) -> membersByGroup.putIfAbsent(group, new ArrayList<>(members)));
+            } catch (IOException e) {
+                System.err.println("Error leyendo " + conversation + ": " + e.getMessage());
+            }
+        }
+        return membersByGroup;
+    }
+
+    /**
+     * Bandeja del usuario: sus conversaciones privadas y sus grupos, cada una con el último
+     * mensaje y los no leídos, la más reciente primero. Cada conversación se lee del log (sólo el
+     * último registro) la primera vez; después sale de memoria.
+     */
+    public List<ConversationSummary> getInbox(String username, Collection<String> groups) {
+        List<ConversationSummary> inbox = new ArrayList<>();
+        String self = safeName(username);
+        try {
+            for (String conversation : listPrivateConversations(username)) {
+                String[] participants = conversation.substring(PAIR_PREFIX.length()).split("-");
+                String other = participants[0].equals(self) ? participants[1] : participants[0];
+                inbox.add(inboxIndex.summary(username, conversation, other, false));
+            }
+            for (String group : groups) {
+                inbox.add(inboxIndex.summary(username, getConversationName(username, group, true), group, true));
+            }
+        } catch (IOException e) {
+            System.err.println("Error armando la bandeja de " + username + ": " + e.getMessage());
+        }
+        inbox.sort(Comparator.comparingLong(ConversationSummary::getLastTimestamp).reversed());
+        return inbox;
+    }
+
+    public String getInboxStats() {
+        return inboxIndex.toString();
+    }
+
+    /**
+     * Aplica un acuse de entrega y/o lectura de {@code username} en su conversación con
+     * {@code target} (ver {@link InboxIndex#acknowledge}). Devuelve el acuse vigente si cambió,
+     * null si no. Queda en disco con el siguiente {@link #syncReceipts}.
+     */
+    public Receipt acknowledge(String username, String target, boolean isGroup, long delivered, long read) {
+        try {
+            return inboxIndex.acknowledge(username, getConversationName(username, target, isGroup), target, isGroup,
+                    delivered, read);
+        } catch (IOException e) {
+            System.err.println("Error guardando el acuse de " + username + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    public void syncReceipts() {
+        try {
+            inboxIndex.syncReceipts();
+        } catch (IOException e) {
+            System.err.println("Error guardando los acuses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Sin esperar la cola de escritura ni tomar nada de la bandeja: {@link InboxIndex} llama a la
+     * carga fuera de su mapa, con la conversación marcada como cargando, y al terminar la combina
+     * con lo que el hilo de escritura anotó en el medio por {@link InboxIndex#messageSaved}.
+     */
+    private class InboxLoader implements InboxIndex.Loader {
+        @Override
+        public List<Message> latestMessages(String conversation, int limit) throws IOException {
+            List<Message> messages = new ArrayList<>();
+            if (!conversationExists(conversation, "")) {
+                return messages;
+            }
+            for (LogRecord record : getLog(conversation, "").readBefore(0, limit)) {
+                Message message = decodeMessage(record);
+                if (message != null) {
+                    messages.add(message);
+                }
+            }
+            return messages;
+        }
+
+        @Override
+        public AudioMessage latestAudio(String conversation) throws IOException {
+            if (!conversationExists(conversation, AUDIO_LOG_SUFFIX)) {
+                return null;
+            }
+            List<LogRecord> records = getLog(conversation, AUDIO_LOG_SUFFIX).readBefore(0, 1);
+            return records.isEmpty() ? null : decodeAudioMessage(records.get(0));
+        }
+    }
+
+    // Conversaciones pair_{a}-{b} en las que participa el usuario
+    private List<String> listPrivateConversations(String username) {
+        synchronized (logs) {
+            if (privateConversations == null) {
+                // Un solo listado del almacén; después se mantiene en getLog
+                privateConversations = new HashMap<>();
+                for (String name : messageStore.conversations()) {
+                    if (name.startsWith(PAIR_PREFIX)) {
+                        registerPrivateConversation(name);
+                    }
+                }
+            }
+            return new ArrayList<>(privateConversations.getOrDefault(safeName(username), Collections.emptySet()));
+        }
+    }
+
+    private void registerPrivateConversation(String key) {
+        String[] participants = key.substring(PAIR_PREFIX.length()).split("-");
+        if (participants.length == 2) {
+            privateConversations.computeIfAbsent(participants[0], user -> new TreeSet<>()).add(key);
+            privateConversations.computeIfAbsent(participants[1], user -> new TreeSet<>()).add(key);
+        }
+    }
+
+    /**
+     * Metadatos de los audios de una conversación (id, remitente, fecha, duración y tamaño), tal
+     * como están en su log .audio. No abre ningún archivo de audio: los bytes se piden aparte con
+     * {@link #readAudioChunk} o {@link #loadAudioData}.
+     */
+    public List<AudioMessage> loadAudioMessages(String username, String target, boolean isGroup) {
+        List<AudioMessage> audioMessages = new ArrayList<>();
+
+        try {
+            List<LogRecord> records = readLog(getConversationName(username, target, isGroup), AUDIO_LOG_SUFFIX);
+            audioMessages = new ArrayList<>(records.size());
+            for (LogRecord record : records) {
+                AudioMessage audioMessage = decodeAudioMessage(record);
+                if (audioMessage != null) {
                     audioMessages.add(audioMessage);
                 }
             }
@@ -211,26 +793,145 @@ public class ChatHistory {
     }
 
     public byte[] loadAudioData(String audioId) {
-        String audioFilename = AUDIO_DIR + audioId + ".audio";
-        File file = new File(audioFilename);
+        byte[] stored = loadStoredAudio(audioId);
+        // Se entrega siempre reproducible: lo comprimido al guardar vuelve como WAV PCM
+        return stored == null ? null : AudioCodec.decode(stored);
+    }
+
+    /**
+     * Bytes del audio tal como se guardaron (comprimidos si pasaron por el codec), o null.
+     */
+    public byte[] loadStoredAudio(String audioId) {
+        File blob = audioBlobs.resolve(audioId);
+        File file = blob != null ? blob : audioLayout.resolve(audioId + ".audio");
 
         if (!file.exists()) {
             return null;
         }
 
-        try (FileInputStream fis = new FileInputStream(audioFilename)) {
+        try (FileInputStream fis = new FileInputStream(file)) {
             return fis.readAllBytes();
+        } catch (FileNotFoundException e) {
+            // Lo movió la migración entre la búsqueda y la apertura
+            File moved = audioLayout.shardedFile(audioId + ".audio");
+            return blob != null || moved.equals(file) ? null : loadStoredAudio(audioId);
         } catch (IOException e) {
             System.err.println("Error cargando datos de audio: " + e.getMessage());
             return null;
         }
     }
 
+    /**
+     * Tramo de {@code length} bytes (como máximo {@link #MAX_AUDIO_CHUNK}) desde {@code offset},
+     * leído con FileChannel a un buffer directo del hilo: el archivo nunca se carga entero. El
+     * buffer sólo vale hasta la próxima lectura del mismo hilo: quien lo recibe tiene que
+     * serializarlo en ese hilo antes de volver a leer, o copiarlo si lo entrega a otro (como
+     * {@code getAudioChunkAsync}, que responde desde el pool de E/S). Devuelve un buffer vacío al
+     * pasar el final y null si el audio no existe.
+     */
+    public ByteBuffer readAudioChunk(String audioId, long offset, int length) throws IOException {
+        File blob = audioBlobs.resolve(audioId);
+        File file = blob != null ? blob : audioLayout.resolve(audioId + ".audio");
+        ByteBuffer buffer = AUDIO_CHUNK_BUFFER.get();
+        buffer.clear().limit(Math.min(Math.max(length, 0), MAX_AUDIO_CHUNK));
+
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long position = offset;
+            while (buffer.hasRemaining()) {
+                int read = channel.read(buffer, position);
+                if (read < 0) {
+                    break;
+                }
+                position += read;
+            }
+        } catch (NoSuchFileException e) {
+            // No existe, o lo movió la migración entre la búsqueda y la apertura
+            File moved = audioLayout.shardedFile(audioId + ".audio");
+            return blob != null || moved.equals(file) ? null : readAudioChunk(audioId, offset, length);
+        }
+        return buffer.flip();
+    }
+
+    public boolean audioExists(String audioId) {
+        return audioBlobs.contains(audioId) || audioLayout.exists(audioId + ".audio");
+    }
+
+    public String getAudioBlobStats() {
+        return audioBlobs + String.format(" codec=%s bytesRecibidos=%d bytesGuardados=%d",
+                UPLOAD_CODEC, audioBytesIn.get(), audioBytesStored.get());
+    }
+
+    public ConversationCache getCache() {
+        return cache;
+    }
+
+    private List<LogRecord> readLog(String conversationName, String suffix) throws IOException {
+        awaitPendingWrites(conversationName + suffix);
+        if (!conversationExists(conversationName, suffix)) {
+            return Collections.emptyList();
+        }
+        return getLog(conversationName, suffix).readAll();
+    }
+
+    // Evita crear conversaciones vacías al consultar las que nunca existieron
+    private boolean conversationExists(String conversationName, String suffix) {
+        return logs.containsKey(conversationName + suffix)
+                || (suffix.isEmpty() ? messageStore.exists(conversationName) : audioMetaStore.hasAudio(conversationName));
+    }
 
+    private MessageLog getLog(String conversationName, String suffix) throws IOException {
+        String key = conversationName + suffix;
+        MessageLog log = logs.get(key);
+        if (log != null) {
+            return log;
+        }
+        synchronized (logs) {
+            log = logs.get(key);
+            if (log == null) {
+                log = suffix.isEmpty() ? messageStore.open(conversationName) : audioMetaStore.openAudio(conversationName);
+                logs.put(key, log);
+                if (privateConversations != null && key.startsWith(PAIR_PREFIX) && suffix.isEmpty()) {
+                    registerPrivateConversation(key);
+                }
+            }
+            return log;
+        }
+    }
+
+    // Lo usa ShardMigrator: mueve la conversación a su subdirectorio aunque esté abierta
+    private void moveToShard(String key) throws IOException {
+        synchronized (logs) {
+            MessageLog log = logs.get(key);
+            if (!(log instanceof ConversationLog)) {
+                historyLayout.moveToShard(key);
+            } else if (!historyLayout.shardedFile(key).exists()) {
+                ((ConversationLog) log).relocate(historyLayout.prepareSharded(key));
+            }
+        }
+    }
+
+    /**
+     * Conversación de grupo: group_{grupo}. Privada: la pareja {@code username}/{@code target},
+     * la misma en los dos sentidos.
+     */
+    private String getConversationName(String username, String target, boolean isGroup) {
+        if (isGroup) {
+            return GROUP_PREFIX + safeName(target);
+        }
+        return privateConversationName(username, target);
+    }
+
+    /**
+     * Clave canónica de una conversación privada: pair_{a}-{b} con los nombres ordenados. El
+     * guion no puede aparecer en un nombre ya saneado, así que la clave no es ambigua.
+     */
+    static String privateConversationName(String userA, String userB) {
+        String a = safeName(userA);
+        String b = safeName(userB);
+        return a.compareTo(b) <= 0 ? PAIR_PREFIX + a + "-" + b : PAIR_PREFIX + b + "-" + a;
+    }
 
-    private String getHistoryFilename(String target, boolean isGroup) {
-        String prefix = isGroup ? "group_" : "user_";
-        String safeTarget = target.replaceAll("[^a-zA-Z0-9]", "_");
-        return HISTORY_DIR + prefix + safeTarget + ".txt";
+    private static String safeName(String name) {
+        return name.replaceAll("[^a-zA-Z0-9]", "_");
     }
 }
@@ -0,0 +1,177 @@
+package persistence;
+
+import model.Message;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caché LRU acotada con los últimos mensajes de las conversaciones más consultadas.
+ *
+ * Cada entrada guarda como máximo {@code tailSize} mensajes. Si la conversación completa
+ * cabe en la cola, la entrada queda marcada como completa y puede servir el historial
+ * entero sin tocar disco. El total de la caché se limita por número de mensajes y por
+ * bytes estimados; al superarse se descartan las conversaciones menos usadas.
+ */
+public class ConversationCache {
+    private static final int MESSAGE_OVERHEAD_BYTES = 96;
+
+    private static class Entry {
+        final ArrayDeque<Message> messages = new ArrayDeque<>();
+        boolean complete;
+        long bytes;
+    }
+
+    private final int tailSize;
+    private final long maxMessages;
+    private final long maxBytes;
+
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalMessages;
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public ConversationCache(int tailSize, long maxMessages, long maxBytes) {
+        this.tailSize = tailSize;
+        this.maxMessages = maxMessages;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Devuelve el historial completo si está en caché, o null si hay que ir a disco.
+     */
+    public synchronized List<Message> getAll(String key) {
+        Entry entry = entries.get(key);
+        if (entry == null || !entry.complete) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return new ArrayList<>(entry.messages);
+    }
+
+    /**
+     * Sirve una página desde la cola en memoria si alcanza para decidirla por completo:
+     * o hay más de {@code limit} mensajes anteriores al cursor, o la entrada tiene toda la
+     * conversación. En otro caso devuelve null y la página se lee del log.
+     */
+    public synchronized HistoryPage getPage(String key, long beforeSequence, int limit) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            long before = beforeSequence <= 0 ? Long.MAX_VALUE : beforeSequence;
+            LinkedList<Message> page = new LinkedList<>();
+            boolean hasMore = false;
+
+            Iterator<Message> it = entry.messages.descendingIterator();
+            while (it.hasNext()) {
+                Message message = it.next();
+                if (message.getSequence() >= before) continue;
+                if (page.size() == limit) {
+                    hasMore = true;
+                    break;
+                }
+                page.addFirst(message);
+            }
+
+            if (hasMore || entry.complete) {
+                hits.incrementAndGet();
+                long nextCursor = page.isEmpty() ? 0 : page.getFirst().getSequence();
+                return new HistoryPage(new ArrayList<>(page), nextCursor, hasMore);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Guarda la cola de un historial recién leído de disco.
+     */
+    public synchronized void put(String key, List<Message> history) {
+        remove(key);
+
+        Entry entry = new Entry();
+        int from = Math.max(0, history.size() - tailSize);
+        for (Message message : history.subList(from, history.size())) {
+            entry.messages.addLast(message);
+            entry.bytes += estimateBytes(message);
+        }
+        entry.complete = from == 0;
+
+        entries.put(key, entry);
+        totalMessages += entry.messages.size();
+        totalBytes += entry.bytes;
+        evictIfNeeded();
+    }
+
+    /**
+     * Write-through: agrega un mensaje recién persistido a la conversación si ya está en caché.
+     */
+    public synchronized void append(String key, Message message) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+
+        long size = estimateBytes(message);
+        entry.messages.addLast(message);
+        entry.bytes += size;
+        totalMessages++;
+        totalBytes += size;
+
+        if (entry.messages.size() > tailSize) {
+            Message dropped = entry.messages.removeFirst();
+            long droppedSize = estimateBytes(dropped);
+            entry.bytes -= droppedSize;
+            entry.complete = false;
+            totalMessages--;
+            totalBytes -= droppedSize;
+        }
+        evictIfNeeded();
+    }
+
+    public synchronized void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            totalMessages -= entry.messages.size();
+            totalBytes -= entry.bytes;
+        }
+    }
+
+    private void evictIfNeeded() {
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((totalMessages > maxMessages || totalBytes > maxBytes) && it.hasNext()) {
+            Entry eldest = it.next().getValue();
+            it.remove();
+            totalMessages -= eldest.messages.size();
+            totalBytes -= eldest.bytes;
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static long estimateBytes(Message message) {
+        long chars = length(message.getId()) + length(message.getFrom())
+                + length(message.getTo()) + length(message.getContent());
+        return MESSAGE_OVERHEAD_BYTES + chars * 2;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    public long getHits() { return hits.get(); }
+    public long getMisses() { return misses.get(); }
+    public long getEvictions() { return evictions.get(); }
+
+    public synchronized int getConversationCount() { return entries.size(); }
+    public synchronized long getMessageCount() { return totalMessages; }
+    public synchronized long getByteCount() { return totalBytes; }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d evictions=%d conversaciones=%d mensajes=%d bytes=%d",
+                getHits(), getMisses(), getEvictions(), getConversationCount(), getMessageCount(), getByteCount());
+    }
+}
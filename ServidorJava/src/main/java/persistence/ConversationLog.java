@@ -0,0 +1,997 @@
+package persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+import java.util.zip.CRC32C;
+
+/**
+ * Log append-only y segmentado de una conversación.
+ *
+ * Cada conversación vive en su propio directorio (por ejemplo data/history/group_Amigos/)
+ * con segmentos cuyo nombre es la secuencia del primer registro que contienen
+ * (00000000000000000001.seg, 00000000000000000845.seg, ...). Un envío sólo agrega un
+ * registro al segmento activo, así que su costo no depende del tamaño del historial.
+ * Cuando el segmento activo supera el límite configurado se abre uno nuevo.
+ *
+ * Cada registro es binario y va enmarcado por su longitud en ambos extremos:
+ * varint longitud | varint secuencia + contenido + CRC32C | varint longitud con los bytes invertidos.
+ * La longitud final permite recorrer el segmento hacia atrás, de modo que obtener los
+ * últimos N mensajes no lee el log completo. Los segmentos con CRC empiezan con un
+ * encabezado de 4 bytes; los escritos antes de agregarlo no lo tienen y se siguen leyendo,
+ * pero nunca se les agrega nada: el próximo envío abre un segmento nuevo.
+ *
+ * Al abrir el log se valida la cola del segmento activo (marco, CRC y secuencias
+ * consecutivas) y se trunca lo que haya dejado una escritura cortada por una caída. Sólo se
+ * recorre desde la última entrada del índice, así que abrir un log cuesta lo mismo sea cual
+ * sea su tamaño (ver {@link HistoryRecovery}).
+ *
+ * Junto a cada segmento se mantiene un índice disperso de tiempo ({@link SegmentIndex}) que
+ * permite saltar directamente a la zona de un rango de fechas sin decodificar el log completo.
+ *
+ * Los segmentos cerrados no cambian más, salvo por {@link #compact}: la compactación los lee
+ * sin tomar el candado y sólo lo toma para reemplazarlos por los nuevos.
+ *
+ * El formato de texto anterior se convierte a este con {@link HistoryConverter}.
+ */
+public class ConversationLog implements MessageLog {
+    static final String SEGMENT_SUFFIX = ".seg";
+    private static final int READ_CHUNK_BYTES = 8192;
+    private static final String COMPACT_DIR = "compact.tmp";
+    private static final String COMPACT_PLAN = "PLAN";
+    // Un registro nunca empieza con 0 (sería longitud 0): así se distingue del formato sin CRC
+    private static final byte[] SEGMENT_HEADER = {0, 'C', 'R', 'C'};
+    private static final int CRC_BYTES = 4;
+
+    private File directory;
+    private final long segmentMaxBytes;
+    private final int indexInterval;
+    private final ToLongFunction<byte[]> timestampOf;
+    private final List<File> segments = new ArrayList<>();
+    private final List<SegmentIndex> indexes = new ArrayList<>();
+
+    private FileOutputStream out;
+    private boolean dirty;
+    private long activeSize;
+    private boolean activeChecksummed;
+    private long lastSequence;
+    private long truncatedBytes;
+
+    /**
+     * @param indexInterval cada cuántos registros se agrega una entrada al índice de tiempo
+     * @param timestampOf   extrae el timestamp del contenido de un registro
+     */
+    public ConversationLog(File directory, long segmentMaxBytes, int indexInterval,
+                           ToLongFunction<byte[]> timestampOf) throws IOException {
+        this.directory = directory;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.indexInterval = Math.max(1, indexInterval);
+        this.timestampOf = timestampOf;
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("No se pudo crear el directorio " + directory);
+        }
+        loadSegments();
+    }
+
+    private void loadSegments() throws IOException {
+        recoverCompaction();
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SEGMENT_SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            segments.addAll(Arrays.asList(files));
+        }
+        if (!segments.isEmpty()) {
+            truncatedBytes = recoverTail(segments.get(segments.size() - 1));
+        }
+
+        long previousMax = Long.MIN_VALUE;
+        for (File segment : segments) {
+            SegmentIndex index = SegmentIndex.open(segment, previousMax, indexInterval, timestampOf);
+            indexes.add(index);
+            previousMax = index.getMaxTimestamp();
+        }
+
+        if (!segments.isEmpty()) {
+            File active = segments.get(segments.size() - 1);
+            activeSize = active.length();
+            // A un segmento vacío se le escribe el encabezado con el primer registro
+            activeChecksummed = activeSize == 0 || headerLength(active) > 0;
+
+            List<LogRecord> last = new ArrayList<>(1);
+            readSegmentBackward(active, Long.MAX_VALUE, 1, last);
+            lastSequence = last.isEmpty() ? baseSequence(active) - 1 : last.get(0).getSequence();
+            if (!last.isEmpty()) {
+                activeIndex().observe(timestampOf.applyAsLong(last.get(0).getPayload()));
+            }
+        }
+    }
+
+    private SegmentIndex activeIndex() {
+        return indexes.get(indexes.size() - 1);
+    }
+
+    private File segmentFile(long baseSequence) {
+        return new File(directory, String.format("%020d%s", baseSequence, SEGMENT_SUFFIX));
+    }
+
+    private static long baseSequence(File segment) {
+        String name = segment.getName();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * Bytes que ocupa el encabezado del segmento: 4 si sus registros llevan CRC, 0 si es del
+     * formato anterior. El primer registro empieza en ese offset.
+     */
+    static int headerLength(File segment) throws IOException {
+        try (FileInputStream in = new FileInputStream(segment)) {
+            return Arrays.equals(in.readNBytes(SEGMENT_HEADER.length), SEGMENT_HEADER) ? SEGMENT_HEADER.length : 0;
+        }
+    }
+
+    /**
+     * Valida la cola del segmento activo y trunca lo que quedó de una escritura interrumpida.
+     * Arranca desde la última entrada del índice (a lo sumo {@code indexInterval} registros);
+     * si ahí no hay un registro válido, recorre el segmento entero. Devuelve los bytes truncados.
+     */
+    private long recoverTail(File active) throws IOException {
+        long length = active.length();
+        int header = headerLength(active);
+        long checkpoint = SegmentIndex.lastOffset(active, header, length);
+
+        long end = checkpoint > header ? validEnd(active, header, checkpoint, -1) : checkpoint;
+        if (end == checkpoint) {
+            end = validEnd(active, header, header, baseSequence(active));
+        }
+        if (end == length) {
+            return 0;
+        }
+
+        try (RandomAccessFile file = new RandomAccessFile(active, "rw")) {
+            file.setLength(end);
+            file.getChannel().force(false);
+        }
+        System.out.println("✂️ Escritura incompleta truncada: " + directory.getName() + "/" + active.getName()
+                + " (" + (length - end) + " bytes)");
+        return length - end;
+    }
+
+    /**
+     * Offset donde termina el último registro válido a partir de {@code from}: marco completo,
+     * CRC correcto y secuencias consecutivas desde {@code expectedSequence} (-1 = cualquiera).
+     */
+    private static long validEnd(File segment, int header, long from, long expectedSequence) throws IOException {
+        long length = segment.length();
+        try (FileInputStream file = new FileInputStream(segment)) {
+            file.getChannel().position(from);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, READ_CHUNK_BYTES));
+            long position = from;
+            long expected = expectedSequence;
+
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return position;
+                }
+                try {
+                    long bodyLength = readVarint(in, first);
+                    int headerBytes = Varint.size(bodyLength);
+                    if (bodyLength <= 0 || position + 2L * headerBytes + bodyLength > length) {
+                        return position;
+                    }
+                    byte[] body = new byte[(int) bodyLength];
+                    in.readFully(body);
+                    byte[] trailer = new byte[headerBytes];
+                    in.readFully(trailer);
+
+                    ByteArrayOutputStream expectedTrailer = new ByteArrayOutputStream(headerBytes);
+                    Varint.writeReversed(expectedTrailer, bodyLength);
+                    LogRecord record = toRecord(body, header > 0);
+                    if (record == null || !Arrays.equals(trailer, expectedTrailer.toByteArray())
+                            || (expected >= 0 && record.getSequence() != expected)) {
+                        return position;
+                    }
+                    expected = record.getSequence() + 1;
+                    position += 2L * headerBytes + bodyLength;
+                } catch (EOFException e) {
+                    return position;
+                }
+            }
+        }
+    }
+
+    /**
+     * Agrega un registro al final del log y devuelve la secuencia que se le asignó.
+     * Rota de segmento si el activo ya está lleno.
+     */
+    @Override
+    public synchronized long append(byte[] record) throws IOException {
+        return appendBatch(Collections.singletonList(record));
+    }
+
+    /**
+     * Agrega varios registros con una sola escritura y devuelve la secuencia del primero; los
+     * demás quedan numerados a continuación. El lote entero va al mismo segmento, que puede
+     * pasarse del límite por lo que ocupe ese lote.
+     */
+    @Override
+    public synchronized long appendBatch(List<byte[]> records) throws IOException {
+        long firstSequence = lastSequence + 1;
+        if (out == null || activeSize >= segmentMaxBytes) {
+            openWriter(firstSequence);
+        }
+
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        long[] offsets = new long[records.size()];
+        long sequence = firstSequence;
+        for (int i = 0; i < records.size(); i++) {
+            offsets[i] = activeSize + frames.size();
+            writeFrame(frames, sequence++, records.get(i), true);
+        }
+
+        out.write(frames.toByteArray());
+        activeSize += frames.size();
+        lastSequence = sequence - 1;
+        dirty = true;
+
+        // El índice se escribe después de los registros: si se pierde una entrada sólo se lee un poco más
+        long base = baseSequence(segments.get(segments.size() - 1));
+        for (int i = 0; i < records.size(); i++) {
+            long positionInSegment = firstSequence + i - base;
+            activeIndex().record(timestampOf.applyAsLong(records.get(i)), offsets[i],
+                    positionInSegment % indexInterval == 0);
+        }
+        return firstSequence;
+    }
+
+    /**
+     * Fuerza a disco lo escrito en el segmento activo.
+     */
+    @Override
+    public synchronized void sync() throws IOException {
+        if (out != null && dirty) {
+            out.getChannel().force(false);
+        }
+        dirty = false;
+    }
+
+    private static void writeFrame(ByteArrayOutputStream frame, long sequence, byte[] record, boolean checksummed) {
+        int bodyLength = Varint.size(sequence) + record.length + (checksummed ? CRC_BYTES : 0);
+        Varint.write(frame, bodyLength);
+        Varint.write(frame, sequence);
+        frame.write(record, 0, record.length);
+        if (checksummed) {
+            int crc = checksum(sequence, record, 0, record.length);
+            frame.write(crc >>> 24);
+            frame.write(crc >>> 16);
+            frame.write(crc >>> 8);
+            frame.write(crc);
+        }
+        Varint.writeReversed(frame, bodyLength);
+    }
+
+    // CRC32C de la secuencia (8 bytes) y el contenido del registro
+    private static int checksum(long sequence, byte[] payload, int offset, int length) {
+        CRC32C crc = new CRC32C();
+        crc.update(ByteBuffer.allocate(Long.BYTES).putLong(0, sequence));
+        crc.update(payload, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private void openWriter(long nextSequence) throws IOException {
+        if (out != null) {
+            // Un segmento que se cierra queda siempre en disco, sea cual sea el modo de durabilidad
+            sync();
+            out.close();
+            out = null;
+        }
+
+        File active;
+        if (segments.isEmpty() || activeSize >= segmentMaxBytes || !activeChecksummed) {
+            long previousMax = indexes.isEmpty() ? Long.MIN_VALUE : activeIndex().getMaxTimestamp();
+            active = segmentFile(nextSequence);
+            segments.add(active);
+            indexes.add(SegmentIndex.create(active, previousMax));
+            activeSize = 0;
+        } else {
+            active = segments.get(segments.size() - 1);
+        }
+
+        out = new FileOutputStream(active, true);
+        if (activeSize == 0) {
+            out.write(SEGMENT_HEADER);
+            activeSize = SEGMENT_HEADER.length;
+            activeChecksummed = true;
+        }
+    }
+
+    /**
+     * Lee todos los registros del log en orden de escritura.
+     */
+    @Override
+    public synchronized List<LogRecord> readAll() throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        for (File segment : segments) {
+            forEachRecord(segment, 0, (offset, record) -> records.add(record));
+        }
+        return records;
+    }
+
+    /**
+     * Como {@link #readAll}, pero entrega los registros de a uno sin juntarlos en memoria.
+     */
+    synchronized void scan(RecordVisitor visitor) throws IOException {
+        for (File segment : segments) {
+            if (!forEachRecord(segment, 0, visitor)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Registros con secuencia mayor que {@code afterSequence}, en orden de escritura. Salta sin
+     * leerlos los segmentos que terminan antes.
+     */
+    @Override
+    public synchronized List<LogRecord> readAfter(long afterSequence) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        for (int i = 0; i < segments.size(); i++) {
+            if (i + 1 < segments.size() && baseSequence(segments.get(i + 1)) <= afterSequence + 1) {
+                continue; // el segmento siguiente ya empieza después del corte
+            }
+            forEachRecord(segments.get(i), 0, (offset, record) -> {
+                if (record.getSequence() > afterSequence) {
+                    records.add(record);
+                }
+                return true;
+            });
+        }
+        return records;
+    }
+
+    /**
+     * Devuelve hasta {@code limit} registros con secuencia menor que {@code beforeSequence},
+     * del más nuevo al más viejo. Un cursor menor o igual a cero significa "desde el final".
+     */
+    @Override
+    public synchronized List<LogRecord> readBefore(long beforeSequence, int limit) throws IOException {
+        long before = beforeSequence <= 0 ? Long.MAX_VALUE : beforeSequence;
+        List<LogRecord> records = new ArrayList<>(Math.max(0, limit));
+
+        for (int i = segments.size() - 1; i >= 0 && records.size() < limit; i--) {
+            File segment = segments.get(i);
+            if (baseSequence(segment) >= before) {
+                continue; // todo el segmento es posterior al cursor
+            }
+            readSegmentBackward(segment, before, limit, records);
+        }
+        return records;
+    }
+
+    /**
+     * Devuelve hasta {@code limit} registros con timestamp entre {@code fromTimestamp} y
+     * {@code toTimestamp} (ambos inclusive) en orden de escritura. Usa el índice para elegir
+     * el segmento y el offset de partida y corta al encontrar el primer registro posterior al rango.
+     */
+    @Override
+    public synchronized List<LogRecord> readRange(long fromTimestamp, long toTimestamp, int limit) throws IOException {
+        List<LogRecord> records = new ArrayList<>();
+        if (segments.isEmpty() || limit <= 0 || fromTimestamp > toTimestamp) {
+            return records;
+        }
+
+        // Último segmento cuyo primer registro es anterior al inicio del rango
+        int first = 0;
+        for (int i = segments.size() - 1; i > 0; i--) {
+            if (indexes.get(i).firstTimestamp() < fromTimestamp) {
+                first = i;
+                break;
+            }
+        }
+
+        for (int i = first; i < segments.size(); i++) {
+            long offset = i == first ? indexes.get(i).floorOffset(fromTimestamp) : 0;
+            boolean more = forEachRecord(segments.get(i), offset, (position, record) -> {
+                long timestamp = timestampOf.applyAsLong(record.getPayload());
+                if (timestamp > toTimestamp) {
+                    return false;
+                }
+                if (timestamp >= fromTimestamp) {
+                    records.add(record);
+                }
+                return records.size() < limit;
+            });
+            if (!more) {
+                break;
+            }
+        }
+        return records;
+    }
+
+    /**
+     * Elige el segmento por secuencia (su nombre es la primera) y dentro de él salta con el
+     * índice de tiempo a unos pocos registros antes de {@code timestamp}; si con esa pista no
+     * aparece, recorre el segmento desde el principio.
+     */
+    @Override
+    public synchronized LogRecord readAt(long sequence, long timestamp) throws IOException {
+        int low = 0;
+        int high = segments.size() - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (baseSequence(segments.get(mid)) <= sequence) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0 || sequence > lastSequence) {
+            return null;
+        }
+        File segment = segments.get(found);
+        long hinted = indexes.get(found).floorOffset(timestamp);
+        LogRecord record = findInSegment(segment, hinted, sequence);
+        return record != null || hinted == 0 ? record : findInSegment(segment, 0, sequence);
+    }
+
+    private static LogRecord findInSegment(File segment, long offset, long sequence) throws IOException {
+        LogRecord[] found = new LogRecord[1];
+        forEachRecord(segment, offset, (position, record) -> {
+            if (record.getSequence() < sequence) {
+                return true;
+            }
+            if (record.getSequence() == sequence) {
+                found[0] = record;
+            }
+            return false;
+        });
+        return found[0];
+    }
+
+    interface RecordVisitor {
+        /**
+         * @return false para dejar de recorrer
+         */
+        boolean visit(long offset, LogRecord record) throws IOException;
+    }
+
+    /**
+     * Recorre un segmento hacia adelante desde {@code offset}. Una cola incompleta (escritura
+     * interrumpida) se ignora. Devuelve false si el visitante pidió cortar.
+     */
+    static boolean forEachRecord(File segment, long offset, RecordVisitor visitor) throws IOException {
+        try (FileInputStream file = new FileInputStream(segment)) {
+            int header = Arrays.equals(file.readNBytes(SEGMENT_HEADER.length), SEGMENT_HEADER) ? SEGMENT_HEADER.length : 0;
+            long position = Math.max(offset, header);
+            file.getChannel().position(position);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, READ_CHUNK_BYTES));
+
+            while (true) {
+                int first = in.read();
+                if (first < 0) {
+                    return true;
+                }
+
+                long bodyLength;
+                byte[] body;
+                int headerBytes;
+                try {
+                    bodyLength = readVarint(in, first);
+                    headerBytes = Varint.size(bodyLength);
+                    if (bodyLength <= 0 || bodyLength > Integer.MAX_VALUE) {
+                        throw new IOException("Registro dañado en " + segment + " (offset " + position + ")");
+                    }
+                    body = new byte[(int) bodyLength];
+                    in.readFully(body);
+                    in.readFully(new byte[headerBytes]);
+                } catch (EOFException e) {
+                    return true;
+                }
+
+                LogRecord record = toRecord(body, header > 0);
+                if (record == null) {
+                    throw new IOException("CRC inválido en " + segment + " (offset " + position + ")");
+                }
+                if (!visitor.visit(position, record)) {
+                    return false;
+                }
+                position += 2L * headerBytes + bodyLength;
+            }
+        }
+    }
+
+    private static long readVarint(DataInputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    /**
+     * Decodifica el cuerpo de un registro; null si está dañado (CRC que no coincide).
+     */
+    private static LogRecord toRecord(byte[] body, boolean checksummed) {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        long sequence;
+        try {
+            sequence = Varint.read(buffer);
+        } catch (RuntimeException e) {
+            return null;
+        }
+        int start = buffer.position();
+        int end = body.length - (checksummed ? CRC_BYTES : 0);
+        if (end < start) {
+            return null;
+        }
+        if (checksummed && ByteBuffer.wrap(body).getInt(end) != checksum(sequence, body, start, end - start)) {
+            return null;
+        }
+        return new LogRecord(sequence, Arrays.copyOfRange(body, start, end));
+    }
+
+    private static void readSegmentBackward(File segment, long before, int limit, List<LogRecord> out) throws IOException {
+        int header = headerLength(segment);
+        try (RandomAccessFile file = new RandomAccessFile(segment, "r")) {
+            BackwardWindow window = new BackwardWindow(file);
+            long position = file.length();
+
+            while (position > header && out.size() < limit) {
+                // Longitud final: sus bytes están invertidos, así que se decodifica leyendo hacia atrás
+                long bodyLength = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = window.byteAt(--position);
+                    bodyLength |= (long) (b & 0x7F) << shift;
+                    shift += 7;
+                } while ((b & 0x80) != 0 && position > header);
+
+                long frameStart = position - bodyLength - Varint.size(bodyLength);
+                if (bodyLength <= 0 || frameStart < header) {
+                    throw new IOException("Registro dañado en " + segment + " (offset " + position + ")");
+                }
+
+                LogRecord record = toRecord(window.bytes(position - bodyLength, (int) bodyLength), header > 0);
+                if (record == null) {
+                    throw new IOException("CRC inválido en " + segment + " (offset " + frameStart + ")");
+                }
+                if (record.getSequence() < before) {
+                    out.add(record);
+                }
+                position = frameStart;
+            }
+        }
+    }
+
+    /**
+     * Ventana de lectura que crece hacia el inicio del archivo de a bloques.
+     */
+    private static class BackwardWindow {
+        private final RandomAccessFile file;
+        private byte[] data = new byte[0];
+        private long start;
+
+        BackwardWindow(RandomAccessFile file) throws IOException {
+            this.file = file;
+            this.start = file.length();
+        }
+
+        byte byteAt(long position) throws IOException {
+            ensure(position);
+            return data[(int) (position - start)];
+        }
+
+        byte[] bytes(long from, int length) throws IOException {
+            ensure(from);
+            int index = (int) (from - start);
+            return Arrays.copyOfRange(data, index, index + length);
+        }
+
+        private void ensure(long position) throws IOException {
+            if (position >= start) {
+                return;
+            }
+            long newStart = Math.max(0, Math.min(position, start - Math.max(READ_CHUNK_BYTES, data.length)));
+            int added = (int) (start - newStart);
+            byte[] grown = new byte[added + data.length];
+            file.seek(newStart);
+            file.readFully(grown, 0, added);
+            System.arraycopy(data, 0, grown, added, data.length);
+            data = grown;
+            start = newStart;
+        }
+    }
+
+    /**
+     * Resultado de una pasada de {@link #compact}.
+     */
+    static class CompactionResult {
+        // Bytes de los segmentos reescritos, antes y después
+        int segmentsBefore;
+        int segmentsAfter;
+        long bytesBefore;
+        long bytesAfter;
+        long recordsDropped;
+
+        boolean changed() {
+            return segmentsBefore != segmentsAfter || recordsDropped > 0;
+        }
+    }
+
+    /**
+     * Compacta los segmentos cerrados (nunca el activo): junta tramos consecutivos de segmentos
+     * chicos en segmentos llenos y descarta los registros con timestamp anterior a
+     * {@code retainFromTimestamp}. La lectura y escritura de datos se hacen sin el candado del
+     * log y al ritmo que permite {@code throttle}; el candado se toma sólo para el reemplazo, así
+     * que lectores y escritores esperan como mucho unos renombres.
+     *
+     * El reemplazo es recuperable: primero se escribe en compact.tmp/PLAN qué segmentos entran y
+     * cuáles salen, y si el proceso se corta a mitad se termina al abrir el log.
+     *
+     * Si mientras tanto el log cambió por otro lado (se reubicó con {@link #relocate} o se
+     * borraron segmentos con {@link #deleteUpTo}), el reemplazo lo detecta y la pasada se
+     * abandona sin tocar nada; la próxima vuelve a empezar con el log como quedó.
+     *
+     * @param onDropped recibe cada registro descartado, después de confirmar el reemplazo
+     */
+    CompactionResult compact(long retainFromTimestamp, Consumer<LogRecord> onDropped, IoThrottle throttle)
+            throws IOException, InterruptedException {
+        CompactionResult result = new CompactionResult();
+        File base;
+        List<File> sealed;
+        List<SegmentIndex> sealedIndexes;
+        synchronized (this) {
+            base = directory;
+            result.segmentsBefore = segments.size();
+            sealed = new ArrayList<>(segments.subList(0, Math.max(0, segments.size() - 1)));
+            sealedIndexes = new ArrayList<>(indexes.subList(0, sealed.size()));
+        }
+
+        File work = new File(base, COMPACT_DIR);
+        deleteDirectory(work);
+
+        for (List<Integer> run : planRuns(sealed, sealedIndexes, retainFromTimestamp)) {
+            long previousMax = run.get(0) == 0 ? Long.MIN_VALUE : sealedIndexes.get(run.get(0) - 1).getMaxTimestamp();
+            List<File> oldSegments = new ArrayList<>();
+            run.forEach(i -> oldSegments.add(sealed.get(i)));
+
+            List<LogRecord> dropped = new ArrayList<>();
+            List<File> written;
+            try {
+                written = rewrite(oldSegments, work, retainFromTimestamp, dropped, throttle);
+
+                // Los índices nuevos se construyen fuera del candado; el reemplazo queda en sólo renombrar
+                long max = previousMax;
+                for (File segment : written) {
+                    max = SegmentIndex.build(segment, max, indexInterval, timestampOf).getMaxTimestamp();
+                }
+            } catch (IOException e) {
+                // Los segmentos de la foto pueden haber cambiado de lugar: eso no es un error
+                synchronized (this) {
+                    if (isCurrentRun(base, oldSegments)) {
+                        throw e;
+                    }
+                    abandonCompaction(base, work);
+                }
+                break;
+            }
+            for (File segment : oldSegments) {
+                result.bytesBefore += segment.length();
+            }
+            for (File segment : written) {
+                result.bytesAfter += segment.length();
+            }
+            if (!commitCompaction(base, oldSegments, written, work, previousMax)) {
+                break;
+            }
+            result.recordsDropped += dropped.size();
+            dropped.forEach(onDropped);
+        }
+
+        synchronized (this) {
+            result.segmentsAfter = segments.size();
+        }
+        return result;
+    }
+
+    // Tramos de segmentos cerrados que vale la pena reescribir
+    private List<List<Integer>> planRuns(List<File> sealed, List<SegmentIndex> sealedIndexes, long retainFromTimestamp) {
+        List<List<Integer>> runs = new ArrayList<>();
+        List<Integer> run = new ArrayList<>();
+        boolean runHasExpired = false;
+
+        for (int i = 0; i <= sealed.size(); i++) {
+            boolean candidate = false;
+            boolean expired = false;
+            if (i < sealed.size()) {
+                expired = sealedIndexes.get(i).firstTimestamp() < retainFromTimestamp;
+                candidate = expired || sealed.get(i).length() < segmentMaxBytes / 2;
+            }
+
+            if (candidate) {
+                run.add(i);
+                runHasExpired |= expired;
+            } else {
+                // Un segmento chico solo no gana nada; uno con registros vencidos sí
+                if (run.size() >= 2 || runHasExpired) {
+                    runs.add(run);
+                }
+                run = new ArrayList<>();
+                runHasExpired = false;
+            }
+        }
+        return runs;
+    }
+
+    // Copia los registros vigentes de un tramo a segmentos nuevos dentro de compact.tmp/
+    private List<File> rewrite(List<File> oldSegments, File work, long retainFromTimestamp,
+                               List<LogRecord> dropped, IoThrottle throttle) throws IOException, InterruptedException {
+        if (!work.isDirectory() && !work.mkdirs()) {
+            throw new IOException("No se pudo crear " + work);
+        }
+
+        List<File> written = new ArrayList<>();
+        FileOutputStream[] current = {null};
+        long[] currentSize = {0};
+        try {
+            for (File segment : oldSegments) {
+                throttle.acquire(segment.length());
+                forEachRecord(segment, 0, (offset, record) -> {
+                    if (timestampOf.applyAsLong(record.getPayload()) < retainFromTimestamp) {
+                        dropped.add(record);
+                        return true;
+                    }
+                    if (current[0] == null || currentSize[0] >= segmentMaxBytes) {
+                        closeCompacted(current[0]);
+                        File output = new File(work, segmentFile(record.getSequence()).getName());
+                        written.add(output);
+                        current[0] = new FileOutputStream(output);
+                        current[0].write(SEGMENT_HEADER);
+                        currentSize[0] = SEGMENT_HEADER.length;
+                    }
+                    ByteArrayOutputStream frame = new ByteArrayOutputStream(record.getPayload().length + 16);
+                    writeFrame(frame, record.getSequence(), record.getPayload(), true);
+                    try {
+                        throttle.acquire(frame.size());
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Compactación interrumpida");
+                    }
+                    frame.writeTo(current[0]);
+                    currentSize[0] += frame.size();
+                    return true;
+                });
+            }
+        } finally {
+            closeCompacted(current[0]);
+        }
+        return written;
+    }
+
+    private static void closeCompacted(FileOutputStream output) throws IOException {
+        if (output != null) {
+            output.getChannel().force(false);
+            output.close();
+        }
+    }
+
+    // Reemplaza el tramo por los segmentos nuevos bajo el candado del log. Devuelve false, sin
+    // reemplazar nada, si el log ya no es el de la foto que tomó compact
+    private synchronized boolean commitCompaction(File base, List<File> oldSegments, List<File> written, File work,
+                                                  long previousMax) throws IOException {
+        if (!isCurrentRun(base, oldSegments)) {
+            abandonCompaction(base, work);
+            return false;
+        }
+
+        StringBuilder plan = new StringBuilder();
+        oldSegments.forEach(segment -> plan.append("old:").append(segment.getName()).append('\n'));
+        written.forEach(segment -> plan.append("new:").append(segment.getName()).append('\n'));
+        File planTmp = new File(work, COMPACT_PLAN + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(planTmp)) {
+            out.write(plan.toString().getBytes(StandardCharsets.UTF_8));
+            out.getChannel().force(false);
+        }
+        Files.move(planTmp.toPath(), new File(work, COMPACT_PLAN).toPath(), StandardCopyOption.ATOMIC_MOVE);
+
+        applyCompactionPlan(directory);
+
+        // Lista en memoria: el tramo viejo se reemplaza por los segmentos nuevos en la misma posición
+        int position = segments.indexOf(oldSegments.get(0));
+        for (int i = 0; i < oldSegments.size(); i++) {
+            segments.remove(position);
+            indexes.remove(position);
+        }
+        long runningMax = previousMax;
+        for (int i = 0; i < written.size(); i++) {
+            File segment = new File(directory, written.get(i).getName());
+            SegmentIndex index = SegmentIndex.open(segment, runningMax, indexInterval, timestampOf);
+            segments.add(position + i, segment);
+            indexes.add(position + i, index);
+            runningMax = index.getMaxTimestamp();
+        }
+        return true;
+    }
+
+    // El tramo sigue en el mismo directorio, seguido y entre los segmentos cerrados
+    private boolean isCurrentRun(File base, List<File> oldSegments) {
+        if (!directory.equals(base)) {
+            return false;
+        }
+        int position = segments.indexOf(oldSegments.get(0));
+        if (position < 0 || position + oldSegments.size() >= segments.size()) {
+            return false;
+        }
+        for (int i = 1; i < oldSegments.size(); i++) {
+            if (!segments.get(position + i).equals(oldSegments.get(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Descarta el trabajo de una pasada que quedó vieja; todavía no hay PLAN, así que no se pierde nada
+    private void abandonCompaction(File base, File work) throws IOException {
+        System.out.println("Compactación abandonada: " + directory.getName() + " cambió mientras se compactaba");
+        deleteDirectory(work);
+        // Una reubicación en el medio se llevó compact.tmp con el directorio
+        File moved = new File(directory, COMPACT_DIR);
+        if (!new File(moved, COMPACT_PLAN).exists()) {
+            deleteDirectory(moved);
+        }
+        if (!directory.equals(base)) {
+            // rewrite pudo recrear la ruta vieja al crear compact.tmp; sólo se borra si quedó vacía
+            try {
+                Files.deleteIfExists(base.toPath());
+            } catch (DirectoryNotEmptyException ignored) {
+            }
+        }
+    }
+
+    private void recoverCompaction() throws IOException {
+        File work = new File(directory, COMPACT_DIR);
+        if (!work.exists()) {
+            return;
+        }
+        if (new File(work, COMPACT_PLAN).isFile()) {
+            System.out.println("Terminando compactación interrumpida: " + directory.getName());
+            applyCompactionPlan(directory);
+        } else {
+            deleteDirectory(work); // Se cortó antes de confirmar: los segmentos viejos siguen intactos
+        }
+    }
+
+    // Idempotente: mueve los segmentos nuevos que falten y borra los viejos que no se reemplazaron
+    private static void applyCompactionPlan(File directory) throws IOException {
+        File work = new File(directory, COMPACT_DIR);
+        List<String> oldNames = new ArrayList<>();
+        Set<String> newNames = new HashSet<>();
+        for (String line : Files.readAllLines(new File(work, COMPACT_PLAN).toPath(), StandardCharsets.UTF_8)) {
+            if (line.startsWith("old:")) {
+                oldNames.add(line.substring(4));
+            } else if (line.startsWith("new:")) {
+                newNames.add(line.substring(4));
+            }
+        }
+
+        for (String name : newNames) {
+            File staged = new File(work, name);
+            if (staged.isFile()) {
+                File index = SegmentIndex.indexFileFor(staged);
+                if (index.isFile()) {
+                    Files.move(index.toPath(), SegmentIndex.indexFileFor(new File(directory, name)).toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                }
+                Files.move(staged.toPath(), new File(directory, name).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+        for (String name : oldNames) {
+            if (!newNames.contains(name)) {
+                File segment = new File(directory, name);
+                Files.deleteIfExists(SegmentIndex.indexFileFor(segment).toPath());
+                Files.deleteIfExists(segment.toPath());
+            }
+        }
+        deleteDirectory(work);
+    }
+
+    private static void deleteDirectory(File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.deleteIfExists(directory.toPath());
+    }
+
+    /**
+     * Borra los segmentos cerrados cuyos registros tienen todos secuencia menor o igual a
+     * {@code sequence} (por ejemplo, los que ya quedaron cubiertos por una instantánea). El
+     * segmento activo nunca se borra, así que la numeración continúa. Devuelve cuántos borró.
+     */
+    synchronized int deleteUpTo(long sequence) throws IOException {
+        int deleted = 0;
+        while (segments.size() > 1 && baseSequence(segments.get(1)) - 1 <= sequence) {
+            File segment = segments.remove(0);
+            indexes.remove(0);
+            Files.deleteIfExists(SegmentIndex.indexFileFor(segment).toPath());
+            Files.deleteIfExists(segment.toPath());
+            deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * Mueve el directorio del log a {@code target} con un renombre atómico. Se hace bajo el
+     * candado del log, así que los lectores y el hilo de escritura siguen usando este mismo
+     * objeto sin notar el cambio; el próximo append reabre el segmento activo en la ruta nueva.
+     */
+    synchronized void relocate(File target) throws IOException {
+        if (out != null) {
+            sync();
+            out.close();
+            out = null;
+        }
+        Files.move(directory.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        directory = target;
+        for (int i = 0; i < segments.size(); i++) {
+            File segment = new File(target, segments.get(i).getName());
+            segments.set(i, segment);
+            indexes.get(i).relocate(segment);
+        }
+    }
+
+    /**
+     * Bytes que se truncaron de la cola al abrir el log (0 si estaba intacta).
+     */
+    long getTruncatedBytes() {
+        return truncatedBytes;
+    }
+
+    @Override
+    public synchronized long getLastSequence() {
+        return lastSequence;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Bytes ocupados por los segmentos del log (sin contar los índices).
+     */
+    public synchronized long getSizeBytes() {
+        long total = 0;
+        for (File segment : segments) {
+            total += segment.length();
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
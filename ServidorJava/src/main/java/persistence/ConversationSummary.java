@@ -0,0 +1,35 @@
+package persistence;
+
+/**
+ * Una conversación de la bandeja de un usuario: con quién (o qué grupo), el último mensaje y
+ * cuántos mensajes de texto tiene sin leer. {@code lastSequence} es la del log de texto; 0 si
+ * la conversación todavía no tiene mensajes.
+ */
+public class ConversationSummary {
+    private final String target;
+    private final boolean group;
+    private final long lastSequence;
+    private final long lastTimestamp;
+    private final String lastFrom;
+    private final String preview;
+    private final int unread;
+
+    public ConversationSummary(String target, boolean group, long lastSequence, long lastTimestamp,
+                               String lastFrom, String preview, int unread) {
+        this.target = target;
+        this.group = group;
+        this.lastSequence = lastSequence;
+        this.lastTimestamp = lastTimestamp;
+        this.lastFrom = lastFrom;
+        this.preview = preview;
+        this.unread = unread;
+    }
+
+    public String getTarget() { return target; }
+    public boolean isGroup() { return group; }
+    public long getLastSequence() { return lastSequence; }
+    public long getLastTimestamp() { return lastTimestamp; }
+    public String getLastFrom() { return lastFrom; }
+    public String getPreview() { return preview; }
+    public int getUnread() { return unread; }
+}
@@ -0,0 +1,143 @@
+package persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Cursores durables: para cada clave (un usuario, un usuario en una conversación) la última
+ * secuencia ya procesada. Los cursores sólo avanzan.
+ *
+ * Cada avance se agrega a un diario ({@link ConversationLog} con (timestamp, clave, secuencia))
+ * que se reaplica al abrir; gana la última entrada de cada clave. Los avances no se fuerzan a
+ * disco uno por uno sino con {@link #sync}: si se pierden los últimos en una caída, lo que
+ * cubrían se vuelve a entregar (al menos una vez), nunca se salta. Cuando las entradas superadas
+ * pasan de {@code 2 * claves + 256} el diario se reescribe con sólo los valores vigentes.
+ */
+public class CursorStore implements Closeable {
+    private static final long JOURNAL_SEGMENT_BYTES = 256 * 1024;
+    private static final int JOURNAL_INDEX_INTERVAL = 256;
+
+    private final File directory;
+    private final Map<String, Long> cursors = new HashMap<>();
+    private ConversationLog journal;
+    private long deadEntries;
+    private long advances;
+    private boolean dirty;
+
+    public CursorStore(File directory) throws IOException {
+        this.directory = directory;
+        // Una reescritura cortada entre los dos renombres deja sólo el diario anterior
+        File old = new File(directory.getPath() + ".old");
+        if (!directory.exists() && old.isDirectory()) {
+            Files.move(old.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } else {
+            deleteDirectory(old);
+        }
+        journal = openJournal(directory);
+        for (LogRecord record : journal.readAll()) {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.getPayload()));
+            in.readLong();
+            String key = in.readUTF();
+            long sequence = in.readLong();
+            if (cursors.put(key, sequence) != null) {
+                deadEntries++;
+            }
+        }
+    }
+
+    private static ConversationLog openJournal(File directory) throws IOException {
+        return new ConversationLog(directory, JOURNAL_SEGMENT_BYTES, JOURNAL_INDEX_INTERVAL,
+                payload -> ByteBuffer.wrap(payload).getLong());
+    }
+
+    /**
+     * Última secuencia procesada para la clave; 0 si nunca avanzó.
+     */
+    public synchronized long get(String key) {
+        return cursors.getOrDefault(key, 0L);
+    }
+
+    public synchronized boolean contains(String key) {
+        return cursors.containsKey(key);
+    }
+
+    /**
+     * Mueve el cursor hasta {@code sequence}. Devuelve false si ya estaba ahí o más adelante.
+     */
+    public synchronized boolean advance(String key, long sequence) throws IOException {
+        Long current = cursors.get(key);
+        if (current != null && current >= sequence) {
+            return false;
+        }
+        journal.append(encode(key, sequence));
+        cursors.put(key, sequence);
+        advances++;
+        dirty = true;
+        if (current != null && ++deadEntries > 2L * cursors.size() + JOURNAL_INDEX_INTERVAL) {
+            rewrite();
+        }
+        return true;
+    }
+
+    public synchronized void sync() throws IOException {
+        if (dirty) {
+            journal.sync();
+            dirty = false;
+        }
+    }
+
+    private static byte[] encode(String key, long sequence) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeUTF(key);
+            out.writeLong(sequence);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Diario nuevo con sólo los valores vigentes, en un directorio aparte que después toma su lugar
+    private void rewrite() throws IOException {
+        File fresh = new File(directory.getPath() + ".new");
+        File old = new File(directory.getPath() + ".old");
+        deleteDirectory(fresh);
+        try (ConversationLog log = openJournal(fresh)) {
+            for (Map.Entry<String, Long> entry : cursors.entrySet()) {
+                log.append(encode(entry.getKey(), entry.getValue()));
+            }
+            log.sync();
+        }
+        journal.close();
+        Files.move(directory.toPath(), old.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        Files.move(fresh.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteDirectory(old);
+        journal = openJournal(directory);
+        deadEntries = 0;
+        dirty = false;
+    }
+
+    private static void deleteDirectory(File directory) {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("cursores=%d avances=%d entradasSuperadas=%d", cursors.size(), advances, deadEntries);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        journal.close();
+    }
+}
@@ -0,0 +1,308 @@
+package persistence;
+
+import model.AudioMessage;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Colas de entrega para usuarios desconectados (store-and-forward).
+ *
+ * Lo que el servidor no pudo entregar por TCP porque el destinatario no estaba conectado se
+ * agrega a la cola de ese usuario: un {@link ConversationLog} en data/delivery/queues, repartido
+ * con {@link ShardLayout}. Cada usuario tiene además un cursor durable ({@link CursorStore}, en
+ * data/delivery/cursors) con la última secuencia entregada. Al volver a conectarse se le envía
+ * sólo lo que está después del cursor, y los segmentos que quedaron completamente entregados se
+ * borran.
+ *
+ * Los audios se encolan sin sus bytes (id y metadatos); se leen del almacén de audio al entregar.
+ *
+ * Sólo tienen cola los usuarios registrados con {@link #register} (los que entraron alguna vez
+ * por TCP): lo dirigido a usuarios de Ice o a nombres que nunca se conectaron no se guarda. Cada
+ * cola admite hasta {@code chat.delivery.maxPending} elementos sin entregar; lo que pasa de ahí
+ * se descarta. Quedan abiertas a lo sumo {@code chat.delivery.maxOpenQueues} colas; la que lleva
+ * más tiempo sin usarse se cierra.
+ *
+ * Encolar escribe con el candado de la cola y hace el fsync fuera de él, con commit agrupado:
+ * un solo hilo fuerza a disco todas las colas escritas hasta ese momento y los que esperaban
+ * detrás ya quedan cubiertos.
+ */
+public class DeliveryQueue implements Closeable {
+    private static final String DELIVERY_DIR = ChatHistory.DATA_DIR + "delivery/";
+    private static final String QUEUES_DIR = "queues";
+    private static final String CURSORS_DIR = "cursors";
+    private static final long SEGMENT_BYTES = Long.getLong("chat.delivery.segmentBytes", 256 * 1024);
+    private static final int INDEX_INTERVAL = 256;
+    private static final int MAX_PENDING = Integer.getInteger("chat.delivery.maxPending", 10_000);
+    private static final int MAX_OPEN_QUEUES = Math.max(1, Integer.getInteger("chat.delivery.maxOpenQueues", 256));
+
+    private static final byte KIND_COMMAND = 1;
+    private static final byte KIND_AUDIO = 2;
+
+    private final ShardLayout layout;
+    private final CursorStore cursors;
+    // En orden de uso: la primera es la que lleva más tiempo sin usarse
+    private final Map<String, ConversationLog> open = new LinkedHashMap<>(16, 0.75f, true);
+    // Colas escritas y todavía sin fsync, y cuántos registros se escribieron y se forzaron a disco
+    private final Set<ConversationLog> unsynced = new HashSet<>();
+    private long appended;
+    private final Object syncLock = new Object();
+    private long synced;
+    // Usuarios cuya cola está llena, para avisar una sola vez hasta que reciban algo
+    private final Set<String> full = new HashSet<>();
+    private long enqueued;
+    private long delivered;
+    private long dropped;
+    private int segmentsDeleted;
+
+    public DeliveryQueue() {
+        this(new File(DELIVERY_DIR));
+    }
+
+    DeliveryQueue(File directory) {
+        this.layout = new ShardLayout(new File(directory, QUEUES_DIR));
+        try {
+            this.cursors = new CursorStore(new File(directory, CURSORS_DIR));
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudieron abrir los cursores de entrega: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Un elemento pendiente: su secuencia en la cola y lo que hay que enviar (un comando de texto
+     * o un {@link AudioMessage} sin bytes).
+     */
+    public static final class Delivery {
+        private final long sequence;
+        private final Serializable payload;
+
+        Delivery(long sequence, Serializable payload) {
+            this.sequence = sequence;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public Serializable getPayload() {
+            return payload;
+        }
+    }
+
+    /**
+     * Da de alta la cola de {@code username}: desde ahora lo que no se le pueda entregar se guarda.
+     */
+    public synchronized void register(String username) throws IOException {
+        if (!cursors.contains(username)) {
+            cursors.advance(username, 0);
+            cursors.sync();
+        }
+    }
+
+    /**
+     * Guarda {@code command} en la cola del usuario. Devuelve false si no se guardó: el usuario
+     * no está registrado o su cola está llena.
+     */
+    public boolean enqueue(String username, String command) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeByte(KIND_COMMAND);
+            // Sin writeUTF: un mensaje largo puede pasar de 64 KB
+            byte[] text = command.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(text.length);
+            out.write(text);
+        }
+        return append(username, bytes.toByteArray());
+    }
+
+    public boolean enqueueAudio(String username, AudioMessage audioMessage) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeByte(KIND_AUDIO);
+            out.writeUTF(audioMessage.getAudioId());
+            out.writeUTF(audioMessage.getFrom());
+            out.writeUTF(audioMessage.getTo());
+            out.writeBoolean(audioMessage.isGroupMessage());
+            out.writeLong(audioMessage.getTimestamp().getTime());
+            out.writeInt(audioMessage.getAudioSize());
+            out.writeInt(audioMessage.getDuration());
+        }
+        return append(username, bytes.toByteArray());
+    }
+
+    private boolean append(String username, byte[] record) throws IOException {
+        long ticket;
+        synchronized (this) {
+            if (!cursors.contains(username)) {
+                return false;
+            }
+            ConversationLog log = openLog(username);
+            if (log.getLastSequence() - cursors.get(username) >= MAX_PENDING) {
+                dropped++;
+                if (full.add(username)) {
+                    System.err.println("⚠️ Cola de entrega llena para " + username + " (" + MAX_PENDING
+                            + " pendientes): se descartan los nuevos");
+                }
+                return false;
+            }
+            log.append(record);
+            unsynced.add(log);
+            ticket = ++appended;
+            enqueued++;
+        }
+        awaitSynced(ticket);
+        return true;
+    }
+
+    // Commit agrupado: quien llega primero fuerza a disco todo lo escrito hasta ahora
+    private void awaitSynced(long ticket) throws IOException {
+        synchronized (syncLock) {
+            if (synced >= ticket) {
+                return;
+            }
+            List<ConversationLog> logs;
+            long upTo;
+            synchronized (this) {
+                logs = new ArrayList<>(unsynced);
+                unsynced.clear();
+                upTo = appended;
+            }
+            try {
+                // Una cola cerrada en el medio ya se forzó a disco al cerrarla y sync no hace nada
+                for (ConversationLog log : logs) {
+                    log.sync();
+                }
+            } catch (IOException e) {
+                synchronized (this) {
+                    unsynced.addAll(logs);
+                }
+                throw e;
+            }
+            synced = upTo;
+        }
+    }
+
+    private ConversationLog openLog(String username) throws IOException {
+        ConversationLog log = open.get(username);
+        if (log == null) {
+            log = new ConversationLog(layout.prepareSharded(username), SEGMENT_BYTES, INDEX_INTERVAL,
+                    payload -> ByteBuffer.wrap(payload).getLong());
+            open.put(username, log);
+            closeIdle();
+        }
+        return log;
+    }
+
+    // Cierra las colas que llevan más tiempo sin usarse hasta quedar en MAX_OPEN_QUEUES
+    private void closeIdle() throws IOException {
+        Iterator<Map.Entry<String, ConversationLog>> eldest = open.entrySet().iterator();
+        while (open.size() > MAX_OPEN_QUEUES && eldest.hasNext()) {
+            ConversationLog log = eldest.next().getValue();
+            eldest.remove();
+            syncAndClose(log);
+        }
+    }
+
+    /**
+     * Lo que el usuario todavía no recibió, en orden.
+     */
+    public synchronized List<Delivery> pending(String username) throws IOException {
+        List<Delivery> result = new ArrayList<>();
+        if (!open.containsKey(username) && !layout.exists(username)) {
+            return result;
+        }
+        ConversationLog log = openLog(username);
+        for (LogRecord record : log.readAfter(cursors.get(username))) {
+            result.add(new Delivery(record.getSequence(), decode(record.getPayload())));
+        }
+        if (result.isEmpty()) {
+            closeLog(username);
+        }
+        return result;
+    }
+
+    private static Serializable decode(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.readLong();
+        byte kind = in.readByte();
+        if (kind == KIND_COMMAND) {
+            byte[] text = new byte[in.readInt()];
+            in.readFully(text);
+            return new String(text, StandardCharsets.UTF_8);
+        }
+        if (kind == KIND_AUDIO) {
+            String audioId = in.readUTF();
+            String from = in.readUTF();
+            String to = in.readUTF();
+            boolean isGroup = in.readBoolean();
+            long timestamp = in.readLong();
+            return new AudioMessage(audioId, from, to, isGroup, timestamp, in.readInt(), in.readInt());
+        }
+        throw new IOException("Tipo desconocido en la cola de entrega: " + kind);
+    }
+
+    /**
+     * Marca como entregado todo hasta {@code sequence} (inclusive): avanza el cursor, lo fuerza a
+     * disco y borra los segmentos de la cola que ya no hacen falta.
+     */
+    public synchronized void delivered(String username, long sequence) throws IOException {
+        long previous = cursors.get(username);
+        if (!cursors.advance(username, sequence)) {
+            return;
+        }
+        cursors.sync();
+        delivered += sequence - previous;
+        full.remove(username);
+        ConversationLog log = open.get(username);
+        if (log != null) {
+            segmentsDeleted += log.deleteUpTo(sequence);
+            if (sequence >= log.getLastSequence()) {
+                closeLog(username);
+            }
+        }
+    }
+
+    // Una cola vacía no necesita quedar abierta: el próximo mensaje la reabre
+    private void closeLog(String username) throws IOException {
+        ConversationLog log = open.remove(username);
+        if (log != null) {
+            syncAndClose(log);
+        }
+    }
+
+    // Lo escrito y todavía sin fsync se fuerza antes de cerrar: el commit agrupado ya no lo ve abierto
+    private static void syncAndClose(ConversationLog log) throws IOException {
+        try {
+            log.sync();
+        } finally {
+            log.close();
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("colasAbiertas=%d encolados=%d entregados=%d descartados=%d segmentosBorrados=%d %s",
+                open.size(), enqueued, delivered, dropped, segmentsDeleted, cursors);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (ConversationLog log : open.values()) {
+            syncAndClose(log);
+        }
+        open.clear();
+        unsynced.clear();
+        cursors.close();
+    }
+}
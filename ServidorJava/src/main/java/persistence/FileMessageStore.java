@@ -0,0 +1,128 @@
+package persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.function.ToLongFunction;
+
+/**
+ * Backend de archivos: cada conversación es un {@link ConversationLog} en su directorio de
+ * data/history, repartido con {@link ShardLayout}. Los metadatos de audio van en un log
+ * hermano con el sufijo .audio. El historial en texto anterior se convierte al abrir la
+ * conversación por primera vez.
+ *
+ * Compactación, recuperación al arrancar y migración a subdirectorios son propias de este
+ * backend; {@link ChatHistory} las activa sólo cuando es el almacén elegido.
+ */
+class FileMessageStore implements MessageStore, AudioMetaStore {
+    static final String AUDIO_SUFFIX = ".audio";
+    private static final String LEGACY_SUFFIX = ".txt";
+    private static final String LEGACY_AUDIO_SUFFIX = "_audio";
+
+    private final ShardLayout layout;
+    private final HistoryConverter converter;
+    private final long segmentMaxBytes;
+    private final int indexInterval;
+    private final ToLongFunction<byte[]> timestampOf;
+
+    /**
+     * @param converter convierte el historial en texto; null si no hay que buscarlo
+     */
+    FileMessageStore(ShardLayout layout, HistoryConverter converter, long segmentMaxBytes, int indexInterval,
+                     ToLongFunction<byte[]> timestampOf) {
+        this.layout = layout;
+        this.converter = converter;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.indexInterval = indexInterval;
+        this.timestampOf = timestampOf;
+    }
+
+    ShardLayout getLayout() {
+        return layout;
+    }
+
+    @Override
+    public ConversationLog open(String conversation) throws IOException {
+        return openKey(conversation, false);
+    }
+
+    @Override
+    public ConversationLog openAudio(String conversation) throws IOException {
+        return openKey(conversation + AUDIO_SUFFIX, true);
+    }
+
+    private ConversationLog openKey(String key, boolean audio) throws IOException {
+        // Las conversaciones nuevas van a su subdirectorio; las viejas siguen en la raíz hasta migrarse
+        File directory = layout.resolve(key);
+        if (converter != null) {
+            File legacyFile = getLegacyFile(key, audio);
+            if (converter.needsConversion(directory, legacyFile)) {
+                converter.convert(directory, legacyFile, audio);
+            }
+        }
+        return new ConversationLog(directory, segmentMaxBytes, indexInterval, timestampOf);
+    }
+
+    @Override
+    public boolean exists(String conversation) {
+        return layout.exists(conversation) || (converter != null && getLegacyFile(conversation, false).exists());
+    }
+
+    @Override
+    public boolean hasAudio(String conversation) {
+        String key = conversation + AUDIO_SUFFIX;
+        return layout.exists(key) || (converter != null && getLegacyFile(key, true).exists());
+    }
+
+    /**
+     * Conversaciones de texto, en binario o todavía en el formato de texto anterior.
+     */
+    @Override
+    public List<String> conversations() {
+        TreeSet<String> names = new TreeSet<>(layout.list(file -> ShardMigrator.isConversationEntry(file)
+                && !file.getName().endsWith(AUDIO_SUFFIX)));
+        if (converter != null) {
+            String[] legacy = layout.getRoot().list((dir, name) -> name.endsWith(LEGACY_SUFFIX)
+                    && !name.startsWith(PrivateHistoryMigration.INBOX_PREFIX));
+            if (legacy != null) {
+                for (String name : legacy) {
+                    names.add(name.substring(0, name.length() - LEGACY_SUFFIX.length()));
+                }
+            }
+        }
+        return List.copyOf(names);
+    }
+
+    /**
+     * Claves de todos los logs binarios, de texto y de audio (para la compactación).
+     */
+    List<String> logKeys() {
+        return layout.list(ShardMigrator::isConversationEntry);
+    }
+
+    /**
+     * Abre en paralelo todos los logs binarios validando sus colas (ver {@link HistoryRecovery}).
+     */
+    Map<String, ConversationLog> recover(HistoryRecovery recovery) throws InterruptedException {
+        return recovery.run(logKeys(), key -> new ConversationLog(layout.resolve(key), segmentMaxBytes,
+                indexInterval, timestampOf));
+    }
+
+    // group_x.txt / group_x.txt_audio para la clave group_x / group_x.audio
+    private File getLegacyFile(String key, boolean audio) {
+        String conversation = audio ? key.substring(0, key.length() - AUDIO_SUFFIX.length()) : key;
+        return new File(layout.getRoot(), conversation + LEGACY_SUFFIX + (audio ? LEGACY_AUDIO_SUFFIX : ""));
+    }
+
+    @Override
+    public String toString() {
+        return "file " + layout.getRoot();
+    }
+
+    @Override
+    public void close() {
+        // Cada ConversationLog se cierra por su cuenta
+    }
+}
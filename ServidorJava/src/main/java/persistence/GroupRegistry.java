@@ -0,0 +1,334 @@
+package persistence;
+
+import model.Group;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Registro durable de grupos y miembros.
+ *
+ * Cada cambio (crear, unirse, salir, limpiar) se agrega primero a un diario en data/groups/journal
+ * —un {@link ConversationLog}, así que cada entrada lleva CRC y secuencia y una escritura cortada
+ * se trunca al abrir— y recién después se aplica en memoria. Cada {@code chat.groups.snapshotEvery}
+ * cambios se escribe en segundo plano una instantánea compacta de todos los grupos
+ * (data/groups/groups.snapshot) junto con la secuencia del último cambio que incluye, y se borran
+ * los segmentos del diario que quedaron cubiertos.
+ *
+ * Al arrancar se lee la instantánea y se reaplican sólo los cambios posteriores, que nunca son más
+ * que un segmento del diario: el arranque depende de cuántos grupos hay, no de cuántos cambios
+ * tuvieron.
+ */
+public class GroupRegistry implements Closeable {
+    private static final String GROUPS_DIR = ChatHistory.DATA_DIR + "groups/";
+    private static final String JOURNAL_DIR = "journal";
+    private static final String SNAPSHOT_FILE = "groups.snapshot";
+    private static final int SNAPSHOT_MAGIC = 0x47525053; // "GRPS"
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final long JOURNAL_SEGMENT_BYTES = 256 * 1024;
+    private static final int JOURNAL_INDEX_INTERVAL = 256;
+    // Cambios en el diario que disparan una instantánea nueva
+    private static final int SNAPSHOT_EVERY = Integer.getInteger("chat.groups.snapshotEvery", 1000);
+
+    private static final byte OP_CREATE = 1;
+    private static final byte OP_JOIN = 2;
+    private static final byte OP_LEAVE = 3;
+    private static final byte OP_CLEAR = 4;
+
+    private final File directory;
+    private final Map<String, Group> groups = new ConcurrentHashMap<>();
+    private final ConversationLog journal;
+    private final ExecutorService snapshotExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "group-snapshot");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private long snapshotSequence;
+    private long changesSinceSnapshot;
+    private boolean snapshotPending;
+    private int snapshots;
+    private long loadMillis;
+    private long replayed;
+
+    public GroupRegistry() {
+        this(new File(GROUPS_DIR));
+    }
+
+    GroupRegistry(File directory) {
+        this.directory = directory;
+        long start = System.currentTimeMillis();
+        try {
+            if (!directory.exists() && !directory.mkdirs()) {
+                throw new IOException("No se pudo crear el directorio " + directory);
+            }
+            readSnapshot();
+            journal = new ConversationLog(new File(directory, JOURNAL_DIR), JOURNAL_SEGMENT_BYTES,
+                    JOURNAL_INDEX_INTERVAL, payload -> ByteBuffer.wrap(payload).getLong());
+            for (LogRecord record : journal.readAfter(snapshotSequence)) {
+                apply(record.getPayload());
+                replayed++;
+            }
+            if (journal.getLastSequence() < snapshotSequence) {
+                // El diario se perdió o se borró a mano: la instantánea pasa a ser el punto de partida
+                snapshotSequence = journal.getLastSequence();
+                writeSnapshot(copyGroups(), snapshotSequence);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("No se pudo abrir el registro de grupos: " + e.getMessage(), e);
+        }
+        changesSinceSnapshot = replayed;
+        loadMillis = System.currentTimeMillis() - start;
+        System.out.println("👥 Grupos cargados: " + groups.size() + " (" + replayed + " cambios del diario, "
+                + loadMillis + " ms)");
+    }
+
+    /**
+     * Vista en memoria de los grupos. Se modifica sólo a través de este registro.
+     */
+    public Map<String, Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * Indica si el registro nunca guardó nada (ni instantánea ni cambios).
+     */
+    public synchronized boolean isEmpty() {
+        return snapshotSequence == 0 && journal.getLastSequence() == 0;
+    }
+
+    public synchronized boolean create(String groupName, String creator) throws IOException {
+        if (groups.containsKey(groupName)) {
+            return false;
+        }
+        record(OP_CREATE, groupName, creator);
+        return true;
+    }
+
+    public synchronized boolean addMember(String groupName, String username) throws IOException {
+        Group group = groups.get(groupName);
+        if (group == null || group.hasMember(username)) {
+            return false;
+        }
+        record(OP_JOIN, groupName, username);
+        return true;
+    }
+
+    /**
+     * Saca al usuario del grupo; el grupo se elimina cuando queda vacío.
+     */
+    public synchronized boolean removeMember(String groupName, String username) throws IOException {
+        Group group = groups.get(groupName);
+        if (group == null || !group.hasMember(username)) {
+            return false;
+        }
+        record(OP_LEAVE, groupName, username);
+        return true;
+    }
+
+    public synchronized void clear() throws IOException {
+        record(OP_CLEAR, "", "");
+    }
+
+    /**
+     * Carga grupos reconstruidos desde otra fuente (el primer elemento de cada lista es el
+     * creador) y deja una instantánea con el resultado.
+     */
+    public synchronized void importGroups(Map<String, List<String>> membersByGroup) throws IOException {
+        for (Map.Entry<String, List<String>> entry : membersByGroup.entrySet()) {
+            List<String> members = entry.getValue();
+            if (members.isEmpty() || !create(entry.getKey(), members.get(0))) {
+                continue;
+            }
+            for (String member : members) {
+                addMember(entry.getKey(), member);
+            }
+        }
+        journal.sync();
+        writeSnapshot(copyGroups(), journal.getLastSequence());
+        System.out.println("👥 Grupos reconstruidos desde el historial: " + groups.size());
+    }
+
+    // Primero el diario (a disco), después la memoria
+    private void record(byte op, String groupName, String username) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeLong(System.currentTimeMillis());
+            out.writeByte(op);
+            out.writeUTF(groupName);
+            out.writeUTF(username);
+        }
+        byte[] payload = bytes.toByteArray();
+        journal.append(payload);
+        journal.sync();
+        apply(payload);
+
+        if (++changesSinceSnapshot >= SNAPSHOT_EVERY && !snapshotPending) {
+            snapshotPending = true;
+            List<Group> copy = copyGroups();
+            long sequence = journal.getLastSequence();
+            snapshotExecutor.execute(() -> snapshotInBackground(copy, sequence));
+        }
+    }
+
+    private void apply(byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.readLong();
+        byte op = in.readByte();
+        String groupName = in.readUTF();
+        String username = in.readUTF();
+
+        Group group = groups.get(groupName);
+        switch (op) {
+            case OP_CREATE -> groups.putIfAbsent(groupName, new Group(groupName, username));
+            case OP_JOIN -> {
+                if (group != null) {
+                    group.addMember(username);
+                }
+            }
+            case OP_LEAVE -> {
+                if (group != null && group.removeMember(username) && group.getMemberCount() == 0) {
+                    groups.remove(groupName);
+                }
+            }
+            case OP_CLEAR -> groups.clear();
+            default -> throw new IOException("Operación desconocida en el diario de grupos: " + op);
+        }
+    }
+
+    private List<Group> copyGroups() {
+        List<Group> copy = new ArrayList<>(groups.size());
+        for (Group group : groups.values()) {
+            Group snapshot = new Group(group.getName(), group.getCreator());
+            snapshot.getMembers().clear();
+            snapshot.getMembers().addAll(group.getMembers());
+            copy.add(snapshot);
+        }
+        return copy;
+    }
+
+    private void snapshotInBackground(List<Group> copy, long sequence) {
+        try {
+            writeSnapshot(copy, sequence);
+        } catch (IOException e) {
+            System.err.println("Error guardando la instantánea de grupos: " + e.getMessage());
+        } finally {
+            synchronized (this) {
+                snapshotPending = false;
+            }
+        }
+    }
+
+    /**
+     * Escribe la instantánea (archivo temporal, fsync y renombre atómico) y borra los segmentos
+     * del diario que cubre.
+     */
+    private void writeSnapshot(List<Group> copy, long sequence) throws IOException {
+        File tmp = new File(directory, SNAPSHOT_FILE + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(tmp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file), new CRC32C());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeByte(SNAPSHOT_VERSION);
+            out.writeLong(sequence);
+            out.writeInt(copy.size());
+            for (Group group : copy) {
+                out.writeUTF(group.getName());
+                out.writeUTF(group.getCreator());
+                out.writeInt(group.getMemberCount());
+                for (String member : group.getMembers()) {
+                    out.writeUTF(member);
+                }
+            }
+            out.flush();
+            out.writeLong(checked.getChecksum().getValue());
+            out.flush();
+            file.getChannel().force(false);
+        }
+        Files.move(tmp.toPath(), new File(directory, SNAPSHOT_FILE).toPath(),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        int deleted = journal.deleteUpTo(sequence);
+        synchronized (this) {
+            snapshotSequence = Math.max(snapshotSequence, sequence);
+            changesSinceSnapshot = journal.getLastSequence() - snapshotSequence;
+            snapshots++;
+        }
+        if (deleted > 0) {
+            System.out.println("👥 Instantánea de grupos: " + copy.size() + " grupos, " + deleted
+                    + " segmentos del diario liberados");
+        }
+    }
+
+    private void readSnapshot() throws IOException {
+        File file = new File(directory, SNAPSHOT_FILE);
+        if (!file.isFile()) {
+            return;
+        }
+        try (CheckedInputStream checked = new CheckedInputStream(
+                new BufferedInputStream(new FileInputStream(file)), new CRC32C())) {
+            DataInputStream in = new DataInputStream(checked);
+            if (in.readInt() != SNAPSHOT_MAGIC || in.readByte() != SNAPSHOT_VERSION) {
+                throw new IOException("Formato de instantánea desconocido: " + file);
+            }
+            long sequence = in.readLong();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                Group group = new Group(in.readUTF(), in.readUTF());
+                group.getMembers().clear();
+                int members = in.readInt();
+                for (int m = 0; m < members; m++) {
+                    group.addMember(in.readUTF());
+                }
+                groups.put(group.getName(), group);
+            }
+            long expected = checked.getChecksum().getValue();
+            if (in.readLong() != expected) {
+                throw new IOException("CRC inválido en " + file);
+            }
+            snapshotSequence = sequence;
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("grupos=%d secuencia=%d instantanea=%d cambiosPendientes=%d instantaneas=%d "
+                        + "carga=%dms reaplicados=%d", groups.size(), journal.getLastSequence(), snapshotSequence,
+                changesSinceSnapshot, snapshots, loadMillis, replayed);
+    }
+
+    /**
+     * Deja una instantánea final, así el próximo arranque no reaplica nada.
+     */
+    @Override
+    public void close() {
+        snapshotExecutor.shutdown();
+        try {
+            snapshotExecutor.awaitTermination(5, TimeUnit.SECONDS);
+            List<Group> copy;
+            long sequence;
+            synchronized (this) {
+                copy = copyGroups();
+                sequence = journal.getLastSequence();
+            }
+            if (sequence > snapshotSequence) {
+                writeSnapshot(copy, sequence);
+            }
+            journal.close();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            System.err.println("Error cerrando el registro de grupos: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package persistence;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Compactación y retención del historial en segundo plano.
+ *
+ * Cada {@code intervalMillis} recorre las conversaciones de data/history y, en cada log,
+ * junta los segmentos cerrados chicos y descarta los registros que superan la retención de
+ * su conversación (ver {@link ConversationLog#compact}). Corre en el hilo de mantenimiento
+ * del historial (baja prioridad, compartido con {@link ShardMigrator}) y con la E/S limitada
+ * por {@link IoThrottle}, así que no compite con los envíos.
+ */
+class HistoryCompactor {
+
+    /**
+     * Lo que el compactador necesita de {@link ChatHistory}.
+     */
+    interface Target {
+        /**
+         * Claves de todas las conversaciones (group_x, pair_a-b, y sus .audio).
+         */
+        List<String> conversations();
+
+        ConversationLog getLog(String key) throws IOException;
+
+        /**
+         * Timestamp desde el cual se conservan los registros de la conversación
+         * ({@code Long.MIN_VALUE} = conservar todo).
+         */
+        long retainFrom(String key, long now);
+
+        /**
+         * Registro descartado por retención.
+         */
+        void dropped(String key, LogRecord record);
+
+        /**
+         * Se llama cuando una compactación cambió el contenido de la conversación.
+         */
+        void compacted(String key);
+    }
+
+    private final Target target;
+    private final IoThrottle throttle;
+    private final ScheduledExecutorService executor;
+
+    private final AtomicLong passes = new AtomicLong();
+    private final AtomicLong segmentsRemoved = new AtomicLong();
+    private final AtomicLong recordsDropped = new AtomicLong();
+    private final AtomicLong bytesReclaimed = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    HistoryCompactor(ScheduledExecutorService executor, Target target, long intervalMillis, long bytesPerSecond) {
+        this.executor = executor;
+        this.target = target;
+        this.throttle = new IoThrottle(bytesPerSecond);
+
+        if (intervalMillis > 0) {
+            executor.scheduleWithFixedDelay(this::runSafely, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runSafely() {
+        try {
+            runOnce();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (RuntimeException e) {
+            failures.incrementAndGet();
+            System.err.println("Error en la compactación del historial: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Una pasada sobre todas las conversaciones. Se puede llamar a mano; las pasadas nunca se
+     * superponen porque también corren en el hilo de mantenimiento.
+     */
+    void compactNow() {
+        try {
+            executor.submit(this::runSafely).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            System.err.println("Error en la compactación del historial: " + e.getMessage());
+        }
+    }
+
+    private void runOnce() throws InterruptedException {
+        List<String> keys = target.conversations();
+        Collections.sort(keys);
+
+        long now = System.currentTimeMillis();
+        for (String key : keys) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedException();
+            }
+            try {
+                ConversationLog log = target.getLog(key);
+                Consumer<LogRecord> onDropped = record -> target.dropped(key, record);
+                ConversationLog.CompactionResult result = log.compact(target.retainFrom(key, now), onDropped, throttle);
+
+                if (result.changed()) {
+                    segmentsRemoved.addAndGet(result.segmentsBefore - result.segmentsAfter);
+                    recordsDropped.addAndGet(result.recordsDropped);
+                    bytesReclaimed.addAndGet(result.bytesBefore - result.bytesAfter);
+                    target.compacted(key);
+                    System.out.println("🧹 Historial compactado: " + key + " (segmentos " + result.segmentsBefore
+                            + " -> " + result.segmentsAfter + ", " + result.recordsDropped + " registros vencidos, "
+                            + result.bytesBefore + " -> " + result.bytesAfter + " bytes)");
+                }
+            } catch (IOException e) {
+                failures.incrementAndGet();
+                System.err.println("Error compactando " + key + ": " + e.getMessage());
+            }
+        }
+        passes.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("pasadas=%d segmentosEliminados=%d vencidos=%d bytesLiberados=%d errores=%d limite=%dB/s",
+                passes.get(), segmentsRemoved.get(), recordsDropped.get(), bytesReclaimed.get(), failures.get(),
+                throttle.getBytesPerSecond());
+    }
+}
@@ -0,0 +1,264 @@
+package persistence;
+
+import model.AudioMessage;
+import model.Message;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+/**
+ * Convierte el historial en texto al formato binario de {@link ConversationLog}.
+ *
+ * Fuentes que reconoce: los archivos planos originales (group_Amigos.txt, group_Amigos.txt_audio)
+ * y los directorios con segmentos de texto .log. La conversión escribe un log nuevo en un
+ * directorio temporal y recién al terminar lo pone en el lugar del anterior, así que una
+ * interrupción deja el historial de texto intacto y se reintenta en el próximo arranque.
+ *
+ * {@link ChatHistory} la aplica sola al abrir cada conversación. Para convertir todo de una
+ * vez y ver la comparación de tamaño y costo de parseo:
+ *
+ *   java -cp build/classes/java/main persistence.HistoryConverter [data/history/]
+ */
+public class HistoryConverter {
+    private static final String TEXT_SEGMENT_SUFFIX = ".log";
+    private static final String LEGACY_SUFFIX = ".txt";
+    private static final String LEGACY_AUDIO_SUFFIX = ".txt_audio";
+    private static final String AUDIO_DIR_SUFFIX = ".audio";
+    private static final String WORK_SUFFIX = ".converting";
+    private static final String PREVIOUS_SUFFIX = ".text";
+
+    private final File historyDir;
+    private final MessageCodec codec;
+    private final long segmentMaxBytes;
+    private final int indexInterval;
+
+    HistoryConverter(File historyDir, NameDictionary dictionary, long segmentMaxBytes, int indexInterval) {
+        this.historyDir = historyDir;
+        this.codec = new MessageCodec(dictionary);
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * Resultado acumulado de una o varias conversiones.
+     */
+    public static class Report {
+        private int conversations;
+        private long records;
+        private long skipped;
+        private long textBytes;
+        private long binaryBytes;
+        private long textParseNanos;
+        private long binaryParseNanos;
+
+        void add(Report other) {
+            conversations += other.conversations;
+            records += other.records;
+            skipped += other.skipped;
+            textBytes += other.textBytes;
+            binaryBytes += other.binaryBytes;
+            textParseNanos += other.textParseNanos;
+            binaryParseNanos += other.binaryParseNanos;
+        }
+
+        public int getConversations() { return conversations; }
+        public long getRecords() { return records; }
+        public long getTextBytes() { return textBytes; }
+        public long getBinaryBytes() { return binaryBytes; }
+
+        @Override
+        public String toString() {
+            long count = Math.max(1, records);
+            return String.format(
+                    "conversaciones=%d registros=%d descartados=%d | texto: %d bytes (%.1f B/msg, %.0f ns/msg) | "
+                            + "binario: %d bytes (%.1f B/msg, %.0f ns/msg)",
+                    conversations, records, skipped,
+                    textBytes, (double) textBytes / count, (double) textParseNanos / count,
+                    binaryBytes, (double) binaryBytes / count, (double) binaryParseNanos / count);
+        }
+    }
+
+    /**
+     * Indica si la conversación todavía tiene historial en texto sin convertir.
+     */
+    boolean needsConversion(File directory, File legacyFile) throws IOException {
+        restoreInterrupted(directory);
+        return !hasFiles(directory, ConversationLog.SEGMENT_SUFFIX)
+                && (legacyFile.isFile() || hasFiles(directory, TEXT_SEGMENT_SUFFIX));
+    }
+
+    /**
+     * Convierte una conversación (texto o audio) y devuelve su reporte.
+     */
+    Report convert(File directory, File legacyFile, boolean audio) throws IOException {
+        List<File> sources = new ArrayList<>();
+        if (legacyFile.isFile()) {
+            sources.add(legacyFile);
+        }
+        File[] textSegments = directory.listFiles((dir, name) -> name.endsWith(TEXT_SEGMENT_SUFFIX));
+        if (textSegments != null) {
+            Arrays.sort(textSegments);
+            sources.addAll(Arrays.asList(textSegments));
+        }
+
+        Report report = new Report();
+        report.conversations = 1;
+
+        File work = new File(historyDir, directory.getName() + WORK_SUFFIX);
+        deleteRecursively(work);
+
+        try (ConversationLog log = new ConversationLog(work, segmentMaxBytes, indexInterval, MessageCodec::timestampOf)) {
+            for (File source : sources) {
+                report.textBytes += source.length();
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        if (line.isEmpty()) continue;
+                        byte[] record = encodeTextLine(line, audio, report);
+                        if (record != null) {
+                            log.append(record);
+                            report.records++;
+                        }
+                    }
+                }
+            }
+            report.binaryBytes = log.getSizeBytes();
+
+            long start = System.nanoTime();
+            for (LogRecord record : log.readAll()) {
+                if (audio) {
+                    codec.decodeAudio(record.getPayload());
+                } else {
+                    codec.decode(record.getPayload(), record.getSequence());
+                }
+            }
+            report.binaryParseNanos = System.nanoTime() - start;
+        }
+
+        // Se reemplaza el directorio de texto por el convertido y recién después se borra el origen
+        File previous = new File(historyDir, directory.getName() + PREVIOUS_SUFFIX);
+        deleteRecursively(previous);
+        if (directory.exists()) {
+            Files.move(directory.toPath(), previous.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+        directory.getParentFile().mkdirs();
+        Files.move(work.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        deleteRecursively(previous);
+        Files.deleteIfExists(legacyFile.toPath());
+
+        System.out.println("Historial convertido a binario: " + directory.getName() + " (" + report.records
+                + " registros, " + report.textBytes + " -> " + report.binaryBytes + " bytes)");
+        return report;
+    }
+
+    private byte[] encodeTextLine(String line, boolean audio, Report report) {
+        String text = TextRecordFormat.stripSequence(line);
+        try {
+            long start = System.nanoTime();
+            Message message = audio ? TextRecordFormat.parseAudioMessage(text) : TextRecordFormat.parseMessage(text);
+            report.textParseNanos += System.nanoTime() - start;
+
+            return audio ? codec.encodeAudio((AudioMessage) message) : codec.encode(message);
+        } catch (Exception e) {
+            report.skipped++;
+            System.err.println("Registro de texto descartado: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Convierte todas las conversaciones pendientes del directorio de historial.
+     */
+    public Report convertAll() throws IOException {
+        return convertAll(conversation -> true);
+    }
+
+    /**
+     * Igual que {@link #convertAll()} pero sólo para las conversaciones que acepta el filtro.
+     */
+    Report convertAll(Predicate<String> conversationFilter) throws IOException {
+        Report total = new Report();
+        File[] entries = historyDir.listFiles();
+        if (entries == null) {
+            return total;
+        }
+        Arrays.sort(entries);
+
+        for (File entry : entries) {
+            String name = entry.getName();
+            if (entry.isFile() && name.endsWith(LEGACY_AUDIO_SUFFIX)) {
+                String conversation = name.substring(0, name.length() - LEGACY_AUDIO_SUFFIX.length());
+                if (!conversationFilter.test(conversation)) continue;
+                convertPending(new File(historyDir, conversation + AUDIO_DIR_SUFFIX), entry, true, total);
+            } else if (entry.isFile() && name.endsWith(LEGACY_SUFFIX)) {
+                String conversation = name.substring(0, name.length() - LEGACY_SUFFIX.length());
+                if (!conversationFilter.test(conversation)) continue;
+                convertPending(new File(historyDir, conversation), entry, false, total);
+            } else if (entry.isDirectory() && !name.endsWith(WORK_SUFFIX) && !name.endsWith(PREVIOUS_SUFFIX)) {
+                boolean audio = name.endsWith(AUDIO_DIR_SUFFIX);
+                String conversation = audio ? name.substring(0, name.length() - AUDIO_DIR_SUFFIX.length()) : name;
+                if (!conversationFilter.test(conversation)) continue;
+                File legacy = new File(historyDir, conversation + (audio ? LEGACY_AUDIO_SUFFIX : LEGACY_SUFFIX));
+                convertPending(entry, legacy, audio, total);
+            }
+        }
+        return total;
+    }
+
+    private void convertPending(File directory, File legacyFile, boolean audio, Report total) throws IOException {
+        if (needsConversion(directory, legacyFile)) {
+            total.add(convert(directory, legacyFile, audio));
+        }
+    }
+
+    // Si la conversión se cortó entre los dos renombres, el texto quedó en <nombre>.text
+    private void restoreInterrupted(File directory) throws IOException {
+        File previous = new File(historyDir, directory.getName() + PREVIOUS_SUFFIX);
+        if (!directory.exists() && previous.isDirectory()) {
+            Files.move(previous.toPath(), directory.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private static boolean hasFiles(File directory, String suffix) {
+        String[] names = directory.list((dir, name) -> name.endsWith(suffix));
+        return names != null && names.length > 0;
+    }
+
+    static void deleteRecursively(File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (Stream<Path> paths = Files.walk(file.toPath())) {
+            List<Path> ordered = new ArrayList<>();
+            paths.sorted(Comparator.reverseOrder()).forEach(ordered::add);
+            for (Path path : ordered) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File historyDir = new File(args.length > 0 ? args[0] : ChatHistory.HISTORY_DIR);
+        NameDictionary dictionary = new NameDictionary(new File(historyDir, ChatHistory.DICTIONARY_FILE));
+        try {
+            HistoryConverter converter = new HistoryConverter(historyDir, dictionary,
+                    ChatHistory.SEGMENT_MAX_BYTES, ChatHistory.INDEX_INTERVAL);
+            Report report = converter.convertAll();
+            System.out.println("Conversión terminada: " + report);
+            System.out.println("Diccionario de nombres: " + dictionary.size() + " nombres, "
+                    + dictionary.getFileSize() + " bytes");
+        } finally {
+            dictionary.close();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package persistence;
+
+import model.Message;
+
+import java.util.List;
+
+/**
+ * Página de historial en orden cronológico junto con el cursor para pedir la anterior.
+ * {@code nextCursor} es la secuencia del mensaje más viejo de la página.
+ */
+public class HistoryPage {
+    private final List<Message> messages;
+    private final long nextCursor;
+    private final boolean hasMore;
+
+    public HistoryPage(List<Message> messages, long nextCursor, boolean hasMore) {
+        this.messages = messages;
+        this.nextCursor = nextCursor;
+        this.hasMore = hasMore;
+    }
+
+    public List<Message> getMessages() { return messages; }
+    public long getNextCursor() { return nextCursor; }
+    public boolean hasMore() { return hasMore; }
+}
@@ -0,0 +1,87 @@
+package persistence;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pasada de recuperación al arrancar.
+ *
+ * Abre en paralelo todos los logs de data/history. Al abrirse, cada {@link ConversationLog}
+ * valida la cola de su segmento activo (CRC y secuencias), trunca una escritura cortada por
+ * una caída y carga sus índices de tiempo. Los segmentos cerrados ya se forzaron a disco al
+ * rotar, así que no se releen: el costo crece con la cantidad de conversaciones y no con el
+ * tamaño del historial. Después de la pasada ningún envío ni consulta paga la apertura.
+ */
+class HistoryRecovery {
+
+    interface Opener {
+        ConversationLog open(String key) throws IOException;
+    }
+
+    private final int threads;
+
+    private final AtomicInteger recovered = new AtomicInteger();
+    private final AtomicInteger truncatedLogs = new AtomicInteger();
+    private final AtomicLong truncatedBytes = new AtomicLong();
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile long elapsedMillis = -1;
+
+    HistoryRecovery(int threads) {
+        this.threads = Math.max(1, threads);
+    }
+
+    /**
+     * Abre las conversaciones indicadas y devuelve los logs que se pudieron abrir. Un log que
+     * falla se informa y queda para abrirse (y fallar con su error) en el primer acceso.
+     */
+    Map<String, ConversationLog> run(List<String> keys, Opener opener) throws InterruptedException {
+        long start = System.nanoTime();
+        Map<String, ConversationLog> opened = new ConcurrentHashMap<>();
+        AtomicInteger threadNumber = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, Math.max(1, keys.size())), runnable -> {
+            Thread thread = new Thread(runnable, "history-recovery-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        try {
+            for (String key : keys) {
+                executor.execute(() -> {
+                    try {
+                        ConversationLog log = opener.open(key);
+                        opened.put(key, log);
+                        recovered.incrementAndGet();
+                        if (log.getTruncatedBytes() > 0) {
+                            truncatedLogs.incrementAndGet();
+                            truncatedBytes.addAndGet(log.getTruncatedBytes());
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        failures.incrementAndGet();
+                        System.err.println("Error recuperando " + key + ": " + e.getMessage());
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } finally {
+            executor.shutdownNow();
+        }
+
+        elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        System.out.println("♻️ Historial recuperado: " + this);
+        return opened;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("conversaciones=%d truncadas=%d bytesTruncados=%d errores=%d hilos=%d tiempo=%dms",
+                recovered.get(), truncatedLogs.get(), truncatedBytes.get(), failures.get(), threads, elapsedMillis);
+    }
+}
@@ -0,0 +1,324 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+/**
+ * Hilo de escritura del historial con commit agrupado.
+ *
+ * Quien guarda un mensaje sólo encola el registro en una cola acotada; un único hilo la
+ * vacía en lotes, escribe los registros de cada conversación con una sola escritura y,
+ * según el modo de durabilidad, hace fsync:
+ *
+ * - none: nunca fuerza a disco; el futuro se completa al aceptar el registro.
+ * - batch-fsync: fsync de los logs modificados cada {@code fsyncIntervalMs}; el futuro se
+ *   completa al aceptar el registro (se acepta perder como máximo esa ventana).
+ * - fsync-per-commit: fsync después de cada lote; el futuro se completa recién entonces.
+ *
+ * Así quien responde al cliente (Ice o TCP) espera la durabilidad sólo cuando el modo la exige.
+ * Las lecturas llaman a {@link #awaitWritten} para ver siempre los mensajes ya aceptados.
+ */
+class HistoryWriter implements Closeable {
+
+    enum Durability {
+        NONE("none"),
+        BATCH_FSYNC("batch-fsync"),
+        FSYNC_PER_COMMIT("fsync-per-commit");
+
+        private final String name;
+
+        Durability(String name) {
+            this.name = name;
+        }
+
+        static Durability parse(String value) {
+            for (Durability durability : values()) {
+                if (durability.name.equalsIgnoreCase(value)) {
+                    return durability;
+                }
+            }
+            throw new IllegalArgumentException("Modo de durabilidad desconocido: " + value
+                    + " (opciones: none, batch-fsync, fsync-per-commit)");
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+
+    /**
+     * Codificación diferida: se ejecuta en el hilo de escritura.
+     */
+    interface Encoder {
+        byte[] encode() throws IOException;
+    }
+
+    private static class PendingWrite {
+        final MessageLog log;
+        final Encoder encoder;
+        final LongConsumer onAppended;
+        final CompletableFuture<Long> written = new CompletableFuture<>();
+        final CompletableFuture<Long> committed;
+
+        PendingWrite(MessageLog log, Encoder encoder, LongConsumer onAppended, boolean waitForSync) {
+            this.log = log;
+            this.encoder = encoder;
+            this.onAppended = onAppended;
+            this.committed = waitForSync ? new CompletableFuture<>() : CompletableFuture.completedFuture(0L);
+        }
+    }
+
+    /**
+     * Registros aceptados y ya procesados (escritos o fallidos) de un log. Se cuentan en lugar
+     * de guardar el último futuro porque dos hilos pueden encolar en orden distinto al que
+     * registran su envío.
+     */
+    private static class Progress {
+        private long submitted;
+        private long done;
+
+        synchronized long submit() {
+            return ++submitted;
+        }
+
+        synchronized void done() {
+            done++;
+            notifyAll();
+        }
+
+        synchronized void await() throws InterruptedException {
+            long target = submitted;
+            while (done < target) {
+                wait();
+            }
+        }
+    }
+
+    private final Durability durability;
+    private final long fsyncIntervalMillis;
+    private final int maxBatch;
+    private final NameDictionary dictionary;
+    private final BlockingQueue<PendingWrite> queue;
+    private final Map<MessageLog, Progress> progress = new ConcurrentHashMap<>();
+    private final Set<MessageLog> unsynced = new HashSet<>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong records = new AtomicLong();
+    private final AtomicLong syncs = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    HistoryWriter(Durability durability, long fsyncIntervalMillis, int queueCapacity, int maxBatch,
+                  NameDictionary dictionary) {
+        this.durability = durability;
+        this.fsyncIntervalMillis = Math.max(1, fsyncIntervalMillis);
+        this.maxBatch = Math.max(1, maxBatch);
+        this.dictionary = dictionary;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, queueCapacity));
+
+        this.thread = new Thread(this::run, "history-writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Encola un registro para {@code log}. {@code onAppended} recibe la secuencia asignada y
+     * corre bajo el candado del log, justo después de escribirlo. Si la cola está llena, espera.
+     *
+     * @return futuro que se completa en el punto de commit del modo configurado
+     */
+    CompletableFuture<Long> submit(MessageLog log, Encoder encoder, LongConsumer onAppended) {
+        PendingWrite write = new PendingWrite(log, encoder, onAppended, durability == Durability.FSYNC_PER_COMMIT);
+        if (!running) {
+            write.committed.completeExceptionally(new IOException("El historial está cerrado"));
+            return write.committed;
+        }
+
+        Progress logProgress = progress.computeIfAbsent(log, key -> new Progress());
+        logProgress.submit();
+        try {
+            queue.put(write);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logProgress.done();
+            CompletableFuture<Long> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            return failed;
+        }
+        return write.committed;
+    }
+
+    /**
+     * Espera a que los registros ya aceptados para {@code log} estén escritos, para que una
+     * lectura vea los mensajes que su mismo cliente acaba de enviar.
+     */
+    void awaitWritten(MessageLog log) {
+        Progress logProgress = progress.get(log);
+        if (logProgress != null) {
+            try {
+                logProgress.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    boolean waitsForSync() {
+        return durability == Durability.FSYNC_PER_COMMIT;
+    }
+
+    private void run() {
+        List<PendingWrite> batch = new ArrayList<>(maxBatch);
+        long nextSync = System.currentTimeMillis() + fsyncIntervalMillis;
+
+        while (running || !queue.isEmpty()) {
+            try {
+                long timeout = durability == Durability.BATCH_FSYNC
+                        ? Math.max(0, nextSync - System.currentTimeMillis())
+                        : fsyncIntervalMillis;
+                PendingWrite first = queue.poll(timeout, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, maxBatch - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+
+            if (durability == Durability.BATCH_FSYNC && System.currentTimeMillis() >= nextSync) {
+                syncUnsynced();
+                nextSync = System.currentTimeMillis() + fsyncIntervalMillis;
+            }
+        }
+        if (durability != Durability.NONE) {
+            syncUnsynced();
+        }
+    }
+
+    private void writeBatch(List<PendingWrite> batch) {
+        // Se agrupa por conversación conservando el orden de llegada dentro de cada una
+        Map<MessageLog, List<PendingWrite>> byLog = new LinkedHashMap<>();
+        for (PendingWrite write : batch) {
+            byLog.computeIfAbsent(write.log, log -> new ArrayList<>()).add(write);
+        }
+
+        List<PendingWrite> toCommit = new ArrayList<>(batch.size());
+        for (Map.Entry<MessageLog, List<PendingWrite>> entry : byLog.entrySet()) {
+            MessageLog log = entry.getKey();
+            List<PendingWrite> encoded = new ArrayList<>();
+            List<byte[]> payloads = new ArrayList<>();
+
+            for (PendingWrite write : entry.getValue()) {
+                try {
+                    payloads.add(write.encoder.encode());
+                    encoded.add(write);
+                } catch (Exception e) {
+                    fail(write, e);
+                }
+            }
+            if (payloads.isEmpty()) {
+                continue;
+            }
+
+            try {
+                synchronized (log) {
+                    long sequence = log.appendBatch(payloads);
+                    for (PendingWrite write : encoded) {
+                        try {
+                            write.onAppended.accept(sequence);
+                        } catch (RuntimeException e) {
+                            // El registro ya está en el log; un fallo al actualizar la caché no lo anula
+                            System.err.println("Error actualizando caché de historial: " + e.getMessage());
+                        }
+                        write.written.complete(sequence);
+                        progress.get(log).done();
+                        sequence++;
+                    }
+                }
+                if (durability != Durability.NONE) {
+                    unsynced.add(log);
+                }
+                toCommit.addAll(encoded);
+                records.addAndGet(encoded.size());
+            } catch (Exception e) {
+                encoded.forEach(write -> fail(write, e));
+            }
+        }
+        batches.incrementAndGet();
+
+        IOException syncError = durability == Durability.FSYNC_PER_COMMIT ? syncUnsynced() : null;
+        for (PendingWrite write : toCommit) {
+            if (syncError != null) {
+                write.committed.completeExceptionally(syncError);
+            } else {
+                write.committed.complete(write.written.join());
+            }
+        }
+    }
+
+    private void fail(PendingWrite write, Exception e) {
+        failures.incrementAndGet();
+        System.err.println("Error escribiendo historial: " + e.getMessage());
+        write.written.completeExceptionally(e);
+        write.committed.completeExceptionally(e);
+        progress.get(write.log).done();
+    }
+
+    private IOException syncUnsynced() {
+        if (unsynced.isEmpty()) {
+            return null;
+        }
+        try {
+            // El diccionario primero: un registro durable no puede apuntar a un nombre perdido
+            dictionary.sync();
+            for (MessageLog log : unsynced) {
+                log.sync();
+            }
+            syncs.incrementAndGet();
+            return null;
+        } catch (IOException e) {
+            failures.incrementAndGet();
+            System.err.println("Error sincronizando historial a disco: " + e.getMessage());
+            return e;
+        } finally {
+            unsynced.clear();
+        }
+    }
+
+    /**
+     * Deja de aceptar registros, escribe los pendientes y hace el último fsync.
+     */
+    @Override
+    public void close() {
+        // Sin interrupt: interrumpir un fsync en curso cerraría el canal del segmento
+        running = false;
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        PendingWrite late;
+        while ((late = queue.poll()) != null) {
+            fail(late, new IOException("El historial está cerrado"));
+        }
+    }
+
+    @Override
+    public String toString() {
+        long batchCount = batches.get();
+        return String.format("modo=%s lotes=%d registros=%d promedio=%.1f fsyncs=%d errores=%d cola=%d",
+                durability, batchCount, records.get(),
+                batchCount == 0 ? 0.0 : (double) records.get() / batchCount,
+                syncs.get(), failures.get(), queue.size());
+    }
+}
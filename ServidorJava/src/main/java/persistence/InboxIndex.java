@@ -0,0 +1,240 @@
+package persistence;
+
+import model.AudioMessage;
+import model.Message;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bandeja materializada: el último mensaje de cada conversación y, por usuario, hasta qué
+ * secuencia leyó cada una.
+ *
+ * El último mensaje se actualiza con cada mensaje guardado (desde el hilo de escritura). Una
+ * conversación que todavía no está en memoria se carga la primera vez que se pide leyendo sólo
+ * su último registro de texto y su último audio, así que armar la bandeja de un usuario cuesta
+ * lo mismo que la cantidad de conversaciones que tiene, no la de mensajes.
+ *
+ * Los cursores de lectura son un {@link CursorStore} en data/inbox/read con la clave
+ * "{conversación}/{usuario}". Enviar un mensaje marca la conversación como leída hasta ese
+ * mensaje, así que después del cursor sólo hay mensajes de otros y los no leídos son
+ * {@code última secuencia - cursor}, acotados a {@code maxUnread}. Para una conversación sin
+ * cursor se busca el último mensaje propio entre los {@code maxUnread} más recientes.
+ *
+ * Los acuses de entrega van en otro {@link CursorStore} (data/inbox/delivered) con las mismas
+ * claves. Ninguno de los dos se fuerza a disco por acuse: {@link #syncReceipts} lo hace una vez
+ * por lote.
+ */
+class InboxIndex implements Closeable {
+    private static final String AUDIO_PREVIEW = "[AUDIO]";
+
+    /**
+     * Lectura de los logs que la bandeja necesita; la implementa {@link ChatHistory}.
+     */
+    interface Loader {
+        /**
+         * Los últimos {@code limit} mensajes de texto de la conversación, del más nuevo al más viejo.
+         */
+        List<Message> latestMessages(String conversation, int limit) throws IOException;
+
+        AudioMessage latestAudio(String conversation) throws IOException;
+    }
+
+    /**
+     * Lo último de una conversación: el último texto (con su secuencia) y el último audio, que
+     * tiene su propio log y su propia numeración. {@code complete} es false mientras se carga
+     * desde los logs: hasta entonces sólo junta lo que se guarda en el medio.
+     */
+    private static final class Last {
+        final long sequence;
+        final long textTimestamp;
+        final String textFrom;
+        final String textPreview;
+        final long audioTimestamp;
+        final String audioFrom;
+        final boolean complete;
+
+        Last(long sequence, long textTimestamp, String textFrom, String textPreview, long audioTimestamp,
+             String audioFrom, boolean complete) {
+            this.sequence = sequence;
+            this.textTimestamp = textTimestamp;
+            this.textFrom = textFrom;
+            this.textPreview = textPreview;
+            this.audioTimestamp = audioTimestamp;
+            this.audioFrom = audioFrom;
+            this.complete = complete;
+        }
+
+        /**
+         * Lo más nuevo de cada parte entre esto y {@code other}; el resultado queda completo.
+         */
+        Last merge(Last other) {
+            Last text = other.sequence > sequence ? other : this;
+            Last audio = other.audioTimestamp > audioTimestamp ? other : this;
+            return new Last(text.sequence, text.textTimestamp, text.textFrom, text.textPreview,
+                    audio.audioTimestamp, audio.audioFrom, true);
+        }
+    }
+
+    private static final Last EMPTY = new Last(0, 0, "", "", 0, "", true);
+    private static final Last LOADING = new Last(0, 0, "", "", 0, "", false);
+
+    private final Loader loader;
+    private final int previewChars;
+    private final int maxUnread;
+    private final Map<String, Last> lastByConversation = new ConcurrentHashMap<>();
+    private final CursorStore readCursors;
+    private final CursorStore deliveredCursors;
+    private final AtomicLong loads = new AtomicLong();
+
+    InboxIndex(File directory, Loader loader, int previewChars, int maxUnread) throws IOException {
+        this.loader = loader;
+        this.previewChars = Math.max(1, previewChars);
+        this.maxUnread = Math.max(1, maxUnread);
+        this.readCursors = new CursorStore(new File(directory, "read"));
+        this.deliveredCursors = new CursorStore(new File(directory, "delivered"));
+    }
+
+    /**
+     * Mensaje de texto ya guardado con su secuencia: pasa a ser el último de la conversación y
+     * el remitente la tiene leída hasta ahí.
+     */
+    void messageSaved(String conversation, long sequence, Message message) throws IOException {
+        lastByConversation.computeIfPresent(conversation, (key, last) -> sequence <= last.sequence ? last
+                : new Last(sequence, message.getTimestamp().getTime(), message.getFrom(), preview(message.getContent()),
+                last.audioTimestamp, last.audioFrom, last.complete));
+        readCursors.advance(cursorKey(conversation, message.getFrom()), sequence);
+    }
+
+    void audioSaved(String conversation, AudioMessage audioMessage) {
+        long timestamp = audioMessage.getTimestamp().getTime();
+        lastByConversation.computeIfPresent(conversation, (key, last) -> timestamp < last.audioTimestamp ? last
+                : new Last(last.sequence, last.textTimestamp, last.textFrom, last.textPreview, timestamp,
+                audioMessage.getFrom(), last.complete));
+    }
+
+    /**
+     * Resumen de la conversación para {@code username}; {@code target} es el otro participante
+     * o el nombre del grupo.
+     */
+    ConversationSummary summary(String username, String conversation, String target, boolean group)
+            throws IOException {
+        Last last = lastOf(conversation);
+        int unread = last.sequence == 0 ? 0 : unread(username, conversation, last.sequence);
+        boolean audioIsLast = last.audioTimestamp > last.textTimestamp;
+        return new ConversationSummary(target, group, last.sequence,
+                audioIsLast ? last.audioTimestamp : last.textTimestamp,
+                audioIsLast ? last.audioFrom : last.textFrom,
+                audioIsLast ? AUDIO_PREVIEW : last.textPreview, unread);
+    }
+
+    private Last lastOf(String conversation) throws IOException {
+        Last last = lastByConversation.get(conversation);
+        if (last != null && last.complete) {
+            return last;
+        }
+        // La carga lee los logs fuera del mapa: el hilo de escritura actualiza el mapa con el
+        // candado del log tomado, así que leer el log con el candado de la clave los trabaría.
+        // Lo que se guarde mientras tanto queda en la entrada LOADING y se combina al final.
+        lastByConversation.putIfAbsent(conversation, LOADING);
+        Last loaded = load(conversation);
+        return lastByConversation.merge(conversation, loaded, Last::merge);
+    }
+
+    private Last load(String conversation) throws IOException {
+        List<Message> latest = loader.latestMessages(conversation, 1);
+        AudioMessage audio = loader.latestAudio(conversation);
+        loads.incrementAndGet();
+        if (latest.isEmpty() && audio == null) {
+            return EMPTY;
+        }
+        Message message = latest.isEmpty() ? null : latest.get(0);
+        return new Last(message == null ? 0 : message.getSequence(),
+                message == null ? 0 : message.getTimestamp().getTime(),
+                message == null ? "" : message.getFrom(),
+                message == null ? "" : preview(message.getContent()),
+                audio == null ? 0 : audio.getTimestamp().getTime(),
+                audio == null ? "" : audio.getFrom(), true);
+    }
+
+    /**
+     * Acuse de {@code username} en la conversación: recibió hasta {@code delivered} y leyó hasta
+     * {@code read} (0 si no hay acuse de ese tipo). Las secuencias se acotan a la última de la
+     * conversación y leer implica haber recibido. Devuelve el acuse vigente si algo avanzó; null
+     * si no cambió nada.
+     */
+    Receipt acknowledge(String username, String conversation, String target, boolean group, long delivered,
+                        long read) throws IOException {
+        long last = lastOf(conversation).sequence;
+        long readUpTo = Math.min(read, last);
+        long deliveredUpTo = Math.min(Math.max(delivered, read), last);
+        if (deliveredUpTo <= 0) {
+            return null;
+        }
+        String key = cursorKey(conversation, username);
+        // Sin cursor de lectura todavía: primero el inicial, que cubre los mensajes propios
+        ensureReadCursor(username, conversation, key);
+        boolean changed = deliveredCursors.advance(key, deliveredUpTo);
+        if (readUpTo > 0) {
+            changed |= readCursors.advance(key, readUpTo);
+        }
+        if (!changed) {
+            return null;
+        }
+        long readNow = readCursors.get(key);
+        // Los mensajes propios cuentan como leídos y recibidos aunque nunca se acusen
+        return new Receipt(target, username, group, Math.max(deliveredCursors.get(key), readNow), readNow);
+    }
+
+    void syncReceipts() throws IOException {
+        readCursors.sync();
+        deliveredCursors.sync();
+    }
+
+    private int unread(String username, String conversation, long lastSequence) throws IOException {
+        String key = cursorKey(conversation, username);
+        ensureReadCursor(username, conversation, key);
+        return (int) Math.min(maxUnread, Math.max(0, lastSequence - readCursors.get(key)));
+    }
+
+    private void ensureReadCursor(String username, String conversation, String key) throws IOException {
+        if (!readCursors.contains(key)) {
+            long own = 0;
+            for (Message message : loader.latestMessages(conversation, maxUnread)) {
+                if (username.equals(message.getFrom())) {
+                    own = message.getSequence();
+                    break;
+                }
+            }
+            readCursors.advance(key, own);
+        }
+    }
+
+    private static String cursorKey(String conversation, String username) {
+        return conversation + "/" + username;
+    }
+
+    private String preview(String content) {
+        if (content == null) {
+            return "";
+        }
+        return content.length() <= previewChars ? content : content.substring(0, previewChars) + "…";
+    }
+
+    @Override
+    public String toString() {
+        return String.format("conversaciones=%d cargadas=%d leídos[%s] entregados[%s]", lastByConversation.size(),
+                loads.get(), readCursors, deliveredCursors);
+    }
+
+    @Override
+    public void close() throws IOException {
+        readCursors.close();
+        deliveredCursors.close();
+    }
+}
@@ -0,0 +1,44 @@
+package persistence;
+
+/**
+ * Limita el ritmo de E/S de las tareas de fondo (compactación) para que no compitan con los
+ * envíos por el disco. Es un balde de tokens en bytes por segundo con ráfagas de 100 ms: quien
+ * se pasa queda en deuda y duerme lo necesario para pagarla.
+ */
+class IoThrottle {
+    private final long bytesPerSecond;
+    private final long burstBytes;
+    private long available;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param bytesPerSecond ritmo máximo; 0 o negativo desactiva el límite
+     */
+    IoThrottle(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.burstBytes = Math.max(1, bytesPerSecond / 10);
+        this.available = burstBytes;
+    }
+
+    void acquire(long bytes) throws InterruptedException {
+        if (bytesPerSecond <= 0) {
+            return;
+        }
+
+        long sleepMillis;
+        synchronized (this) {
+            long now = System.nanoTime();
+            available = Math.min(burstBytes, available + (now - lastRefill) * bytesPerSecond / 1_000_000_000L);
+            lastRefill = now;
+            available -= bytes;
+            sleepMillis = available < 0 ? -available * 1000 / bytesPerSecond : 0;
+        }
+        if (sleepMillis > 0) {
+            Thread.sleep(sleepMillis);
+        }
+    }
+
+    long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+}
@@ -0,0 +1,18 @@
+package persistence;
+
+/**
+ * Registro leído de un {@link ConversationLog}: la secuencia asignada al agregarlo y el
+ * contenido binario tal como lo codificó {@link MessageCodec}.
+ */
+public class LogRecord {
+    private final long sequence;
+    private final byte[] payload;
+
+    public LogRecord(long sequence, byte[] payload) {
+        this.sequence = sequence;
+        this.payload = payload;
+    }
+
+    public long getSequence() { return sequence; }
+    public byte[] getPayload() { return payload; }
+}
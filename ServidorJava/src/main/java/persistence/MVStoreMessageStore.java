@@ -0,0 +1,271 @@
+package persistence;
+
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.ToLongFunction;
+
+/**
+ * Backend clave-valor embebido: todo el historial en un único archivo MVStore de H2, un
+ * árbol B ordenado que corre dentro del proceso.
+ *
+ * Cada conversación es un mapa ordenado por secuencia ("log/{conversación}"), así que la clave
+ * efectiva es (conversación, secuencia) y paginar o leer desde un cursor es una búsqueda en el
+ * árbol más un recorrido. Un segundo mapa ("time/{conversación}") hace de índice disperso de
+ * tiempo: cada {@code indexInterval} registros guarda el máximo timestamp visto hasta ahí, que
+ * nunca decrece, con la secuencia donde se alcanzó (el mismo criterio que {@link SegmentIndex}).
+ *
+ * Una conversación que todavía sólo existe en el backend de archivos se copia con sus mismas
+ * secuencias la primera vez que se abre; los archivos quedan como estaban.
+ */
+class MVStoreMessageStore implements MessageStore, AudioMetaStore {
+    private static final String LOG_PREFIX = "log/";
+    private static final String TIME_PREFIX = "time/";
+
+    private final MVStore store;
+    private final File file;
+    private final FileMessageStore source;
+    private final int indexInterval;
+    private final ToLongFunction<byte[]> timestampOf;
+    private final Map<String, Log> open = new ConcurrentHashMap<>();
+    private final Object syncLock = new Object();
+    private long syncedVersion = -1;
+
+    /**
+     * @param source backend de archivos del que se importan las conversaciones; null si no hay
+     */
+    MVStoreMessageStore(File file, FileMessageStore source, int indexInterval, ToLongFunction<byte[]> timestampOf) {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) {
+            throw new IllegalStateException("No se pudo crear el directorio " + parent);
+        }
+        this.file = file;
+        this.store = new MVStore.Builder().fileName(file.getPath()).open();
+        this.source = source;
+        this.indexInterval = Math.max(1, indexInterval);
+        this.timestampOf = timestampOf;
+    }
+
+    @Override
+    public MessageLog open(String conversation) throws IOException {
+        return openKey(conversation, false);
+    }
+
+    @Override
+    public MessageLog openAudio(String conversation) throws IOException {
+        return openKey(conversation + FileMessageStore.AUDIO_SUFFIX, true);
+    }
+
+    private synchronized MessageLog openKey(String key, boolean audio) throws IOException {
+        Log log = open.get(key);
+        if (log != null) {
+            return log;
+        }
+
+        boolean imported = !store.hasMap(LOG_PREFIX + key) && source != null
+                && (audio ? source.hasAudio(stripAudio(key)) : source.exists(key));
+        log = new Log(key);
+        if (imported) {
+            List<LogRecord> records;
+            try (ConversationLog from = audio ? source.openAudio(stripAudio(key)) : source.open(key)) {
+                records = from.readAll();
+            }
+            log.load(records);
+            store.commit();
+            System.out.println("📥 Conversación importada a MVStore: " + key + " (" + records.size() + " registros)");
+        }
+        open.put(key, log);
+        return log;
+    }
+
+    private static String stripAudio(String key) {
+        return key.substring(0, key.length() - FileMessageStore.AUDIO_SUFFIX.length());
+    }
+
+    // Un lote toca varias conversaciones del mismo archivo: se fuerza a disco una sola vez por versión
+    private void syncStore() {
+        synchronized (syncLock) {
+            long version = store.commit();
+            if (version != syncedVersion) {
+                store.sync();
+                syncedVersion = version;
+            }
+        }
+    }
+
+    @Override
+    public boolean exists(String conversation) {
+        return store.hasMap(LOG_PREFIX + conversation) || (source != null && source.exists(conversation));
+    }
+
+    @Override
+    public boolean hasAudio(String conversation) {
+        return store.hasMap(LOG_PREFIX + conversation + FileMessageStore.AUDIO_SUFFIX)
+                || (source != null && source.hasAudio(conversation));
+    }
+
+    @Override
+    public List<String> conversations() {
+        TreeSet<String> names = new TreeSet<>();
+        for (String name : store.getMapNames()) {
+            if (name.startsWith(LOG_PREFIX) && !name.endsWith(FileMessageStore.AUDIO_SUFFIX)) {
+                names.add(name.substring(LOG_PREFIX.length()));
+            }
+        }
+        if (source != null) {
+            names.addAll(source.conversations());
+        }
+        return List.copyOf(names);
+    }
+
+    @Override
+    public String toString() {
+        return "mvstore " + file + " (" + (file.length() / 1024) + " KB)";
+    }
+
+    @Override
+    public synchronized void close() {
+        store.close();
+    }
+
+    /**
+     * Log de una conversación dentro del MVStore. El archivo se comparte entre todas, así que
+     * {@link #sync} confirma los cambios de cualquier conversación pendiente.
+     */
+    private class Log implements MessageLog {
+        private final MVMap<Long, byte[]> records;
+        private final MVMap<Long, Long> timeIndex;
+        private long lastSequence;
+        private long maxTimestamp = Long.MIN_VALUE;
+
+        Log(String key) {
+            records = store.openMap(LOG_PREFIX + key);
+            timeIndex = store.openMap(TIME_PREFIX + key);
+            Long last = records.lastKey();
+            lastSequence = last == null ? 0 : last;
+
+            // El máximo vigente: la última entrada del índice más lo agregado después
+            Long indexedMax = timeIndex.lastKey();
+            long from = 1;
+            if (indexedMax != null) {
+                maxTimestamp = indexedMax;
+                from = timeIndex.get(indexedMax);
+            }
+            Cursor<Long, byte[]> cursor = records.cursor(from);
+            while (cursor.hasNext()) {
+                cursor.next();
+                maxTimestamp = Math.max(maxTimestamp, timestampOf.applyAsLong(cursor.getValue()));
+            }
+        }
+
+        // Importación: conserva las secuencias originales
+        synchronized void load(List<LogRecord> imported) {
+            for (LogRecord record : imported) {
+                put(record.getSequence(), record.getPayload());
+            }
+        }
+
+        private void put(long sequence, byte[] record) {
+            records.put(sequence, record);
+            maxTimestamp = Math.max(maxTimestamp, timestampOf.applyAsLong(record));
+            if ((sequence - 1) % indexInterval == 0) {
+                timeIndex.put(maxTimestamp, sequence);
+            }
+            lastSequence = Math.max(lastSequence, sequence);
+        }
+
+        @Override
+        public synchronized long append(byte[] record) {
+            put(lastSequence + 1, record);
+            return lastSequence;
+        }
+
+        @Override
+        public synchronized long appendBatch(List<byte[]> batch) {
+            long first = lastSequence + 1;
+            for (byte[] record : batch) {
+                put(lastSequence + 1, record);
+            }
+            return first;
+        }
+
+        @Override
+        public void sync() {
+            syncStore();
+        }
+
+        @Override
+        public synchronized List<LogRecord> readAll() {
+            return readAfter(0);
+        }
+
+        @Override
+        public synchronized List<LogRecord> readBefore(long beforeSequence, int limit) {
+            List<LogRecord> result = new ArrayList<>(Math.max(0, limit));
+            if (limit <= 0) {
+                return result;
+            }
+            Long from = beforeSequence <= 0 ? null : beforeSequence - 1;
+            Cursor<Long, byte[]> cursor = records.cursor(from, null, true);
+            while (cursor.hasNext() && result.size() < limit) {
+                long sequence = cursor.next();
+                result.add(new LogRecord(sequence, cursor.getValue()));
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized List<LogRecord> readRange(long fromTimestamp, long toTimestamp, int limit) {
+            List<LogRecord> result = new ArrayList<>();
+            if (limit <= 0 || fromTimestamp > toTimestamp) {
+                return result;
+            }
+            // Todo lo anterior a esa secuencia tiene timestamp menor que el inicio del rango
+            Long floor = timeIndex.lowerKey(fromTimestamp);
+            Cursor<Long, byte[]> cursor = records.cursor(floor == null ? null : timeIndex.get(floor));
+            while (cursor.hasNext()) {
+                long sequence = cursor.next();
+                long timestamp = timestampOf.applyAsLong(cursor.getValue());
+                if (timestamp > toTimestamp) {
+                    break;
+                }
+                if (timestamp >= fromTimestamp) {
+                    result.add(new LogRecord(sequence, cursor.getValue()));
+                    if (result.size() >= limit) {
+                        break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized List<LogRecord> readAfter(long afterSequence) {
+            List<LogRecord> result = new ArrayList<>();
+            Cursor<Long, byte[]> cursor = records.cursor(afterSequence + 1);
+            while (cursor.hasNext()) {
+                long sequence = cursor.next();
+                result.add(new LogRecord(sequence, cursor.getValue()));
+            }
+            return result;
+        }
+
+        @Override
+        public synchronized long getLastSequence() {
+            return lastSequence;
+        }
+
+        @Override
+        public void close() {
+            // Los mapas viven mientras el MVStore esté abierto
+        }
+    }
+}
@@ -0,0 +1,137 @@
+package persistence;
+
+import model.AudioMessage;
+import model.Message;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+/**
+ * Formato binario de los registros del historial.
+ *
+ * Mensaje de texto:  varint timestamp | flags | varint id remitente | varint id destinatario | id | contenido
+ * Audio:             varint timestamp | flags | varint id remitente | varint id destinatario | id | varint duración | varint tamaño
+ *
+ * El timestamp va primero para que el índice de tiempo lo lea sin decodificar el resto.
+ * Remitente y destinatario son ids del {@link NameDictionary}. El id del mensaje ocupa 16
+ * bytes si es un UUID canónico y si no se guarda como texto con su longitud. El contenido
+ * ocupa el resto del registro, así que no necesita longitud propia.
+ */
+class MessageCodec {
+    private static final int FLAG_GROUP = 1;
+    private static final int FLAG_UUID_ID = 1 << 1;
+
+    private final NameDictionary dictionary;
+
+    MessageCodec(NameDictionary dictionary) {
+        this.dictionary = dictionary;
+    }
+
+    byte[] encode(Message message) throws IOException {
+        String content = message.getContent() != null ? message.getContent() : "";
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 + contentBytes.length);
+        writeHeader(out, message);
+        out.write(contentBytes);
+        return out.toByteArray();
+    }
+
+    byte[] encodeAudio(AudioMessage audioMessage) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(40);
+        writeHeader(out, audioMessage);
+        Varint.write(out, Math.max(0, audioMessage.getDuration()));
+        Varint.write(out, Math.max(0, audioMessage.getAudioSize()));
+        return out.toByteArray();
+    }
+
+    private void writeHeader(ByteArrayOutputStream out, Message message) throws IOException {
+        UUID uuid = parseUuid(message.getId());
+        int flags = (message.isGroupMessage() ? FLAG_GROUP : 0) | (uuid != null ? FLAG_UUID_ID : 0);
+
+        Varint.write(out, message.getTimestamp().getTime());
+        out.write(flags);
+        Varint.write(out, dictionary.idOf(message.getFrom()));
+        Varint.write(out, dictionary.idOf(message.getTo()));
+
+        if (uuid != null) {
+            ByteBuffer id = ByteBuffer.allocate(16);
+            id.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+            out.write(id.array());
+        } else {
+            byte[] id = message.getId().getBytes(StandardCharsets.UTF_8);
+            Varint.write(out, id.length);
+            out.write(id);
+        }
+    }
+
+    Message decode(byte[] payload, long sequence) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        Header header = readHeader(buffer);
+        String content = new String(payload, buffer.position(), buffer.remaining(), StandardCharsets.UTF_8);
+
+        Message message = new Message(header.id, header.from, header.to, content, header.group, header.timestamp);
+        message.setSequence(sequence);
+        return message;
+    }
+
+    AudioMessage decodeAudio(byte[] payload) {
+        ByteBuffer buffer = ByteBuffer.wrap(payload);
+        Header header = readHeader(buffer);
+        int duration = (int) Varint.read(buffer);
+        int size = (int) Varint.read(buffer);
+        return new AudioMessage(header.id, header.from, header.to, header.group, header.timestamp, size, duration);
+    }
+
+    private Header readHeader(ByteBuffer buffer) {
+        Header header = new Header();
+        header.timestamp = Varint.read(buffer);
+        int flags = buffer.get();
+        header.group = (flags & FLAG_GROUP) != 0;
+        header.from = dictionary.nameOf((int) Varint.read(buffer));
+        header.to = dictionary.nameOf((int) Varint.read(buffer));
+
+        if ((flags & FLAG_UUID_ID) != 0) {
+            header.id = new UUID(buffer.getLong(), buffer.getLong()).toString();
+        } else {
+            byte[] id = new byte[(int) Varint.read(buffer)];
+            buffer.get(id);
+            header.id = new String(id, StandardCharsets.UTF_8);
+        }
+        return header;
+    }
+
+    /**
+     * Timestamp de un registro leyendo sólo su primer campo; lo usa el índice de tiempo.
+     */
+    static long timestampOf(byte[] payload) {
+        try {
+            return Varint.read(ByteBuffer.wrap(payload));
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    // Sólo se compactan los UUID en forma canónica, para que el id decodificado sea idéntico
+    private static UUID parseUuid(String id) {
+        if (id == null || id.length() != 36) {
+            return null;
+        }
+        try {
+            UUID uuid = UUID.fromString(id);
+            return uuid.toString().equals(id) ? uuid : null;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private static class Header {
+        long timestamp;
+        boolean group;
+        String from;
+        String to;
+        String id;
+    }
+}
@@ -0,0 +1,62 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Registros de una conversación, numerados con una secuencia que empieza en 1 y no se repite.
+ *
+ * Es lo que {@link ChatHistory} y {@link HistoryWriter} necesitan de un almacén: agregar al
+ * final, forzar a disco y leer por secuencia o por rango de tiempo. Las implementaciones
+ * sincronizan sobre sí mismas, así que quien tome el candado del log ve un estado estable.
+ */
+public interface MessageLog extends Closeable {
+
+    /**
+     * Agrega un registro y devuelve la secuencia que se le asignó.
+     */
+    long append(byte[] record) throws IOException;
+
+    /**
+     * Agrega varios registros y devuelve la secuencia del primero; los demás quedan numerados
+     * a continuación.
+     */
+    long appendBatch(List<byte[]> records) throws IOException;
+
+    /**
+     * Fuerza a disco lo agregado hasta ahora.
+     */
+    void sync() throws IOException;
+
+    List<LogRecord> readAll() throws IOException;
+
+    /**
+     * Hasta {@code limit} registros con secuencia menor que {@code beforeSequence}, del más
+     * nuevo al más viejo. Un cursor menor o igual a cero significa "desde el final".
+     */
+    List<LogRecord> readBefore(long beforeSequence, int limit) throws IOException;
+
+    /**
+     * Hasta {@code limit} registros con timestamp entre {@code fromTimestamp} y
+     * {@code toTimestamp} (inclusive), en orden de escritura.
+     */
+    List<LogRecord> readRange(long fromTimestamp, long toTimestamp, int limit) throws IOException;
+
+    /**
+     * Registros con secuencia mayor que {@code afterSequence}, en orden de escritura.
+     */
+    List<LogRecord> readAfter(long afterSequence) throws IOException;
+
+    /**
+     * El registro con secuencia {@code sequence}, o null si no está. {@code timestamp} es el del
+     * registro si se conoce (un índice puede usarlo para saltar cerca); si no coincide sólo se
+     * lee más.
+     */
+    default LogRecord readAt(long sequence, long timestamp) throws IOException {
+        List<LogRecord> records = readBefore(sequence + 1, 1);
+        return !records.isEmpty() && records.get(0).getSequence() == sequence ? records.get(0) : null;
+    }
+
+    long getLastSequence();
+}
@@ -0,0 +1,28 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Almacén de los mensajes de texto de todas las conversaciones.
+ *
+ * La clave es el nombre de la conversación (group_{grupo}, pair_{a}-{b}) y cada una es un
+ * {@link MessageLog}. Hay dos implementaciones y se elige con {@code chat.history.store}:
+ * {@code file} (por defecto, un {@link ConversationLog} por directorio) y {@code mvstore}
+ * (un único archivo MVStore de H2, con claves (conversación, secuencia)).
+ */
+public interface MessageStore extends Closeable {
+
+    /**
+     * Log de la conversación; la crea si no existe.
+     */
+    MessageLog open(String conversation) throws IOException;
+
+    boolean exists(String conversation);
+
+    /**
+     * Nombres de todas las conversaciones de texto guardadas.
+     */
+    List<String> conversations();
+}
@@ -0,0 +1,141 @@
+package persistence;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Diccionario de nombres (usuarios y grupos) compartido por todo el historial.
+ *
+ * Los registros binarios guardan remitente y destinatario como ids chicos en lugar de
+ * repetir el nombre en cada mensaje. El archivo es append-only: cada entrada es un varint
+ * con la longitud seguida del nombre en UTF-8, y el id es su posición. Una entrada nueva se
+ * escribe antes que el primer registro que la usa, así que una cola cortada por una caída
+ * nunca deja registros apuntando a ids inexistentes.
+ *
+ * Leer no toma candados: cada lectura de un registro traduce ids con {@link #nameOf}, que lee
+ * una tabla publicada por copia (se reemplaza entera al agregar un nombre, que es raro), y
+ * {@link #idOf} busca primero en un mapa concurrente. Sólo agregar un nombre se serializa.
+ */
+class NameDictionary {
+    private final File file;
+    // Nombre por id; se reemplaza entera con cada nombre nuevo
+    private volatile String[] names = new String[0];
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private FileOutputStream out;
+    private boolean dirty;
+
+    NameDictionary(File file) throws IOException {
+        this.file = file;
+        load();
+    }
+
+    private void load() throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        String[] loaded = new String[16];
+        int count = 0;
+        long validBytes = 0;
+        while (buffer.hasRemaining()) {
+            try {
+                int length = (int) Varint.read(buffer);
+                if (length > buffer.remaining()) {
+                    break;
+                }
+                byte[] bytes = new byte[length];
+                buffer.get(bytes);
+                if (count == loaded.length) {
+                    loaded = Arrays.copyOf(loaded, count * 2);
+                }
+                String name = new String(bytes, StandardCharsets.UTF_8);
+                loaded[count] = name;
+                ids.put(name, count++);
+                validBytes = buffer.position();
+            } catch (RuntimeException e) {
+                break;
+            }
+        }
+        names = Arrays.copyOf(loaded, count);
+
+        if (validBytes < file.length()) {
+            // Cola incompleta de una escritura interrumpida: se descarta
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(validBytes);
+            }
+        }
+    }
+
+    /**
+     * Id del nombre, agregándolo al diccionario si es nuevo.
+     */
+    int idOf(String name) throws IOException {
+        Integer id = ids.get(name);
+        return id != null ? id : add(name);
+    }
+
+    private synchronized int add(String name) throws IOException {
+        Integer id = ids.get(name);
+        if (id != null) {
+            return id;
+        }
+
+        byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+        ByteArrayOutputStream entry = new ByteArrayOutputStream(bytes.length + 2);
+        Varint.write(entry, bytes.length);
+        entry.write(bytes);
+
+        if (out == null) {
+            out = new FileOutputStream(file, true);
+        }
+        out.write(entry.toByteArray());
+        dirty = true;
+
+        // Primero la tabla y después el mapa: quien vea el id ya encuentra el nombre
+        String[] current = names;
+        String[] grown = Arrays.copyOf(current, current.length + 1);
+        grown[current.length] = name;
+        names = grown;
+        ids.put(name, current.length);
+        return current.length;
+    }
+
+    /**
+     * Fuerza a disco los nombres agregados desde el último sync.
+     */
+    synchronized void sync() throws IOException {
+        if (out != null && dirty) {
+            out.getChannel().force(false);
+        }
+        dirty = false;
+    }
+
+    String nameOf(int id) {
+        String[] table = names;
+        if (id < 0 || id >= table.length) {
+            throw new IllegalArgumentException("Id de nombre desconocido: " + id);
+        }
+        return table[id];
+    }
+
+    int size() {
+        return names.length;
+    }
+
+    long getFileSize() {
+        return file.length();
+    }
+
+    synchronized void close() throws IOException {
+        if (out != null) {
+            out.close();
+            out = null;
+        }
+    }
+}
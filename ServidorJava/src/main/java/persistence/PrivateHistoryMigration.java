@@ -0,0 +1,257 @@
+package persistence;
+
+import model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Reparte el historial privado por buzón (user_{destinatario}) en conversaciones por pareja.
+ *
+ * Antes cada mensaje privado se guardaba en el log del destinatario, así que leer una
+ * conversación implicaba leer todo lo que ese usuario recibió de cualquiera. Ahora la clave es
+ * la pareja ordenada (ver {@link ChatHistory#privateConversationName}) y cada lectura toca sólo
+ * los datos de esos dos usuarios.
+ *
+ * La migración corre en dos fases para poder cortarse en cualquier punto:
+ * 1. Recorre los buzones registro por registro y copia cada uno al log provisorio de su pareja
+ *    en {@code pairs.spill/}; después, de a una pareja, mezcla por timestamp lo que juntó con el
+ *    log que la pareja ya tenía, lo escribe en {@code pairs.migrating/} y borra el provisorio.
+ *    Al terminar deja la marca {@code COMPLETE}. En memoria hay a lo sumo una pareja a la vez.
+ * 2. Con la marca presente, mueve cada conversación a su lugar, borra los buzones viejos y
+ *    por último el directorio de trabajo.
+ * Si se interrumpe en la fase 1 se descarta el trabajo y se repite; en la fase 2 se continúa.
+ *
+ * {@link ChatHistory} la aplica sola al arrancar. También se puede correr a mano:
+ *
+ *   java -cp build/classes/java/main persistence.PrivateHistoryMigration [data/history/]
+ */
+public class PrivateHistoryMigration {
+    static final String INBOX_PREFIX = "user_";
+    private static final String STAGING_DIR = "pairs.migrating";
+    private static final String SPILL_DIR = "pairs.spill";
+    // Logs provisorios abiertos a la vez al repartir; el que lleva más tiempo sin usarse se cierra
+    private static final int MAX_OPEN_SPILLS = 64;
+    private static final String COMPLETE_MARKER = "COMPLETE";
+    private static final String AUDIO_SUFFIX = ".audio";
+
+    private final File historyDir;
+    private final ShardLayout layout;
+    private final MessageCodec codec;
+    private final HistoryConverter converter;
+    private final long segmentMaxBytes;
+    private final int indexInterval;
+
+    private int inboxes;
+    private int conversations;
+    private long records;
+    private long skipped;
+
+    PrivateHistoryMigration(File historyDir, MessageCodec codec, HistoryConverter converter,
+                            long segmentMaxBytes, int indexInterval) {
+        this.historyDir = historyDir;
+        this.layout = new ShardLayout(historyDir);
+        this.codec = codec;
+        this.converter = converter;
+        this.segmentMaxBytes = segmentMaxBytes;
+        this.indexInterval = indexInterval;
+    }
+
+    /**
+     * Indica si quedan buzones por repartir o una migración a medio terminar.
+     */
+    boolean isNeeded() {
+        return new File(historyDir, STAGING_DIR).exists() || !listInboxEntries().isEmpty();
+    }
+
+    /**
+     * Migra si hace falta. Devuelve false si no había nada que hacer.
+     */
+    public boolean migrateIfNeeded() throws IOException {
+        if (!isNeeded()) {
+            return false;
+        }
+
+        long start = System.currentTimeMillis();
+        File staging = new File(historyDir, STAGING_DIR);
+        if (!new File(staging, COMPLETE_MARKER).isFile()) {
+            HistoryConverter.deleteRecursively(staging);
+            HistoryConverter.deleteRecursively(new File(historyDir, SPILL_DIR));
+            // Los buzones todavía en texto se pasan primero a binario
+            converter.convertAll(conversation -> conversation.startsWith(INBOX_PREFIX));
+            stage(staging);
+        }
+        install(staging);
+
+        System.out.println("Historial privado migrado a conversaciones por pareja: " + inboxes + " buzones -> "
+                + conversations + " conversaciones, " + records + " registros, " + skipped + " descartados ("
+                + (System.currentTimeMillis() - start) + " ms)");
+        return true;
+    }
+
+    // Fase 1: arma las conversaciones por pareja en el directorio de trabajo
+    private void stage(File staging) throws IOException {
+        staging.mkdirs();
+        File spill = new File(historyDir, SPILL_DIR);
+        spill(spill);
+
+        File[] pairs = spill.listFiles(File::isDirectory);
+        if (pairs != null) {
+            Arrays.sort(pairs);
+            for (File pair : pairs) {
+                stagePair(pair, new File(staging, pair.getName()));
+            }
+        }
+        HistoryConverter.deleteRecursively(spill);
+
+        Files.createFile(new File(staging, COMPLETE_MARKER).toPath());
+    }
+
+    // Copia cada registro de los buzones al log provisorio de su pareja, sin juntarlos en memoria
+    private void spill(File spill) throws IOException {
+        Map<String, ConversationLog> open = new LinkedHashMap<>(16, 0.75f, true);
+        try {
+            for (File inbox : listInboxEntries()) {
+                boolean audio = inbox.getName().endsWith(AUDIO_SUFFIX);
+                inboxes++;
+                try (ConversationLog log = openLog(inbox)) {
+                    log.scan((offset, record) -> {
+                        String pair = pairOf(record, audio);
+                        if (pair == null) {
+                            skipped++;
+                        } else {
+                            spillLog(spill, audio ? pair + AUDIO_SUFFIX : pair, open).append(record.getPayload());
+                        }
+                        return true;
+                    });
+                }
+            }
+        } finally {
+            for (ConversationLog log : open.values()) {
+                log.close();
+            }
+        }
+    }
+
+    private ConversationLog spillLog(File spill, String name, Map<String, ConversationLog> open) throws IOException {
+        ConversationLog log = open.get(name);
+        if (log == null) {
+            log = openLog(new File(spill, name));
+            open.put(name, log);
+            Iterator<ConversationLog> eldest = open.values().iterator();
+            if (open.size() > MAX_OPEN_SPILLS) {
+                eldest.next().close();
+                eldest.remove();
+            }
+        }
+        return log;
+    }
+
+    // Mezcla una pareja (lo que ya tenía y lo repartido de los buzones) y la escribe ordenada
+    private void stagePair(File pair, File target) throws IOException {
+        List<byte[]> payloads = new ArrayList<>();
+
+        // Una pareja que ya tenía log propio conserva sus registros
+        File existing = layout.resolve(pair.getName());
+        if (existing.isDirectory()) {
+            try (ConversationLog log = openLog(existing)) {
+                log.scan((offset, record) -> payloads.add(record.getPayload()));
+            }
+        }
+        try (ConversationLog log = openLog(pair)) {
+            log.scan((offset, record) -> payloads.add(record.getPayload()));
+        }
+
+        // Sort estable: los mensajes con el mismo timestamp mantienen el orden de su buzón
+        payloads.sort(Comparator.comparingLong(MessageCodec::timestampOf));
+        try (ConversationLog log = openLog(target)) {
+            log.appendBatch(payloads);
+            log.sync();
+        }
+        HistoryConverter.deleteRecursively(pair);
+        conversations++;
+        records += payloads.size();
+    }
+
+    // Fase 2: pone cada conversación en su lugar y borra los buzones viejos
+    private void install(File staging) throws IOException {
+        File[] staged = staging.listFiles(File::isDirectory);
+        if (staged != null) {
+            for (File conversation : staged) {
+                // La versión mezclada reemplaza a la anterior, esté en la raíz o ya fragmentada
+                HistoryConverter.deleteRecursively(layout.flatFile(conversation.getName()));
+                File target = layout.prepareSharded(conversation.getName());
+                HistoryConverter.deleteRecursively(target);
+                Files.move(conversation.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            }
+        }
+
+        for (File inbox : listInboxEntries()) {
+            HistoryConverter.deleteRecursively(inbox);
+        }
+        HistoryConverter.deleteRecursively(staging);
+    }
+
+    private String pairOf(LogRecord record, boolean audio) {
+        try {
+            Message message = audio ? codec.decodeAudio(record.getPayload())
+                    : codec.decode(record.getPayload(), record.getSequence());
+            if (message.isGroupMessage()) {
+                return null;
+            }
+            return ChatHistory.privateConversationName(message.getFrom(), message.getTo());
+        } catch (Exception e) {
+            System.err.println("Registro privado descartado en la migración: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private List<File> listInboxEntries() {
+        File[] entries = historyDir.listFiles((dir, name) -> name.startsWith(INBOX_PREFIX)
+                && new File(dir, name).isDirectory()
+                && !name.endsWith(".converting") && !name.endsWith(".text"));
+        List<File> inboxes = new ArrayList<>();
+        if (entries != null) {
+            inboxes.addAll(Arrays.asList(entries));
+        }
+        // Buzones que siguen en texto plano (user_x.txt, user_x.txt_audio)
+        File[] legacy = historyDir.listFiles((dir, name) -> name.startsWith(INBOX_PREFIX)
+                && (name.endsWith(".txt") || name.endsWith(".txt_audio")));
+        if (legacy != null && legacy.length > 0) {
+            for (File file : legacy) {
+                String name = file.getName();
+                String base = name.substring(0, name.lastIndexOf(".txt"));
+                File directory = new File(historyDir, name.endsWith("_audio") ? base + AUDIO_SUFFIX : base);
+                if (!inboxes.contains(directory)) {
+                    inboxes.add(directory);
+                }
+            }
+        }
+        Collections.sort(inboxes);
+        return inboxes;
+    }
+
+    private ConversationLog openLog(File directory) throws IOException {
+        return new ConversationLog(directory, segmentMaxBytes, indexInterval, MessageCodec::timestampOf);
+    }
+
+    public static void main(String[] args) throws IOException {
+        File historyDir = new File(args.length > 0 ? args[0] : ChatHistory.HISTORY_DIR);
+        NameDictionary dictionary = new NameDictionary(new File(historyDir, ChatHistory.DICTIONARY_FILE));
+        try {
+            HistoryConverter converter = new HistoryConverter(historyDir, dictionary,
+                    ChatHistory.SEGMENT_MAX_BYTES, ChatHistory.INDEX_INTERVAL);
+            PrivateHistoryMigration migration = new PrivateHistoryMigration(historyDir, new MessageCodec(dictionary),
+                    converter, ChatHistory.SEGMENT_MAX_BYTES, ChatHistory.INDEX_INTERVAL);
+            if (!migration.migrateIfNeeded()) {
+                System.out.println("No hay historial privado por buzón para migrar");
+            }
+        } finally {
+            dictionary.sync();
+            dictionary.close();
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package persistence;
+
+/**
+ * Estado de los acuses de un lector en una conversación: hasta qué secuencia del log de texto la
+ * recibió y hasta cuál la leyó ({@code read <= delivered}). {@code target} es la conversación
+ * vista por el lector: el otro participante o el nombre del grupo.
+ */
+public class Receipt {
+    private final String target;
+    private final String reader;
+    private final boolean group;
+    private final long delivered;
+    private final long read;
+
+    public Receipt(String target, String reader, boolean group, long delivered, long read) {
+        this.target = target;
+        this.reader = reader;
+        this.group = group;
+        this.delivered = delivered;
+        this.read = read;
+    }
+
+    public String getTarget() { return target; }
+    public String getReader() { return reader; }
+    public boolean isGroup() { return group; }
+    public long getDelivered() { return delivered; }
+    public long getRead() { return read; }
+}
@@ -0,0 +1,221 @@
+package persistence;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Índice invertido en memoria para buscar texto en el historial.
+ *
+ * Por conversación guarda token -> lista de secuencias (los ids de registro del log) en orden
+ * creciente, más el timestamp de cada mensaje indexado para ordenar por recencia. Una
+ * conversación se indexa completa la primera vez que se busca en ella y desde ahí se mantiene
+ * con cada append, así que el arranque no paga el costo de recorrer todo el historial.
+ *
+ * Los tokens son palabras en minúsculas y sin tildes; una búsqueda con varias palabras
+ * devuelve los mensajes que las contienen todas.
+ */
+class SearchIndex {
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+    private static final int MAX_TOKEN_LENGTH = 64;
+
+    /**
+     * Resultado de una búsqueda: dónde está el mensaje y su timestamp.
+     */
+    static class Hit {
+        private final String conversation;
+        private final long sequence;
+        private final long timestamp;
+
+        Hit(String conversation, long sequence, long timestamp) {
+            this.conversation = conversation;
+            this.sequence = sequence;
+            this.timestamp = timestamp;
+        }
+
+        String getConversation() { return conversation; }
+        long getSequence() { return sequence; }
+        long getTimestamp() { return timestamp; }
+    }
+
+    /**
+     * Lista creciente de longs; evita un Long por posting.
+     */
+    private static class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        long get(int i) { return values[i]; }
+        int size() { return size; }
+        long last() { return values[size - 1]; }
+
+        boolean contains(long value) {
+            return Arrays.binarySearch(values, 0, size, value) >= 0;
+        }
+
+        int indexOf(long value) {
+            return Arrays.binarySearch(values, 0, size, value);
+        }
+    }
+
+    /**
+     * Índice de una conversación. Se puede armar por separado y publicarlo con {@link #install}.
+     */
+    static class ConversationIndex {
+        private final Map<String, LongList> postings = new HashMap<>();
+        private final LongList sequences = new LongList();
+        private final LongList timestamps = new LongList();
+        private long postingCount;
+
+        synchronized void add(long sequence, long timestamp, String content) {
+            // Las secuencias llegan en orden; un registro repetido no se vuelve a indexar
+            if (sequences.size() > 0 && sequence <= sequences.last()) {
+                return;
+            }
+            sequences.add(sequence);
+            timestamps.add(timestamp);
+
+            for (String token : new LinkedHashSet<>(tokenize(content))) {
+                postings.computeIfAbsent(token, key -> new LongList()).add(sequence);
+                postingCount++;
+            }
+        }
+
+        /**
+         * Hasta {@code limit} mensajes con todos los tokens, del más nuevo al más viejo.
+         */
+        synchronized List<Hit> search(String conversation, List<String> tokens, int limit) {
+            List<LongList> lists = new ArrayList<>(tokens.size());
+            for (String token : tokens) {
+                LongList list = postings.get(token);
+                if (list == null) {
+                    return Collections.emptyList();
+                }
+                lists.add(list);
+            }
+            // Se recorre la lista más corta y se verifica el resto por búsqueda binaria
+            lists.sort(Comparator.comparingInt(LongList::size));
+            LongList shortest = lists.get(0);
+
+            List<Hit> hits = new ArrayList<>(Math.min(limit, shortest.size()));
+            for (int i = shortest.size() - 1; i >= 0 && hits.size() < limit; i--) {
+                long sequence = shortest.get(i);
+                boolean all = true;
+                for (int j = 1; j < lists.size() && all; j++) {
+                    all = lists.get(j).contains(sequence);
+                }
+                if (all) {
+                    hits.add(new Hit(conversation, sequence, timestamps.get(sequences.indexOf(sequence))));
+                }
+            }
+            return hits;
+        }
+
+        synchronized int tokenCount() { return postings.size(); }
+        synchronized long postingCount() { return postingCount; }
+        synchronized int messageCount() { return sequences.size(); }
+    }
+
+    private final Map<String, ConversationIndex> conversations = new ConcurrentHashMap<>();
+
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<>();
+        if (text == null || text.isEmpty()) {
+            return tokens;
+        }
+        String normalized = COMBINING_MARKS.matcher(Normalizer.normalize(text, Normalizer.Form.NFD))
+                .replaceAll("")
+                .toLowerCase(Locale.ROOT);
+
+        int start = -1;
+        for (int i = 0; i <= normalized.length(); i++) {
+            boolean wordChar = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TOKEN_LENGTH) {
+                    tokens.add(normalized.substring(start, i));
+                }
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+
+    boolean contains(String conversation) {
+        return conversations.containsKey(conversation);
+    }
+
+    /**
+     * Publica un índice armado aparte, salvo que la conversación ya tenga uno.
+     */
+    void install(String conversation, ConversationIndex index) {
+        conversations.putIfAbsent(conversation, index);
+    }
+
+    /**
+     * Indexa un mensaje. Las conversaciones que todavía no se indexaron se ignoran: se leerán
+     * completas del log en la primera búsqueda.
+     */
+    void add(String conversation, long sequence, long timestamp, String content) {
+        ConversationIndex index = conversations.get(conversation);
+        if (index != null) {
+            index.add(sequence, timestamp, content);
+        }
+    }
+
+    void remove(String conversation) {
+        conversations.remove(conversation);
+    }
+
+    /**
+     * Los {@code limit} mensajes más recientes, entre las conversaciones dadas, que contienen
+     * todas las palabras de {@code query}.
+     */
+    List<Hit> search(Collection<String> conversationNames, String query, int limit) {
+        List<String> tokens = new ArrayList<>(new LinkedHashSet<>(tokenize(query)));
+        if (tokens.isEmpty() || limit <= 0) {
+            return Collections.emptyList();
+        }
+
+        PriorityQueue<Hit> newest = new PriorityQueue<>(Comparator.comparingLong(Hit::getTimestamp));
+        for (String conversation : conversationNames) {
+            ConversationIndex index = conversations.get(conversation);
+            if (index == null) {
+                continue;
+            }
+            for (Hit hit : index.search(conversation, tokens, limit)) {
+                newest.add(hit);
+                if (newest.size() > limit) {
+                    newest.poll();
+                }
+            }
+        }
+
+        List<Hit> hits = new ArrayList<>(newest);
+        hits.sort(Comparator.comparingLong(Hit::getTimestamp).reversed());
+        return hits;
+    }
+
+    @Override
+    public String toString() {
+        long messages = 0;
+        long tokens = 0;
+        long postings = 0;
+        for (ConversationIndex index : conversations.values()) {
+            messages += index.messageCount();
+            tokens += index.tokenCount();
+            postings += index.postingCount();
+        }
+        return String.format("conversaciones=%d mensajes=%d tokens=%d postings=%d",
+                conversations.size(), messages, tokens, postings);
+    }
+}
@@ -0,0 +1,214 @@
+package persistence;
+
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.function.ToLongFunction;
+
+/**
+ * Índice disperso de tiempo de un segmento del log.
+ *
+ * Guarda en un archivo hermano (00000000000000000001.idx) una entrada (timestamp, offset)
+ * cada {@code interval} registros, siempre incluyendo el primero del segmento. El timestamp
+ * de cada entrada es el máximo visto hasta ese registro, así las claves nunca decrecen aunque
+ * dos envíos concurrentes lleguen con los relojes cruzados y se puede buscar con bisección.
+ *
+ * El archivo sólo se agrega al escribir; si falta o no coincide con el segmento se
+ * reconstruye recorriendo el segmento una vez.
+ */
+class SegmentIndex {
+    static final String INDEX_SUFFIX = ".idx";
+    private static final int ENTRY_BYTES = 16;
+
+    private File file;
+    private long[] timestamps = new long[16];
+    private long[] offsets = new long[16];
+    private int size;
+    private long maxTimestamp = Long.MIN_VALUE;
+
+    private SegmentIndex(File file) {
+        this.file = file;
+    }
+
+    static File indexFileFor(File segment) {
+        String name = segment.getName();
+        return new File(segment.getParentFile(),
+                name.substring(0, name.length() - ConversationLog.SEGMENT_SUFFIX.length()) + INDEX_SUFFIX);
+    }
+
+    /**
+     * Abre el índice de un segmento o lo reconstruye si no existe o está dañado.
+     * {@code previousMax} es el máximo timestamp del segmento anterior.
+     */
+    static SegmentIndex open(File segment, long previousMax, int interval,
+                             ToLongFunction<byte[]> timestampOf) throws IOException {
+        SegmentIndex index = new SegmentIndex(indexFileFor(segment));
+        if (index.file.isFile() && index.load(segment.length(), ConversationLog.headerLength(segment))) {
+            index.maxTimestamp = Math.max(previousMax, index.lastTimestamp());
+            return index;
+        }
+
+        index.rebuild(segment, previousMax, interval, timestampOf);
+        System.out.println("Índice reconstruido: " + segment.getParentFile().getName() + "/" + index.file.getName()
+                + " (" + index.size + " entradas)");
+        return index;
+    }
+
+    /**
+     * Construye el índice de un segmento completo (por ejemplo uno recién compactado).
+     */
+    static SegmentIndex build(File segment, long previousMax, int interval,
+                              ToLongFunction<byte[]> timestampOf) throws IOException {
+        SegmentIndex index = new SegmentIndex(indexFileFor(segment));
+        index.rebuild(segment, previousMax, interval, timestampOf);
+        return index;
+    }
+
+    /**
+     * Índice vacío para un segmento recién creado.
+     */
+    static SegmentIndex create(File segment, long previousMax) {
+        SegmentIndex index = new SegmentIndex(indexFileFor(segment));
+        index.maxTimestamp = previousMax;
+        return index;
+    }
+
+    /**
+     * Offset de la última entrada del índice de {@code segment} si cae dentro de sus
+     * {@code segmentLength} bytes, o {@code dataStart}. Sólo lee el final del archivo de índice;
+     * lo usa la recuperación de la cola del log.
+     */
+    static long lastOffset(File segment, long dataStart, long segmentLength) throws IOException {
+        File file = indexFileFor(segment);
+        long entries = file.length() / ENTRY_BYTES;
+        if (entries == 0) {
+            return dataStart;
+        }
+        try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+            in.seek((entries - 1) * ENTRY_BYTES + Long.BYTES);
+            long offset = in.readLong();
+            return offset > dataStart && offset < segmentLength ? offset : dataStart;
+        }
+    }
+
+    private boolean load(long segmentLength, long dataStart) throws IOException {
+        long length = file.length();
+        if (length % ENTRY_BYTES != 0) {
+            return false;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            long previousOffset = -1;
+            for (long i = 0; i < length / ENTRY_BYTES; i++) {
+                long timestamp = in.readLong();
+                long offset = in.readLong();
+                boolean valid = i == 0 ? offset == dataStart : offset > previousOffset;
+                if (!valid || offset >= segmentLength) {
+                    return false;
+                }
+                add(timestamp, offset);
+                previousOffset = offset;
+            }
+        }
+        return size > 0 || segmentLength <= dataStart;
+    }
+
+    private void rebuild(File segment, long previousMax, int interval,
+                         ToLongFunction<byte[]> timestampOf) throws IOException {
+        size = 0;
+        maxTimestamp = previousMax;
+
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            long[] records = {0};
+            ConversationLog.forEachRecord(segment, 0, (offset, record) -> {
+                maxTimestamp = Math.max(maxTimestamp, timestampOf.applyAsLong(record.getPayload()));
+                if (records[0]++ % interval == 0) {
+                    out.writeLong(maxTimestamp);
+                    out.writeLong(offset);
+                    add(maxTimestamp, offset);
+                }
+                return true;
+            });
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Registra un registro recién agregado al segmento; sólo escribe una entrada si
+     * {@code indexed} es verdadero (uno de cada K registros).
+     */
+    void record(long timestamp, long offset, boolean indexed) throws IOException {
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+        if (!indexed) {
+            return;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+            out.writeLong(maxTimestamp);
+            out.writeLong(offset);
+        }
+        add(maxTimestamp, offset);
+    }
+
+    private void add(long timestamp, long offset) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            offsets = Arrays.copyOf(offsets, size * 2);
+        }
+        timestamps[size] = timestamp;
+        offsets[size] = offset;
+        size++;
+    }
+
+    /**
+     * Offset desde el que conviene leer para encontrar registros con timestamp mayor o igual
+     * a {@code fromTimestamp}: el de la última entrada cuya clave es menor, o 0.
+     */
+    long floorOffset(long fromTimestamp) {
+        int low = 0;
+        int high = size - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < fromTimestamp) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found < 0 ? 0 : offsets[found];
+    }
+
+    /**
+     * Clave de la primera entrada (el primer registro del segmento), o Long.MAX_VALUE si está vacío.
+     */
+    long firstTimestamp() {
+        return size == 0 ? Long.MAX_VALUE : timestamps[0];
+    }
+
+    private long lastTimestamp() {
+        return size == 0 ? Long.MIN_VALUE : timestamps[size - 1];
+    }
+
+    /**
+     * Actualiza la ruta después de que el directorio del log se movió.
+     */
+    void relocate(File segment) {
+        file = indexFileFor(segment);
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    void observe(long timestamp) {
+        maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    int size() {
+        return size;
+    }
+}
@@ -0,0 +1,155 @@
+package persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Reparte las entradas de un directorio (conversaciones de data/history, archivos de
+ * data/audio) en dos niveles de subdirectorios según el SHA-1 del nombre:
+ *
+ *   data/audio/audio_123.audio  ->  data/audio/3f/a2/audio_123.audio
+ *
+ * Con 65.536 directorios hoja ningún directorio crece lo suficiente para que File.exists o
+ * un listado se vuelvan lentos. El proxy Node.js calcula la misma ruta para los audios.
+ *
+ * Mientras {@link ShardMigrator} mueve lo existente, una entrada puede estar todavía en la
+ * raíz; {@link #resolve} busca en los dos lugares, así que no hace falta detener el servidor.
+ */
+final class ShardLayout {
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final File root;
+
+    ShardLayout(File root) {
+        this.root = root;
+    }
+
+    File getRoot() {
+        return root;
+    }
+
+    /**
+     * "3f/a2": los dos primeros bytes del SHA-1 del nombre en hexadecimal.
+     */
+    static String shardPath(String name) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(name.getBytes(StandardCharsets.UTF_8));
+            return new String(new char[] {
+                    HEX[(hash[0] >> 4) & 0xF], HEX[hash[0] & 0xF], '/',
+                    HEX[(hash[1] >> 4) & 0xF], HEX[hash[1] & 0xF]});
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 no disponible", e);
+        }
+    }
+
+    File shardedFile(String name) {
+        return new File(new File(root, shardPath(name)), name);
+    }
+
+    File flatFile(String name) {
+        return new File(root, name);
+    }
+
+    /**
+     * Ubicación actual de la entrada: la fragmentada, la plana si todavía no se migró, o la
+     * fragmentada si no existe en ninguna. Se mira la fragmentada otra vez al final porque la
+     * migración puede moverla entre las dos primeras consultas.
+     */
+    File resolve(String name) {
+        File sharded = shardedFile(name);
+        if (sharded.exists()) {
+            return sharded;
+        }
+        File flat = flatFile(name);
+        if (flat.exists()) {
+            return flat;
+        }
+        return sharded;
+    }
+
+    boolean exists(String name) {
+        return shardedFile(name).exists() || flatFile(name).exists() || shardedFile(name).exists();
+    }
+
+    /**
+     * Ruta fragmentada para crear una entrada nueva, con sus directorios padre.
+     */
+    File prepareSharded(String name) throws IOException {
+        File file = shardedFile(name);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("No se pudo crear el directorio " + parent);
+        }
+        return file;
+    }
+
+    /**
+     * Mueve una entrada plana a su subdirectorio con un renombre atómico. No hace nada si ya
+     * estaba migrada; falla si existen las dos copias.
+     */
+    boolean moveToShard(String name) throws IOException {
+        File flat = flatFile(name);
+        if (!flat.exists()) {
+            return false;
+        }
+        File sharded = shardedFile(name);
+        if (sharded.exists()) {
+            throw new IOException("Existe en la raíz y en " + shardPath(name) + ": " + name);
+        }
+        Files.move(flat.toPath(), prepareSharded(name).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    static boolean isShardDirectory(String name) {
+        return name.length() == 2 && Character.digit(name.charAt(0), 16) >= 0 && Character.digit(name.charAt(1), 16) >= 0;
+    }
+
+    /**
+     * Nombres de las entradas que cumplen el filtro, tanto en la raíz como en los subdirectorios.
+     */
+    List<String> list(Predicate<File> filter) {
+        List<String> names = new ArrayList<>();
+        File[] top = root.listFiles();
+        if (top == null) {
+            return names;
+        }
+        for (File entry : top) {
+            if (entry.isDirectory() && isShardDirectory(entry.getName())) {
+                File[] second = entry.listFiles(file -> file.isDirectory() && isShardDirectory(file.getName()));
+                if (second == null) continue;
+                for (File shard : second) {
+                    File[] files = shard.listFiles(filter::test);
+                    if (files == null) continue;
+                    for (File file : files) {
+                        names.add(file.getName());
+                    }
+                }
+            } else if (filter.test(entry)) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Entradas que siguen en la raíz (pendientes de migrar).
+     */
+    List<String> listFlat(Predicate<File> filter) {
+        List<String> names = new ArrayList<>();
+        File[] top = root.listFiles(file -> !(file.isDirectory() && isShardDirectory(file.getName())) && filter.test(file));
+        if (top != null) {
+            for (File entry : top) {
+                names.add(entry.getName());
+            }
+        }
+        return names;
+    }
+}
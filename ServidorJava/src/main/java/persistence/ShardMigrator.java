@@ -0,0 +1,116 @@
+package persistence;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Migración en línea al esquema fragmentado de {@link ShardLayout}.
+ *
+ * Mueve una por una las conversaciones y audios que siguen en la raíz de data/history y
+ * data/audio, con renombres atómicos y a un ritmo limitado. El servidor sigue atendiendo
+ * mientras tanto: las búsquedas miran las dos ubicaciones y las conversaciones abiertas se
+ * mueven bajo el candado de su log ({@link ConversationLog#relocate}). Corre en el hilo de
+ * mantenimiento del historial, así que nunca coincide con una compactación.
+ *
+ * Con el servidor detenido también se puede correr a mano:
+ *
+ *   java -cp build/classes/java/main persistence.ShardMigrator [data/history/ data/audio/]
+ */
+public class ShardMigrator {
+
+    /**
+     * Mueve una conversación coordinando con quien la tenga abierta.
+     */
+    interface ConversationMover {
+        void moveToShard(String key) throws IOException;
+    }
+
+    private final ShardLayout history;
+    private final ShardLayout audio;
+    private final ConversationMover mover;
+    private final IoThrottle throttle;
+
+    private int conversationsMoved;
+    private int audiosMoved;
+    private int failures;
+
+    ShardMigrator(ShardLayout history, ShardLayout audio, ConversationMover mover, long entriesPerSecond) {
+        this.history = history;
+        this.audio = audio;
+        this.mover = mover;
+        this.throttle = new IoThrottle(entriesPerSecond);
+    }
+
+    static boolean isConversationEntry(File file) {
+        String name = file.getName();
+        return file.isDirectory() && (name.startsWith("group_") || name.startsWith("pair_"))
+                && !name.endsWith(".converting") && !name.endsWith(".text");
+    }
+
+    static boolean isAudioEntry(File file) {
+        return file.isFile() && file.getName().endsWith(".audio");
+    }
+
+    boolean isNeeded() {
+        return !history.listFlat(ShardMigrator::isConversationEntry).isEmpty()
+                || !audio.listFlat(ShardMigrator::isAudioEntry).isEmpty();
+    }
+
+    /**
+     * Migra todo lo pendiente. Si se interrumpe, lo ya movido queda en su lugar y el resto se
+     * migra en la próxima ejecución.
+     */
+    void migrate() throws InterruptedException {
+        long start = System.currentTimeMillis();
+        List<String> conversations = history.listFlat(ShardMigrator::isConversationEntry);
+        List<String> audios = audio.listFlat(ShardMigrator::isAudioEntry);
+        if (conversations.isEmpty() && audios.isEmpty()) {
+            return;
+        }
+        System.out.println("📦 Migrando a directorios fragmentados: " + conversations.size() + " conversaciones, "
+                + audios.size() + " audios");
+
+        for (String key : conversations) {
+            throttle.acquire(1);
+            try {
+                mover.moveToShard(key);
+                conversationsMoved++;
+            } catch (IOException e) {
+                failures++;
+                System.err.println("Error moviendo conversación " + key + ": " + e.getMessage());
+            }
+        }
+        for (String name : audios) {
+            throttle.acquire(1);
+            try {
+                if (audio.moveToShard(name)) {
+                    audiosMoved++;
+                }
+            } catch (IOException e) {
+                failures++;
+                System.err.println("Error moviendo audio " + name + ": " + e.getMessage());
+            }
+        }
+
+        System.out.println("📦 Migración a directorios fragmentados terminada: " + this
+                + " (" + (System.currentTimeMillis() - start) + " ms)");
+    }
+
+    @Override
+    public String toString() {
+        return "conversaciones=" + conversationsMoved + " audios=" + audiosMoved + " errores=" + failures;
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        ShardLayout history = new ShardLayout(new File(args.length > 0 ? args[0] : ChatHistory.HISTORY_DIR));
+        ShardLayout audio = new ShardLayout(new File(args.length > 1 ? args[1] : ChatHistory.AUDIO_DIR));
+        // Sin servidor corriendo no hay logs abiertos: basta con renombrar
+        ShardMigrator migrator = new ShardMigrator(history, audio, history::moveToShard, 0);
+        if (!migrator.isNeeded()) {
+            System.out.println("No hay entradas pendientes de migrar");
+            return;
+        }
+        migrator.migrate();
+    }
+}
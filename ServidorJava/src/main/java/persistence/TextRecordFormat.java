@@ -0,0 +1,90 @@
+package persistence;
+
+import model.AudioMessage;
+import model.Message;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Formato de texto anterior ("id:...|from:...|content:...|timestamp:...").
+ *
+ * Ya no se escribe en el historial; se conserva para importar los archivos .txt y los
+ * segmentos .log existentes con {@link HistoryConverter}.
+ */
+final class TextRecordFormat {
+    static final String SEQUENCE_PREFIX = "seq:";
+
+    private TextRecordFormat() {
+    }
+
+    static String formatMessage(Message message) {
+        return String.format("id:%s|from:%s|to:%s|content:%s|timestamp:%d|isGroup:%b",
+                message.getId(),
+                message.getFrom(),
+                message.getTo(),
+                escapeContent(message.getContent()),
+                message.getTimestamp().getTime(),
+                message.isGroupMessage()
+        );
+    }
+
+    static Message parseMessage(String line) {
+        Map<String, String> data = parseLine(line);
+        return new Message(
+                data.get("id"),
+                data.get("from"),
+                data.get("to"),
+                unescapeContent(data.get("content")),
+                Boolean.parseBoolean(data.get("isGroup")),
+                Long.parseLong(data.get("timestamp"))
+        );
+    }
+
+    static AudioMessage parseAudioMessage(String line) {
+        Map<String, String> data = parseLine(line);
+        // El servidor escribía el tamaño como "size" pero lo leía como "audioSize"
+        String size = data.containsKey("size") ? data.get("size") : data.get("audioSize");
+        return new AudioMessage(
+                data.get("id"),
+                data.get("from"),
+                data.get("to"),
+                Boolean.parseBoolean(data.get("isGroup")),
+                Long.parseLong(data.get("timestamp")),
+                Integer.parseInt(size),
+                Integer.parseInt(data.get("duration"))
+        );
+    }
+
+    /**
+     * Quita el prefijo "seq:N|" que agregaban los segmentos .log.
+     */
+    static String stripSequence(String line) {
+        if (!line.startsWith(SEQUENCE_PREFIX)) {
+            return line;
+        }
+        int end = line.indexOf('|');
+        return end < 0 ? "" : line.substring(end + 1);
+    }
+
+    private static Map<String, String> parseLine(String line) {
+        Map<String, String> result = new HashMap<>();
+        // Separa por '|' salvo los escapados dentro del contenido
+        String[] pairs = line.split("(?<!\\\\)\\|");
+        for (String pair : pairs) {
+            String[] keyValue = pair.split(":", 2);
+            if (keyValue.length == 2) {
+                result.put(keyValue[0].trim(), keyValue[1].trim());
+            }
+        }
+        return result;
+    }
+
+    private static String escapeContent(String content) {
+        return content.replace("|", "\\|").replace(":", "\\:").replace("\n", "\\n");
+    }
+
+    private static String unescapeContent(String content) {
+        return content.replace("\\|", "|").replace("\\:", ":").replace("\\n", "\n");
+    }
+}
@@ -0,0 +1,62 @@
+package persistence;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Enteros sin signo de longitud variable (LEB128): 7 bits por byte, el bit alto indica
+ * que sigue otro byte. Un timestamp en milisegundos ocupa 6 bytes y un id chico uno solo.
+ */
+final class Varint {
+    private Varint() {
+    }
+
+    static void write(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Escribe el varint con los bytes en orden inverso, para poder decodificarlo leyendo
+     * el archivo hacia atrás (ver {@link ConversationLog}).
+     */
+    static void writeReversed(ByteArrayOutputStream out, long value) {
+        byte[] bytes = new byte[size(value)];
+        int i = 0;
+        while ((value & ~0x7FL) != 0) {
+            bytes[i++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        bytes[i] = (byte) value;
+        for (int j = bytes.length - 1; j >= 0; j--) {
+            out.write(bytes[j]);
+        }
+    }
+
+    static long read(ByteBuffer buffer) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            if (shift > 63) {
+                throw new IllegalArgumentException("Varint demasiado largo");
+            }
+            b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    static int size(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+}
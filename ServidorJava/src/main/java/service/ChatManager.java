@@ -5,19 +5,50 @@ import model.Group;
 import model.Message;
 import model.AudioMessage;
 import persistence.ChatHistory;
-
+import persistence.ConversationSummary;
+import persistence.DeliveryQueue;
+import persistence.GroupRegistry;
+import persistence.HistoryPage;
+import persistence.Receipt;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 public class ChatManager {
+    // Elementos por lote al vaciar la cola de un usuario que se reconecta
+    private static final int DELIVERY_BATCH = Integer.getInteger("chat.delivery.batchSize", 100);
+    // Ventana en la que se juntan los acuses antes de aplicarlos y avisar a los remitentes
+    private static final long RECEIPT_WINDOW_MS = Long.getLong("chat.receipts.windowMillis", 200);
+
     private Map<String, User> onlineUsers;
     private Map<String, Group> groups;
     private ChatHistory chatHistory;
+    private GroupRegistry groupRegistry;
+    private DeliveryQueue deliveryQueue;
+    private ReceiptBatcher receipts;
 
     public ChatManager() {
         this.onlineUsers = new ConcurrentHashMap<>();
-        this.groups = new ConcurrentHashMap<>();
         this.chatHistory = new ChatHistory();
+        this.groupRegistry = new GroupRegistry();
+        if (groupRegistry.isEmpty()) {
+            // Primer arranque con el registro: los grupos que tienen historial se recuperan de ahí
+            try {
+                groupRegistry.importGroups(chatHistory.recoverGroupMembers());
+            } catch (IOException e) {
+                System.err.println("❌ Error recuperando grupos del historial: " + e.getMessage());
+            }
+        }
+        // Sólo lectura: los cambios pasan por groupRegistry para quedar en el diario
+        this.groups = groupRegistry.getGroups();
+        this.deliveryQueue = new DeliveryQueue();
+        this.receipts = new ReceiptBatcher(chatHistory, this::getGroupMembers, RECEIPT_WINDOW_MS);
     }
 
     public boolean loginUser(String username) {
@@ -27,12 +58,11 @@ public class ChatManager {
 
         String cleanUsername = username.trim();
 
-        if (onlineUsers.containsKey(cleanUsername)) {
+        // Sin comprobar y después agregar: dos logins simultáneos del mismo nombre no pasan los dos
+        if (onlineUsers.putIfAbsent(cleanUsername, new User(cleanUsername)) != null) {
             return false;
         }
 
-        User user = new User(cleanUsername);
-        onlineUsers.put(cleanUsername, user);
         System.out.println("Usuario conectado: " + cleanUsername);
         return true;
     }
@@ -73,8 +103,15 @@ public class ChatManager {
             return false;
         }
 
-        Group group = new Group(cleanGroupName, creator);
-        groups.put(cleanGroupName, group);
+        try {
+            if (!groupRegistry.create(cleanGroupName, creator)) {
+                System.out.println("Grupo ya existe: " + cleanGroupName);
+                return false;
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Error guardando grupo " + cleanGroupName + ": " + e.getMessage());
+            return false;
+        }
         System.out.println("Grupo creado: " + cleanGroupName + " por " + creator);
         return true;
     }
@@ -92,7 +129,13 @@ public class ChatManager {
 
         // PERMITIR agregar miembros aunque no estén online
         // (pueden unirse después cuando hagan login)
-        boolean success = group.addMember(username);
+        boolean success;
+        try {
+            success = groupRegistry.addMember(groupName, username);
+        } catch (IOException e) {
+            System.err.println("❌ Error guardando miembro de " + groupName + ": " + e.getMessage());
+            return false;
+        }
         if (success) {
             System.out.println("Usuario " + username + " se unió al grupo " + groupName);
         } else {
@@ -111,12 +154,17 @@ public class ChatManager {
             return false;
         }
 
-        boolean success = group.removeMember(username);
+        boolean success;
+        try {
+            success = groupRegistry.removeMember(groupName, username);
+        } catch (IOException e) {
+            System.err.println("❌ Error guardando salida de " + groupName + ": " + e.getMessage());
+            return false;
+        }
         if (success) {
             System.out.println("Usuario " + username + " abandonó el grupo " + groupName);
 
-            if (group.getMemberCount() == 0) {
-                groups.remove(groupName);
+            if (!groups.containsKey(groupName)) {
                 System.out.println("Grupo eliminado por estar vacío: " + groupName);
             }
         }
@@ -143,39 +191,224 @@ public class ChatManager {
         return groups.get(groupName);
     }
 
-    public void saveTextMessage(Message message) {
-        if (message != null) {
-            chatHistory.saveMessage(message);
-            System.out.println("Mensaje guardado: " + message.getFrom() + " -> " + message.getTo());
+    /**
+     * Encola el mensaje en el historial. El futuro se completa cuando queda guardado según el
+     * modo de durabilidad; sólo en fsync-per-commit implica esperar al disco.
+     */
+    public CompletableFuture<Long> saveTextMessage(Message message) {
+        if (message == null) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        CompletableFuture<Long> saved = chatHistory.saveMessage(message);
+        System.out.println("Mensaje guardado: " + message.getFrom() + " -> " + message.getTo());
+        return saved;
+    }
+
+    public CompletableFuture<Long> saveAudioMessage(AudioMessage audioMessage) {
+        if (audioMessage == null) {
+            return CompletableFuture.completedFuture(0L);
+        }
+        CompletableFuture<Long> saved = chatHistory.saveAudioMessage(audioMessage);
+        System.out.println("Audio guardado: " + audioMessage.getFrom() + " -> " + audioMessage.getTo() +
+                " (" + audioMessage.getAudioSize() + " bytes)");
+        return saved;
+    }
+
+    /**
+     * Historial de una conversación. En las privadas {@code username} es el otro participante
+     * (la conversación es la pareja username/target); en las de grupo no se usa.
+     */
+    public List<Message> getMessageHistory(String username, String target, boolean isGroup) {
+        if (!isValidConversation(username, target, isGroup)) {
+            return new ArrayList<>();
         }
+        return chatHistory.loadMessages(username, target, isGroup);
     }
 
-    public void saveAudioMessage(AudioMessage audioMessage) {
-        if (audioMessage != null) {
-            chatHistory.saveAudioMessage(audioMessage);
-            System.out.println("Audio guardado: " + audioMessage.getFrom() + " -> " + audioMessage.getTo() +
-                    " (" + audioMessage.getAudioSize() + " bytes)");
+    public HistoryPage getMessageHistoryPage(String username, String target, boolean isGroup,
+                                             long beforeSequence, int limit) {
+        if (!isValidConversation(username, target, isGroup)) {
+            return new HistoryPage(new ArrayList<>(), 0, false);
         }
+        return chatHistory.loadMessagesPage(username, target, isGroup, beforeSequence, limit);
     }
 
-    public List<Message> getMessageHistory(String target, boolean isGroup) {
-        if (target == null) {
+    public List<Message> getMessageHistoryRange(String username, String target, boolean isGroup,
+                                                long fromTimestamp, long toTimestamp, int limit) {
+        if (!isValidConversation(username, target, isGroup)) {
             return new ArrayList<>();
         }
-        return chatHistory.loadMessages(target, isGroup);
+        return chatHistory.loadMessagesRange(username, target, isGroup, fromTimestamp, toTimestamp, limit);
     }
 
-    public List<AudioMessage> getAudioMessageHistory(String target, boolean isGroup) {
-        if (target == null) {
+    public List<AudioMessage> getAudioMessageHistory(String username, String target, boolean isGroup) {
+        if (!isValidConversation(username, target, isGroup)) {
             return new ArrayList<>();
         }
-        return chatHistory.loadAudioMessages(target, isGroup);
+        return chatHistory.loadAudioMessages(username, target, isGroup);
+    }
+
+    private boolean isValidConversation(String username, String target, boolean isGroup) {
+        return target != null && (isGroup || username != null);
+    }
+
+    /**
+     * Busca texto en las conversaciones privadas del usuario y en los grupos a los que pertenece.
+     */
+    public List<Message> searchMessages(String username, String query, int limit) {
+        if (username == null || query == null) {
+            return new ArrayList<>();
+        }
+        return chatHistory.searchMessages(username, getUserGroups(username), query, limit);
+    }
+
+    /**
+     * Lista de chats del usuario (ver {@link ChatHistory#getInbox}).
+     */
+    public List<ConversationSummary> getInbox(String username) {
+        if (username == null) {
+            return new ArrayList<>();
+        }
+        return chatHistory.getInbox(username, getUserGroups(username));
+    }
+
+    /**
+     * Acuse de lectura: {@code username} leyó su conversación con {@code conversation} (otro
+     * usuario o un grupo suyo) hasta {@code sequence}. Se aplica con el próximo lote de acuses.
+     * Devuelve false si la conversación no es del usuario.
+     */
+    public boolean ackUpTo(String username, String conversation, long sequence) {
+        if (username == null || conversation == null || sequence <= 0 || username.equals(conversation)) {
+            return false;
+        }
+        boolean group = groupExists(conversation);
+        if (group && !isUserInGroup(username, conversation)) {
+            return false;
+        }
+        receipts.read(username, conversation, group, sequence);
+        return true;
+    }
+
+    /**
+     * El mensaje le llegó a {@code username} por una conexión abierta. Puede no estar escrito
+     * todavía; el acuse se aplica cuando lo esté.
+     */
+    public void markDelivered(String username, Message message) {
+        if (username != null && message != null) {
+            String target = message.isGroupMessage() ? message.getTo() : message.getFrom();
+            receipts.delivered(username, target, message.isGroupMessage(), message);
+        }
+    }
+
+    /**
+     * Recibe, una vez por ventana de acuses, los acuses que cambiaron agrupados por el usuario al
+     * que hay que avisar.
+     */
+    public void setReceiptListener(Consumer<Map<String, List<Receipt>>> listener) {
+        receipts.setListener(listener);
     }
 
     public byte[] getAudioData(String audioId) {
         return chatHistory.loadAudioData(audioId);
     }
 
+    /**
+     * Tramo de un audio (ver {@link ChatHistory#readAudioChunk}); null si el audio no existe. El
+     * buffer es del hilo que llama y la siguiente lectura del mismo hilo lo pisa.
+     */
+    public ByteBuffer getAudioChunk(String audioId, long offset, int length) throws IOException {
+        return chatHistory.readAudioChunk(audioId, offset, length);
+    }
+
+    /**
+     * Da de alta la cola de entrega del usuario (al entrar por TCP); a quien no la tiene no se le
+     * guarda nada mientras está desconectado.
+     */
+    public void registerForDelivery(String username) {
+        try {
+            deliveryQueue.register(username);
+        } catch (IOException e) {
+            System.err.println("❌ Error registrando la cola de entrega de " + username + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Guarda para más tarde lo que no se pudo entregar porque el usuario no está conectado: un
+     * comando de texto o un {@link AudioMessage} (se encola sin sus bytes). Sólo si el usuario
+     * tiene cola (ver {@link #registerForDelivery}) y no está llena.
+     */
+    public void queueForDelivery(String username, Serializable object) {
+        if (username == null || object == null) {
+            return;
+        }
+        try {
+            if (object instanceof AudioMessage audioMessage) {
+                deliveryQueue.enqueueAudio(username, audioMessage);
+            } else {
+                deliveryQueue.enqueue(username, object.toString());
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Error encolando la entrega para " + username + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Envía lo que quedó en la cola del usuario mientras estaba desconectado, en lotes de
+     * {@code chat.delivery.batchSize}. El cursor avanza después de cada lote que {@code sendBatch}
+     * confirma; si devuelve false (se cayó la conexión) el resto queda para la próxima vez.
+     * Devuelve cuántos elementos se enviaron.
+     */
+    public int deliverPending(String username, Predicate<List<Serializable>> sendBatch) {
+        int sent = 0;
+        try {
+            List<DeliveryQueue.Delivery> pending = deliveryQueue.pending(username);
+            for (int start = 0; start < pending.size(); start += DELIVERY_BATCH) {
+                List<DeliveryQueue.Delivery> batch = pending.subList(start, Math.min(start + DELIVERY_BATCH, pending.size()));
+                List<Serializable> objects = new ArrayList<>(batch.size());
+                for (DeliveryQueue.Delivery delivery : batch) {
+                    if (delivery.getPayload() instanceof AudioMessage audioMessage) {
+                        audioMessage.setAudioData(chatHistory.loadStoredAudio(audioMessage.getAudioId()));
+                    }
+                    objects.add(delivery.getPayload());
+                }
+                if (!sendBatch.test(objects)) {
+                    break;
+                }
+                deliveryQueue.delivered(username, batch.get(batch.size() - 1).getSequence());
+                sent += batch.size();
+            }
+        } catch (IOException e) {
+            System.err.println("❌ Error entregando pendientes a " + username + ": " + e.getMessage());
+        }
+        return sent;
+    }
+
+    public boolean audioExists(String audioId) {
+        return chatHistory.audioExists(audioId);
+    }
+
+    public String getHistoryCacheStats() {
+        return chatHistory.getCache().toString();
+    }
+
+    public String getHistoryWriterStats() {
+        return chatHistory.getWriterStats();
+    }
+
+    /**
+     * Vacía la cola de escritura del historial antes de apagar el servidor.
+     */
+    public void shutdown() {
+        receipts.close();
+        groupRegistry.close();
+        try {
+            deliveryQueue.close();
+        } catch (IOException e) {
+            System.err.println("❌ Error cerrando las colas de entrega: " + e.getMessage());
+        }
+        chatHistory.close();
+    }
+
     public int getOnlineUserCount() {
         return onlineUsers.size();
     }
@@ -190,12 +423,27 @@ public class ChatManager {
         status.put("activeGroups", getGroupCount());
         status.put("totalUsers", onlineUsers.size());
         status.put("totalGroups", groups.size());
+        status.put("historyCache", chatHistory.getCache().toString());
+        status.put("historyWriter", chatHistory.getWriterStats());
+        status.put("searchIndex", chatHistory.getSearchIndexStats());
+        status.put("inbox", chatHistory.getInboxStats());
+        status.put("historyStore", chatHistory.getStoreStats());
+        status.put("audioBlobs", chatHistory.getAudioBlobStats());
+        status.put("historyCompactor", chatHistory.getCompactorStats());
+        status.put("historyRecovery", chatHistory.getRecoveryStats());
+        status.put("groupRegistry", groupRegistry.toString());
+        status.put("deliveryQueue", deliveryQueue.toString());
+        status.put("receipts", receipts.toString());
         return status;
     }
 
     public void clearAllData() {
         onlineUsers.clear();
-        groups.clear();
+        try {
+            groupRegistry.clear();
+        } catch (IOException e) {
+            System.err.println("❌ Error limpiando grupos: " + e.getMessage());
+        }
         System.out.println("Todos los datos han sido limpiados");
     }
 
@@ -251,7 +499,7 @@ public class ChatManager {
 
     public void showHistory(String groupName) {
         if (groupExists(groupName)) {
-            List<Message> messages = getMessageHistory(groupName, true);
+            List<Message> messages = getMessageHistory(null, groupName, true);
             System.out.println("\n=== HISTORIAL DE " + groupName + " ===");
             if (messages.isEmpty()) {
                 System.out.println("No hay mensajes");
@@ -5,20 +5,57 @@ import model.User;
 import model.Group;
 import model.Message;
 import model.AudioMessage;
+import persistence.HistoryPage;
 import com.zeroc.Ice.Current;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Implementación del servicio de chat usando ZeroC Ice
  * Esta clase implementa la interfaz generada por slice2java
+ *
+ * Concurrencia: no hay un monitor del servicio. Las lecturas (historial, búsqueda, bandeja,
+ * usuarios, estado) no toman candado; lo que hay debajo ya es seguro entre hilos (mapas
+ * concurrentes, caché y logs con su propio candado). Las escrituras toman el candado de su
+ * conversación o grupo ({@link ConversationLocks}): chats distintos se atienden en paralelo con
+ * todos los hilos de despacho de Ice, y dentro de un mismo chat la validación y el encolado no
+ * se mezclan con otra escritura (por ejemplo, un mensaje a un grupo que se está borrando).
+ *
+ * Las operaciones marcadas ["amd"] en chat.ice (historial, audio, creación de grupos) validan en
+ * el hilo de despacho y hacen la E/S en {@link IoDispatcher}: devuelven un futuro que Ice
+ * completa hacia el cliente cuando el trabajo termina.
  */
 public class ChatServiceImpl implements ChatService {
     
+    private static final int DEFAULT_PAGE_SIZE = 50;
+    private static final int MAX_PAGE_SIZE = 500;
+    private static final int MAX_RANGE_SIZE = 1000;
+    private static final int DEFAULT_SEARCH_SIZE = 20;
+    private static final int MAX_SEARCH_SIZE = 200;
+    private static final int LOCK_STRIPES = Integer.getInteger("chat.service.lockStripes", 64);
+    private static final int IO_THREADS = Integer.getInteger("chat.io.threads", 4);
+    private static final int IO_QUEUE_CAPACITY = Integer.getInteger("chat.io.queueCapacity", 256);
+    
     private final ChatManager chatManager;
+    private final ConversationLocks locks = new ConversationLocks(LOCK_STRIPES);
+    private final IoDispatcher io = new IoDispatcher(IO_THREADS, IO_QUEUE_CAPACITY);
     
     public ChatServiceImpl() {
-        this.chatManager = new ChatManager();
+        this(new ChatManager());
+    }
+
+    /**
+     * Permite compartir el ChatManager con el servidor TCP, de modo que ambos
+     * frentes escriban sobre los mismos logs de historial
+     */
+    public ChatServiceImpl(ChatManager chatManager) {
+        this.chatManager = chatManager;
     }
     
     // =====================================================================
@@ -26,7 +63,7 @@ public class ChatServiceImpl implements ChatService {
     // =====================================================================
     
     @Override
-    public synchronized boolean login(String username, Current current) throws UserException {
+    public boolean login(String username, Current current) throws UserException {
         if (username == null || username.trim().isEmpty()) {
             throw new UserException("El nombre de usuario no puede estar vacío");
         }
@@ -41,7 +78,7 @@ public class ChatServiceImpl implements ChatService {
     }
     
     @Override
-    public synchronized boolean logout(String username, Current current) throws UserException {
+    public boolean logout(String username, Current current) throws UserException {
         if (username == null || username.trim().isEmpty()) {
             throw new UserException("El nombre de usuario no puede estar vacío");
         }
@@ -56,46 +93,57 @@ public class ChatServiceImpl implements ChatService {
     // =====================================================================
     
     @Override
-    public synchronized boolean sendMessage(String from, String to, String content, Current current) throws UserException {
+    public boolean sendMessage(String from, String to, String content, Current current) throws UserException {
         if (from == null || to == null || content == null) {
             throw new UserException("Faltan parámetros requeridos (from, to, content)");
         }
         
-        if (!chatManager.isUserOnline(from)) {
-            throw new UserException("El usuario remitente no está conectado");
-        }
-        
+        CompletableFuture<Long> saved;
+        ReentrantLock lock = locks.privateChat(from, to);
+        lock.lock();
         try {
-            Message message = new Message(from, to, content, false);
-            chatManager.saveTextMessage(message);
-            System.out.println("💬 Mensaje privado guardado vía Ice: " + from + " -> " + to);
-            return true;
-        } catch (Exception e) {
-            throw new UserException("Error al enviar mensaje: " + e.getMessage());
+            if (!chatManager.isUserOnline(from)) {
+                throw new UserException("El usuario remitente no está conectado");
+            }
+            
+            try {
+                Message message = new Message(from, to, content, false);
+                saved = chatManager.saveTextMessage(message);
+            } catch (Exception e) {
+                throw new UserException("Error al enviar mensaje: " + e.getMessage());
+            }
+        } finally {
+            lock.unlock();
         }
+        
+        // Si el modo de durabilidad exige fsync, se espera fuera del candado de la conversación
+        awaitSaved(saved, "Error al enviar mensaje");
+        System.out.println("💬 Mensaje privado guardado vía Ice: " + from + " -> " + to);
+        return true;
     }
     
     @Override
-    public synchronized MessageInfo[] getPrivateHistory(String username, String target, Current current) throws UserException {
+    public CompletionStage<MessageInfo[]> getPrivateHistoryAsync(String username, String target, Current current) throws UserException {
         if (username == null || target == null) {
             throw new UserException("Faltan parámetros requeridos (username, target)");
         }
         
-        try {
-            List<Message> messages = chatManager.getMessageHistory(target, false);
-            return messages.stream()
-                .map(msg -> new MessageInfo(
-                    msg.getId(),
-                    msg.getFrom(),
-                    msg.getTo(),
-                    msg.getContent(),
-                    msg.getTimestamp().getTime(),
-                    msg.isGroupMessage()
-                ))
-                .toArray(MessageInfo[]::new);
-        } catch (Exception e) {
-            throw new UserException("Error al obtener historial: " + e.getMessage());
+        return io.submit("getPrivateHistory", "Error al obtener historial", () -> {
+            List<Message> messages = chatManager.getMessageHistory(username, target, false);
+            return toMessageInfos(messages);
+        });
+    }
+    
+    @Override
+    public CompletionStage<MessagePage> getPrivateHistoryPageAsync(String username, String target, long beforeSeq, int limit, Current current) throws UserException {
+        if (username == null || target == null) {
+            throw new UserException("Faltan parámetros requeridos (username, target)");
         }
+        
+        return io.submit("getPrivateHistoryPage", "Error al obtener página de historial", () -> {
+            HistoryPage page = chatManager.getMessageHistoryPage(username, target, false, beforeSeq, clampPageSize(limit));
+            return toMessagePage(page);
+        });
     }
     
     // =====================================================================
@@ -103,50 +151,99 @@ public class ChatServiceImpl implements ChatService {
     // =====================================================================
     
     @Override
-    public synchronized boolean sendGroupMessage(String from, String groupName, String content, Current current) throws UserException {
+    public boolean sendGroupMessage(String from, String groupName, String content, Current current) throws UserException {
         if (from == null || groupName == null || content == null) {
             throw new UserException("Faltan parámetros requeridos (from, groupName, content)");
         }
         
-        if (!chatManager.groupExists(groupName)) {
-            throw new UserException("El grupo no existe");
+        CompletableFuture<Long> saved;
+        ReentrantLock lock = locks.group(groupName);
+        lock.lock();
+        try {
+            if (!chatManager.groupExists(groupName)) {
+                throw new UserException("El grupo no existe");
+            }
+            
+            if (!chatManager.isUserOnline(from)) {
+                throw new UserException("El usuario remitente no está conectado");
+            }
+            
+            try {
+                Message message = new Message(from, groupName, content, true);
+                saved = chatManager.saveTextMessage(message);
+            } catch (Exception e) {
+                throw new UserException("Error al enviar mensaje de grupo: " + e.getMessage());
+            }
+        } finally {
+            lock.unlock();
         }
         
-        if (!chatManager.isUserOnline(from)) {
-            throw new UserException("El usuario remitente no está conectado");
+        // Si el modo de durabilidad exige fsync, se espera fuera del candado del grupo
+        awaitSaved(saved, "Error al enviar mensaje de grupo");
+        System.out.println("👥 Mensaje de grupo guardado vía Ice: " + from + " -> " + groupName);
+        return true;
+    }
+    
+    @Override
+    public CompletionStage<MessageInfo[]> getGroupHistoryAsync(String groupName, Current current) throws UserException {
+        if (groupName == null) {
+            throw new UserException("El nombre del grupo no puede estar vacío");
         }
         
-        try {
-            Message message = new Message(from, groupName, content, true);
-            chatManager.saveTextMessage(message);
-            System.out.println("👥 Mensaje de grupo guardado vía Ice: " + from + " -> " + groupName);
-            return true;
-        } catch (Exception e) {
-            throw new UserException("Error al enviar mensaje de grupo: " + e.getMessage());
-        }
+        return io.submit("getGroupHistory", "Error al obtener historial del grupo", () -> {
+            List<Message> messages = chatManager.getMessageHistory(null, groupName, true);
+            return toMessageInfos(messages);
+        });
     }
     
     @Override
-    public synchronized MessageInfo[] getGroupHistory(String groupName, Current current) throws UserException {
+    public CompletionStage<MessagePage> getGroupHistoryPageAsync(String groupName, long beforeSeq, int limit, Current current) throws UserException {
         if (groupName == null) {
             throw new UserException("El nombre del grupo no puede estar vacío");
         }
         
-        try {
-            List<Message> messages = chatManager.getMessageHistory(groupName, true);
-            return messages.stream()
-                .map(msg -> new MessageInfo(
-                    msg.getId(),
-                    msg.getFrom(),
-                    msg.getTo(),
-                    msg.getContent(),
-                    msg.getTimestamp().getTime(),
-                    msg.isGroupMessage()
-                ))
-                .toArray(MessageInfo[]::new);
-        } catch (Exception e) {
-            throw new UserException("Error al obtener historial del grupo: " + e.getMessage());
+        return io.submit("getGroupHistoryPage", "Error al obtener página de historial del grupo", () -> {
+            HistoryPage page = chatManager.getMessageHistoryPage(null, groupName, true, beforeSeq, clampPageSize(limit));
+            return toMessagePage(page);
+        });
+    }
+    
+    // =====================================================================
+    // HISTORIAL POR FECHAS
+    // =====================================================================
+    
+    @Override
+    public CompletionStage<MessageInfo[]> getHistoryRangeAsync(String username, String target, boolean isGroup, long fromTs, long toTs, Current current) throws UserException {
+        if (target == null || (!isGroup && username == null)) {
+            throw new UserException("Faltan parámetros requeridos (username, target)");
+        }
+        
+        if (fromTs > toTs) {
+            throw new UserException("El inicio del rango no puede ser posterior al final");
+        }
+        
+        return io.submit("getHistoryRange", "Error al obtener historial por fechas", () -> {
+            // Como máximo MAX_RANGE_SIZE mensajes; para seguir, se pide desde el último timestamp recibido
+            List<Message> messages = chatManager.getMessageHistoryRange(username, target, isGroup, fromTs, toTs, MAX_RANGE_SIZE);
+            return toMessageInfos(messages);
+        });
+    }
+    
+    // =====================================================================
+    // BÚSQUEDA
+    // =====================================================================
+    
+    @Override
+    public CompletionStage<MessageInfo[]> searchMessagesAsync(String username, String query, int limit, Current current) throws UserException {
+        if (username == null || query == null || query.trim().isEmpty()) {
+            throw new UserException("Faltan parámetros requeridos (username, query)");
         }
+        
+        return io.submit("searchMessages", "Error al buscar mensajes", () -> {
+            int size = limit <= 0 ? DEFAULT_SEARCH_SIZE : Math.min(limit, MAX_SEARCH_SIZE);
+            List<Message> messages = chatManager.searchMessages(username, query, size);
+            return toMessageInfos(messages);
+        });
     }
     
     // =====================================================================
@@ -154,7 +251,7 @@ public class ChatServiceImpl implements ChatService {
     // =====================================================================
     
     @Override
-    public synchronized boolean createGroup(String groupName, String creator, String[] members, Current current) throws UserException {
+    public CompletionStage<Boolean> createGroupAsync(String groupName, String creator, String[] members, Current current) throws UserException {
         if (groupName == null || creator == null) {
             throw new UserException("Faltan parámetros requeridos (groupName, creator)");
         }
@@ -163,61 +260,75 @@ public class ChatServiceImpl implements ChatService {
             throw new UserException("El creador del grupo no está conectado");
         }
         
-        try {
-            boolean success = chatManager.createGroup(groupName, creator);
-            if (!success) {
-                throw new UserException("No se pudo crear el grupo (posiblemente ya existe)");
-            }
+        // Crear el grupo escribe en el registro de grupos: en el pool de E/S, con el candado del grupo
+        return io.submit("createGroup", "Error al crear grupo", () -> {
+            ReentrantLock lock = locks.group(groupName.trim());
+            lock.lock();
+            try {
+                boolean success = chatManager.createGroup(groupName, creator);
+                if (!success) {
+                    throw new UserException("No se pudo crear el grupo (posiblemente ya existe)");
+                }
             
-            // IMPORTANTE: El creador debe ser agregado como miembro también
-            chatManager.joinGroup(groupName, creator);
+                // IMPORTANTE: El creador debe ser agregado como miembro también
+                chatManager.joinGroup(groupName, creator);
             
-            // Agregar miembros adicionales si se proporcionaron
-            if (members != null) {
-                for (String member : members) {
-                    if (member != null && !member.isEmpty() && !member.equals(creator)) {
-                        chatManager.joinGroup(groupName, member.trim());
+                // Agregar miembros adicionales si se proporcionaron
+                if (members != null) {
+                    for (String member : members) {
+                        if (member != null && !member.isEmpty() && !member.equals(creator)) {
+                            chatManager.joinGroup(groupName, member.trim());
+                        }
                     }
                 }
-            }
             
-            System.out.println("✅ Grupo creado vía Ice: " + groupName + " por " + creator);
-            if (members != null) {
-                System.out.println("   Miembros adicionales: " + String.join(", ", members));
+                System.out.println("✅ Grupo creado vía Ice: " + groupName + " por " + creator);
+                if (members != null) {
+                    System.out.println("   Miembros adicionales: " + String.join(", ", members));
+                }
+                return true;
+            } finally {
+                // Los errores inesperados los envuelve io.submit con "Error al crear grupo"
+                lock.unlock();
             }
-            return true;
-        } catch (Exception e) {
-            throw new UserException("Error al crear grupo: " + e.getMessage());
-        }
+        });
     }
     
     @Override
-    public synchronized boolean joinGroup(String username, String groupName, Current current) throws UserException {
+    public boolean joinGroup(String username, String groupName, Current current) throws UserException {
         if (username == null || groupName == null) {
             throw new UserException("Faltan parámetros requeridos (username, groupName)");
         }
         
-        if (!chatManager.groupExists(groupName)) {
-            throw new UserException("El grupo no existe");
-        }
-        
+        ReentrantLock lock = locks.group(groupName);
+        lock.lock();
         try {
+            if (!chatManager.groupExists(groupName)) {
+                throw new UserException("El grupo no existe");
+            }
+            
             boolean success = chatManager.joinGroup(groupName, username);
             if (success) {
                 System.out.println("➕ Usuario unido al grupo vía Ice: " + username + " -> " + groupName);
             }
             return success;
+        } catch (UserException e) {
+            throw e;
         } catch (Exception e) {
             throw new UserException("Error al unirse al grupo: " + e.getMessage());
+        } finally {
+            lock.unlock();
         }
     }
     
     @Override
-    public synchronized boolean leaveGroup(String username, String groupName, Current current) throws UserException {
+    public boolean leaveGroup(String username, String groupName, Current current) throws UserException {
         if (username == null || groupName == null) {
             throw new UserException("Faltan parámetros requeridos (username, groupName)");
         }
         
+        ReentrantLock lock = locks.group(groupName);
+        lock.lock();
         try {
             boolean success = chatManager.leaveGroup(groupName, username);
             if (success) {
@@ -226,11 +337,13 @@ public class ChatServiceImpl implements ChatService {
             return success;
         } catch (Exception e) {
             throw new UserException("Error al abandonar grupo: " + e.getMessage());
+        } finally {
+            lock.unlock();
         }
     }
     
     @Override
-    public synchronized GroupInfo[] getUserGroups(String username, Current current) throws UserException {
+    public GroupInfo[] getUserGroups(String username, Current current) throws UserException {
         if (username == null) {
             throw new UserException("El nombre de usuario no puede estar vacío");
         }
@@ -260,7 +373,7 @@ public class ChatServiceImpl implements ChatService {
     }
     
     @Override
-    public synchronized String[] getGroupMembers(String groupName, Current current) throws UserException {
+    public String[] getGroupMembers(String groupName, Current current) throws UserException {
         if (groupName == null) {
             throw new UserException("El nombre del grupo no puede estar vacío");
         }
@@ -277,12 +390,48 @@ public class ChatServiceImpl implements ChatService {
         }
     }
     
+    @Override
+    public InboxEntry[] getInbox(String username, Current current) throws UserException {
+        if (username == null || username.trim().isEmpty()) {
+            throw new UserException("El nombre de usuario no puede estar vacío");
+        }
+        
+        try {
+            return chatManager.getInbox(username).stream()
+                .map(summary -> new InboxEntry(
+                    summary.getTarget(),
+                    summary.isGroup(),
+                    summary.getLastSequence(),
+                    summary.getLastTimestamp(),
+                    summary.getLastFrom(),
+                    summary.getPreview(),
+                    summary.getUnread()
+                ))
+                .toArray(InboxEntry[]::new);
+        } catch (Exception e) {
+            throw new UserException("Error al obtener la bandeja: " + e.getMessage());
+        }
+    }
+    
+    @Override
+    public boolean ackUpTo(String username, String conversation, long seq, Current current) throws UserException {
+        if (username == null || username.trim().isEmpty() || conversation == null || conversation.trim().isEmpty()) {
+            throw new UserException("Faltan parámetros requeridos (username, conversation)");
+        }
+        
+        if (seq <= 0) {
+            throw new UserException("La secuencia debe ser positiva");
+        }
+        
+        return chatManager.ackUpTo(username, conversation, seq);
+    }
+    
     // =====================================================================
     // AUDIO Y MULTIMEDIA
     // =====================================================================
     
     @Override
-    public synchronized boolean sendAudio(String from, String to, String audioId, int size, int duration, Current current) throws UserException {
+    public CompletionStage<Boolean> sendAudioAsync(String from, String to, String audioId, int size, int duration, Current current) throws UserException {
         if (from == null || to == null || audioId == null) {
             throw new UserException("Faltan parámetros requeridos (from, to, audioId)");
         }
@@ -291,18 +440,25 @@ public class ChatServiceImpl implements ChatService {
             throw new UserException("El usuario remitente no está conectado");
         }
         
-        try {
-            AudioMessage audioMsg = new AudioMessage(audioId, from, to, false, System.currentTimeMillis(), size, duration);
-            chatManager.saveAudioMessage(audioMsg);
+        // Guardar lee, comprime y reescribe el audio subido: todo en el pool de E/S, con el candado del chat
+        return io.submit("sendAudio", "Error al enviar audio", () -> {
+            CompletableFuture<Long> saved;
+            ReentrantLock lock = locks.privateChat(from, to);
+            lock.lock();
+            try {
+                AudioMessage audioMsg = new AudioMessage(audioId, from, to, false, System.currentTimeMillis(), size, duration);
+                saved = chatManager.saveAudioMessage(audioMsg);
+            } finally {
+                lock.unlock();
+            }
+            awaitSaved(saved, "Error al enviar audio");
             System.out.println("🎵 Audio privado enviado vía Ice: " + from + " -> " + to + " (" + size + " bytes)");
             return true;
-        } catch (Exception e) {
-            throw new UserException("Error al enviar audio: " + e.getMessage());
-        }
+        });
     }
     
     @Override
-    public synchronized boolean sendGroupAudio(String from, String groupName, String audioId, int size, int duration, Current current) throws UserException {
+    public CompletionStage<Boolean> sendGroupAudioAsync(String from, String groupName, String audioId, int size, int duration, Current current) throws UserException {
         if (from == null || groupName == null || audioId == null) {
             throw new UserException("Faltan parámetros requeridos (from, groupName, audioId)");
         }
@@ -315,62 +471,68 @@ public class ChatServiceImpl implements ChatService {
             throw new UserException("El usuario remitente no está conectado");
         }
         
-        try {
-            AudioMessage audioMsg = new AudioMessage(audioId, from, groupName, true, System.currentTimeMillis(), size, duration);
-            chatManager.saveAudioMessage(audioMsg);
+        // Guardar lee, comprime y reescribe el audio subido: todo en el pool de E/S, con el candado del grupo
+        return io.submit("sendGroupAudio", "Error al enviar audio de grupo", () -> {
+            CompletableFuture<Long> saved;
+            ReentrantLock lock = locks.group(groupName);
+            lock.lock();
+            try {
+                AudioMessage audioMsg = new AudioMessage(audioId, from, groupName, true, System.currentTimeMillis(), size, duration);
+                saved = chatManager.saveAudioMessage(audioMsg);
+            } finally {
+                lock.unlock();
+            }
+            awaitSaved(saved, "Error al enviar audio de grupo");
             System.out.println("🎵 Audio de grupo enviado vía Ice: " + from + " -> " + groupName + " (" + size + " bytes)");
             return true;
-        } catch (Exception e) {
-            throw new UserException("Error al enviar audio de grupo: " + e.getMessage());
-        }
+        });
     }
     
     @Override
-    public synchronized AudioInfo[] getPrivateAudioHistory(String username, String target, Current current) throws UserException {
+    public CompletionStage<AudioInfo[]> getPrivateAudioHistoryAsync(String username, String target, Current current) throws UserException {
         if (username == null || target == null) {
             throw new UserException("Faltan parámetros requeridos (username, target)");
         }
         
-        try {
-            List<AudioMessage> audioMessages = chatManager.getAudioMessageHistory(target, false);
-            return audioMessages.stream()
-                .map(msg -> new AudioInfo(
-                    msg.getId(),
-                    msg.getFrom(),
-                    msg.getTo(),
-                    msg.getTimestamp().getTime(),
-                    msg.isGroupMessage(),
-                    msg.getDuration(),
-                    msg.getAudioSize()
-                ))
-                .toArray(AudioInfo[]::new);
-        } catch (Exception e) {
-            throw new UserException("Error al obtener historial de audio: " + e.getMessage());
-        }
+        return io.submit("getPrivateAudioHistory", "Error al obtener historial de audio", () -> {
+            List<AudioMessage> audioMessages = chatManager.getAudioMessageHistory(username, target, false);
+            return toAudioInfos(audioMessages);
+        });
     }
     
     @Override
-    public synchronized AudioInfo[] getGroupAudioHistory(String groupName, Current current) throws UserException {
+    public CompletionStage<AudioInfo[]> getGroupAudioHistoryAsync(String groupName, Current current) throws UserException {
         if (groupName == null) {
             throw new UserException("El nombre del grupo no puede estar vacío");
         }
         
-        try {
-            List<AudioMessage> audioMessages = chatManager.getAudioMessageHistory(groupName, true);
-            return audioMessages.stream()
-                .map(msg -> new AudioInfo(
-                    msg.getId(),
-                    msg.getFrom(),
-                    msg.getTo(),
-                    msg.getTimestamp().getTime(),
-                    msg.isGroupMessage(),
-                    msg.getDuration(),
-                    msg.getAudioSize()
-                ))
-                .toArray(AudioInfo[]::new);
-        } catch (Exception e) {
-            throw new UserException("Error al obtener historial de audio del grupo: " + e.getMessage());
+        return io.submit("getGroupAudioHistory", "Error al obtener historial de audio del grupo", () -> {
+            List<AudioMessage> audioMessages = chatManager.getAudioMessageHistory(null, groupName, true);
+            return toAudioInfos(audioMessages);
+        });
+    }
+    
+    // Sólo lee el archivo del audio: varios clientes pueden descargar o saltar dentro de notas largas a la vez
+    @Override
+    public CompletionStage<ByteBuffer> getAudioChunkAsync(String audioId, long offset, int length, Current current) throws UserException {
+        if (audioId == null || audioId.isEmpty()) {
+            throw new UserException("El id del audio no puede estar vacío");
+        }
+        if (offset < 0 || length <= 0) {
+            throw new UserException("Tramo de audio inválido (offset=" + offset + ", length=" + length + ")");
         }
+        
+        return io.submit("getAudioChunk", "Error al leer el audio", () -> {
+            ByteBuffer chunk = chatManager.getAudioChunk(audioId, offset, length);
+            if (chunk == null) {
+                throw new UserException("Audio no encontrado: " + audioId);
+            }
+            // El buffer es del hilo del pool y la siguiente lectura lo pisa; Ice puede serializar
+            // la respuesta más tarde en su propio hilo, así que se entrega una copia
+            ByteBuffer copy = ByteBuffer.allocate(chunk.remaining());
+            copy.put(chunk).flip();
+            return copy;
+        });
     }
     
     // =====================================================================
@@ -378,7 +540,7 @@ public class ChatServiceImpl implements ChatService {
     // =====================================================================
     
     @Override
-    public synchronized String[] getOnlineUsers(Current current) throws UserException {
+    public String[] getOnlineUsers(Current current) throws UserException {
         try {
             List<String> users = chatManager.getOnlineUsers();
             return users.toArray(new String[0]);
@@ -388,7 +550,7 @@ public class ChatServiceImpl implements ChatService {
     }
     
     @Override
-    public synchronized UserInfo[] getAllUsers(Current current) throws UserException {
+    public UserInfo[] getAllUsers(Current current) throws UserException {
         try {
             List<String> onlineUsers = chatManager.getOnlineUsers();
             return onlineUsers.stream()
@@ -400,7 +562,7 @@ public class ChatServiceImpl implements ChatService {
     }
     
     @Override
-    public synchronized boolean isUserOnline(String username, Current current) throws UserException {
+    public boolean isUserOnline(String username, Current current) throws UserException {
         if (username == null) {
             throw new UserException("El nombre de usuario no puede estar vacío");
         }
@@ -417,17 +579,65 @@ public class ChatServiceImpl implements ChatService {
     // =====================================================================
     
     @Override
-    public synchronized String getServerStatus(Current current) throws UserException {
+    public String getServerStatus(Current current) throws UserException {
         try {
             int onlineUsers = chatManager.getOnlineUserCount();
             int groups = chatManager.getGroupCount();
             
             return String.format(
-                "Usuarios en línea: %d | Grupos activos: %d | Servidor funcionando correctamente",
-                onlineUsers, groups
+                "Usuarios en línea: %d | Grupos activos: %d | Caché de historial: %s | Pool de E/S: %s | Servidor funcionando correctamente",
+                onlineUsers, groups, chatManager.getHistoryCacheStats(), io
             );
         } catch (Exception e) {
             throw new UserException("Error al obtener estado del servidor: " + e.getMessage());
         }
     }
+    
+    // =====================================================================
+    // UTILIDADES
+    // =====================================================================
+    
+    private static void awaitSaved(CompletableFuture<Long> saved, String errorMessage) throws UserException {
+        try {
+            saved.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause() != null ? e.getCause() : e;
+            throw new UserException(errorMessage + ": " + cause.getMessage());
+        }
+    }
+    
+    private static int clampPageSize(int limit) {
+        if (limit <= 0) {
+            return DEFAULT_PAGE_SIZE;
+        }
+        return Math.min(limit, MAX_PAGE_SIZE);
+    }
+    
+    // Sólo metadatos: ningún audio se lee para armar el historial
+    private static AudioInfo[] toAudioInfos(List<AudioMessage> audioMessages) {
+        AudioInfo[] infos = new AudioInfo[audioMessages.size()];
+        for (int i = 0; i < infos.length; i++) {
+            AudioMessage msg = audioMessages.get(i);
+            infos[i] = new AudioInfo(msg.getId(), msg.getFrom(), msg.getTo(), msg.getTimestamp().getTime(),
+                    msg.isGroupMessage(), msg.getDuration(), msg.getAudioSize());
+        }
+        return infos;
+    }
+    
+    private static MessageInfo[] toMessageInfos(List<Message> messages) {
+        return messages.stream()
+            .map(msg -> new MessageInfo(
+                msg.getId(),
+                msg.getFrom(),
+                msg.getTo(),
+                msg.getContent(),
+                msg.getTimestamp().getTime(),
+                msg.isGroupMessage()
+            ))
+            .toArray(MessageInfo[]::new);
+    }
+    
+    private static MessagePage toMessagePage(HistoryPage page) {
+        return new MessagePage(toMessageInfos(page.getMessages()), page.getNextCursor(), page.hasMore());
+    }
 }
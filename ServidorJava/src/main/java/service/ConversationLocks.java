@@ -0,0 +1,41 @@
+package service;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Candados repartidos por conversación (lock striping): un arreglo fijo de candados y cada
+ * conversación usa el que le toca por hash. Dos chats distintos casi nunca comparten candado,
+ * así que sus escrituras avanzan en paralelo; las de un mismo chat quedan en orden.
+ *
+ * La clave de una conversación privada no depende de quién escribe (los dos nombres ordenados) y
+ * la de un grupo es su nombre, de modo que mensajes, audios y cambios de miembros de un mismo
+ * grupo comparten candado.
+ */
+class ConversationLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    ConversationLocks(int stripes) {
+        // Potencia de dos para elegir con una máscara
+        int size = Integer.highestOneBit(Math.max(1, stripes - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    ReentrantLock privateChat(String userA, String userB) {
+        return userA.compareTo(userB) <= 0 ? stripe(userA + '\0' + userB) : stripe(userB + '\0' + userA);
+    }
+
+    ReentrantLock group(String groupName) {
+        return stripe("#" + groupName);
+    }
+
+    private ReentrantLock stripe(String key) {
+        int h = key.hashCode();
+        // Mezcla los bits altos como HashMap: nombres parecidos no caen todos en el mismo candado
+        return stripes[(h ^ (h >>> 16)) & mask];
+    }
+}
@@ -0,0 +1,120 @@
+package service;
+
+import chat.UserException;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool acotado donde se completan las operaciones ["amd"] del servicio (historial, audio,
+ * creación de grupos): el hilo de despacho de Ice sólo valida, encola y vuelve, así que las
+ * llamadas baratas ({@code isUserOnline}, {@code getOnlineUsers}) no esperan detrás de lecturas
+ * de disco.
+ *
+ * La cola tiene tamaño fijo; con la cola llena la llamada falla enseguida con "servidor ocupado"
+ * en lugar de acumular trabajo sin límite. Por operación se cuentan llamadas, fallos, espera en
+ * cola y tiempo total hasta completar (promedio y máximo).
+ */
+class IoDispatcher {
+
+    /**
+     * El trabajo de una operación; puede fallar con el mismo error que devolvería al cliente.
+     */
+    interface Call<T> {
+        T call() throws Exception;
+    }
+
+    private static final class Stats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong waitNanos = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long waited, long total, boolean failed) {
+            calls.incrementAndGet();
+            if (failed) {
+                failures.incrementAndGet();
+            }
+            waitNanos.addAndGet(waited);
+            totalNanos.addAndGet(total);
+            maxNanos.accumulateAndGet(total, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            long n = Math.max(1, calls.get());
+            return String.format("%d llamadas, %d fallos, espera %.2f ms, total %.2f ms (máx %.2f ms)", calls.get(),
+                    failures.get(), waitNanos.get() / n / 1e6, totalNanos.get() / n / 1e6, maxNanos.get() / 1e6);
+        }
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicInteger peakQueued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    IoDispatcher(int threads, int queueCapacity) {
+        AtomicInteger created = new AtomicInteger();
+        int size = Math.max(1, threads);
+        this.executor = new ThreadPoolExecutor(size, size, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(Math.max(1, queueCapacity)), runnable -> {
+                    Thread thread = new Thread(runnable, "chat-io-" + created.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Encola {@code call} y devuelve el futuro que Ice completa hacia el cliente. Un
+     * {@link UserException} lanzado por la operación llega tal cual; cualquier otro error se
+     * envuelve con {@code errorMessage}.
+     */
+    <T> CompletableFuture<T> submit(String operation, String errorMessage, Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        Stats operationStats = stats.computeIfAbsent(operation, key -> new Stats());
+        long submitted = System.nanoTime();
+        peakQueued.accumulateAndGet(queued.incrementAndGet(), Math::max);
+        try {
+            executor.execute(() -> {
+                queued.decrementAndGet();
+                long started = System.nanoTime();
+                boolean failed = true;
+                try {
+                    future.complete(call.call());
+                    failed = false;
+                } catch (UserException e) {
+                    future.completeExceptionally(e);
+                } catch (Exception e) {
+                    future.completeExceptionally(new UserException(errorMessage + ": " + e.getMessage(), e));
+                } finally {
+                    operationStats.record(started - submitted, System.nanoTime() - submitted, failed);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            queued.decrementAndGet();
+            rejected.incrementAndGet();
+            future.completeExceptionally(new UserException("Servidor ocupado, intente de nuevo (" + operation + ")"));
+        }
+        return future;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(String.format("hilos=%d enCola=%d máxEnCola=%d rechazadas=%d",
+                executor.getPoolSize(), queued.get(), peakQueued.get(), rejected.get()));
+        for (Map.Entry<String, Stats> entry : new TreeMap<>(stats).entrySet()) {
+            builder.append(" | ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,187 @@
+package service;
+
+import model.Message;
+import persistence.ChatHistory;
+import persistence.Receipt;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Acuses de entrega y lectura agrupados por ventana.
+ *
+ * Un acuse es una marca de agua por (lector, conversación): "recibí/leí hasta la secuencia N",
+ * no uno por mensaje. Lo que llega dentro de una ventana de {@code windowMillis} se junta (de
+ * cada clave queda la secuencia más alta) y se aplica de una vez: los cursores se fuerzan a
+ * disco una sola vez por ventana y cada remitente afectado recibe un único aviso con el estado
+ * de todas sus conversaciones que cambiaron.
+ *
+ * En una conversación privada el aviso va al otro participante; en un grupo, al resto de los
+ * miembros.
+ */
+class ReceiptBatcher {
+    // Un mensaje que sigue sin secuencia después de esto no se escribió: su entrega se descarta
+    private static final long UNSEQUENCED_TTL_MS = 60_000;
+
+    private static final class Key {
+        final String reader;
+        final String target;
+        final boolean group;
+
+        Key(String reader, String target, boolean group) {
+            this.reader = reader;
+            this.target = target;
+            this.group = group;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key other && group == other.group && reader.equals(other.reader)
+                    && target.equals(other.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(reader, target, group);
+        }
+    }
+
+    private final ChatHistory chatHistory;
+    private final Function<String, List<String>> groupMembers;
+    private final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "receipt-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // Por clave: {entregado hasta, leído hasta}
+    private Map<Key, long[]> pending = new LinkedHashMap<>();
+    // Entregas de mensajes que el hilo de escritura todavía no numeró
+    private List<Map.Entry<Key, Message>> unsequenced = new ArrayList<>();
+    private volatile Consumer<Map<String, List<Receipt>>> listener = receipts -> { };
+    private long acks;
+    private long applied;
+    private long windows;
+    private long notices;
+
+    ReceiptBatcher(ChatHistory chatHistory, Function<String, List<String>> groupMembers, long windowMillis) {
+        this.chatHistory = chatHistory;
+        this.groupMembers = groupMembers;
+        long window = Math.max(1, windowMillis);
+        flusher.scheduleWithFixedDelay(this::flush, window, window, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Quién recibe los avisos: por destinatario, los acuses que cambiaron en la ventana.
+     */
+    void setListener(Consumer<Map<String, List<Receipt>>> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * El mensaje le llegó a {@code reader}. Puede estar todavía en la cola de escritura: la
+     * secuencia se toma al aplicar la ventana en la que ya la tenga.
+     */
+    synchronized void delivered(String reader, String target, boolean group, Message message) {
+        unsequenced.add(Map.entry(new Key(reader, target, group), message));
+        acks++;
+    }
+
+    void read(String reader, String target, boolean group, long sequence) {
+        add(new Key(reader, target, group), 0, sequence);
+    }
+
+    private synchronized void add(Key key, long delivered, long read) {
+        merge(key, delivered, read);
+        acks++;
+    }
+
+    private void merge(Key key, long delivered, long read) {
+        long[] marks = pending.computeIfAbsent(key, k -> new long[2]);
+        marks[0] = Math.max(marks[0], delivered);
+        marks[1] = Math.max(marks[1], read);
+    }
+
+    /**
+     * Aplica lo acumulado en la ventana y avisa a los remitentes.
+     */
+    void flush() {
+        Map<Key, long[]> batch;
+        synchronized (this) {
+            List<Map.Entry<Key, Message>> waiting = new ArrayList<>();
+            long now = System.currentTimeMillis();
+            for (Map.Entry<Key, Message> entry : unsequenced) {
+                long sequence = entry.getValue().getSequence();
+                if (sequence > 0) {
+                    merge(entry.getKey(), sequence, 0);
+                } else if (now - entry.getValue().getTimestamp().getTime() < UNSEQUENCED_TTL_MS) {
+                    waiting.add(entry);
+                }
+            }
+            unsequenced = waiting;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+        try {
+            Map<String, List<Receipt>> byRecipient = new HashMap<>();
+            int changed = 0;
+            for (Map.Entry<Key, long[]> entry : batch.entrySet()) {
+                Key key = entry.getKey();
+                Receipt receipt = chatHistory.acknowledge(key.reader, key.target, key.group, entry.getValue()[0],
+                        entry.getValue()[1]);
+                if (receipt == null) {
+                    continue;
+                }
+                changed++;
+                List<String> recipients = key.group ? groupMembers.apply(key.target) : List.of(key.target);
+                for (String recipient : recipients) {
+                    if (!recipient.equals(key.reader)) {
+                        byRecipient.computeIfAbsent(recipient, r -> new ArrayList<>()).add(receipt);
+                    }
+                }
+            }
+            if (changed == 0) {
+                return;
+            }
+            chatHistory.syncReceipts();
+            synchronized (this) {
+                applied += changed;
+                windows++;
+                notices += byRecipient.size();
+            }
+            listener.accept(byRecipient);
+        } catch (RuntimeException e) {
+            System.err.println("❌ Error aplicando acuses: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Aplica lo pendiente y detiene el hilo; antes de cerrar el historial.
+     */
+    void close() {
+        flusher.shutdown();
+        try {
+            flusher.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("acuses=%d aplicados=%d ventanas=%d avisos=%d pendientes=%d", acks, applied, windows,
+                notices, pending.size() + unsequenced.size());
+    }
+}
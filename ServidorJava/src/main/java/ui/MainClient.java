@@ -546,8 +546,19 @@ public class MainClient implements TCPConnectionListener, CallService.CallServic
             case "call_waiting" -> {
                 System.out.println("Esperando respuesta...");
             }
+            case "pending_delivered" ->
+                    System.out.println("\n[Sistema] " + getVal(payload, "count") + " mensajes recibidos mientras estabas desconectado.");
             case "system_message" ->
                     System.out.println("\n[Sistema] " + getVal(payload, "content"));
+            case "receipts" -> {
+                for (String item : getVal(payload, "items").split(";")) {
+                    String[] receipt = item.split("/");
+                    if (receipt.length == 4) {
+                        System.out.println("\n[Sistema] " + receipt[0] + ": " + receipt[1] + " recibió hasta #" + receipt[2]
+                                + " y leyó hasta #" + receipt[3]);
+                    }
+                }
+            }
             case "online_users" ->
                     System.out.println("Usuarios en línea: " + getVal(payload, "users"));
             case "groups_list" ->
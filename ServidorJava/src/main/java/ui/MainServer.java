@@ -2,23 +2,31 @@ package ui;
 
 import model.AudioMessage;
 import model.Message;
+import network.NioReactor;
+import network.SerialExecutor;
 import network.TCPConnection;
 import network.TCPConnectionListener;
+import network.Threads;
+import persistence.Receipt;
 import service.ChatManager;
 import service.ChatServiceImpl;
 import com.zeroc.Ice.Communicator;
 import com.zeroc.Ice.ObjectAdapter;
 import com.zeroc.Ice.Identity;
+import com.zeroc.Ice.InitializationData;
 import com.zeroc.Ice.Util;
 
 import java.io.IOException;
 import java.io.Serializable;
 import java.net.ServerSocket;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 /**
  * Servidor de chat principal - Versión híbrida con Ice y TCP
@@ -30,16 +38,47 @@ public class MainServer implements TCPConnectionListener {
     private final Map<String, TCPConnection> userConnections = new ConcurrentHashMap<>();
     private Communicator iceComm = null;
     private final ExecutorService threadPool = Executors.newFixedThreadPool(10);
+    // Hilos de despacho de Ice; el servicio ya no serializa las llamadas, así que conviene uno por núcleo
+    private static final int ICE_DISPATCH_THREADS = Integer.getInteger("chat.ice.dispatchThreads",
+            Runtime.getRuntime().availableProcessors());
+    // Lectores TCP y despacho de ChatService en hilos virtuales (--virtual-threads)
+    private final boolean virtualThreads;
+    private final ThreadFactory tcpReaders;
+    // Frente TCP: reactor NIO con pocos hilos, o un hilo por conexión (--blocking-tcp)
+    private final boolean tcpReactor;
+    // Hilos que procesan los comandos TCP; cada conexión, en orden y de a uno
+    private static final int TCP_WORKERS = Integer.getInteger("chat.tcp.workers",
+            Math.max(4, 2 * Runtime.getRuntime().availableProcessors()));
+    // Comandos de una conexión esperando turno antes de cortarla
+    private static final int TCP_MAX_QUEUED = Integer.getInteger("chat.tcp.maxQueuedCommands", 10_000);
+    private final SerialExecutor<TCPConnection> commands = new SerialExecutor<>(
+            Executors.newFixedThreadPool(TCP_WORKERS, Threads.platform("tcp-worker-")), TCP_MAX_QUEUED);
+    // Candados repartidos por destinatario: ordenan la entrega en vivo, la cola y el login
+    private final Object[] deliveryLocks = new Object[64];
 
     /**
      * Inicializa el servidor con soporte Ice y TCP
      */
-    private MainServer(int tcpPort, int icePort) {
+    private MainServer(int tcpPort, int icePort, boolean virtualThreads, boolean tcpReactor) {
+        for (int i = 0; i < deliveryLocks.length; i++) {
+            deliveryLocks[i] = new Object();
+        }
         this.chatManager = new ChatManager();
+        this.tcpReactor = tcpReactor;
+        this.virtualThreads = virtualThreads && Threads.virtualAvailable();
+        this.tcpReaders = Threads.forMode(this.virtualThreads, "tcp-reader-");
+        if (virtualThreads && !this.virtualThreads) {
+            System.err.println("⚠️ Esta JVM no tiene hilos virtuales (Java 21+): se usan hilos de plataforma");
+        }
+
+        // Escribir los mensajes todavía en cola antes de salir (Ctrl+C, SIGTERM)
+        Runtime.getRuntime().addShutdownHook(new Thread(chatManager::shutdown, "history-shutdown"));
+        chatManager.setReceiptListener(this::pushReceipts);
         
         System.out.println("╔════════════════════════════════════════╗");
         System.out.println("║    SERVIDOR DE CHAT - VERSIÓN ICE     ║");
         System.out.println("╚════════════════════════════════════════╝");
+        System.out.println("🧵 Hilos: " + (this.virtualThreads ? "virtuales" : "de plataforma"));
         
         // Iniciar servidor Ice en thread separado
         threadPool.execute(() -> initializeIceServer(icePort));
@@ -58,6 +97,8 @@ public class MainServer implements TCPConnectionListener {
     public static void main(String[] args) {
         int tcpPort = 5000;
         int icePort = 5001;
+        boolean virtualThreads = Boolean.getBoolean("chat.virtualThreads");
+        boolean tcpReactor = Boolean.parseBoolean(System.getProperty("chat.tcp.reactor", "true"));
         
         // Parsear argumentos
         for (int i = 0; i < args.length; i++) {
@@ -65,11 +106,15 @@ public class MainServer implements TCPConnectionListener {
                 tcpPort = Integer.parseInt(args[++i]);
             } else if ("--ice-port".equals(args[i]) && i + 1 < args.length) {
                 icePort = Integer.parseInt(args[++i]);
+            } else if ("--virtual-threads".equals(args[i])) {
+                virtualThreads = true;
+            } else if ("--blocking-tcp".equals(args[i])) {
+                tcpReactor = false;
             }
         }
         
         // Crear instancia
-        new MainServer(tcpPort, icePort);
+        new MainServer(tcpPort, icePort, virtualThreads, tcpReactor);
     }
 
     // =====================================================================
@@ -84,17 +129,25 @@ public class MainServer implements TCPConnectionListener {
             String[] args = new String[]{
                 "--Ice.Default.Host=0.0.0.0",
                 "--Ice.Default.Port=" + port,
-                "--Ice.Warn.Connections=1"
+                "--Ice.Warn.Connections=1",
+                "--Ice.ThreadPool.Server.Size=" + ICE_DISPATCH_THREADS,
+                "--Ice.ThreadPool.Server.SizeMax=" + ICE_DISPATCH_THREADS
             };
             
-            iceComm = Util.initialize(args);
+            InitializationData initData = new InitializationData();
+            if (virtualThreads) {
+                // Los hilos de Ice sólo leen la conexión; cada llamada se despacha en su propio hilo virtual
+                ThreadFactory dispatchThreads = Threads.virtual("ice-dispatch-");
+                initData.dispatcher = (call, connection) -> dispatchThreads.newThread(call).start();
+            }
+            iceComm = Util.initialize(args, initData);
             ObjectAdapter adapter = iceComm.createObjectAdapterWithEndpoints(
                 "ChatAdapter",
                 "default -p " + port
             );
             
             // Crear instancia del servicio
-            ChatServiceImpl chatService = new ChatServiceImpl();
+            ChatServiceImpl chatService = new ChatServiceImpl(chatManager);
             
             // Registrar objeto Ice como tipo genérico Object
             Identity id = new Identity("ChatService", "chat");
@@ -116,13 +169,17 @@ public class MainServer implements TCPConnectionListener {
      * Inicializa el servidor TCP (para backward compatibility con proxy antiguo)
      */
     private void initializeTCPServer(int port) {
+        if (tcpReactor) {
+            initializeNioServer(port);
+            return;
+        }
         System.out.println("✅ Servidor TCP iniciado en puerto " + port);
         
         try (ServerSocket serverSocket = new ServerSocket(port)) {
             System.out.println("💬 Esperando conexiones TCP en puerto " + port);
             while (true) {
                 try {
-                    new TCPConnection(serverSocket.accept(), this);
+                    new TCPConnection(serverSocket.accept(), this, tcpReaders);
                 } catch (IOException e) {
                     System.err.println("⚠️ Error al aceptar conexión: " + e.getMessage());
                 }
@@ -132,43 +189,82 @@ public class MainServer implements TCPConnectionListener {
         }
     }
 
+    /**
+     * Mismo puerto y mismos comandos, atendidos por un reactor NIO: las conexiones inactivas no
+     * ocupan hilos y los callbacks de TCPConnectionListener corren en los hilos del reactor
+     */
+    private void initializeNioServer(int port) {
+        try (NioReactor reactor = new NioReactor(this)) {
+            System.out.println("✅ Servidor TCP iniciado en puerto " + port + " (reactor NIO, "
+                    + reactor.getEventLoops() + " hilos)");
+            reactor.serve(port);
+        } catch (IOException e) {
+            throw new RuntimeException("❌ No se pudo iniciar el servidor TCP en el puerto " + port, e);
+        }
+    }
+
     // =====================================================================
     // EVENTOS DE CONEXIÓN TCP
     // =====================================================================
+    //
+    // Sin monitor del servidor: cada evento se encola en el SerialExecutor con la conexión como
+    // clave. Los comandos de una conexión (de un usuario) se procesan en orden y de a uno; los de
+    // conexiones distintas, en paralelo en los hilos tcp-worker. Lo compartido ya es seguro entre
+    // hilos (userConnections, ChatManager, el envío de cada conexión).
 
     @Override
-    public synchronized void onConnectionReady(TCPConnection connection) {
+    public void onConnectionReady(TCPConnection connection) {
         System.out.println("🔗 Nueva conexión TCP desde: " + connection.getRemoteAddress());
     }
 
     @Override
-    public synchronized void onDisconnect(TCPConnection connection) {
-        String user = findUserByConnection(connection);
-        if (user != null) {
-            userConnections.remove(user);
-            chatManager.logoutUser(user);
-            broadcastObject("type:system_message|content:El usuario " + user + " se ha desconectado.");
-            System.out.println("👋 Usuario desconectado (TCP): " + user);
-        }
+    public void onDisconnect(TCPConnection connection) {
+        // Detrás de los comandos que la conexión ya tenía en cola
+        enqueue(connection, () -> handleDisconnect(connection));
     }
 
     @Override
-    public synchronized void onReceiveObject(TCPConnection connection, java.lang.Object object) {
-        if (object instanceof String command) {
-            processCommand(connection, command.toString().trim());
-        } else if (object instanceof AudioMessage audioMessage) {
-            handleAudioMessage(audioMessage);
-        } else {
-            System.out.println("⚠️ Objeto recibido desconocido: " + object);
-        }
+    public void onReceiveObject(TCPConnection connection, java.lang.Object object) {
+        enqueue(connection, () -> {
+            if (object instanceof String command) {
+                processCommand(connection, command.toString().trim());
+            } else if (object instanceof AudioMessage audioMessage) {
+                handleAudioMessage(audioMessage);
+            } else {
+                System.out.println("⚠️ Objeto recibido desconocido: " + object);
+            }
+        });
     }
 
     @Override
-    public synchronized void onException(TCPConnection connection, java.lang.Exception e) {
+    public void onException(TCPConnection connection, java.lang.Exception e) {
         System.err.println("💥 Excepción en " + connection.getRemoteAddress() + ": " + e.getMessage());
         onDisconnect(connection);
     }
 
+    private void enqueue(TCPConnection connection, Runnable task) {
+        if (!commands.execute(connection, task)) {
+            // Cerrar vuelve a llamar a onDisconnect; para entonces la conexión ya figura cerrada
+            if (connection.isConnected()) {
+                System.err.println("⚠️ Demasiados comandos sin procesar de " + connection.getRemoteAddress()
+                        + ": se cierra la conexión");
+                connection.disconnect();
+            }
+            // La cola está llena: el cierre del usuario no puede esperar su turno
+            handleDisconnect(connection);
+        }
+    }
+
+    private void handleDisconnect(TCPConnection connection) {
+        String user = findUserByConnection(connection);
+        // remove(user, connection): si el usuario ya volvió a entrar por otra conexión, ésa sigue
+        if (user != null && userConnections.remove(user, connection)) {
+            chatManager.logoutUser(user);
+            broadcastObject("type:system_message|content:El usuario " + user + " se ha desconectado.");
+            System.out.println("👋 Usuario desconectado (TCP): " + user);
+        }
+    }
+
     // =====================================================================
     // PROCESAMIENTO DE COMANDOS TCP
     // =====================================================================
@@ -180,7 +276,7 @@ public class MainServer implements TCPConnectionListener {
 
         switch (type) {
             case "login" -> handleLogin(connection, data);
-            case "logout" -> onDisconnect(connection);
+            case "logout" -> handleDisconnect(connection);
             case "private_message" -> handlePrivateMessage(connection, data);
             case "audio" -> handleAudioMessage(connection, data);
             case "group_audio" -> handleGroupAudioMessage(connection, data);
@@ -190,6 +286,7 @@ public class MainServer implements TCPConnectionListener {
             case "get_online_users" -> handleGetOnlineUsers(connection, data);
             case "get_groups" -> handleGetGroups(connection, data);
             case "get_history" -> handleGetHistory(connection, data);
+            case "ack" -> handleAck(data);
             case "call_start" -> handleCallStart(data);
             case "call_accept" -> handleCallAccept(data);
             case "call_end" -> handleCallEnd(data);
@@ -204,8 +301,14 @@ public class MainServer implements TCPConnectionListener {
     private void handleLogin(TCPConnection connection, Map<String, String> data) {
         String username = data.get("username");
         if (username != null && chatManager.loginUser(username)) {
-            userConnections.put(username, connection);
-            sendObjectToUser(username, "type:login_success|message:Bienvenido " + username);
+            chatManager.registerForDelivery(username);
+            // Publicar la conexión y vaciar la cola con el candado del usuario: quien le escribe
+            // en el medio espera y sale después de los pendientes, no antes ni perdido en la cola
+            synchronized (deliveryLock(username)) {
+                userConnections.put(username, connection);
+                sendObjectToUser(username, "type:login_success|message:Bienvenido " + username);
+                deliverPending(username, connection);
+            }
             broadcastObject("type:system_message|content:" + username + " se ha conectado.");
             System.out.println("✅ Usuario conectado (TCP): " + username);
         } else {
@@ -225,11 +328,52 @@ public class MainServer implements TCPConnectionListener {
 
         if (from == null || to == null || content == null) return;
 
-        chatManager.saveTextMessage(new Message(from, to, content, false));
+        Message message = new Message(from, to, content, false);
+        CompletableFuture<Long> saved = chatManager.saveTextMessage(message);
 
         String msg = String.format("type:private_message|from:%s|to:%s|content:%s", from, to, content);
-        sendObjectToUser(to, msg);
-        sendObjectToUser(from, "type:message_sent|to:" + to + "|status:ok|content:" + content);
+        if (deliverToUser(to, msg)) {
+            chatManager.markDelivered(to, message);
+        }
+        // La confirmación sale cuando el mensaje está guardado según el modo de durabilidad
+        saved.whenComplete((sequence, error) -> sendObjectToUser(from, error == null
+                ? "type:message_sent|to:" + to + "|status:ok|content:" + content
+                : "type:message_sent|to:" + to + "|status:error|content:" + content));
+    }
+
+    // =====================================================================
+    // ACUSES DE LECTURA
+    // =====================================================================
+
+    // type:ack|username:u|conversation:c|seq:n — leído hasta n; el estado vuelve por pushReceipts
+    private void handleAck(Map<String, String> data) {
+        try {
+            chatManager.ackUpTo(data.get("username"), data.get("conversation"), Long.parseLong(data.get("seq")));
+        } catch (NumberFormatException e) {
+            System.out.println("⚠️ Acuse con secuencia inválida: " + data.get("seq"));
+        }
+    }
+
+    /**
+     * Un aviso por destinatario conectado con todos sus acuses de la ventana:
+     * type:receipts|count:N|items:conversación/lector/entregado/leído;... donde la conversación
+     * es el lector en las privadas y el grupo en las de grupo. Si el destinatario no está
+     * conectado se descartan: son un estado, no mensajes, y el próximo aviso trae el vigente.
+     */
+    private void pushReceipts(Map<String, List<Receipt>> byRecipient) {
+        for (Map.Entry<String, List<Receipt>> entry : byRecipient.entrySet()) {
+            StringBuilder items = new StringBuilder();
+            for (Receipt receipt : entry.getValue()) {
+                if (items.length() > 0) {
+                    items.append(';');
+                }
+                items.append(receipt.isGroup() ? receipt.getTarget() : receipt.getReader()).append('/')
+                        .append(receipt.getReader()).append('/')
+                        .append(receipt.getDelivered()).append('/')
+                        .append(receipt.getRead());
+            }
+            sendObjectToUser(entry.getKey(), "type:receipts|count:" + entry.getValue().size() + "|items:" + items);
+        }
     }
 
     // =====================================================================
@@ -247,12 +391,8 @@ public class MainServer implements TCPConnectionListener {
         }
 
         try {
-            String audioDir = "data/audio";
-            String audioFile = audioDir + "/" + audioId + ".audio";
-            
-            java.io.File file = new java.io.File(audioFile);
-            if (!file.exists()) {
-                System.err.println("❌ Archivo de audio no encontrado: " + audioFile);
+            if (!chatManager.audioExists(audioId)) {
+                System.err.println("❌ Archivo de audio no encontrado: " + audioId);
                 connection.sendObject("type:error|message:Archivo de audio no encontrado");
                 return;
             }
@@ -260,7 +400,7 @@ public class MainServer implements TCPConnectionListener {
             System.out.println("🎵 Audio privado procesado: " + from + " -> " + to);
             
             String notification = String.format("type:audio|from:%s|to:%s|audio_id:%s", from, to, audioId);
-            sendObjectToUser(to, notification);
+            deliverToUser(to, notification);
             
             String response = String.format("type:audio|from:%s|to:%s|audio_id:%s|status:sent", from, to, audioId);
             connection.sendObject(response);
@@ -293,12 +433,8 @@ public class MainServer implements TCPConnectionListener {
         }
 
         try {
-            String audioDir = "data/audio";
-            String audioFile = audioDir + "/" + audioId + ".audio";
-            
-            java.io.File file = new java.io.File(audioFile);
-            if (!file.exists()) {
-                System.err.println("❌ Archivo de audio de grupo no encontrado: " + audioFile);
+            if (!chatManager.audioExists(audioId)) {
+                System.err.println("❌ Archivo de audio de grupo no encontrado: " + audioId);
                 connection.sendObject("type:error|message:Archivo de audio no encontrado");
                 return;
             }
@@ -308,7 +444,7 @@ public class MainServer implements TCPConnectionListener {
             String notification = String.format("type:group_audio|from:%s|group:%s|audio_id:%s", from, groupName, audioId);
             for (String member : members) {
                 if (!member.equals(from)) {
-                    sendObjectToUser(member, notification);
+                    deliverToUser(member, notification);
                 }
             }
             
@@ -358,7 +494,7 @@ public class MainServer implements TCPConnectionListener {
             );
             
             for (String member : allMembers) {
-                sendObjectToUser(member, notificationMsg);
+                deliverToUser(member, notificationMsg);
             }
             
             System.out.println("✅ Grupo creado (TCP): " + groupName);
@@ -403,7 +539,7 @@ public class MainServer implements TCPConnectionListener {
         if (target == null || username == null) return;
         
         boolean isGroup = "true".equalsIgnoreCase(isGroupStr);
-        var messages = chatManager.getMessageHistory(target, isGroup);
+        var messages = chatManager.getMessageHistory(username, target, isGroup);
         
         StringBuilder historyStr = new StringBuilder();
         for (Message msg : messages) {
@@ -484,7 +620,7 @@ public class MainServer implements TCPConnectionListener {
         String to = audioMessage.getTo();
         
         chatManager.saveAudioMessage(audioMessage);
-        sendObjectToUser(to, audioMessage);
+        deliverToUser(to, audioMessage);
         System.out.println("🎵 Mensaje de audio (TCP): " + from + " → " + to);
     }
 
@@ -500,15 +636,18 @@ public class MainServer implements TCPConnectionListener {
         if (from == null || groupName == null || content == null) return;
 
         if (chatManager.groupExists(groupName)) {
-            chatManager.saveTextMessage(new Message(from, groupName, content, true));
+            Message message = new Message(from, groupName, content, true);
+            CompletableFuture<Long> saved = chatManager.saveTextMessage(message);
             
             String msg = String.format("type:group_message|from:%s|group:%s|content:%s", from, groupName, content);
             for (String member : chatManager.getGroupMembers(groupName)) {
-                if (!member.equals(from)) {
-                    sendObjectToUser(member, msg);
+                if (!member.equals(from) && deliverToUser(member, msg)) {
+                    chatManager.markDelivered(member, message);
                 }
             }
-            sendObjectToUser(from, "type:message_sent|group:" + groupName + "|status:ok|content:" + content);
+            saved.whenComplete((sequence, error) -> sendObjectToUser(from, error == null
+                    ? "type:message_sent|group:" + groupName + "|status:ok|content:" + content
+                    : "type:message_sent|group:" + groupName + "|status:error|content:" + content));
         }
     }
 
@@ -523,6 +662,38 @@ public class MainServer implements TCPConnectionListener {
         }
     }
 
+    /**
+     * Como {@link #sendObjectToUser}, pero si el usuario no está conectado lo deja en su cola de
+     * entrega en vez de descartarlo. Para mensajes, audios y avisos de grupo; lo efímero
+     * (llamadas, listas, confirmaciones) sigue por sendObjectToUser. Devuelve true si salió por
+     * la conexión y false si quedó en la cola.
+     */
+    private boolean deliverToUser(String username, Serializable object) {
+        synchronized (deliveryLock(username)) {
+            TCPConnection conn = userConnections.get(username);
+            if (conn != null && conn.isConnected()) {
+                conn.sendObject(object);
+                return true;
+            }
+            chatManager.queueForDelivery(username, object);
+            return false;
+        }
+    }
+
+    private Object deliveryLock(String username) {
+        int h = username.hashCode();
+        return deliveryLocks[(h ^ (h >>> 16)) & (deliveryLocks.length - 1)];
+    }
+
+    // Sólo lo que está después del cursor del usuario, en lotes con un flush por lote
+    private void deliverPending(String username, TCPConnection connection) {
+        int delivered = chatManager.deliverPending(username, connection::sendObjects);
+        if (delivered > 0) {
+            connection.sendObject("type:pending_delivered|count:" + delivered);
+            System.out.println("📬 Pendientes entregados a " + username + ": " + delivered);
+        }
+    }
+
     private void broadcastObject(java.lang.Object object) {
         for (TCPConnection conn : userConnections.values()) {
             if (conn.isConnected()) {
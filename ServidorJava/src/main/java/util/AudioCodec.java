@@ -0,0 +1,339 @@
+package util;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Compresión de notas de voz en Java puro: G.711 µ-law (2:1) e IMA ADPCM (4:1) sobre PCM de
+ * 16 bits.
+ *
+ * El resultado sigue siendo un WAV estándar y el formato va en la etiqueta de su bloque "fmt "
+ * (7 = µ-law, 0x11 = IMA ADPCM con bloques de 256 bytes, como los escribe Windows), así que
+ * cualquier reproductor que conozca esos formatos lo abre sin este código. Lo que no es un WAV
+ * PCM de 16 bits (webm u ogg del navegador, un WAV ya comprimido) se deja como está.
+ */
+public final class AudioCodec {
+
+    public enum Format {
+        PCM16, ULAW, IMA_ADPCM, OTHER;
+
+        /**
+         * "adpcm", "ulaw" o "none" (sin compresión), como en chat.audio.uploadCodec.
+         */
+        public static Format parse(String name) {
+            return switch (name.trim().toLowerCase()) {
+                case "adpcm", "ima-adpcm" -> IMA_ADPCM;
+                case "ulaw", "mulaw", "µ-law" -> ULAW;
+                case "none", "pcm" -> PCM16;
+                default -> throw new IllegalArgumentException("Códec de audio desconocido: " + name);
+            };
+        }
+    }
+
+    private static final int TAG_PCM = 1;
+    private static final int TAG_ULAW = 7;
+    private static final int TAG_IMA_ADPCM = 0x11;
+    // Bloque ADPCM mono: 4 bytes de cabecera (muestra inicial e índice) y 252 bytes de nibbles
+    private static final int ADPCM_BLOCK_BYTES = 256;
+    private static final int ADPCM_SAMPLES_PER_BLOCK = (ADPCM_BLOCK_BYTES - 4) * 2 + 1;
+
+    private static final int[] INDEX_TABLE = {-1, -1, -1, -1, 2, 4, 6, 8, -1, -1, -1, -1, 2, 4, 6, 8};
+    private static final int[] STEP_TABLE = {
+            7, 8, 9, 10, 11, 12, 13, 14, 16, 17, 19, 21, 23, 25, 28, 31, 34, 37, 41, 45, 50, 55, 60, 66, 73, 80,
+            88, 97, 107, 118, 130, 143, 157, 173, 190, 209, 230, 253, 279, 307, 337, 371, 408, 449, 494, 544,
+            598, 658, 724, 796, 876, 963, 1060, 1166, 1282, 1411, 1552, 1707, 1878, 2066, 2272, 2499, 2749,
+            3024, 3327, 3660, 4026, 4428, 4871, 5358, 5894, 6484, 7132, 7845, 8630, 9493, 10442, 11487, 12635,
+            13899, 15289, 16818, 18500, 20350, 22385, 24623, 27086, 29794, 32767};
+
+    private static final int ULAW_BIAS = 0x84;
+    private static final int ULAW_CLIP = 32635;
+    private static final short[] ULAW_DECODE = new short[256];
+
+    static {
+        for (int i = 0; i < 256; i++) {
+            int u = ~i & 0xFF;
+            int exponent = (u >> 4) & 0x07;
+            int sample = ((((u & 0x0F) << 3) + ULAW_BIAS) << exponent) - ULAW_BIAS;
+            ULAW_DECODE[i] = (short) ((u & 0x80) != 0 ? -sample : sample);
+        }
+    }
+
+    private AudioCodec() {
+    }
+
+    /**
+     * Si los primeros 12 bytes son la cabecera RIFF/WAVE.
+     */
+    public static boolean isWav(byte[] header) {
+        return header != null && header.length >= 12 && Wav.tag(header, 0, "RIFF") && Wav.tag(header, 8, "WAVE");
+    }
+
+    /**
+     * Formato de un audio según su cabecera WAV; OTHER si no es un WAV conocido.
+     */
+    public static Format formatOf(byte[] audio) {
+        Wav wav = Wav.parse(audio);
+        if (wav == null) {
+            return Format.OTHER;
+        }
+        return switch (wav.tag) {
+            case TAG_PCM -> wav.bits == 16 ? Format.PCM16 : Format.OTHER;
+            case TAG_ULAW -> Format.ULAW;
+            case TAG_IMA_ADPCM -> Format.IMA_ADPCM;
+            default -> Format.OTHER;
+        };
+    }
+
+    /**
+     * Comprime un WAV PCM de 16 bits al formato pedido. Cualquier otra entrada, o {@code target}
+     * PCM16, devuelve el mismo arreglo. IMA ADPCM es sólo mono; en estéreo se usa µ-law.
+     */
+    public static byte[] encode(byte[] audio, Format target) {
+        if (target != Format.ULAW && target != Format.IMA_ADPCM) {
+            return audio;
+        }
+        Wav wav = Wav.parse(audio);
+        if (wav == null || wav.tag != TAG_PCM || wav.bits != 16) {
+            return audio;
+        }
+        ByteBuffer pcm = ByteBuffer.wrap(audio, wav.dataOffset, wav.dataLength).order(ByteOrder.LITTLE_ENDIAN);
+        int samples = wav.dataLength / 2;
+        if (target == Format.IMA_ADPCM && wav.channels == 1) {
+            return encodeAdpcm(pcm, samples, wav.sampleRate);
+        }
+        byte[] data = new byte[samples];
+        for (int i = 0; i < samples; i++) {
+            data[i] = encodeUlaw(pcm.getShort());
+        }
+        return Wav.write(TAG_ULAW, wav.channels, wav.sampleRate, wav.sampleRate * wav.channels, wav.channels, 8,
+                null, -1, data);
+    }
+
+    /**
+     * Envuelve muestras PCM de 16 bits little-endian, sin cabecera, en un WAV.
+     */
+    public static byte[] wrapPcm16(byte[] pcm, int sampleRate, int channels) {
+        return Wav.write(TAG_PCM, channels, sampleRate, sampleRate * channels * 2, channels * 2, 16, null, -1, pcm);
+    }
+
+    /**
+     * WAV PCM de 16 bits a partir de un audio comprimido con {@link #encode}; cualquier otra
+     * entrada se devuelve sin cambios.
+     */
+    public static byte[] decode(byte[] audio) {
+        Wav wav = Wav.parse(audio);
+        if (wav == null || (wav.tag != TAG_ULAW && wav.tag != TAG_IMA_ADPCM)) {
+            return audio;
+        }
+        ByteBuffer pcm;
+        if (wav.tag == TAG_ULAW) {
+            pcm = ByteBuffer.allocate(wav.dataLength * 2).order(ByteOrder.LITTLE_ENDIAN);
+            for (int i = 0; i < wav.dataLength; i++) {
+                pcm.putShort(ULAW_DECODE[audio[wav.dataOffset + i] & 0xFF]);
+            }
+        } else {
+            pcm = decodeAdpcm(audio, wav);
+        }
+        return Wav.write(TAG_PCM, wav.channels, wav.sampleRate, wav.sampleRate * wav.channels * 2,
+                wav.channels * 2, 16, null, -1, pcm.array());
+    }
+
+    static byte encodeUlaw(short value) {
+        int sample = value;
+        int sign = (sample >> 8) & 0x80;
+        if (sign != 0) {
+            sample = -sample;
+        }
+        sample = Math.min(sample, ULAW_CLIP) + ULAW_BIAS;
+        int exponent = 7;
+        for (int mask = 0x4000; (sample & mask) == 0 && exponent > 0; mask >>= 1) {
+            exponent--;
+        }
+        int mantissa = (sample >> (exponent + 3)) & 0x0F;
+        return (byte) ~(sign | (exponent << 4) | mantissa);
+    }
+
+    private static byte[] encodeAdpcm(ByteBuffer pcm, int samples, int sampleRate) {
+        int blocks = (samples + ADPCM_SAMPLES_PER_BLOCK - 1) / ADPCM_SAMPLES_PER_BLOCK;
+        byte[] data = new byte[blocks * ADPCM_BLOCK_BYTES];
+        int index = 0;
+        int out = 0;
+        for (int block = 0; block < blocks; block++) {
+            // La primera muestra del bloque va entera en la cabecera y reinicia el predictor
+            int predictor = pcm.getShort();
+            data[out++] = (byte) predictor;
+            data[out++] = (byte) (predictor >> 8);
+            data[out++] = (byte) index;
+            data[out++] = 0;
+            int remaining = Math.min(ADPCM_SAMPLES_PER_BLOCK, samples - block * ADPCM_SAMPLES_PER_BLOCK) - 1;
+            for (int i = 0; i < ADPCM_SAMPLES_PER_BLOCK - 1; i += 2) {
+                int packed = 0;
+                for (int n = 0; n < 2; n++) {
+                    // El final del último bloque se rellena con silencio; "fact" dice cuántas muestras son reales
+                    int sample = i + n < remaining ? pcm.getShort() : predictor;
+                    int diff = sample - predictor;
+                    int nibble = 0;
+                    if (diff < 0) {
+                        nibble = 8;
+                        diff = -diff;
+                    }
+                    int step = STEP_TABLE[index];
+                    int delta = step >> 3;
+                    if (diff >= step) {
+                        nibble |= 4;
+                        diff -= step;
+                        delta += step;
+                    }
+                    step >>= 1;
+                    if (diff >= step) {
+                        nibble |= 2;
+                        diff -= step;
+                        delta += step;
+                    }
+                    step >>= 1;
+                    if (diff >= step) {
+                        nibble |= 1;
+                        delta += step;
+                    }
+                    predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+                    index = Math.max(0, Math.min(88, index + INDEX_TABLE[nibble]));
+                    packed |= nibble << (4 * n);
+                }
+                data[out++] = (byte) packed;
+            }
+        }
+        byte[] extra = {(byte) ADPCM_SAMPLES_PER_BLOCK, (byte) (ADPCM_SAMPLES_PER_BLOCK >> 8)};
+        int byteRate = sampleRate * ADPCM_BLOCK_BYTES / ADPCM_SAMPLES_PER_BLOCK;
+        return Wav.write(TAG_IMA_ADPCM, 1, sampleRate, byteRate, ADPCM_BLOCK_BYTES, 4, extra, samples, data);
+    }
+
+    private static ByteBuffer decodeAdpcm(byte[] audio, Wav wav) {
+        int blockBytes = wav.blockAlign;
+        int perBlock = (blockBytes - 4 * wav.channels) * 2 / wav.channels + 1;
+        int blocks = wav.dataLength / blockBytes;
+        int samples = (int) Math.min(blocks * (long) perBlock, wav.factSamples >= 0 ? wav.factSamples : Long.MAX_VALUE);
+        ByteBuffer pcm = ByteBuffer.allocate(samples * 2).order(ByteOrder.LITTLE_ENDIAN);
+        if (wav.channels != 1) {
+            return pcm; // sólo se escribe ADPCM mono
+        }
+        int written = 0;
+        for (int block = 0; block < blocks && written < samples; block++) {
+            int at = wav.dataOffset + block * blockBytes;
+            int predictor = (short) ((audio[at] & 0xFF) | (audio[at + 1] << 8));
+            int index = Math.max(0, Math.min(88, audio[at + 2]));
+            pcm.putShort((short) predictor);
+            written++;
+            for (int i = 4; i < blockBytes && written < samples; i++) {
+                int packed = audio[at + i] & 0xFF;
+                for (int n = 0; n < 2 && written < samples; n++) {
+                    int nibble = n == 0 ? packed & 0x0F : packed >> 4;
+                    int step = STEP_TABLE[index];
+                    int delta = step >> 3;
+                    if ((nibble & 4) != 0) delta += step;
+                    if ((nibble & 2) != 0) delta += step >> 1;
+                    if ((nibble & 1) != 0) delta += step >> 2;
+                    predictor = clamp((nibble & 8) != 0 ? predictor - delta : predictor + delta);
+                    index = Math.max(0, Math.min(88, index + INDEX_TABLE[nibble]));
+                    pcm.putShort((short) predictor);
+                    written++;
+                }
+            }
+        }
+        return pcm;
+    }
+
+    private static int clamp(int sample) {
+        return Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, sample));
+    }
+
+    /**
+     * Lo mínimo de un WAV: el bloque "fmt ", el "fact" si está y dónde empiezan los datos.
+     */
+    private static final class Wav {
+        int tag;
+        int channels;
+        int sampleRate;
+        int blockAlign;
+        int bits;
+        long factSamples = -1;
+        int dataOffset = -1;
+        int dataLength;
+
+        static Wav parse(byte[] audio) {
+            if (audio == null || audio.length < 12 || !tag(audio, 0, "RIFF") || !tag(audio, 8, "WAVE")) {
+                return null;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(audio).order(ByteOrder.LITTLE_ENDIAN);
+            Wav wav = new Wav();
+            int at = 12;
+            boolean hasFormat = false;
+            while (at + 8 <= audio.length) {
+                int size = buffer.getInt(at + 4);
+                int body = at + 8;
+                if (tag(audio, at, "data")) {
+                    wav.dataOffset = body;
+                    // Java Sound deja el tamaño en -1 o más grande que el archivo al escribir por stream
+                    wav.dataLength = size < 0 ? audio.length - body : Math.min(size, audio.length - body);
+                    break;
+                }
+                if (size < 0) {
+                    return null;
+                }
+                if (tag(audio, at, "fmt ") && size >= 16 && body + 16 <= audio.length) {
+                    wav.tag = buffer.getShort(body) & 0xFFFF;
+                    wav.channels = buffer.getShort(body + 2);
+                    wav.sampleRate = buffer.getInt(body + 4);
+                    wav.blockAlign = buffer.getShort(body + 12);
+                    wav.bits = buffer.getShort(body + 14);
+                    hasFormat = true;
+                } else if (tag(audio, at, "fact") && size >= 4 && body + 4 <= audio.length) {
+                    wav.factSamples = buffer.getInt(body) & 0xFFFFFFFFL;
+                }
+                at = body + size + (size & 1);
+            }
+            if (!hasFormat || wav.dataOffset < 0 || wav.channels <= 0 || wav.blockAlign <= 0) {
+                return null;
+            }
+            return wav;
+        }
+
+        static byte[] write(int tag, int channels, int sampleRate, int byteRate, int blockAlign, int bits,
+                            byte[] extra, long factSamples, byte[] data) {
+            int fmtSize = 16 + (extra != null ? 2 + extra.length : 0);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length + 64);
+            ByteBuffer header = ByteBuffer.allocate(12 + 8 + fmtSize + (factSamples >= 0 ? 12 : 0) + 8)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            int padding = data.length & 1;
+            header.put("RIFF".getBytes(StandardCharsets.US_ASCII))
+                    .putInt(header.capacity() - 8 + data.length + padding)
+                    .put("WAVE".getBytes(StandardCharsets.US_ASCII))
+                    .put("fmt ".getBytes(StandardCharsets.US_ASCII)).putInt(fmtSize)
+                    .putShort((short) tag).putShort((short) channels).putInt(sampleRate).putInt(byteRate)
+                    .putShort((short) blockAlign).putShort((short) bits);
+            if (extra != null) {
+                header.putShort((short) extra.length).put(extra);
+            }
+            if (factSamples >= 0) {
+                header.put("fact".getBytes(StandardCharsets.US_ASCII)).putInt(4).putInt((int) factSamples);
+            }
+            header.put("data".getBytes(StandardCharsets.US_ASCII)).putInt(data.length);
+            out.write(header.array(), 0, header.capacity());
+            out.write(data, 0, data.length);
+            if (padding != 0) {
+                out.write(0);
+            }
+            return out.toByteArray();
+        }
+
+        private static boolean tag(byte[] audio, int at, String tag) {
+            for (int i = 0; i < 4; i++) {
+                if (audio[at + i] != tag.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}